@@ -27,6 +27,8 @@ import java.awt.geom.Rectangle2D;
 
 import javax.swing.AbstractAction;
 
+import y.base.GraphEvent;
+import y.base.GraphListener;
 import y.base.Node;
 import y.base.NodeCursor;
 import y.base.NodeList;
@@ -65,6 +67,53 @@ public class CollapseGroupNodesViewMode extends ViewMode {
 
   HierarchyManager hierarchy;
 
+  /**
+   * Index of all group and folder nodes of {@link #indexedGraph}, to find
+   * the state label at a point without testing all graph elements.
+   * Rebuilt on demand after structural changes (see {@link #invalidateStateLabelIndex()}).
+   * Moved nodes are updated (see {@link #nodesMoved(NodeCursor)}).
+   */
+  private NodeGridIndex stateLabelIndex = null;
+
+  /**
+   * Index of all normal nodes of {@link #indexedGraph}, to find nodes
+   * in front of a state label.
+   */
+  private NodeGridIndex normalNodeIndex = null;
+
+  /**
+   * The graph of the {@link #stateLabelIndex}.
+   */
+  private Graph2D indexedGraph = null;
+
+  /**
+   * Maximum distance between the center of an indexed node and any
+   * point of its state label.
+   */
+  private double stateLabelReach = 0;
+
+  /**
+   * Maximum distance between the center of a normal node and any
+   * point of the node.
+   */
+  private double normalNodeReach = 0;
+
+  /**
+   * Has the mouse been dragged since it has been pressed (i.e., other view
+   * modes might have moved or resized the selected nodes)?
+   */
+  private boolean dragged = false;
+
+  /**
+   * Invalidates the {@link #stateLabelIndex} on structural changes.
+   */
+  private final GraphListener indexInvalidator = new GraphListener() {
+    @Override
+    public void onGraphEvent(GraphEvent e) {
+      invalidateStateLabelIndex();
+    }
+  };
+
   public CollapseGroupNodesViewMode(Graph2D graph) {
     super();
     this.graph = graph;
@@ -85,32 +134,210 @@ public class CollapseGroupNodesViewMode extends ViewMode {
       //        navigateToParentGraph();
       //      }
     } else {
-      Node v = getHitInfo(e).getHitNode();
-      if (v != null && !hierarchy.isNormalNode(v)) {
-        double x = translateX(e.getX());
-        double y = translateY(e.getY());
-        Graph2D graph = view.getGraph2D();
-        NodeRealizer r = graph.getRealizer(v);
-        GroupNodeRealizer gnr = null;
-        if (r instanceof GroupNodeRealizer) {
-          gnr = (GroupNodeRealizer) r;
-        } else if (r instanceof ProxyShapeNodeRealizer
-            && ((ProxyShapeNodeRealizer) r).getRealizerDelegate() instanceof GroupNodeRealizer) {
-          gnr = (GroupNodeRealizer) ((ProxyShapeNodeRealizer) r)
-              .getRealizerDelegate();
+      double x = translateX(e.getX());
+      double y = translateY(e.getY());
+      Node v = getStateLabelNode(x, y);
+      // Ignore normal nodes in front of the state label
+      if (v != null && !isNormalNodeAt(x, y)) {
+        if (hierarchy.isFolderNode(v)) {
+          openFolder(v);
+        } else {
+          closeGroup(v);
         }
-        if (gnr != null) {
-          NodeLabel handle = gnr.getStateLabel();
-          if (handle.getBox().contains(x, y)) {
-            if (hierarchy.isFolderNode(v)) {
-              openFolder(v);
-            } else {
-              closeGroup(v);
-            }
-          }
+      }
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see y.view.ViewMode#mouseDragged(java.awt.event.MouseEvent)
+   */
+  @Override
+  public void mouseDragged(MouseEvent e) {
+    // Other view modes may move or resize the selected nodes
+    dragged = true;
+    super.mouseDragged(e);
+  }
+
+  /* (non-Javadoc)
+   * @see y.view.ViewMode#mouseReleased(java.awt.event.MouseEvent)
+   */
+  @Override
+  public void mouseReleased(MouseEvent e) {
+    if (dragged) {
+      dragged = false;
+      if (view != null) {
+        nodesMoved(view.getGraph2D().selectedNodes());
+      }
+    }
+    super.mouseReleased(e);
+  }
+
+  /**
+   * @param graph
+   * @param v
+   * @return the {@link GroupNodeRealizer} of {@code v} or {@code null}
+   * if {@code v} is no group or folder node.
+   */
+  private static GroupNodeRealizer getGroupNodeRealizer(Graph2D graph, Node v) {
+    NodeRealizer r = graph.getRealizer(v);
+    if (r instanceof GroupNodeRealizer) {
+      return (GroupNodeRealizer) r;
+    } else if (r instanceof ProxyShapeNodeRealizer
+        && ((ProxyShapeNodeRealizer) r).getRealizerDelegate() instanceof GroupNodeRealizer) {
+      return (GroupNodeRealizer) ((ProxyShapeNodeRealizer) r)
+          .getRealizerDelegate();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the group or folder node whose state label contains the given
+   * point. If several labels contain the point, the innermost group wins.
+   * Candidates of the index are checked against the current position of
+   * their state labels.
+   * @param x
+   * @param y
+   * @return the node or {@code null}.
+   */
+  protected Node getStateLabelNode(double x, double y) {
+    Graph2D graph = view.getGraph2D();
+    if (stateLabelIndex == null || indexedGraph != graph) {
+      createStateLabelIndex(graph);
+    }
+    return findStateLabelNode(graph, x, y);
+  }
+
+  /**
+   * Must be called after {@link #getStateLabelNode(double, double)}.
+   * @param x
+   * @param y
+   * @return true if a normal node contains the given point.
+   */
+  private boolean isNormalNodeAt(double x, double y) {
+    for (Node v : normalNodeIndex.getNodesInRange(x, y, normalNodeReach)) {
+      if (indexedGraph.getRealizer(v).contains(x, y)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param graph
+   * @param x
+   * @param y
+   * @return the innermost node of the {@link #stateLabelIndex}, whose
+   * state label contains the given point, or {@code null}.
+   */
+  private Node findStateLabelNode(Graph2D graph, double x, double y) {
+    Node hit = null;
+    for (Node v : stateLabelIndex.getNodesInRange(x, y, stateLabelReach)) {
+      GroupNodeRealizer gnr = getGroupNodeRealizer(graph, v);
+      if (gnr != null && gnr.getStateLabel().getBox().contains(x, y)) {
+        // Top level groups have depth 0
+        if (hit == null || hierarchy.getLocalGroupDepth(v) > hierarchy.getLocalGroupDepth(hit)) {
+          hit = v;
         }
       }
     }
+    return hit;
+  }
+
+  /**
+   * Indexes the state labels of all group and folder nodes and all
+   * normal nodes in {@code graph}.
+   * @param graph
+   */
+  private void createStateLabelIndex(Graph2D graph) {
+    if (indexedGraph != null) {
+      indexedGraph.removeGraphListener(indexInvalidator);
+    }
+    NodeList groups = new NodeList();
+    NodeList normalNodes = new NodeList();
+    stateLabelReach = 0;
+    normalNodeReach = 0;
+    for (NodeCursor nc = graph.nodes(); nc.ok(); nc.next()) {
+      Node v = nc.node();
+      GroupNodeRealizer gnr = hierarchy.isNormalNode(v) ? null : getGroupNodeRealizer(graph, v);
+      if (gnr == null) {
+        normalNodes.add(v);
+      } else {
+        groups.add(v);
+      }
+      updateReach(graph, v);
+    }
+    stateLabelIndex = new NodeGridIndex(graph, Math.max(stateLabelReach, 1), groups);
+    normalNodeIndex = new NodeGridIndex(graph, Math.max(normalNodeReach, 1), normalNodes);
+    indexedGraph = graph;
+    graph.addGraphListener(indexInvalidator);
+  }
+
+  /**
+   * Extends {@link #stateLabelReach} or {@link #normalNodeReach} to
+   * the current size of {@code v}.
+   * @param graph
+   * @param v
+   */
+  private void updateReach(Graph2D graph, Node v) {
+    GroupNodeRealizer gnr = hierarchy.isNormalNode(v) ? null : getGroupNodeRealizer(graph, v);
+    if (gnr == null) {
+      NodeRealizer nr = graph.getRealizer(v);
+      normalNodeReach = Math.max(normalNodeReach, Math.max(nr.getWidth(), nr.getHeight()) / 2);
+      return;
+    }
+    NodeLabel handle = gnr.getStateLabel();
+    double x = handle.getBox().getX() - gnr.getCenterX();
+    double y = handle.getBox().getY() - gnr.getCenterY();
+    stateLabelReach = Math.max(stateLabelReach, Math.max(Math.abs(x), Math.abs(x + handle.getBox().getWidth())));
+    stateLabelReach = Math.max(stateLabelReach, Math.max(Math.abs(y), Math.abs(y + handle.getBox().getHeight())));
+  }
+
+  /**
+   * Updates the index of state labels after the given nodes have been
+   * moved or resized. Children of group nodes are updated too, as well
+   * as all enclosing groups, whose bounds follow their content. Called
+   * after the mouse has moved the selection. Must be called if nodes
+   * are moved programmatically, unless the whole graph has changed (see
+   * {@link #invalidateStateLabelIndex()}).
+   * @param nodes
+   */
+  public void nodesMoved(NodeCursor nodes) {
+    if (stateLabelIndex == null) {
+      return;
+    }
+    NodeList queue = new NodeList(nodes);
+    while (!queue.isEmpty()) {
+      Node v = queue.popNode();
+      if (v.getGraph() != indexedGraph) {
+        continue;
+      }
+      updateNode(v);
+      if (hierarchy.isGroupNode(v)) {
+        queue.addAll(new NodeList(hierarchy.getChildren(v)));
+      }
+      for (Node p = hierarchy.getParentNode(v); p != null; p = hierarchy.getParentNode(p)) {
+        updateNode(p);
+      }
+    }
+  }
+
+  /**
+   * Updates {@code v} in the index it belongs to.
+   * @param v
+   */
+  private void updateNode(Node v) {
+    if (stateLabelIndex.update(v) || normalNodeIndex.update(v)) {
+      updateReach(indexedGraph, v);
+    }
+  }
+
+  /**
+   * Forces the index of state labels to be rebuilt before the next
+   * click. Must be called if many nodes have been moved or resized
+   * programmatically, e.g., by a layout.
+   */
+  public void invalidateStateLabelIndex() {
+    stateLabelIndex = null;
   }
 
   //////////////////////////////////////////////////////////////////////////////
@@ -167,26 +394,7 @@ public class CollapseGroupNodesViewMode extends ViewMode {
       folderNodes.add(folderNode);
     }
 
-    graph.firePreEvent();
-
-    NodeStateChangeHandler stateChangeHandler = new NodeStateChangeEdgeRouter();
-
-    for (NodeCursor nc = folderNodes.nodes(); nc.ok(); nc.next()) {
-      //get original location of folder node
-      Graph2D innerGraph = (Graph2D) hierarchy.getInnerGraph(nc.node());
-      YPoint folderP = graph.getLocation(nc.node());
-      NodeList innerNodes = new NodeList(innerGraph.nodes());
-      stateChangeHandler.preNodeStateChange(nc.node());
-      hierarchy.openFolder(nc.node());
-
-      //get new location of group node
-      Rectangle2D.Double gBox = graph.getRealizer(nc.node()).getBoundingBox();
-      //move grouped nodes to former location of folder node
-      LayoutTool.moveSubgraph(graph, innerNodes.nodes(), folderP.x - gBox.x,
-        folderP.y - gBox.y);
-      stateChangeHandler.postNodeStateChange(nc.node());
-    }
-    graph.firePostEvent();
+    openFolders(graph, folderNodes);
 
     graph.unselectAll();
     for (NodeCursor nc = folderNodes.nodes(); nc.ok(); nc.next()) {
@@ -216,14 +424,7 @@ public class CollapseGroupNodesViewMode extends ViewMode {
       groupNodes.add(groupNode);
     }
 
-    graph.firePreEvent();
-    NodeStateChangeHandler stateChangeHandler = new NodeStateChangeEdgeRouter();
-    for (NodeCursor nc = groupNodes.nodes(); nc.ok(); nc.next()) {
-      stateChangeHandler.preNodeStateChange(nc.node());
-      hierarchy.closeGroup(nc.node());
-      stateChangeHandler.postNodeStateChange(nc.node());
-    }
-    graph.firePostEvent();
+    closeGroups(graph, groupNodes);
 
     graph.unselectAll();
     for (NodeCursor nc = groupNodes.nodes(); nc.ok(); nc.next()) {
@@ -233,6 +434,115 @@ public class CollapseGroupNodesViewMode extends ViewMode {
     graph.updateViews();
   }
 
+  /**
+   * Opens all folder nodes of the displayed graph, including folders
+   * nested in other folders. The hierarchy is collected once and all
+   * folders are opened in a single graph update, with one repaint.
+   */
+  public void openAllFolders() {
+    Graph2D graph = view.getGraph2D();
+    // Outer folders first, so that inner folders are moved into the graph
+    NodeList folderNodes = new NodeList();
+    NodeList queue = new NodeList(graph.nodes());
+    while (!queue.isEmpty()) {
+      Node v = queue.popNode();
+      if (hierarchy.isFolderNode(v)) {
+        folderNodes.add(v);
+        queue.addAll(new NodeList(hierarchy.getInnerGraph(v).nodes()));
+      }
+    }
+    if (folderNodes.isEmpty()) {
+      return;
+    }
+
+    openFolders(graph, folderNodes);
+    graph.updateViews();
+  }
+
+  /**
+   * Closes all group nodes of the displayed graph, including nested
+   * groups. The hierarchy is collected once and all groups are closed in
+   * a single graph update, with one repaint.
+   */
+  public void closeAllGroups() {
+    Graph2D graph = view.getGraph2D();
+    // Parents before children...
+    NodeList topDown = new NodeList();
+    NodeList queue = new NodeList(hierarchy.getChildren(graph));
+    while (!queue.isEmpty()) {
+      Node v = queue.popNode();
+      if (hierarchy.isGroupNode(v)) {
+        topDown.add(v);
+        queue.addAll(new NodeList(hierarchy.getChildren(v)));
+      }
+    }
+    if (topDown.isEmpty()) {
+      return;
+    }
+
+    // ...and closed in reverse order, i.e., every node is moved only once
+    NodeList groupNodes = new NodeList();
+    for (NodeCursor nc = topDown.nodes(); nc.ok(); nc.next()) {
+      groupNodes.addFirst(nc.node());
+    }
+    closeGroups(graph, groupNodes);
+    graph.updateViews();
+  }
+
+  /**
+   * Opens the given folder nodes in a single graph update. Views are not
+   * updated.
+   * @param graph
+   * @param folderNodes folders in {@code graph} or in folders that are
+   * opened earlier.
+   */
+  private void openFolders(Graph2D graph, NodeList folderNodes) {
+    graph.firePreEvent();
+    try {
+      NodeStateChangeHandler stateChangeHandler = new NodeStateChangeEdgeRouter();
+      for (NodeCursor nc = folderNodes.nodes(); nc.ok(); nc.next()) {
+        //get original location of folder node
+        Graph2D innerGraph = (Graph2D) hierarchy.getInnerGraph(nc.node());
+        YPoint folderP = graph.getLocation(nc.node());
+        NodeList innerNodes = new NodeList(innerGraph.nodes());
+        stateChangeHandler.preNodeStateChange(nc.node());
+        hierarchy.openFolder(nc.node());
+
+        //get new location of group node
+        Rectangle2D.Double gBox = graph.getRealizer(nc.node()).getBoundingBox();
+        //move grouped nodes to former location of folder node
+        LayoutTool.moveSubgraph(graph, innerNodes.nodes(), folderP.x - gBox.x,
+          folderP.y - gBox.y);
+        stateChangeHandler.postNodeStateChange(nc.node());
+      }
+    } finally {
+      graph.firePostEvent();
+      invalidateStateLabelIndex();
+    }
+  }
+
+  /**
+   * Closes the given group nodes in a single graph update. Views are not
+   * updated.
+   * @param graph
+   * @param groupNodes groups in {@code graph}. Nested groups must be
+   * closed before their parents.
+   */
+  private void closeGroups(Graph2D graph, NodeList groupNodes) {
+    graph.firePreEvent();
+    try {
+      NodeStateChangeHandler stateChangeHandler = new NodeStateChangeEdgeRouter();
+      for (NodeCursor nc = groupNodes.nodes(); nc.ok(); nc.next()) {
+        stateChangeHandler.preNodeStateChange(nc.node());
+        hierarchy.closeGroup(nc.node());
+        stateChangeHandler.postNodeStateChange(nc.node());
+      }
+    } finally {
+      graph.firePostEvent();
+      invalidateStateLabelIndex();
+    }
+  }
+
   /**
    * Action that closes a group node.
    *
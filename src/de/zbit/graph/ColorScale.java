@@ -0,0 +1,129 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.graph;
+
+import java.awt.Color;
+
+/**
+ * A linear color gradient from a minimum value over the center of the
+ * range to a maximum value (e.g., blue - white - red for fold changes).
+ * All colors are computed once, so that {@link #getColor(double)} does
+ * not create any objects and equal values share the same {@link Color}.
+ * Instances are immutable and may be shared between threads.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class ColorScale {
+
+  /**
+   * Number of colors between the center and each end of the scale.
+   */
+  private static final int STEPS = 127;
+
+  /**
+   * Colors from {@link #min} to {@link #max}.
+   */
+  private final Color[] colors;
+
+  /**
+   * Values mapped to the first and last color.
+   */
+  private final double min, max;
+
+  /**
+   * @param min values below or equal to min get the color {@code low}.
+   * @param max values above or equal to max get the color {@code high}.
+   * @param low
+   * @param center color for the center between {@code min} and {@code max}.
+   * @param high
+   */
+  public ColorScale(double min, double max, Color low, Color center, Color high) {
+    super();
+    if (!(min < max)) {
+      throw new IllegalArgumentException("min must be less than max.");
+    }
+    this.min = min;
+    this.max = max;
+    colors = new Color[2 * STEPS + 1];
+    for (int i = 0; i <= STEPS; i++) {
+      colors[i] = interpolate(low, center, (double) i / STEPS);
+      colors[STEPS + i] = interpolate(center, high, (double) i / STEPS);
+    }
+  }
+
+  /**
+   * @param maxFoldChange absolute value of the strongest fold change.
+   * @return a scale from -maxFoldChange (blue) over 0 (white) to
+   * +maxFoldChange (red).
+   */
+  public static ColorScale createFoldChangeScale(double maxFoldChange) {
+    double m = Math.abs(maxFoldChange);
+    return new ColorScale(-m, m, Color.BLUE, Color.WHITE, Color.RED);
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param a
+   * @param b
+   * @param fraction between 0 ({@code a}) and 1 ({@code b}).
+   * @return the color between a and b.
+   */
+  private static Color interpolate(Color a, Color b, double fraction) {
+    return new Color(
+      (int) Math.round(a.getRed() + (b.getRed() - a.getRed()) * fraction),
+      (int) Math.round(a.getGreen() + (b.getGreen() - a.getGreen()) * fraction),
+      (int) Math.round(a.getBlue() + (b.getBlue() - a.getBlue()) * fraction));
+  }
+
+  /**
+   * @param value
+   * @return the color of {@code value} or {@code null} if the value
+   * is {@link Double#NaN}.
+   */
+  public Color getColor(double value) {
+    if (Double.isNaN(value)) {
+      return null;
+    }
+    double position = (value - min) / (max - min) * (colors.length - 1);
+    int i = (int) Math.round(Math.max(0, Math.min(colors.length - 1, position)));
+    return colors[i];
+  }
+
+  /**
+   * @return the value mapped to the first color.
+   */
+  public double getMin() {
+    return min;
+  }
+
+  /**
+   * @return the value mapped to the last color.
+   */
+  public double getMax() {
+    return max;
+  }
+
+}
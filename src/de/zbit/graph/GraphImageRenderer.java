@@ -0,0 +1,781 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.graph;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import y.view.DefaultBackgroundRenderer;
+import y.view.Graph2D;
+import y.view.Graph2DView;
+import de.zbit.graph.gui.options.GraphBackgroundImageProvider;
+import de.zbit.graph.io.Graph2Dwriteable.WriteableFileExtensions;
+import de.zbit.graph.io.Graph2Dwriter;
+import de.zbit.gui.ImageTools;
+import de.zbit.kegg.io.KEGGtranslator;
+
+/**
+ * Renders many {@link Graph2D}s to image files on a pool of worker
+ * threads, e.g., to create previews of all pathways of an organism.
+ *
+ * <p>The renderer works without the event dispatch thread and in headless
+ * mode ({@code java.awt.headless=true}). Every thread keeps its own image
+ * buffer, which is reused for all following images that fit into it.
+ * JPG and GIF images are painted into this buffer and encoded with
+ * {@link ImageIO}, all other formats (e.g., SVG) are written with a
+ * {@link Graph2Dwriter} of the thread. Background images (the KEGG pathway
+ * picture or a static logo, see {@link #setPathwayBackgroundImage(int, boolean)}
+ * and {@link #setStaticBackgroundImage(URL)}) are decoded only once and
+ * shared by all threads.</p>
+ *
+ * <p>If enabled by {@link #setTileLargeImages(boolean)}, JPG and GIF
+ * images with more than {@link #getMaximumImageSize()} pixels (e.g., of
+ * overview maps) are not painted as one image. Instead, a tile pyramid
+ * in the Deep Zoom format is written, i.e., a descriptor "name.dzi" and
+ * the tiles "name_files/level/column_row.jpg" (see
+ * {@link #renderTiles(Graph2D, String, String)}). Every tile is painted
+ * directly from the graph, so the memory needed depends only on the tile
+ * size. Painting locks the graph, because realizers are not thread-safe.
+ * Thus, the tiles of one graph are painted one after another and only the
+ * encoding of the tiles runs in parallel on a second pool of threads.</p>
+ *
+ * <p>Every graph must not be changed until it has been rendered. If all
+ * threads are busy and the queue is full, images are rendered in the
+ * submitting thread. Thus, the number of graphs kept in memory is limited.</p>
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class GraphImageRenderer {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(GraphImageRenderer.class.getName());
+
+  /**
+   * Maximum number of decoded background images to keep.
+   */
+  private static final int MAX_CACHED_IMAGES = 16;
+
+  /**
+   * Default for {@link #maximumImageSize}: 4096x4096 pixels (64 MB).
+   */
+  public static final int DEFAULT_MAXIMUM_IMAGE_SIZE = 4096 * 4096;
+
+  /**
+   * Default for {@link #tileSize}.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * Workers that render the submitted graphs.
+   */
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Workers that render the tiles of large images. Separated from
+   * {@link #executor}, because jobs wait for their tiles.
+   */
+  private final ThreadPoolExecutor tileExecutor;
+
+  /**
+   * Decoded (and processed) background images, least recently used
+   * first. The {@link Future}s make sure that every image is decoded
+   * only once, even if several threads ask for it at the same time.
+   */
+  private final Map<String, Future<BufferedImage>> backgroundImages = new LinkedHashMap<String, Future<BufferedImage>>(MAX_CACHED_IMAGES, 0.75f, true) {
+    private static final long serialVersionUID = 4735581213497358302L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Future<BufferedImage>> eldest) {
+      return size() > MAX_CACHED_IMAGES;
+    }
+  };
+
+  /**
+   * The image buffer of every thread.
+   */
+  private final ThreadLocal<BufferedImage> buffer = new ThreadLocal<BufferedImage>();
+
+  /**
+   * The tile buffer of every thread.
+   */
+  private final ThreadLocal<BufferedImage> tileBuffer = new ThreadLocal<BufferedImage>();
+
+  /**
+   * Writers for all formats that are not painted into the buffer.
+   */
+  private final ThreadLocal<Map<WriteableFileExtensions, Graph2Dwriter>> writers = new ThreadLocal<Map<WriteableFileExtensions, Graph2Dwriter>>() {
+    @Override
+    protected Map<WriteableFileExtensions, Graph2Dwriter> initialValue() {
+      return new EnumMap<WriteableFileExtensions, Graph2Dwriter>(WriteableFileExtensions.class);
+    }
+  };
+
+  /**
+   * An image that is shown in the center of every graph (e.g., a logo).
+   */
+  private URL staticBackgroundImage = null;
+
+  /**
+   * If {@code true}, the picture of the pathway is shown in the background.
+   */
+  private boolean pathwayBackgroundImage = false;
+
+  /**
+   * Percentage to brighten the picture of the pathway.
+   */
+  private int brighten = 0;
+
+  /**
+   * Convert the picture of the pathway to grey scale.
+   */
+  private boolean greyscale = false;
+
+  /**
+   * If {@code true}, JPG and GIF images with more than
+   * {@link #maximumImageSize} pixels are written as tiles.
+   */
+  private boolean tileLargeImages = false;
+
+  /**
+   * JPG and GIF images with more pixels are written as tiles, if
+   * {@link #tileLargeImages} is set.
+   */
+  private int maximumImageSize = DEFAULT_MAXIMUM_IMAGE_SIZE;
+
+  /**
+   * Width and height of tiles.
+   */
+  private int tileSize = DEFAULT_TILE_SIZE;
+
+  /**
+   * Creates a renderer with one thread for every processor.
+   */
+  public GraphImageRenderer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param threads number of worker threads
+   */
+  public GraphImageRenderer(int threads) {
+    super();
+    threads = Math.max(1, threads);
+    executor = createExecutor(threads, "");
+    tileExecutor = createExecutor(threads, "tiles-");
+  }
+
+  /**
+   * @param threads
+   * @param name part of the thread names
+   * @return a pool of daemon threads with a bounded queue. If the queue is
+   * full, tasks are run in the submitting thread. Idle threads terminate.
+   */
+  private static ThreadPoolExecutor createExecutor(int threads, final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(2 * threads), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, GraphImageRenderer.class.getSimpleName() + "-" + name + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /*===========================
+   * Getters and Setters
+   * ===========================*/
+
+  /**
+   * Shows the given image in the center of every graph.
+   * @param image an image (e.g., a logo) or {@code null} to show no image.
+   */
+  public void setStaticBackgroundImage(URL image) {
+    staticBackgroundImage = image;
+  }
+
+  /**
+   * Shows the picture of the pathway in the background of every graph,
+   * if one is given when submitting the graph.
+   * @param brighten percentage to brighten the picture
+   * @param greyscale if {@code true}, the picture is converted to grey scale.
+   */
+  public void setPathwayBackgroundImage(int brighten, boolean greyscale) {
+    pathwayBackgroundImage = true;
+    this.brighten = Math.max(0, brighten);
+    this.greyscale = greyscale;
+  }
+
+  /**
+   * Shows no pictures of pathways in the background.
+   */
+  public void unsetPathwayBackgroundImage() {
+    pathwayBackgroundImage = false;
+  }
+
+  /**
+   * @return {@code true} if large JPG and GIF images are written as
+   * tiles (see {@link #setTileLargeImages(boolean)}).
+   */
+  public boolean isTileLargeImages() {
+    return tileLargeImages;
+  }
+
+  /**
+   * @param tileLargeImages if {@code true}, JPG and GIF images with more
+   * than {@link #getMaximumImageSize()} pixels are written as a tile
+   * pyramid (see {@link #renderTiles(Graph2D, String, String)}) instead
+   * of the requested file. Default: {@code false}.
+   */
+  public void setTileLargeImages(boolean tileLargeImages) {
+    this.tileLargeImages = tileLargeImages;
+  }
+
+  /**
+   * @return the maximum number of pixels of JPG and GIF images that
+   * are not written as tiles.
+   */
+  public int getMaximumImageSize() {
+    return maximumImageSize;
+  }
+
+  /**
+   * @param pixels the maximum number of pixels of JPG and GIF images
+   * that are not written as tiles.
+   */
+  public void setMaximumImageSize(int pixels) {
+    maximumImageSize = Math.max(1, pixels);
+  }
+
+  /**
+   * @return the width and height of tiles.
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @param tileSize the width and height of tiles.
+   */
+  public void setTileSize(int tileSize) {
+    this.tileSize = Math.max(1, tileSize);
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Renders {@code graph} on one of the worker threads.
+   * @param graph the graph to render
+   * @param backgroundImage URL of the picture of the pathway (e.g.,
+   * {@link de.zbit.kegg.parser.pathway.Pathway#getImage()}) or {@code null}.
+   * @param outFile the file to write. The format is taken from the
+   * file extension (e.g., ".jpg", ".gif" or ".svg").
+   * @return whether the image has been written successfully.
+   */
+  public Future<Boolean> submit(final Graph2D graph, final String backgroundImage, final String outFile) {
+    return executor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        try {
+          return render(graph, backgroundImage, outFile);
+        } catch (Exception e) {
+          log.log(Level.WARNING, "Could not write " + outFile, e);
+          throw e;
+        }
+      }
+    });
+  }
+
+  /**
+   * Renders {@code graph} in the current thread.
+   * @param graph the graph to render
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param outFile the file to write. The format is taken from the
+   * file extension (e.g., ".jpg", ".gif" or ".svg").
+   * @return {@code true} if the image has been written successfully.
+   * @throws Exception if the format is not supported or the file could
+   * not be written.
+   */
+  public boolean render(Graph2D graph, final String backgroundImage, String outFile) throws Exception {
+    int dot = outFile.lastIndexOf('.');
+    WriteableFileExtensions format = WriteableFileExtensions.valueOf(outFile.substring(dot + 1).toLowerCase().trim());
+    switch (format) {
+      case jpg:
+      case jpeg:
+        if (isTiled(graph)) {
+          return renderTiles(graph, backgroundImage, outFile);
+        }
+        return renderImage(graph, backgroundImage, new File(outFile), "jpeg");
+      case gif:
+        if (isTiled(graph)) {
+          return renderTiles(graph, backgroundImage, outFile);
+        }
+        return renderImage(graph, backgroundImage, new File(outFile), "gif");
+      default:
+        Graph2Dwriter writer = writers.get().get(format);
+        if (writer == null) {
+          writer = new Graph2Dwriter(format);
+          writers.get().put(format, writer);
+        }
+        writer.setBackgroundImageProvider(new GraphBackgroundImageProvider() {
+          @Override
+          public void addBackgroundImage(Graph2DView pane, KEGGtranslator<?> translator) {
+            setupBackgroundImage(pane, backgroundImage, true);
+          }
+          @Override
+          public void addBackgroundImage(Graph2DView pane, KEGGtranslator<?> translator, boolean waitUntilComplete) {
+            setupBackgroundImage(pane, backgroundImage, true);
+          }
+        });
+        return writer.writeToFile(graph, outFile);
+    }
+  }
+
+  /**
+   * Paints {@code graph} into the image buffer of the current thread
+   * and writes it to {@code out}. The view is configured as by
+   * {@link Graph2Dwriter}.
+   * @param graph
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param out
+   * @param format informal name of the format for {@link ImageIO}.
+   * @return {@code true} if the image has been written successfully.
+   * @throws IOException
+   */
+  private boolean renderImage(Graph2D graph, String backgroundImage, File out, String format) throws IOException {
+    Graph2DView view = createView(graph);
+    try {
+      Rectangle box = graph.getBoundingBox();
+      Dimension size = getOutputSize(box);
+      view.setSize(size);
+      view.zoomToArea(box.getX() - 5, box.getY() - 5, box.getWidth() + 10, box.getHeight() + 10);
+      view.setPaintDetailThreshold(0);
+      setupBackgroundImage(view, backgroundImage, true);
+
+      BufferedImage image = getBuffer(size.width, size.height);
+      paint(view, image, size.width, size.height);
+      return ImageIO.write(image.getSubimage(0, 0, size.width, size.height), format, out);
+    } finally {
+      removeView(graph, view);
+    }
+  }
+
+  /**
+   * @param graph
+   * @return {@code true} if JPG and GIF images of {@code graph} are
+   * written as tiles, because tiling is enabled (see
+   * {@link #setTileLargeImages(boolean)}) and they are larger than
+   * {@link #getMaximumImageSize()}.
+   */
+  public boolean isTiled(Graph2D graph) {
+    if (!tileLargeImages) {
+      return false;
+    }
+    Dimension size = getOutputSize(graph.getBoundingBox());
+    return ((long) size.width) * size.height > maximumImageSize;
+  }
+
+  /**
+   * Writes a tile pyramid of {@code graph} in the Deep Zoom format, which
+   * is supported by most zooming image viewers for the web (e.g.,
+   * OpenSeadragon). The highest level has the size of the usual image (see
+   * {@link #getOutputSize(Rectangle)}), every other level half the size of
+   * the next level. All tiles are painted directly from the graph, i.e.,
+   * the whole image is never kept in memory. Tiles are painted one after
+   * another (painting locks the graph) and encoded on the worker threads.
+   * A static background image is not painted on tiles.
+   * @param graph the graph to render
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param outFile the file to write, e.g., "name.jpg". The descriptor is
+   * written to "name.dzi" and the tiles to "name_files/". The extension
+   * determines the format of the tiles ("jpg" or "gif").
+   * @return {@code true} if all tiles have been written successfully.
+   * @throws Exception if a tile could not be written.
+   */
+  public boolean renderTiles(Graph2D graph, String backgroundImage, String outFile) throws Exception {
+    int dot = outFile.lastIndexOf('.');
+    return renderTiles(graph, backgroundImage, outFile, outFile.substring(dot + 1));
+  }
+
+  /**
+   * Like {@link #renderTiles(Graph2D, String, String)}, but with an
+   * explicit format for the tiles.
+   * @param graph the graph to render
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param outFile the file to write, e.g., "name.jpg".
+   * @param tileFormat "gif" for GIF tiles, JPG tiles otherwise.
+   * @return {@code true} if all tiles have been written successfully.
+   * @throws Exception if a tile could not be written.
+   */
+  public boolean renderTiles(Graph2D graph, String backgroundImage, String outFile, String tileFormat) throws Exception {
+    int dot = outFile.lastIndexOf('.');
+    String base = (dot > Math.max(outFile.lastIndexOf('/'), outFile.lastIndexOf('\\'))) ? outFile.substring(0, dot) : outFile;
+    boolean gif = tileFormat.toLowerCase().trim().equals("gif");
+    String extension = gif ? "gif" : "jpg";
+    String format = gif ? "gif" : "jpeg";
+
+    Rectangle box = graph.getBoundingBox();
+    Dimension size = getOutputSize(box);
+    double zoom = Math.min(size.width / (box.getWidth() + 10), size.height / (box.getHeight() + 10));
+    // Center the graph like Graph2DView#zoomToArea(double, double, double, double)
+    double x = box.getCenterX() - size.width / zoom / 2;
+    double y = box.getCenterY() - size.height / zoom / 2;
+    int tileSize = this.tileSize;
+    int maxLevel = (int) Math.ceil(Math.log(Math.max(size.width, size.height)) / Math.log(2));
+
+    File dir = new File(base + "_files");
+    List<Future<Boolean>> tiles = new ArrayList<Future<Boolean>>();
+    boolean success = true;
+    try {
+      for (int level = maxLevel; level >= 0; level--) {
+        double scale = Math.pow(2, level - maxLevel);
+        int width = (int) Math.ceil(size.width * scale);
+        int height = (int) Math.ceil(size.height * scale);
+        File levelDir = new File(dir, Integer.toString(level));
+        if (!levelDir.isDirectory() && !levelDir.mkdirs()) {
+          throw new IOException("Could not create directory " + levelDir);
+        }
+        for (int column = 0; column * tileSize < width; column++) {
+          for (int row = 0; row * tileSize < height; row++) {
+            Rectangle tile = new Rectangle(column * tileSize, row * tileSize,
+              Math.min(tileSize, width - column * tileSize), Math.min(tileSize, height - row * tileSize));
+            File out = new File(levelDir, column + "_" + row + "." + extension);
+            tiles.add(tileExecutor.submit(createTileTask(graph, backgroundImage, zoom * scale,
+              x + tile.x / (zoom * scale), y + tile.y / (zoom * scale), tile, out, format)));
+          }
+        }
+        // Keep the number of pending tiles small
+        success &= waitFor(tiles);
+      }
+    } finally {
+      for (Future<Boolean> tile : tiles) {
+        tile.cancel(false);
+      }
+    }
+
+    Writer descriptor = new OutputStreamWriter(new FileOutputStream(base + ".dzi"), "UTF-8");
+    try {
+      descriptor.write(String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n" +
+          "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" Format=\"%s\" Overlap=\"0\" TileSize=\"%s\">%n" +
+          "  <Size Width=\"%s\" Height=\"%s\"/>%n</Image>%n", extension, tileSize, size.width, size.height));
+    } finally {
+      descriptor.close();
+    }
+    return success;
+  }
+
+  /**
+   * @param graph
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param zoom zoom factor of the level of the tile
+   * @param x world coordinate of the upper left corner of the tile
+   * @param y world coordinate of the upper left corner of the tile
+   * @param tile position and size of the tile
+   * @param out
+   * @param format informal name of the format for {@link ImageIO}.
+   * @return a task that paints the given tile into the tile buffer of
+   * the current thread and writes it to {@code out}.
+   */
+  private Callable<Boolean> createTileTask(final Graph2D graph, final String backgroundImage, final double zoom,
+    final double x, final double y, final Rectangle tile, final File out, final String format) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        Graph2DView view = createView(graph);
+        try {
+          view.setSize(tile.width, tile.height);
+          view.setZoom(zoom);
+          view.setViewPoint2D(x, y);
+          view.setPaintDetailThreshold(0);
+          if (pathwayBackgroundImage) {
+            setupBackgroundImage(view, backgroundImage, false);
+          }
+
+          BufferedImage image = tileBuffer.get();
+          if ((image == null) || (image.getWidth() < tile.width) || (image.getHeight() < tile.height)) {
+            image = new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_INT_RGB);
+            tileBuffer.set(image);
+          }
+          paint(view, image, tile.width, tile.height);
+          return ImageIO.write(image.getSubimage(0, 0, tile.width, tile.height), format, out);
+        } finally {
+          removeView(graph, view);
+        }
+      }
+    };
+  }
+
+  /**
+   * Waits for all given tasks and clears the list.
+   * @param tasks
+   * @return {@code true} if all tasks returned {@code true}.
+   * @throws Exception the first exception of a task.
+   */
+  private static boolean waitFor(List<Future<Boolean>> tasks) throws Exception {
+    boolean success = true;
+    try {
+      for (Future<Boolean> task : tasks) {
+        success &= task.get().booleanValue();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    tasks.clear();
+    return success;
+  }
+
+  /**
+   * Views register at their graph, so views of the same graph must not
+   * be created concurrently.
+   * @param graph
+   * @return a new view of {@code graph}.
+   */
+  private static Graph2DView createView(Graph2D graph) {
+    synchronized (graph) {
+      return new Graph2DView(graph);
+    }
+  }
+
+  /**
+   * Removes a view created by {@link #createView(Graph2D)}.
+   * @param graph
+   * @param view
+   */
+  private static void removeView(Graph2D graph, Graph2DView view) {
+    synchronized (graph) {
+      graph.removeView(view);
+    }
+  }
+
+  /**
+   * Paints the visible content of {@code view} on a white background.
+   * Realizers are not thread-safe, so several views of the same graph
+   * (e.g., for tiles) are never painted at the same time.
+   * @param view
+   * @param image
+   * @param width
+   * @param height
+   */
+  private static void paint(Graph2DView view, BufferedImage image, int width, int height) {
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setClip(0, 0, width, height);
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, width, height);
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+      synchronized (view.getGraph2D()) {
+        view.paintVisibleContent(g);
+      }
+    } finally {
+      g.dispose();
+    }
+  }
+
+  /**
+   * Like the output of {@link Graph2Dwriter}, small graphs are scaled
+   * to a width of at least 1600 and a height of at least 1200 pixels.
+   * @param box bounding box of the graph
+   * @return the size of the image.
+   */
+  static Dimension getOutputSize(Rectangle box) {
+    double width = Math.max(1, box.getWidth());
+    double height = Math.max(1, box.getHeight());
+    if (width < 1600) {
+      height = height * 1600 / width;
+      width = 1600;
+    }
+    if (height < 1200) {
+      width = width * 1200 / height;
+      height = 1200;
+    }
+    return new Dimension((int) width, (int) height);
+  }
+
+  /**
+   * @param width
+   * @param height
+   * @return the image buffer of the current thread, which is at least
+   * as large as the given size.
+   */
+  private BufferedImage getBuffer(int width, int height) {
+    BufferedImage image = buffer.get();
+    if ((image == null) || (image.getWidth() < width) || (image.getHeight() < height)) {
+      if (image != null) {
+        width = Math.max(width, image.getWidth());
+        height = Math.max(height, image.getHeight());
+      }
+      // Release the old buffer before allocating the new one
+      buffer.remove();
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      buffer.set(image);
+    }
+    return image;
+  }
+
+  /**
+   * Sets the background of {@code view} to the picture of the pathway
+   * or the static image, if configured.
+   * @param view
+   * @param backgroundImage URL of the picture of the pathway or {@code null}.
+   * @param showStatic if {@code false}, the static image is not shown.
+   */
+  private void setupBackgroundImage(Graph2DView view, String backgroundImage, boolean showStatic) {
+    try {
+      DefaultBackgroundRenderer renderer = new DefaultBackgroundRenderer(view);
+      if (showStatic && (staticBackgroundImage != null)) {
+        renderer.setImage(getBackgroundImage(staticBackgroundImage, false));
+        renderer.setMode(DefaultBackgroundRenderer.CENTERED);
+      } else if (pathwayBackgroundImage && (backgroundImage != null) && (backgroundImage.length() > 0)) {
+        renderer.setImage(getBackgroundImage(new URL(backgroundImage), true));
+        renderer.setMode(DefaultBackgroundRenderer.DYNAMIC);
+      } else {
+        return;
+      }
+      renderer.setColor(Color.white);
+      view.setBackgroundRenderer(renderer);
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Could not setup background image.", e);
+    }
+  }
+
+  /**
+   * Returns the decoded image of the given URL. Every image is decoded
+   * only once.
+   * @param url
+   * @param pathway if {@code true}, the picture of a pathway is
+   * processed as configured by {@link #setPathwayBackgroundImage(int, boolean)}.
+   * @return the decoded image.
+   * @throws Exception if the image could not be read.
+   */
+  private BufferedImage getBackgroundImage(final URL url, final boolean pathway) throws Exception {
+    final int brighten = this.brighten;
+    final boolean greyscale = this.greyscale;
+    String key = pathway ? String.format("%s|%s|%s", url, brighten, greyscale) : url.toString();
+
+    FutureTask<BufferedImage> task = null;
+    Future<BufferedImage> image;
+    synchronized (backgroundImages) {
+      image = backgroundImages.get(key);
+      if (image == null) {
+        task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+          @Override
+          public BufferedImage call() throws Exception {
+            BufferedImage image = ImageIO.read(url);
+            if (image == null) {
+              throw new IOException("Unknown image format of " + url);
+            }
+            if (pathway) {
+              // Same processing as for the background of the translator panels
+              if (greyscale) {
+                image = ImageTools.grayScaleImage(image);
+              }
+              ImageTools.replaceColor(image, Color.BLACK, Color.GRAY);
+              if (brighten > 0) {
+                ImageTools.brightenImageCustom(image, brighten);
+              }
+            }
+            return image;
+          }
+        });
+        image = task;
+        backgroundImages.put(key, image);
+      }
+    }
+    if (task != null) {
+      task.run();
+    }
+
+    try {
+      return image.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Renders all submitted graphs, but accepts no new graphs.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    tileExecutor.shutdown();
+  }
+
+  /**
+   * Waits until all submitted graphs have been rendered after
+   * {@link #shutdown()}.
+   * @param timeout
+   * @param unit
+   * @return {@code true} if all graphs have been rendered.
+   * @throws InterruptedException
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long start = System.nanoTime();
+    if (!executor.awaitTermination(timeout, unit)) {
+      return false;
+    }
+    long left = unit.toNanos(timeout) - (System.nanoTime() - start);
+    return tileExecutor.awaitTermination(Math.max(0, left), TimeUnit.NANOSECONDS);
+  }
+
+}
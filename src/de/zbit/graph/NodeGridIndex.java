@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import y.base.Node;
+import y.view.Graph2D;
+import y.view.NodeRealizer;
+
+/**
+ * A uniform grid over the centers of nodes (see
+ * {@link NodeRealizer#getCenterX()} and {@link NodeRealizer#getCenterY()}),
+ * to answer "which nodes are near here" without looking at all nodes.
+ * Distances are Chebyshev distances, i.e., the maximum of the horizontal
+ * and vertical distance between two centers.
+ *
+ * <p>The cell size should be about the distance of typical queries. Then,
+ * every query only looks at a few cells and thus takes nearly constant time.
+ * The centers are read when a node is added. If a node is moved afterwards,
+ * {@link #update(Node)} has to be called.</p>
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class NodeGridIndex {
+
+  /**
+   * The graph that contains all nodes.
+   */
+  private final Graph2D graph;
+
+  /**
+   * Width and height of every cell.
+   */
+  private final double cellSize;
+
+  /**
+   * Nodes in every non-empty cell (see {@link #getCellKey(int, int)}).
+   */
+  private final Map<Long, List<Node>> cells = new HashMap<Long, List<Node>>();
+
+  /**
+   * The center of every node at the time it has been added.
+   */
+  private final Map<Node, double[]> centers = new HashMap<Node, double[]>();
+
+  /**
+   * Bounds of all non-empty cells, to stop searches that leave the grid.
+   */
+  private int minCellX = Integer.MAX_VALUE, minCellY = Integer.MAX_VALUE,
+      maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE;
+
+  /**
+   * Creates an empty index.
+   * @param graph the graph that contains all nodes
+   * @param cellSize width and height of every cell (a positive number)
+   */
+  public NodeGridIndex(Graph2D graph, double cellSize) {
+    super();
+    if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+      throw new IllegalArgumentException("Invalid cell size " + cellSize);
+    }
+    this.graph = graph;
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Creates an index of the given nodes.
+   * @param graph the graph that contains all nodes
+   * @param cellSize width and height of every cell (a positive number)
+   * @param nodes nodes to add (e.g., a {@link y.base.NodeList}).
+   */
+  public NodeGridIndex(Graph2D graph, double cellSize, Iterable<?> nodes) {
+    this(graph, cellSize);
+    for (Object n : nodes) {
+      add((Node) n);
+    }
+  }
+
+  /**
+   * Creates an index of all nodes in the graph.
+   * @param graph
+   * @param cellSize width and height of every cell (a positive number)
+   * @return the index
+   */
+  public static NodeGridIndex createIndex(Graph2D graph, double cellSize) {
+    NodeGridIndex index = new NodeGridIndex(graph, cellSize);
+    for (Node n : graph.getNodeArray()) {
+      index.add(n);
+    }
+    return index;
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param cellX
+   * @param cellY
+   * @return a unique key for the cell at the given grid position.
+   */
+  private static Long getCellKey(int cellX, int cellY) {
+    return Long.valueOf((((long) cellX) << 32) | (cellY & 0xffffffffL));
+  }
+
+  /**
+   * @param coordinate an x- or y-coordinate
+   * @return the grid position of this coordinate.
+   */
+  private int getCell(double coordinate) {
+    double cell = Math.floor(coordinate / cellSize);
+    return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, cell));
+  }
+
+  /**
+   * Adds {@code n} at its current center. Nothing happens if the index
+   * already contains {@code n}.
+   * @param n
+   */
+  public void add(Node n) {
+    if (centers.containsKey(n)) {
+      return;
+    }
+    NodeRealizer nr = graph.getRealizer(n);
+    double[] center = new double[] {nr.getCenterX(), nr.getCenterY()};
+    centers.put(n, center);
+
+    int cellX = getCell(center[0]);
+    int cellY = getCell(center[1]);
+    Long key = getCellKey(cellX, cellY);
+    List<Node> cell = cells.get(key);
+    if (cell == null) {
+      cell = new ArrayList<Node>(2);
+      cells.put(key, cell);
+    }
+    cell.add(n);
+    minCellX = Math.min(minCellX, cellX);
+    minCellY = Math.min(minCellY, cellY);
+    maxCellX = Math.max(maxCellX, cellX);
+    maxCellY = Math.max(maxCellY, cellY);
+  }
+
+  /**
+   * Removes {@code n} from the index.
+   * @param n
+   * @return {@code true} if the index contained {@code n}.
+   */
+  public boolean remove(Node n) {
+    double[] center = centers.remove(n);
+    if (center == null) {
+      return false;
+    }
+    Long key = getCellKey(getCell(center[0]), getCell(center[1]));
+    List<Node> cell = cells.get(key);
+    cell.remove(n);
+    if (cell.isEmpty()) {
+      cells.remove(key);
+    }
+    return true;
+  }
+
+  /**
+   * Moves {@code n} to the cell of its current center, e.g., after it has
+   * been moved or resized.
+   * @param n
+   * @return {@code true} if the index contains {@code n}.
+   */
+  public boolean update(Node n) {
+    double[] center = centers.get(n);
+    if (center == null) {
+      return false;
+    }
+    NodeRealizer nr = graph.getRealizer(n);
+    if (getCell(center[0]) == getCell(nr.getCenterX()) && getCell(center[1]) == getCell(nr.getCenterY())) {
+      // Same cell
+      center[0] = nr.getCenterX();
+      center[1] = nr.getCenterY();
+    } else {
+      remove(n);
+      add(n);
+    }
+    return true;
+  }
+
+  /**
+   * @param n
+   * @return {@code true} if the index contains {@code n}.
+   */
+  public boolean contains(Node n) {
+    return centers.containsKey(n);
+  }
+
+  /**
+   * @return the number of nodes in the index.
+   */
+  public int size() {
+    return centers.size();
+  }
+
+  /**
+   * @param n
+   * @param x
+   * @param y
+   * @return the distance between the center of {@code n} and the given point.
+   */
+  private double getDistance(Node n, double x, double y) {
+    double[] center = centers.get(n);
+    return Math.max(Math.abs(center[0] - x), Math.abs(center[1] - y));
+  }
+
+  /**
+   * Returns all nodes whose center is at most {@code distance} away from
+   * the given point.
+   * @param x
+   * @param y
+   * @param distance
+   * @return all nodes in range (in no specific order).
+   */
+  public List<Node> getNodesInRange(double x, double y, double distance) {
+    List<Node> ret = new ArrayList<Node>();
+    if (cells.isEmpty() || !(distance >= 0)) {
+      return ret;
+    }
+    int fromX = Math.max(getCell(x - distance), minCellX);
+    int toX = Math.min(getCell(x + distance), maxCellX);
+    int fromY = Math.max(getCell(y - distance), minCellY);
+    int toY = Math.min(getCell(y + distance), maxCellY);
+    for (int cellX = fromX; cellX <= toX; cellX++) {
+      for (int cellY = fromY; cellY <= toY; cellY++) {
+        List<Node> cell = cells.get(getCellKey(cellX, cellY));
+        if (cell == null) {
+          continue;
+        }
+        for (Node n : cell) {
+          if (getDistance(n, x, y) <= distance) {
+            ret.add(n);
+          }
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the node that is closest to the given point.
+   * @param x
+   * @param y
+   * @param maxDistance only nodes with at most this distance are considered.
+   * @param exclude a node to ignore (e.g., the node at the given point)
+   * or {@code null}.
+   * @return the closest node or {@code null} if no node is in range.
+   */
+  public Node getNearestNode(double x, double y, double maxDistance, Node exclude) {
+    if (cells.isEmpty() || !(maxDistance >= 0)) {
+      return null;
+    }
+    int cellX = getCell(x);
+    int cellY = getCell(y);
+
+    // Search rings of cells around the cell of the point
+    Node nearest = null;
+    double best = maxDistance;
+    for (int ring = 0; ; ring++) {
+      // All nodes in this ring are at least (ring-1)*cellSize away
+      if ((ring - 1) * cellSize > best || (cellX - ring < minCellX && cellX + ring > maxCellX &&
+          cellY - ring < minCellY && cellY + ring > maxCellY)) {
+        break;
+      }
+      for (int dx = -ring; dx <= ring; dx++) {
+        boolean border = (dx == -ring || dx == ring);
+        for (int dy = -ring; dy <= ring; dy += (border ? 1 : 2 * ring)) {
+          List<Node> cell = cells.get(getCellKey(cellX + dx, cellY + dy));
+          if (cell != null) {
+            for (Node n : cell) {
+              double distance = getDistance(n, x, y);
+              if (n != exclude && (distance < best || (nearest == null && distance <= best))) {
+                nearest = n;
+                best = distance;
+              }
+            }
+          }
+          if (ring == 0) {
+            break;
+          }
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Returns the node that is closest to the center of {@code n}.
+   * @param n a node (that does not need to be in this index)
+   * @param maxDistance only nodes with at most this distance are considered.
+   * @return the closest other node or {@code null} if no other node is in range.
+   */
+  public Node getNearestNode(Node n, double maxDistance) {
+    double[] center = centers.get(n);
+    if (center != null) {
+      return getNearestNode(center[0], center[1], maxDistance, n);
+    }
+    NodeRealizer nr = graph.getRealizer(n);
+    return getNearestNode(nr.getCenterX(), nr.getCenterY(), maxDistance, n);
+  }
+
+}
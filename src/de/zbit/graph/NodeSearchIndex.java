@@ -0,0 +1,544 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.graph;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import y.base.DataMap;
+import y.base.GraphEvent;
+import y.base.GraphListener;
+import y.base.Node;
+import y.view.Graph2D;
+import y.view.NodeRealizer;
+import de.zbit.graph.io.def.GraphMLmaps;
+
+/**
+ * A full-text index over the labels and identifiers of all nodes of a
+ * graph, to search nodes while typing (see {@link SearchSupport}).
+ *
+ * <p>Indexed are the label of every node and the values of the node maps
+ * {@link GraphMLmaps#NODE_LABEL} (all names), {@link GraphMLmaps#NODE_GENE_ID}
+ * (Entrez), {@link GraphMLmaps#NODE_KEGG_ID}, {@link GraphMLmaps#NODE_UNIPROT_ID}
+ * and {@link GraphMLmaps#NODE_ENSEMBL_ID}, if available. Substring queries
+ * are answered with an index of all trigrams, prefix queries with a sorted
+ * index of all words (e.g., single identifiers). All results are sorted by
+ * position (top to bottom, then left to right).</p>
+ *
+ * <p>The index listens to the graph: created nodes are indexed before the
+ * next query (so their labels can be set after the creation) and removed
+ * nodes are dropped. Changes of labels or maps of existing nodes must be
+ * announced with {@link #update(Node)}, which is done by
+ * {@link de.zbit.util.TranslatorTools#setInfo(Object, String, Object)}
+ * for the index of the graph (see {@link #getIndex(Graph2D)}). Positions
+ * are determined when
+ * needed after nodes have been created or removed, or after
+ * {@link #invalidatePositions()}.</p>
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class NodeSearchIndex {
+
+  /**
+   * Descriptors of all maps, whose values are indexed.
+   */
+  public static final String[] INDEXED_MAPS = new String[] {GraphMLmaps.NODE_LABEL,
+    GraphMLmaps.NODE_GENE_ID, GraphMLmaps.NODE_KEGG_ID, GraphMLmaps.NODE_UNIPROT_ID,
+    GraphMLmaps.NODE_ENSEMBL_ID};
+
+  /**
+   * Length of n-grams in {@link #ngrams}.
+   */
+  private static final int N = 3;
+
+  /**
+   * Separates texts of one node in {@link #texts} and words in texts.
+   */
+  private static final String WORD_SEPARATORS = "[\\s,;|]+";
+
+  /**
+   * A growing, sorted list of node numbers.
+   */
+  private static class Postings {
+    int[] values = new int[2];
+    int size = 0;
+
+    /**
+     * Adds {@code id}, if it is not the last number. Numbers must be
+     * added in ascending order.
+     * @param id
+     */
+    void add(int id) {
+      if ((size > 0) && (values[size - 1] == id)) {
+        return;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = id;
+    }
+
+    /**
+     * @param set set to add all numbers to
+     */
+    void addTo(BitSet set) {
+      for (int i = 0; i < size; i++) {
+        set.set(values[i]);
+      }
+    }
+  }
+
+  /**
+   * The index of every graph. Indices are only referenced weakly,
+   * because they reference their graph and are kept alive by the
+   * listener they registered at the graph.
+   */
+  private static final Map<Graph2D, WeakReference<NodeSearchIndex>> indices = new WeakHashMap<Graph2D, WeakReference<NodeSearchIndex>>();
+
+  /**
+   * The indexed graph.
+   */
+  private final Graph2D graph;
+
+  /**
+   * Keeps this index up to date.
+   */
+  private final GraphListener listener;
+
+  /**
+   * Maps with identifiers and further names of nodes.
+   */
+  private DataMap[] maps;
+
+  /**
+   * Every indexed node by its number. Numbers are not reused, i.e.,
+   * removed nodes leave a gap ({@code null}).
+   */
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  /**
+   * All indexed texts (lower case, separated by new lines) of every node
+   * by its number, {@code null} for removed nodes.
+   */
+  private final List<String> texts = new ArrayList<String>();
+
+  /**
+   * The current number of every node.
+   */
+  private final Map<Node, Integer> ids = new HashMap<Node, Integer>();
+
+  /**
+   * Numbers of all nodes that contain an n-gram.
+   */
+  private final Map<String, Postings> ngrams = new HashMap<String, Postings>();
+
+  /**
+   * Numbers of all nodes that contain a word.
+   */
+  private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+
+  /**
+   * Nodes to (re-)index before the next query.
+   */
+  private final Set<Node> pending = new LinkedHashSet<Node>();
+
+  /**
+   * Numbers of all nodes sorted by position or {@code null} if the
+   * positions have to be determined.
+   */
+  private int[] order = null;
+
+  /**
+   * Creates an index of all nodes in the graph. The index listens to
+   * changes of the graph until {@link #dispose()} is called.
+   * Use {@link #getIndex(Graph2D)}.
+   * @param graph
+   */
+  private NodeSearchIndex(Graph2D graph) {
+    super();
+    this.graph = graph;
+    listener = new GraphListener() {
+      @Override
+      public void onGraphEvent(GraphEvent e) {
+        graphChanged(e);
+      }
+    };
+    graph.addGraphListener(listener);
+    rebuild();
+  }
+
+  /**
+   * @param graph
+   * @return the index of {@code graph}, which is created if necessary.
+   */
+  public static NodeSearchIndex getIndex(Graph2D graph) {
+    synchronized (indices) {
+      NodeSearchIndex index = getExistingIndex(graph);
+      if (index == null) {
+        index = new NodeSearchIndex(graph);
+        indices.put(graph, new WeakReference<NodeSearchIndex>(index));
+      }
+      return index;
+    }
+  }
+
+  /**
+   * @param graph
+   * @return the index of {@code graph} or {@code null} if none has
+   * been created.
+   */
+  public static NodeSearchIndex getExistingIndex(Graph2D graph) {
+    synchronized (indices) {
+      WeakReference<NodeSearchIndex> ref = indices.get(graph);
+      return (ref == null) ? null : ref.get();
+    }
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Re-indexes all nodes of the graph (e.g., after maps have been added).
+   */
+  public synchronized void rebuild() {
+    nodes.clear();
+    texts.clear();
+    ids.clear();
+    ngrams.clear();
+    words.clear();
+    pending.clear();
+    order = null;
+
+    GraphTools tools = new GraphTools(graph);
+    maps = new DataMap[INDEXED_MAPS.length];
+    for (int i = 0; i < maps.length; i++) {
+      maps[i] = tools.getMap(INDEXED_MAPS[i]);
+    }
+    for (Node n : graph.getNodeArray()) {
+      add(n);
+    }
+  }
+
+  /**
+   * Stops listening to the graph and forgets this index of the graph.
+   */
+  public void dispose() {
+    graph.removeGraphListener(listener);
+    synchronized (indices) {
+      if (getExistingIndex(graph) == this) {
+        indices.remove(graph);
+      }
+    }
+  }
+
+  /**
+   * Updates the index after the label or identifiers of {@code n} changed.
+   * @param n
+   */
+  public synchronized void update(Node n) {
+    pending.add(n);
+  }
+
+  /**
+   * Positions of nodes will be determined again before the next query
+   * (e.g., after nodes have been moved).
+   */
+  public synchronized void invalidatePositions() {
+    order = null;
+  }
+
+  /**
+   * @param e
+   */
+  private synchronized void graphChanged(GraphEvent e) {
+    Object data = e.getData();
+    switch (e.getType()) {
+      case GraphEvent.NODE_CREATION:
+      case GraphEvent.NODE_REINSERTION:
+      case GraphEvent.SUBGRAPH_INSERTION:
+        if (data instanceof Node) {
+          pending.add((Node) data);
+        } else if (data instanceof Iterable<?>) {
+          for (Object n : (Iterable<?>) data) {
+            if (n instanceof Node) {
+              pending.add((Node) n);
+            }
+          }
+        }
+        order = null;
+        break;
+      case GraphEvent.POST_NODE_REMOVAL:
+      case GraphEvent.SUBGRAPH_REMOVAL:
+        if (data instanceof Node) {
+          remove((Node) data);
+        } else if (data instanceof Iterable<?>) {
+          for (Object n : (Iterable<?>) data) {
+            if (n instanceof Node) {
+              remove((Node) n);
+            }
+          }
+        }
+        order = null;
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Indexes all {@link #pending} nodes and determines positions, if required.
+   */
+  private void flush() {
+    if (!pending.isEmpty()) {
+      for (Node n : pending) {
+        remove(n);
+        if (n.getGraph() == graph) {
+          add(n);
+        }
+      }
+      pending.clear();
+      order = null;
+      // Drop the numbers of removed nodes from all postings
+      if (nodes.size() > 2 * ids.size() + 64) {
+        rebuild();
+      }
+    }
+    if (order == null) {
+      sortByPosition();
+    }
+  }
+
+  /**
+   * Indexes {@code n} with a new number.
+   * @param n
+   */
+  private void add(Node n) {
+    int id = nodes.size();
+    String text = getText(n);
+    nodes.add(n);
+    texts.add(text);
+    ids.put(n, id);
+
+    for (int i = 0; i + N <= text.length(); i++) {
+      String ngram = text.substring(i, i + N);
+      if (ngram.indexOf('\n') < 0) {
+        getPostings(ngrams, ngram).add(id);
+      }
+    }
+    for (String word : text.split(WORD_SEPARATORS)) {
+      if (word.length() > 0) {
+        getPostings(words, word).add(id);
+      }
+    }
+  }
+
+  /**
+   * Removes {@code n} from the index. Postings keep the old number,
+   * which is ignored afterwards.
+   * @param n
+   */
+  private void remove(Node n) {
+    Integer id = ids.remove(n);
+    if (id != null) {
+      nodes.set(id, null);
+      texts.set(id, null);
+    }
+  }
+
+  /**
+   * @param index
+   * @param key
+   * @return the postings of {@code key}, which are created if necessary.
+   */
+  private static Postings getPostings(Map<String, Postings> index, String key) {
+    Postings postings = index.get(key);
+    if (postings == null) {
+      postings = new Postings();
+      index.put(key, postings);
+    }
+    return postings;
+  }
+
+  /**
+   * @param n
+   * @return all texts of {@code n} to index (lower case, separated by new lines).
+   */
+  private String getText(Node n) {
+    StringBuilder text = new StringBuilder();
+    String label = graph.getLabelText(n);
+    if (label != null) {
+      text.append(label);
+    }
+    for (DataMap map : maps) {
+      Object value = (map != null) ? map.get(n) : null;
+      if (value != null) {
+        text.append('\n').append(value);
+      }
+    }
+    return text.toString().toLowerCase();
+  }
+
+  /**
+   * Sorts the numbers of all indexed nodes by position of the nodes:
+   * top to bottom, then left to right.
+   */
+  private void sortByPosition() {
+    final double[] x = new double[nodes.size()];
+    final double[] y = new double[nodes.size()];
+    Integer[] sorted = new Integer[ids.size()];
+    int i = 0;
+    for (int id = 0; id < nodes.size(); id++) {
+      Node n = nodes.get(id);
+      if (n != null) {
+        NodeRealizer nr = graph.getRealizer(n);
+        x[id] = nr.getX();
+        y[id] = nr.getY();
+        sorted[i++] = id;
+      }
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        int c = Double.compare(y[o1], y[o2]);
+        return (c != 0) ? c : Double.compare(x[o1], x[o2]);
+      }
+    });
+    order = new int[sorted.length];
+    for (i = 0; i < sorted.length; i++) {
+      order[i] = sorted[i];
+    }
+  }
+
+  /**
+   * @param candidates numbers of nodes or {@code null} for all nodes.
+   * @param query if not {@code null}, only nodes whose text contains this
+   * query are returned.
+   * @return all given nodes, sorted by position.
+   */
+  private List<Node> getResult(BitSet candidates, String query) {
+    List<Node> ret = new ArrayList<Node>();
+    for (int id : order) {
+      if ((candidates == null) || candidates.get(id)) {
+        String text = texts.get(id);
+        if ((text != null) && ((query == null) || text.contains(query))) {
+          ret.add(nodes.get(id));
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return all nodes of the graph, sorted by position.
+   */
+  public synchronized List<Node> getNodesInPositionalOrder() {
+    flush();
+    return getResult(null, null);
+  }
+
+  /**
+   * Returns all nodes whose label or identifiers contain the given
+   * query (ignoring case).
+   * @param query
+   * @return all matching nodes, sorted by position.
+   */
+  public synchronized List<Node> search(String query) {
+    flush();
+    query = query.toLowerCase();
+    if (query.length() < N) {
+      // Too short for n-grams, but texts are cached
+      return getResult(null, query);
+    }
+
+    // Intersect the nodes of all n-grams, starting with the rarest one
+    List<Postings> postings = new ArrayList<Postings>();
+    for (int i = 0; i + N <= query.length(); i++) {
+      Postings p = ngrams.get(query.substring(i, i + N));
+      if (p == null) {
+        return new ArrayList<Node>();
+      }
+      postings.add(p);
+    }
+    Postings rarest = postings.get(0);
+    for (Postings p : postings) {
+      if (p.size < rarest.size) {
+        rarest = p;
+      }
+    }
+    BitSet candidates = new BitSet(nodes.size());
+    rarest.addTo(candidates);
+    for (Postings p : postings) {
+      if ((p != rarest) && !candidates.isEmpty()) {
+        BitSet other = new BitSet(nodes.size());
+        p.addTo(other);
+        candidates.and(other);
+      }
+    }
+    return getResult(candidates, query);
+  }
+
+  /**
+   * Returns all nodes with a word (e.g., a name or identifier) in
+   * their label or identifiers that starts with the given prefix
+   * (ignoring case).
+   * @param prefix
+   * @return all matching nodes, sorted by position.
+   */
+  public synchronized List<Node> searchPrefix(String prefix) {
+    flush();
+    prefix = prefix.toLowerCase().trim();
+    if (prefix.length() < 1) {
+      return getResult(null, null);
+    }
+    BitSet candidates = new BitSet(nodes.size());
+    SortedMap<String, Postings> matches = words.tailMap(prefix);
+    for (Map.Entry<String, Postings> entry : matches.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      entry.getValue().addTo(candidates);
+    }
+    return getResult(candidates, null);
+  }
+
+  /**
+   * @return the number of indexed nodes.
+   */
+  public synchronized int size() {
+    flush();
+    return ids.size();
+  }
+
+}
@@ -24,19 +24,24 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ActionMap;
 import javax.swing.InputMap;
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
 
 import y.base.GraphEvent;
@@ -50,13 +55,10 @@ import y.view.Graph2DView;
 import y.view.NodeRealizer;
 
 /**
- * <b>TODO: WORK IN PROGRESS, does not work yet.</b><p>
- * 
- * <b>This is a stump and currently unused. A demo class taken
- * from yFiles examples to search nodes. Node highlighting is performed
- * by the {@link Marker}.</b><p>
- * Intended is, to provide a search method that helps locating certain
- * genes in a pathway.
+ * Based on a demo class taken from yFiles examples to search nodes.
+ * Node highlighting is performed by the {@link Marker}.
+ * Helps locating certain genes in a pathway (see
+ * {@link #addSearchSupport(JComponent, Graph2DView)}).
  * 
  * <p>
  * Utility class that provides methods for searching for nodes that match
@@ -77,19 +79,33 @@ import y.view.NodeRealizer;
 public class SearchSupport {
   private static final Object NEXT_ACTION_ID = "SearchSupport.Next";
   private static final Object CLEAR_ACTION_ID = "SearchSupport.Clear";
+  private static final Object FIND_ACTION_ID = "SearchSupport.Find";
   
-  
-  // TODO: implement this static method.
-  //  public static addSearchSupport (TranslatorPanel tp ) {
-  //    // register keyboard action for "select next match" and "clear search"
-  //    final LabelTextSearchSupport support = getSearchSupport();
-  //    final ActionMap amap = support.createActionMap();
-  //    final InputMap imap = support.createDefaultInputMap();
-  //    tp.setActionMap(amap);
-  //    tp.setInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT, imap);
-  //  }
+  /**
+   * Registers the keyboard actions for "find", "select next match" and
+   * "clear search" of a new {@link SearchSupport} for {@code view} at
+   * {@code component}.
+   * @param component the component (e.g., a panel) that contains {@code view}
+   * @param view the view to search
+   * @return the created {@link SearchSupport}.
+   */
+  public static SearchSupport addSearchSupport(final JComponent component, final Graph2DView view) {
+    final SearchSupport support = new SearchSupport(view);
+    final ActionMap amap = support.createActionMap();
+    final InputMap imap = support.createDefaultInputMap();
+    // Keep the actions that are already registered at the component
+    for (Object key : amap.keys()) {
+      component.getActionMap().put(key, amap.get(key));
+    }
+    final InputMap componentMap = component.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+    for (KeyStroke key : imap.keys()) {
+      componentMap.put(key, imap.get(key));
+    }
+    return support;
+  }
   
   private Action previous;
+  private Action find;
   private Action next;
   private Action selectAll;
   private Action clear;
@@ -98,10 +114,19 @@ public class SearchSupport {
   
   private final Graph2DView view;
   
+  private final NodeSearchIndex index;
+  
+  /**
+   * {@code true} while the mouse is dragged in the view, i.e., nodes
+   * might be moved.
+   */
+  private boolean dragged = false;
+  
   public SearchSupport( final Graph2DView view ) {
     this.view = view;
     this.view.addBackgroundDrawable(new Marker());
     final Graph2D graph = this.view.getGraph2D();
+    index = NodeSearchIndex.getIndex(graph);
     
     // register a listener that updates search results whenever a node
     // is deleted to prevent stale data in the results
@@ -123,6 +148,33 @@ public class SearchSupport {
         }
       }
     });
+    
+    // Positions in the index are determined again after nodes have
+    // been dragged, not before every search
+    view.getCanvasComponent().addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseReleased( final MouseEvent e ) {
+        if (dragged) {
+          dragged = false;
+          nodesMoved();
+        }
+      }
+    });
+    view.getCanvasComponent().addMouseMotionListener(new MouseAdapter() {
+      @Override
+      public void mouseDragged( final MouseEvent e ) {
+        dragged = true;
+      }
+    });
+  }
+  
+  /**
+   * Must be called after nodes have been moved without the mouse
+   * (e.g., by a layout), to sort search results by the new positions.
+   * Moves by dragging the mouse in the view are detected automatically.
+   */
+  public void nodesMoved() {
+    index.invalidatePositions();
   }
   
   /**
@@ -143,6 +195,15 @@ public class SearchSupport {
     return searchResult;
   }
   
+  /**
+   * Returns the index of all node labels and identifiers that is used
+   * by {@link #search(String, boolean)}.
+   * @return the index of the support's associated graph.
+   */
+  public NodeSearchIndex getSearchIndex() {
+    return index;
+  }
+  
   /**
    * Updates the current search result and the enabled states of the support's
    * clear, next, previous, and select all actions.
@@ -159,55 +220,71 @@ public class SearchSupport {
    * @see #getSelectAllAction()
    */
   public void search( final SearchCriterion query, final boolean incremental ) {
-    boolean resultChanged = false;
+    SearchResult newResult = null;
     if (query != null) {
       final Graph2D graph = view.getGraph2D();
-      final NodeCursor nc =
+      // Both, the index and the current result, are sorted by position
+      final Collection nodes =
           searchResult != null && incremental
-          ? searchResult.nodes()
-              : graph.nodes();
-          final HashSet oldResult =
-              searchResult == null
-              ? new HashSet()
+          ? searchResult.asCollection()
+          : index.getNodesInPositionalOrder();
+      newResult = new SearchResult();
+      for (Object node : nodes) {
+        if (query.accept(graph, (Node) node)) {
+          newResult.add((Node) node);
+        }
+      }
+    }
+    setSearchResult(newResult);
+  }
+  
+  /**
+   * Updates the current search result to all nodes whose label or
+   * identifiers (see {@link NodeSearchIndex}) contain the given text
+   * and updates the enabled states of the support's clear, next,
+   * previous, and select all actions.
+   * @param text   text to search (ignoring case). If the specified text
+   * is {@code null} the current search result is reset to {@code null}, too.
+   * @param incremental   {@code true} if the current search result
+   * should be refined; {@code false} if all nodes of the support's
+   * associated graph view's graph should be considered.
+   * @see #search(SearchCriterion, boolean)
+   */
+  public void search( final String text, final boolean incremental ) {
+    SearchResult newResult = null;
+    if (text != null) {
+      final HashSet oldResult =
+          searchResult != null && incremental
+          ? new HashSet(searchResult.asCollection())
+          : null;
+      newResult = new SearchResult();
+      for (Node node : index.search(text)) {
+        if (oldResult == null || oldResult.contains(node)) {
+          newResult.add(node);
+        }
+      }
+    }
+    setSearchResult(newResult);
+  }
+  
+  /**
+   * Sets the current search result and updates the enabled states of
+   * the support's clear, next, previous, and select all actions.
+   * @param newResult   the new search result or {@code null}.
+   */
+  private void setSearchResult( final SearchResult newResult ) {
+    boolean resultChanged;
+    if (newResult != null) {
+      final Collection oldResult =
+          searchResult == null
+          ? Collections.EMPTY_SET
           : new HashSet(searchResult.asCollection());
-              final HashMap node2location = new HashMap();
-              searchResult = new SearchResult();
-              for (; nc.ok(); nc.next()) {
-                final Node node = nc.node();
-                if (query.accept(graph, node)) {
-                  searchResult.add(node);
-                  final NodeRealizer nr = graph.getRealizer(node);
-                  node2location.put(node, new Point2D.Double(nr.getX(), nr.getY()));
-                  if (!oldResult.contains(node)) {
-                    resultChanged = true;
-                  }
-                }
-              }
-              searchResult.sort(new Comparator() {
-                @Override
-                public int compare( final Object o1, final Object o2 ) {
-                  final Point2D p1 = (Point2D) node2location.get(o1);
-                  final Point2D p2 = (Point2D) node2location.get(o2);
-                  if (p1.getY() < p2.getY()) {
-                    return -1;
-                  } else if (p1.getY() > p2.getY()) {
-                    return 1;
-                  } else {
-                    if (p1.getX() < p2.getX()) {
-                      return -1;
-                    } else if (p1.getX() > p2.getX()) {
-                      return 1;
-                    } else {
-                      return 0;
-                    }
-                  }
-                }
-              });
-              resultChanged |= oldResult.size() != searchResult.asCollection().size();
-    } else if (searchResult != null) {
-      searchResult = null;
-      resultChanged = true;
+      resultChanged = oldResult.size() != newResult.asCollection().size() ||
+          !oldResult.containsAll(newResult.asCollection());
+    } else {
+      resultChanged = searchResult != null;
     }
+    searchResult = newResult;
     
     if (resultChanged) {
       final boolean state =
@@ -342,7 +419,7 @@ public class SearchSupport {
       @Override
       public void actionPerformed( final ActionEvent e ) {
         if (searchResult != null) {
-          search(null, false);
+          search((SearchCriterion) null, false);
           view.updateView();
         }
       }
@@ -413,6 +490,43 @@ public class SearchSupport {
     };
   }
   
+  /**
+   * Returns the support's associated <em>find</em> action.
+   * @return the support's associated <em>find</em> action.
+   * @see #createFindAction()
+   */
+  public Action getFindAction() {
+    if (find == null) {
+      find = createFindAction();
+    }
+    return find;
+  }
+  
+  /**
+   * Creates the support's associated <em>find</em> action.
+   * The default implementation asks for a text, searches all nodes
+   * that contain the text (see {@link #search(String, boolean)}) and
+   * emphasizes the first match.
+   * @return the support's associated <em>find</em> action.
+   */
+  protected Action createFindAction() {
+    return new AbstractAction("Find") {
+      @Override
+      public void actionPerformed( final ActionEvent e ) {
+        final String text = JOptionPane.showInputDialog(view, "Search:", "Find", JOptionPane.QUESTION_MESSAGE);
+        if (text != null && text.trim().length() > 0) {
+          search(text.trim(), false);
+          if (searchResult.asCollection().isEmpty()) {
+            emphasizeNode(null);
+          } else {
+            searchResult.emphasizeNext();
+            emphasizeNode(searchResult.emphasizedNode());
+          }
+        }
+      }
+    };
+  }
+  
   /**
    * Returns the support's associated <em>select all matches</em> action.
    * @return the support's associated <em>select all matches</em> action.
@@ -463,33 +577,38 @@ public class SearchSupport {
   }
   
   /**
-   * Creates a preconfigured action map for the support's
+   * Creates a preconfigured action map for the support's <em>find</em>,
    * <em>find next match</em> and <em>clear result} actions.
-   * @return a preconfigured action map for the support's
+   * @return a preconfigured action map for the support's <em>find</em>,
    * <em>find next match</em> and <em>clear result} actions.
+   * @see #getFindAction()
    * @see #getClearAction()
    * @see #getNextAction()
    */
   public ActionMap createActionMap() {
     final ActionMap amap = new ActionMap();
+    amap.put(FIND_ACTION_ID, getFindAction());
     amap.put(NEXT_ACTION_ID, getNextAction());
     amap.put(CLEAR_ACTION_ID, getClearAction());
     return amap;
   }
   
   /**
-   * Creates a preconfigured input map for the support's
+   * Creates a preconfigured input map for the support's <em>find</em>,
    * <em>find next match</em> and <em>clear result} actions.
-   * The default implementation maps the <em>find next match</em> action
+   * The default implementation maps the <em>find</em> action to
+   * {@code CTRL+F}, the <em>find next match</em> action
    * to the {@code F3} function key and the <em>clear search result</em>
    * action to the {@code ESCAPE} key.
-   * @return a preconfigured input map for the support's
+   * @return a preconfigured input map for the support's <em>find</em>,
    * <em>find next match</em> and <em>clear result} actions.
+   * @see #getFindAction()
    * @see #getClearAction()
    * @see #getNextAction()
    */
   public InputMap createDefaultInputMap() {
     final InputMap imap = new InputMap();
+    imap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_MASK), FIND_ACTION_ID);
     imap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), NEXT_ACTION_ID);
     imap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), CLEAR_ACTION_ID);
     return imap;
@@ -680,4 +799,4 @@ public class SearchSupport {
      */
     public boolean accept( Graph2D graph, Node node );
   }
-}
\ No newline at end of file
+}
\ No newline at end of file
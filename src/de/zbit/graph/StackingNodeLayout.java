@@ -21,7 +21,10 @@
 package de.zbit.graph;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import y.base.Node;
@@ -70,6 +73,25 @@ public class StackingNodeLayout {
    */
   private final double groupNodeHeaderHeight = 25;//23.2509766;
   
+  /**
+   * Maximum number of layouts in {@link #layoutCache}.
+   */
+  private final static int MAX_CACHED_LAYOUTS = 1000;
+  
+  /**
+   * Positions of all children, relative to {@link #firstX} and
+   * {@link #firstY}, of previous layouts by their {@link #signature}
+   * (least recently used first). Complexes with the same structure
+   * occur in many pathways and thus, need to be computed only once.
+   */
+  private final static Map<List<Double>, double[]> layoutCache = new LinkedHashMap<List<Double>, double[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = -2841350779474315617L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<List<Double>, double[]> eldest) {
+      return size() > MAX_CACHED_LAYOUTS;
+    }
+  };
+  
   /**
    * parent graph of given group node
    */
@@ -102,6 +124,29 @@ public class StackingNodeLayout {
    */
   List<Node> childs=null;
   
+  /**
+   * Width of every child in {@link #childs} (see {@link #getNodeWidth(NodeRealizer)}).
+   */
+  private double[] widths=null;
+  
+  /**
+   * Height of every child in {@link #childs} (see {@link #getNodeHeight(NodeRealizer)}).
+   */
+  private double[] heights=null;
+  
+  /**
+   * Parent of every child in {@link #childs}. The layout only compares
+   * parents, so parents are numbered in order of appearance (0 is the
+   * group node to layout).
+   */
+  private int[] parentIds=null;
+  
+  /**
+   * Everything the layout depends on: {@link #widths}, {@link #heights}
+   * and {@link #parentIds} of all children.
+   */
+  private List<Double> signature=null;
+  
   /**
    * @param graph parent graph
    * @param group group node to layout
@@ -111,7 +156,12 @@ public class StackingNodeLayout {
     this.graph = graph;
     this.recursive = recursive;
     prepareVariables(group);
-    layoutGroupNode(group);
+    double[] positions = getCachedLayout();
+    if (positions==null) {
+      positions = layoutGroupNode(group);
+      cacheLayout(positions);
+    }
+    applyLayout(positions);
     log.fine("Performing stacking layout on " + group);
   }
   
@@ -136,31 +186,33 @@ public class StackingNodeLayout {
   }
   
   /**
-   * Performs the stacking layout.<br/><i>
+   * Performs the stacking layout on the prepared sizes. Does not change
+   * any node.<br/><i>
    * Requires: {@link #prepareVariables(Node)} called in advance.</i>
    * @param group node to layout
+   * @return the x- and y-coordinate of every child (i.e., {@code 2*i}
+   * and {@code 2*i+1} for the i-th child) or {@code null}.
    */
-  private void layoutGroupNode(Node group) {
+  private double[] layoutGroupNode(Node group) {
     if (childs==null || group==null)
      {
-      return; // Trivial
+      return null; // Trivial
     }
+    double[] positions = new double[2*childs.size()];
     double cur_x = firstX;
     double cur_y = firstY;
     
     // Important: nodes in group nodes must come first and must be sorted
     // by hirarchy (group nodes they belong to)!
+    // The current parent is either the group (0) or a contained group.
     double maxHeightInRow=0;
-    List<Node> parents = new ArrayList<Node>();
-    parents.add(group);
-    for (Node child: childs) {
+    int currentParent = 0;
+    for (int i=0; i<positions.length/2; i++) {
       // Evaluate parent. Do we have to shift to a new line?
       // Do we have to consider space for another group node header?
-      Node parent = graph.getHierarchyManager().getParentNode(child);
-      if (!parent.equals(parents.get(parents.size()-1))) {
-        if (parents.size()>1) {
-          parents.remove(parents.size()-1);
-        }
+      int parent = parentIds[i];
+      if (parent!=currentParent) {
+        currentParent = 0;
         // NextRow, add Header.
         if (cur_x!=firstX) {
           cur_x=firstX;
@@ -169,28 +221,27 @@ public class StackingNodeLayout {
         }
         
         // Consider group node header and remember parent
-        if (!parent.equals(parents.get(parents.size()-1))) {
+        if (parent!=currentParent) {
           // we dived "deeper".
           cur_y+=groupNodeHeaderHeight;
-          parents.add(parent);
+          currentParent = parent;
         }
       }
       //----
       
       // Layout child
-      NodeRealizer cr = graph.getRealizer(child);
-      cr.setX(cur_x);
-      cr.setY(cur_y);
+      positions[2*i] = cur_x;
+      positions[2*i+1] = cur_y;
       
       // Calculate how many cols the node took
-      double w = getNodeWidth(cr);
+      double w = widths[i];
       int slotsTaken = (int) Math.ceil(w/(averageNodeWidth+inset));
       
       // Increment X
       cur_x+=(slotsTaken*(averageNodeWidth+inset));
       
       // Test if we need to jump to next line
-      maxHeightInRow = Math.max(maxHeightInRow, getNodeHeight(cr)+inset);
+      maxHeightInRow = Math.max(maxHeightInRow, heights[i]+inset);
       int usedSlotsInCurrentRow = (int) Math.ceil( (cur_x-firstX) / (averageNodeWidth+inset));
       if (usedSlotsInCurrentRow>=cols) {
         cur_x=firstX;
@@ -198,6 +249,69 @@ public class StackingNodeLayout {
         maxHeightInRow = 0;//averageNodeHeight;
       }
     }
+    return positions;
+  }
+  
+  /**
+   * Moves all {@link #childs} to the given positions.
+   * @param positions see {@link #layoutGroupNode(Node)}
+   */
+  private void applyLayout(double[] positions) {
+    if (positions==null) {
+      return;
+    }
+    int i=0;
+    for (Node child : childs) {
+      NodeRealizer cr = graph.getRealizer(child);
+      cr.setX(positions[i++]);
+      cr.setY(positions[i++]);
+    }
+  }
+  
+  /**
+   * Returns the positions of a previous layout with the same
+   * {@link #signature}.<br/><i>
+   * Requires: {@link #prepareVariables(Node)} called in advance.</i>
+   * @return the positions (see {@link #layoutGroupNode(Node)}) or
+   * {@code null} if no such layout has been cached.
+   */
+  private double[] getCachedLayout() {
+    if (signature==null) {
+      return null;
+    }
+    double[] offsets;
+    synchronized (layoutCache) {
+      offsets = layoutCache.get(signature);
+    }
+    if (offsets==null) {
+      return null;
+    }
+    
+    double[] positions = new double[offsets.length];
+    for (int i=0; i<positions.length; i+=2) {
+      positions[i] = firstX + offsets[i];
+      positions[i+1] = firstY + offsets[i+1];
+    }
+    return positions;
+  }
+  
+  /**
+   * Remembers the given positions, relative to {@link #firstX} and
+   * {@link #firstY}, for following groups with the same {@link #signature}.
+   * @param positions see {@link #layoutGroupNode(Node)}
+   */
+  private void cacheLayout(double[] positions) {
+    if (signature==null || positions==null) {
+      return;
+    }
+    double[] offsets = new double[positions.length];
+    for (int i=0; i<positions.length; i+=2) {
+      offsets[i] = positions[i] - firstX;
+      offsets[i+1] = positions[i+1] - firstY;
+    }
+    synchronized (layoutCache) {
+      layoutCache.put(signature, offsets);
+    }
   }
   
   /**
@@ -224,35 +338,51 @@ public class StackingNodeLayout {
    * node and all group nodes in this group node.
    */
   public List<Node> getChildrenDeep(Node group) {
-    // Put grouped nodes first in the set.
-    List<Node> childsInGroups = new ArrayList<Node>();
+    // Put grouped nodes first in the list. The ungrouped nodes of all
+    // open groups are collected on a stack and moved to the list when
+    // the group is complete. This avoids recursion for deeply nested groups.
+    List<Node> childs = new ArrayList<Node>();
     List<Node> childsSimple = new ArrayList<Node>();
+    List<NodeCursor> cursors = new ArrayList<NodeCursor>();
+    List<Integer> firstSimple = new ArrayList<Integer>();
     
     HierarchyManager hm = graph.getHierarchyManager();
     NodeCursor nc = hm.getChildren(group);
-    NodeList nl = nc==null?null:new NodeList(nc);
-    if (nl!=null) {
-      for (Object c : nl) {
-        Node current = (Node) c;
-        if (hm.isGroupNode(current)) {
-          childsInGroups.addAll(getChildrenDeep(current));
-        } else {
-          childsSimple.add(current);
+    if (nc!=null) {
+      cursors.add(nc);
+      firstSimple.add(0);
+    }
+    while (!cursors.isEmpty()) {
+      nc = cursors.get(cursors.size()-1);
+      if (!nc.ok()) {
+        // Group complete: append its ungrouped nodes
+        cursors.remove(cursors.size()-1);
+        int first = firstSimple.remove(firstSimple.size()-1);
+        List<Node> simple = childsSimple.subList(first, childsSimple.size());
+        childs.addAll(simple);
+        simple.clear();
+        continue;
+      }
+      Node current = nc.node();
+      nc.next();
+      if (hm.isGroupNode(current)) {
+        NodeCursor groupChilds = hm.getChildren(current);
+        if (groupChilds!=null) {
+          cursors.add(groupChilds);
+          firstSimple.add(childsSimple.size());
         }
+      } else {
+        childsSimple.add(current);
       }
     }
     
-    List<Node> childs = new ArrayList<Node>();
-    childs.addAll(childsInGroups);
-    childs.addAll(childsSimple);
-    
     return childs;
   }
   
   /**
-   * Examines widths and heights of all childs, also
-   * recurses and layout other group nodes if
-   * {@link #recursive} is true.
+   * Examines widths, heights and parents of all childs, also
+   * of the childs of other group nodes if {@link #recursive}
+   * is true.
    * @param group node to layout
    */
   private void prepareVariables(Node group) {
@@ -262,21 +392,46 @@ public class StackingNodeLayout {
     
     // Get size of all children
     childs = recursive?getChildrenDeep(group):getChildren(group);
-    List<Double> widths = new ArrayList<Double>();
+    if (childs==null) {
+      return;
+    }
+    widths = new double[childs.size()];
+    heights = new double[childs.size()];
+    parentIds = new int[childs.size()];
     double minX = Double.MAX_VALUE;
     double minY = Double.MAX_VALUE;
     
-    // Get width, height, x and y of every node.
+    HierarchyManager hm = graph.getHierarchyManager();
+    Map<Node, Integer> parents = new HashMap<Node, Integer>();
+    parents.put(group, 0);
+    signature = new ArrayList<Double>(3*childs.size());
+    
+    // Get width, height, x, y and parent of every node.
+    int i=0;
     for (Node n : childs) {
       NodeRealizer nr = graph.getRealizer(n);
       
-      widths.add(getNodeWidth(nr));
+      widths[i] = getNodeWidth(nr);
+      heights[i] = getNodeHeight(nr);
       minX = Math.min(nr.getX(), minX);
       minY = Math.min(nr.getY(), minY);
+      
+      Node parent = recursive ? hm.getParentNode(n) : group;
+      Integer parentId = parents.get(parent);
+      if (parentId==null) {
+        parentId = parents.size();
+        parents.put(parent, parentId);
+      }
+      parentIds[i] = parentId;
+      
+      signature.add(widths[i]);
+      signature.add(heights[i]);
+      signature.add((double) parentIds[i]);
+      i++;
     }
     
     // averageNodeWidth is the width of one column.
-    averageNodeWidth = MathUtils.median(widths);
+    averageNodeWidth = MathUtils.median(widths.clone());
     //averageNodeHeight = Math.min(averageNodeHeight, 30);
     //averageNodeWidth = Math.min(averageNodeWidth, 60);
     
@@ -48,6 +48,20 @@ public interface KEGGtranslatorCommandLineOnlyOptions extends KeyProvider {
       "Clear the cache of failed KEGG API queries (cases the application to retry those IDs).",Boolean.FALSE,
       Boolean.FALSE);
   
+  /**
+   * Save the names of translated entries next to the KEGG cache, such that
+   * later translations can reuse them.
+   */
+  public static final Option<Boolean> PERSIST_NAME_CACHE = new Option<Boolean>("PERSIST_NAME_CACHE",Boolean.class,
+      "Save the names assigned to KEGG entries next to the KEGG cache and reuse them in later runs (speeds up batch translations).",Boolean.TRUE);
+  
+  /**
+   * Save preprocessed pathways next to the KEGG cache, such that later
+   * runs can skip the preprocessing of the same pathways.
+   */
+  public static final Option<Boolean> PERSIST_PATHWAY_CACHE = new Option<Boolean>("PERSIST_PATHWAY_CACHE",Boolean.class,
+      "Save preprocessed pathways next to the KEGG cache and reuse them in later runs (speeds up repeated batch translations of the same files).",Boolean.FALSE);
+  
   /**
    * Causes a call to {@link InfoManagement#clearFailCache()} on startup.
    */
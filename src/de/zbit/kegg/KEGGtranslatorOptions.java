@@ -209,6 +209,14 @@ public abstract interface KEGGtranslatorOptions extends KeyProvider {
       "If true, creates separate nodes for reactions and connects all substrates, products and enzymes with them. This does only " +
           "affect metabolic reactions defined by KEGG, not the relations.", (short) 2, "-dar", false);
   
+  /**
+   * If true, large JPG and GIF images are written as tiles in the Deep Zoom
+   * format (see {@link de.zbit.graph.GraphImageRenderer#setTileLargeImages(boolean)}).
+   */
+  public static final Option<Boolean> TILE_LARGE_IMAGES = new Option<Boolean>("TILE_LARGE_IMAGES",Boolean.class,
+      "If true, JPG and GIF images that are too large to be kept in memory (e.g., of overview maps) are not written as one image, " +
+          "but as a tile pyramid in the Deep Zoom format: a descriptor 'name.dzi' and the tiles in the folder 'name_files'.", (short) 2, "-tileimages", false);
+  
   /**
    * Define various options that are used in yFiles based translations.
    */
@@ -216,7 +224,8 @@ public abstract interface KEGGtranslatorOptions extends KeyProvider {
   public static final OptionGroup<Boolean> GRAPH_OPTIONS = new OptionGroup<Boolean>(
       "Translation options for graphical outputs",
       "Define various options that are used in yFiles based translations.",
-      MERGE_NODES_WITH_SAME_EDGES, CREATE_EDGE_LABELS, HIDE_LABELS_FOR_COMPOUNDS, INCLUDE_NODES_FOR_METABOLIC_REACTIONS);
+      MERGE_NODES_WITH_SAME_EDGES, CREATE_EDGE_LABELS, HIDE_LABELS_FOR_COMPOUNDS, INCLUDE_NODES_FOR_METABOLIC_REACTIONS,
+      TILE_LARGE_IMAGES);
   
   /*
    * Funcional, SBML based translations
@@ -242,13 +251,57 @@ public abstract interface KEGGtranslatorOptions extends KeyProvider {
       "If true, uses the SBML level 3 groups extension to encode groups in the SBML document." +
           "As a side-effect, this will create an SBML Level 3 model.", (short) 2, "-groups", true);
   
+  /**
+   * If true, writes SBML files while translating, without building the
+   * whole document in memory.
+   */
+  public static final Option<Boolean> STREAM_SBML = new Option<Boolean>("STREAM_SBML",Boolean.class,
+      "If true, writes SBML files while translating, without keeping the whole document in memory. " +
+          "This is much faster for large pathways, but is only used if the layout and groups extensions are disabled.", (short) 2, "-stream", false);
+  
+  /**
+   * If true, creates the annotation of species and reactions on multiple
+   * processors. Hidden, because the speedup has not been measured yet.
+   */
+  public static final Option<Boolean> PARALLEL_SBML = new Option<Boolean>("PARALLEL_SBML",Boolean.class,
+      "If true, creates notes and MIRIAM annotations of species and reactions on all available processors. " +
+          "The result is identical to a sequential translation.", (short) 2, "-parallel", false, false);
+  
+  /**
+   * If true, writes SBML files without indentation.
+   */
+  public static final Option<Boolean> COMPACT_SBML = new Option<Boolean>("COMPACT_SBML",Boolean.class,
+      "If true, writes SBML files without indentation. This is faster and creates smaller files.", (short) 2, "-compact", false);
+  
+  /**
+   * If true, writes gzip-compressed SBML files.
+   */
+  public static final Option<Boolean> GZIP_SBML = new Option<Boolean>("GZIP_SBML",Boolean.class,
+      "If true, writes gzip-compressed SBML files (*.xml.gz). Output files ending with \".gz\" are always compressed.", (short) 2, "-gzip", false);
+  
+  /**
+   * Compression level for gzip-compressed SBML files.
+   */
+  public static final Option<Integer> GZIP_LEVEL = new Option<Integer>("GZIP_LEVEL",Integer.class,
+      "Compression level for gzip-compressed SBML files, from 1 (fastest) to 9 (smallest files).",
+      new Range<Integer>(Integer.class, "{[1,9]}"), (short) 2, 6, "-gzlevel");
+  
+  /**
+   * Additional SBML formats that are written next to each SBML file.
+   */
+  public static final Option<String> SBML_VARIANTS = new Option<String>("SBML_VARIANTS",String.class,
+      "Comma-separated list of additional SBML formats (SBML, SBML_L2V4, SBML_L2V5, SBML_L3V1, SBML_QUAL, SBML_CORE_AND_QUAL) " +
+      "that are written next to each SBML file. The pathway is translated only once and all formats are derived from it.",
+      (short) 2, "-variants", "");
+  
   /**
    * Define various options that are used in SBML based translations.
    */
   @SuppressWarnings("unchecked")
-  public static final OptionGroup<Boolean> SBML_OPTIONS = new OptionGroup<Boolean>(
+  public static final OptionGroup<?> SBML_OPTIONS = new OptionGroup<Object>(
       "Translation options for SBML outputs",
       "Define various options that are used in SBML based translations.",
-      CELLDESIGNER_ANNOTATIONS, ADD_LAYOUT_EXTENSION, USE_GROUPS_EXTENSION, CHECK_ATOM_BALANCE);
+      CELLDESIGNER_ANNOTATIONS, ADD_LAYOUT_EXTENSION, USE_GROUPS_EXTENSION, STREAM_SBML, PARALLEL_SBML, CHECK_ATOM_BALANCE,
+      COMPACT_SBML, GZIP_SBML, GZIP_LEVEL, SBML_VARIANTS);
   
 }
@@ -47,11 +47,16 @@ import de.zbit.kegg.ext.KEGGTranslatorPanelOptions;
 import de.zbit.kegg.gui.TranslatorUI;
 import de.zbit.kegg.io.AbstractKEGGtranslator;
 import de.zbit.kegg.io.BatchKEGGtranslator;
+import de.zbit.kegg.io.EntryNameCache;
 import de.zbit.kegg.io.KEGGtranslator;
 import de.zbit.kegg.io.KEGGtranslatorIOOptions;
 import de.zbit.kegg.io.KEGGtranslatorIOOptions.Format;
+import de.zbit.kegg.io.MiriamAnnotationCache;
+import de.zbit.kegg.io.PreprocessedPathwayCache;
+import de.zbit.kegg.io.TranslationContext;
 import de.zbit.util.ResourceManager;
 import de.zbit.util.prefs.KeyProvider;
+import de.zbit.util.prefs.Option;
 import de.zbit.util.prefs.SBPreferences;
 import de.zbit.util.prefs.SBProperties;
 
@@ -88,6 +93,18 @@ public class Translator extends Launcher {
    */
   public final static String cacheFunctionFileName = "keggfc.dat";
   
+  /**
+   * {@link File} name of the cache for preprocessed pathways. Only used if
+   * {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_PATHWAY_CACHE} is set.
+   */
+  public final static String cachePathwayFileName = "keggpw.dat";
+  
+  /**
+   * {@link File} name of the cache for names of entries. Only used if
+   * {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_NAME_CACHE} is set.
+   */
+  public final static String cacheNameFileName = "keggnames.dat";
+  
   /**
    * The {@link Logger} for this class.
    */
@@ -105,6 +122,24 @@ public class Translator extends Launcher {
    */
   private static KeggFunctionManagement managerFunction = null;
   
+  /**
+   * The cache for preprocessed pathways, shared by all translators.
+   * Access via {@link #getPathwayCache()}.
+   */
+  private static PreprocessedPathwayCache pathwayCache = null;
+  
+  /**
+   * The cache for names of entries, shared by all translators.
+   * Access via {@link #getEntryNameCache()}.
+   */
+  private static EntryNameCache nameCache = null;
+  
+  /**
+   * The cache for MIRIAM annotations, shared by all translators.
+   * Access via {@link #getAnnotationCache()}.
+   */
+  private static MiriamAnnotationCache annotationCache = null;
+  
   /**
    * Adjusts a few methods in KEGGtranslator to generate an ouput for
    * the path2models project if true.
@@ -252,6 +287,81 @@ public class Translator extends Launcher {
   }
   
   
+  /**
+   * @return the cache for preprocessed pathways. Loaded from
+   * {@link #cachePathwayFileName} on first access, if
+   * {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_PATHWAY_CACHE} is set.
+   */
+  public synchronized static PreprocessedPathwayCache getPathwayCache() {
+    if ((pathwayCache == null) && isPersistCache(KEGGtranslatorCommandLineOnlyOptions.PERSIST_PATHWAY_CACHE) &&
+        PreprocessedPathwayCache.isValidFile(new File(Translator.cachePathwayFileName))) {
+      try {
+        pathwayCache = PreprocessedPathwayCache.loadFromFilesystem(Translator.cachePathwayFileName);
+      } catch (Throwable e) { // IOException or incompatible file
+        logger.log(Level.FINE, e.getMessage(), e);
+        pathwayCache = null;
+        logger.info(MessageFormat.format("Deleting invalid cache file {0}.", Translator.cachePathwayFileName));
+        new File(Translator.cachePathwayFileName).delete();
+      }
+    }
+    
+    if (pathwayCache == null) {
+      pathwayCache = new PreprocessedPathwayCache(250);
+    }
+    
+    return pathwayCache;
+  }
+  
+  /**
+   * @return the cache for names of entries. Loaded from
+   * {@link #cacheNameFileName} on first access, if
+   * {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_NAME_CACHE} is set.
+   */
+  public synchronized static EntryNameCache getEntryNameCache() {
+    if ((nameCache == null) && isPersistCache(KEGGtranslatorCommandLineOnlyOptions.PERSIST_NAME_CACHE) &&
+        PreprocessedPathwayCache.isValidFile(new File(Translator.cacheNameFileName))) {
+      try {
+        nameCache = EntryNameCache.loadFromFilesystem(Translator.cacheNameFileName);
+      } catch (Throwable e) { // IOException or incompatible file
+        logger.log(Level.FINE, e.getMessage(), e);
+        nameCache = null;
+        logger.info(MessageFormat.format("Deleting invalid cache file {0}.", Translator.cacheNameFileName));
+        new File(Translator.cacheNameFileName).delete();
+      }
+    }
+    
+    if (nameCache == null) {
+      nameCache = new EntryNameCache(50000);
+    }
+    
+    return nameCache;
+  }
+  
+  /**
+   * @return the cache for MIRIAM annotations of entries.
+   */
+  public synchronized static MiriamAnnotationCache getAnnotationCache() {
+    if (annotationCache == null) {
+      annotationCache = new MiriamAnnotationCache(20000);
+    }
+    return annotationCache;
+  }
+  
+  /**
+   * @param option {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_NAME_CACHE}
+   * or {@link KEGGtranslatorCommandLineOnlyOptions#PERSIST_PATHWAY_CACHE}.
+   * @return the value of the given option.
+   */
+  private static boolean isPersistCache(Option<Boolean> option) {
+    try {
+      SBPreferences prefs = SBPreferences.getPreferencesFor(KEGGtranslatorCommandLineOnlyOptions.class);
+      return option.getValue(prefs);
+    } catch (Exception e) {
+      logger.log(Level.FINE, e.getMessage(), e);
+      return false;
+    }
+  }
+  
   /**
    * 
    * @param args
@@ -271,6 +381,14 @@ public class Translator extends Launcher {
     if ((managerFunction != null) && managerFunction.isCacheChangedSinceLastLoading()) {
       InfoManagement.saveToFilesystem(Translator.cacheFunctionFileName, managerFunction);
     }
+    if ((pathwayCache != null) && pathwayCache.hasChanged() &&
+        isPersistCache(KEGGtranslatorCommandLineOnlyOptions.PERSIST_PATHWAY_CACHE)) {
+      PreprocessedPathwayCache.saveToFilesystem(Translator.cachePathwayFileName, pathwayCache);
+    }
+    if ((nameCache != null) && nameCache.hasChanged() &&
+        isPersistCache(KEGGtranslatorCommandLineOnlyOptions.PERSIST_NAME_CACHE)) {
+      EntryNameCache.saveToFilesystem(Translator.cacheNameFileName, nameCache);
+    }
   }
   
   /**
@@ -303,6 +421,32 @@ public class Translator extends Launcher {
     return translator.translate(in);
   }
   
+  /**
+   * Same as {@link #translate(Format, File)}, but all settings are taken
+   * from the given {@code context} instead of the global preferences.
+   * This method may be called concurrently with different contexts.
+   * @param format
+   * @param in
+   * @param context
+   * @return the translated document or {@code null}.
+   * @throws IOException
+   */
+  public static Object translate(Format format, File in, TranslationContext context) throws IOException {
+    if ((in == null) || !in.canRead() || in.isDirectory()) {
+      logger.severe("Invalid or not-readable input file.");
+      return null;
+    }
+    
+    AbstractKEGGtranslator<?> translator = (AbstractKEGGtranslator<?>) BatchKEGGtranslator
+        .getTranslator(format, context.getManager());
+    if (translator == null) {
+      return null; // Error message already issued.
+    }
+    translator.setTranslationContext(context);
+    
+    return translator.translate(in);
+  }
+  
   /**
    * 
    * @param format One of all valid output {@link Format}s.
@@ -27,6 +27,7 @@ import java.util.List;
 import javax.swing.filechooser.FileFilter;
 
 import y.view.Graph2D;
+import de.zbit.graph.SearchSupport;
 import de.zbit.graph.gui.TranslatorGraphLayerPanel;
 import de.zbit.graph.gui.TranslatorPanel;
 import de.zbit.kegg.io.KEGG2yGraph;
@@ -108,6 +109,30 @@ public class TranslatorGraphPanel extends TranslatorGraphLayerPanel<Graph2D> {
     this(pathwayID, Format.GraphML, translationResult);
   }
   
+  /**
+   * Searches the genes in the pathway (see {@link SearchSupport}).
+   */
+  private SearchSupport searchSupport = null;
+  
+  /* (non-Javadoc)
+   * @see de.zbit.graph.gui.TranslatorGraphLayerPanel#createTabContent()
+   */
+  @Override
+  public void createTabContent() throws Exception {
+    super.createTabContent();
+    if ((searchSupport == null) && (getGraph2DView() != null)) {
+      searchSupport = SearchSupport.addSearchSupport(this, getGraph2DView());
+    }
+  }
+  
+  /**
+   * @return the {@link SearchSupport} of the displayed graph or
+   * {@code null} if the graph is not displayed yet.
+   */
+  public SearchSupport getSearchSupport() {
+    return searchSupport;
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.gui.TranslatorGraphLayerPanel#createGraphFromDocument(java.lang.Object)
    */
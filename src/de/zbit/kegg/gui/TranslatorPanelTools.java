@@ -23,6 +23,7 @@ package de.zbit.kegg.gui;
 import java.awt.event.ActionListener;
 import java.io.File;
 
+import de.zbit.graph.GraphImageRenderer;
 import de.zbit.graph.gui.TranslatorGraphLayerPanel;
 import de.zbit.graph.gui.TranslatorPanel;
 import de.zbit.graph.gui.options.GraphBackgroundImageProvider;
@@ -164,4 +165,27 @@ public class TranslatorPanelTools {
     writer.setBackgroundImageProvider(provider);
   }
   
+  /**
+   * Setup the background image as set in the preferences
+   * 
+   * @param renderer the renderer to add the background image
+   */
+  public static void setupBackgroundImage(GraphImageRenderer renderer) {
+    SBPreferences prefs = SBPreferences.getPreferencesFor(KEGGTranslatorPanelOptions.class);
+    renderer.setStaticBackgroundImage(null);
+    renderer.unsetPathwayBackgroundImage();
+    
+    if (KEGGTranslatorPanelOptions.SHOW_LOGO_IN_GRAPH_BACKGROUND.getValue(prefs)) {
+      renderer.setStaticBackgroundImage(TranslatorUI.getWatermarkLogoResource());
+      
+    } else if (KEGGTranslatorPanelOptions.SHOW_KEGG_PICTURE_IN_GRAPH_BACKGROUND.getValue(prefs)) {
+      Integer brighten = (KEGGTranslatorPanelOptions.BRIGHTEN_KEGG_BACKGROUND_IMAGE.getValue(prefs));
+      if (brighten==null || brighten<0) {
+        brighten = 0;
+      }
+      boolean greyscale = (KEGGTranslatorPanelOptions.GREYSCALE_KEGG_BACKGROUND_IMAGE.getValue(prefs));
+      renderer.setPathwayBackgroundImage(brighten, greyscale);
+    }
+  }
+  
 }
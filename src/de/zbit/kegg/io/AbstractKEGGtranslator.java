@@ -23,6 +23,7 @@ package de.zbit.kegg.io;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -47,7 +48,6 @@ import de.zbit.util.ArrayUtils;
 import de.zbit.util.EscapeChars;
 import de.zbit.util.StringUtil;
 import de.zbit.util.Utils;
-import de.zbit.util.prefs.SBPreferences;
 import de.zbit.util.progressbar.AbstractProgressBar;
 import de.zbit.util.progressbar.ProgressBar;
 
@@ -68,9 +68,11 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
   public static final transient Logger log = Logger.getLogger(AbstractKEGGtranslator.class.getName());
   
   /**
-   * SBPreferences object to store all preferences for this class.
+   * All settings of the current translation (cache, options, offline mode,
+   * progress bar). Options are read from this context and not directly
+   * from the user preferences.
    */
-  protected SBPreferences prefs = SBPreferences.getPreferencesFor(KEGGtranslatorOptions.class);
+  protected TranslationContext context;
   
   /**
    * Retrieve annotations from Kegg or use purely information available in the
@@ -133,8 +135,16 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
   /**
    * This manager uses a cache and retrieved informations from the KeggDB. By
    * using the cache, it is very fast in retrieving informations.
+   * Taken from the {@link #context} of this translator.
    */
-  protected static KeggInfoManagement manager;
+  protected KeggInfoManagement manager;
+  
+  /**
+   * The manager that is returned by {@link #getKeggInfoManager()}. Only used
+   * for classes that have no access to a translator instance (e.g., GUI
+   * elements). Translators use their own {@link #manager}.
+   */
+  private static KeggInfoManagement defaultManager;
   
   /**
    * A flag, if the last sbml file that has been written by this class was
@@ -149,11 +159,16 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
    */
   protected Pathway lastTranslatedPathway = null;
   
+  /**
+   * Lookup tables for the pathway that is currently being translated.
+   */
+  protected PathwayIndex pathwayIndex = null;
+  
   /**
    * Contains all ids already assigned to an element in, e.g., the sbml document.
    * Used for avoiding giving the same id to two or more different elements.
    */
-  protected Set<String> SIds = new HashSet<String>();
+  protected UniqueIdAllocator idAllocator = new UniqueIdAllocator();
   
   /**
    * ProgressBar for KEGG translation
@@ -169,13 +184,16 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
    * @param manage
    */
   public AbstractKEGGtranslator(KeggInfoManagement manage) {
-    if ((manager == null) && (manage == null)) {
-      Translator.getManager();
-    } else if (manage != null) {
-      setKeggInfoManager(manage);
-    }
-    
-    loadPreferences();
+    this(TranslationContext.fromPreferences(manage));
+  }
+  
+  /**
+   * @param context the settings to use for all translations of this
+   * instance, unless another context is given to
+   * {@link #translate(Pathway, TranslationContext)}.
+   */
+  public AbstractKEGGtranslator(TranslationContext context) {
+    applyTranslationContext(context);
   }
   
   
@@ -272,17 +290,82 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
   }
   
   /**
-   * See {@link #manager}
+   * See {@link #defaultManager}. This does not change the cache of
+   * existing translators, use {@link #setTranslationContext(TranslationContext)}
+   * for this purpose.
    * @param manage
    */
   public static void setKeggInfoManager(KeggInfoManagement manage) {
-    manager = manage;
+    defaultManager = manage;
   }
   /**
-   * @return - see {@link #manager}.
+   * @return - see {@link #defaultManager}. If none has been set, the
+   * application wide {@link Translator#getManager()}.
    */
   public static KeggInfoManagement getKeggInfoManager() {
-    return manager;
+    return (defaultManager != null) ? defaultManager : Translator.getManager();
+  }
+  
+  /**
+   * @return the {@link TranslationContext} of the current (or next) translation.
+   */
+  public TranslationContext getTranslationContext() {
+    return context;
+  }
+  
+  /**
+   * Replaces the cache, progress bar and all options of this translator by
+   * those contained in the given context. Previous calls to setters like
+   * {@link #setRemoveOrphans(boolean)} are overwritten.
+   * <p>Extending classes that read own options from the context must
+   * override this method and call the super method first.
+   * @param context
+   */
+  public void setTranslationContext(TranslationContext context) {
+    applyTranslationContext(context);
+  }
+  
+  /**
+   * Creates a context that reflects the current settings of this
+   * translator, including all changes made by setters like
+   * {@link #setRemoveOrphans(boolean)} after the last call to
+   * {@link #setTranslationContext(TranslationContext)}. Use this to
+   * configure further translators exactly like this one.
+   * <p>Extending classes with own options must override this method
+   * and add their options to the context of the super method.
+   * @return a new context.
+   */
+  public TranslationContext createTranslationContext() {
+    TranslationContext ret = context.withManager(manager).withOfflineMode(!retrieveKeggAnnots)
+        .withOption(KEGGtranslatorOptions.REMOVE_ORPHANS, removeOrphans)
+        .withOption(KEGGtranslatorOptions.REMOVE_WHITE_GENE_NODES, removeWhiteNodes)
+        .withOption(KEGGtranslatorOptions.AUTOCOMPLETE_REACTIONS, autocompleteReactions)
+        .withOption(KEGGtranslatorOptions.CHECK_ATOM_BALANCE, checkAtomBalance)
+        .withOption(KEGGtranslatorOptions.GENE_NAMES, nameToAssign)
+        .withOption(KEGGtranslatorOptions.SHOW_FORMULA_FOR_COMPOUNDS, showFormulaForCompounds)
+        .withOption(KEGGtranslatorOptions.REMOVE_PATHWAY_REFERENCES, removePathwayReferences);
+    return (progress != null) ? ret.withProgressBar(progress) : ret;
+  }
+  
+  /**
+   * Remembers the context and loads all options of this class from it.
+   * @param context
+   */
+  private void applyTranslationContext(TranslationContext context) {
+    this.context = context;
+    manager = (context.getManager() != null) ? context.getManager() : Translator.getManager();
+    if (context.getProgressBar() != null) {
+      setProgressBar(context.getProgressBar());
+    }
+    loadPreferences();
+  }
+  
+  /**
+   * @return true if the output should be adjusted for the path2models project.
+   * @see TranslationContext#isPath2Models()
+   */
+  protected boolean isPath2Models() {
+    return (context != null) && context.isPath2Models();
   }
   /**
    * {@inheritDoc}
@@ -303,6 +386,25 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
     return lastTranslatedPathway;
   }
   
+  /**
+   * @return lookup tables for the pathway that is currently (or has
+   * last been) translated.
+   */
+  public PathwayIndex getPathwayIndex() {
+    return pathwayIndex;
+  }
+  
+  /**
+   * @param p
+   * @return lookup tables for {@code p}. Only built once per translation.
+   */
+  protected PathwayIndex getPathwayIndex(Pathway p) {
+    if ((pathwayIndex == null) || (pathwayIndex.getPathway() != p)) {
+      pathwayIndex = new PathwayIndex(p);
+    }
+    return pathwayIndex;
+  }
+  
   /**
    * Set a progressBar that should be used to display the
    * status of the conversion.
@@ -325,16 +427,16 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
    * FUNCTIONS
    * ===========================*/
   
-  /** Load the default preferences from the SBPreferences object. */
+  /** Load the options from the current {@link TranslationContext}. */
   private void loadPreferences() {
-    removeOrphans = KEGGtranslatorOptions.REMOVE_ORPHANS.getValue(prefs);
-    retrieveKeggAnnots = !KEGGtranslatorOptions.OFFLINE_MODE.getValue(prefs);
-    removeWhiteNodes = KEGGtranslatorOptions.REMOVE_WHITE_GENE_NODES.getValue(prefs);
-    autocompleteReactions = KEGGtranslatorOptions.AUTOCOMPLETE_REACTIONS.getValue(prefs);
-    checkAtomBalance = KEGGtranslatorOptions.CHECK_ATOM_BALANCE.getValue(prefs);
-    nameToAssign = KEGGtranslatorOptions.GENE_NAMES.getValue(prefs);
-    showFormulaForCompounds = KEGGtranslatorOptions.SHOW_FORMULA_FOR_COMPOUNDS.getValue(prefs);
-    removePathwayReferences = KEGGtranslatorOptions.REMOVE_PATHWAY_REFERENCES.getValue(prefs);
+    removeOrphans = context.getOption(KEGGtranslatorOptions.REMOVE_ORPHANS);
+    retrieveKeggAnnots = !context.isOfflineMode();
+    removeWhiteNodes = context.getOption(KEGGtranslatorOptions.REMOVE_WHITE_GENE_NODES);
+    autocompleteReactions = context.getOption(KEGGtranslatorOptions.AUTOCOMPLETE_REACTIONS);
+    checkAtomBalance = context.getOption(KEGGtranslatorOptions.CHECK_ATOM_BALANCE);
+    nameToAssign = context.getOption(KEGGtranslatorOptions.GENE_NAMES);
+    showFormulaForCompounds = context.getOption(KEGGtranslatorOptions.SHOW_FORMULA_FOR_COMPOUNDS);
+    removePathwayReferences = context.getOption(KEGGtranslatorOptions.REMOVE_PATHWAY_REFERENCES);
   }
   
   
@@ -353,11 +455,8 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
     boolean completeAndCacheReactions = considerReactions()&&autocompleteReactions;
     //TODO: or should auto... be set in the qual class?
     
-    if (!retrieveKeggAnnots) {
-      KeggInfoManagement.offlineMode = true;
-    } else {
-      KeggInfoManagement.offlineMode = false;
-      
+    updateOfflineMode();
+    if (retrieveKeggAnnots) {
       // Remove pathway references
       if (removePathwayReferences) {
         KeggTools.removePathwayEntries(p);
@@ -365,7 +464,7 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
       
       // Prefetch kegg information (enormous speed improvement).
       log.info("Fetching information from KEGG online resources... ");
-      KeggTools.preFetchInformation(p,manager,completeAndCacheReactions, progress);
+      preFetchInformation(p, completeAndCacheReactions, getAnnotationFields());
       
       // Auto-complete the reaction by adding all substrates, products and enzymes.
       if (completeAndCacheReactions) {
@@ -397,6 +496,131 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
     }
   }
   
+  /**
+   * Prefetches all KEGG entries that are required to provide the given
+   * fields. If only information about the pathway's entries is required,
+   * the organism, pathway and reaction entries are not fetched.
+   * @param p
+   * @param completeAndCacheReactions also fetch reactions (required
+   * for the auto-completion).
+   * @param fields required {@link AnnotationField}s.
+   */
+  private void preFetchInformation(Pathway p, boolean completeAndCacheReactions, Set<AnnotationField> fields) {
+    if (completeAndCacheReactions || AnnotationField.requiresMoreThanEntries(fields)) {
+      KeggTools.preFetchInformation(p, manager, completeAndCacheReactions, progress);
+      return;
+    }
+    
+    Set<String> ids = new HashSet<String>();
+    for (Entry e : p.getEntries()) {
+      for (String ko_id : e.getName().split(" ")) {
+        if (ko_id.contains(":")) {
+          ids.add(ko_id);
+        }
+      }
+    }
+    manager.precacheIDs(ids.toArray(new String[ids.size()]), progress);
+    
+    // Make entries also accessible by their synonyms (same as in KeggTools).
+    for (Entry e : p.getEntries()) {
+      for (String ko_id : e.getName().split(" ")) {
+        KeggInfos infos = ko_id.contains(":") ? KeggInfos.get(ko_id, manager) : null;
+        if ((infos != null) && (infos.getSameAs() != null)) {
+          for (String synonym : infos.getSameAs().split("\\s")) {
+            if (synonym.trim().length() > 0) {
+              p.putEntrySynonymsInNameMap(e, synonym);
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Declares all fields of KEGG entries that this translator reads.
+   * Used to decide which KEGG entries must be prefetched. The default
+   * implementation covers the fields required by
+   * {@link #getNameForEntry(Entry, KeggInfos...)}. Extending classes
+   * that read more information must override this method.
+   * @return required {@link AnnotationField}s.
+   */
+  protected Set<AnnotationField> getAnnotationFields() {
+    Set<AnnotationField> fields = EnumSet.of(AnnotationField.NAMES, AnnotationField.DEFINITION);
+    if (showFormulaForCompounds) {
+      fields.add(AnnotationField.CHEMISTRY);
+    }
+    if (nameToAssign.equals(KEGGtranslatorOptions.NODE_NAMING.INTELLIGENT_WITH_EC_NUMBERS)) {
+      fields.add(AnnotationField.ORTHOLOGY);
+    }
+    return fields;
+  }
+  
+  /**
+   * The offline flag of the cache is static in SysBio. Only write it
+   * if it changes, so that concurrent translations with equal
+   * settings don't interfere.
+   */
+  private void updateOfflineMode() {
+    if (KeggInfoManagement.offlineMode == retrieveKeggAnnots) {
+      KeggInfoManagement.offlineMode = !retrieveKeggAnnots;
+    }
+  }
+  
+  /**
+   * Like {@link #preProcessPathway(Pathway)}, but looks up the result
+   * in the {@link PreprocessedPathwayCache} of the current {@link #context}
+   * first and stores it there afterwards.
+   * <p>Unlike {@link #preProcessPathway(Pathway)}, {@code p} is not
+   * always modified in place: on a cache hit, {@code p} stays as it is
+   * and the copy from the cache is returned. Callers must continue with
+   * the returned pathway.
+   * @param p {@link Pathway}, as parsed from KGML.
+   * @return the preprocessed pathway. Either {@code p} itself (preprocessed
+   * in place) or a copy from the cache.
+   */
+  private Pathway preProcessPathwayCached(Pathway p) {
+    PreprocessedPathwayCache cache = (context != null) ? context.getPathwayCache() : null;
+    if (cache == null) {
+      preProcessPathway(p);
+      return p;
+    }
+    
+    String key = PreprocessedPathwayCache.createKey(p, getPreprocessingFingerprint());
+    Pathway cached = cache.get(key);
+    if (cached != null) {
+      log.fine(MessageFormat.format("Using cached preprocessed pathway for {0}.", p.getName()));
+      updateOfflineMode();
+      if (retrieveKeggAnnots) {
+        // Pathway is complete, but KEGG information is still required
+        // during translation. Just a lookup if the KEGG cache is filled.
+        preFetchInformation(cached, considerReactions()&&autocompleteReactions, getAnnotationFields());
+      }
+      return cached;
+    }
+    
+    preProcessPathway(p);
+    cache.put(key, p);
+    return p;
+  }
+  
+  /**
+   * @return a string that contains all settings of this translator
+   * that change the result of {@link #preProcessPathway(Pathway)}.
+   */
+  protected String getPreprocessingFingerprint() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(retrieveKeggAnnots ? 'k' : '-');
+    sb.append(removePathwayReferences ? 'p' : '-');
+    sb.append(considerReactions()&&autocompleteReactions ? 'a' : '-');
+    sb.append(considerReactions() ? 'r' : '-');
+    sb.append(removeWhiteNodes ? 'w' : '-');
+    if (removeOrphans) {
+      sb.append('o');
+      sb.append(considerRelations() ? 'l' : '-');
+    }
+    return sb.toString();
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.KEGGtranslator#translate(de.zbit.kegg.parser.pathway.Pathway, java.lang.String)
    */
@@ -413,23 +637,30 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
   }
   
   
+  /**
+   * Translates the given pathway to the target document, using the cache,
+   * options and progress bar of the given {@code context}. The context is
+   * kept for subsequent calls to {@link #translate(Pathway)}.
+   * @param p - the Kegg Pathway.
+   * @param context - all settings for this translation.
+   * @return OutputFormat
+   */
+  public OutputFormat translate(Pathway p, TranslationContext context) {
+    setTranslationContext(context);
+    return translate(p);
+  }
+  
   /**
    * Translates the given pathway to the target document.
+   * If a {@link PreprocessedPathwayCache} is used, {@code p} itself might
+   * not be preprocessed (see {@link #getLastTranslatedPathway()}).
    * @param p - the Kegg Pathway.
    * @return OutputFormat
    */
   @Override
   public OutputFormat translate(Pathway p) {
     // REMARK: This class is and must be called by all other translate functions.
-    preProcessPathway(p);
-    
-    // Reset lists and buffers.
-    SIds = new HashSet<String>(); // Reset list of given SIDs. These are being remembered to avoid double ids.
-    
-    // Remember just the pathway object with core information for later information
-    //lastTranslatedPathway = new Pathway(p.getName(), p.getOrg(), p.getNumber(), p.getTitle(), p.getImage(), p.getLink());
-    // Since some methods really need the whole document, we now store it.
-    lastTranslatedPathway = p;
+    p = prepareTranslation(p);
     
     OutputFormat doc = null;
     try {
@@ -449,6 +680,26 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
     return doc;
   }
   
+  /**
+   * Preprocesses the given pathway (or takes it from the cache) and resets
+   * all lists and buffers. Must be called before every translation.
+   * @param p the pathway to translate.
+   * @return the preprocessed pathway.
+   */
+  protected Pathway prepareTranslation(Pathway p) {
+    p = preProcessPathwayCached(p);
+    
+    // Reset lists and buffers.
+    idAllocator.clear(); // Reset list of given SIDs. These are being remembered to avoid double ids.
+    
+    // Remember just the pathway object with core information for later information
+    //lastTranslatedPathway = new Pathway(p.getName(), p.getOrg(), p.getNumber(), p.getTitle(), p.getImage(), p.getLink());
+    // Since some methods really need the whole document, we now store it.
+    lastTranslatedPathway = p;
+    pathwayIndex = new PathwayIndex(p);
+    return p;
+  }
+  
   /**
    * A {@link Logger} for this class.
    */
@@ -583,6 +834,9 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
    * Convenient method to be called by extending classes that
    * returns the name to assign for an entry, based on the
    * current user selection ({@link #nameToAssign}).
+   * <p>If no {@link KeggInfos} are given, names are looked up in
+   * (and stored in) the {@link EntryNameCache} of the current
+   * {@link #context}.
    * @param entry
    * @param infos already queried {@link KeggInfos}
    * @return {@link String} to use as label for the {@link Entry}.
@@ -590,8 +844,20 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
   protected String getNameForEntry(Entry entry, KeggInfos... infos) {
     
     // Query API
+    EntryNameCache nameCache = null;
+    String key = null;
     if ((infos == null) || (infos.length == 0) ||
         ((infos.length == 1) && (infos[0] == null))) {
+      // Names from KGML don't require the API and are thus not cached
+      nameCache = context.getEntryNameCache();
+      if ((nameCache != null) && !nameToAssign.equals(KEGGtranslatorOptions.NODE_NAMING.FIRST_NAME_FROM_KGML)) {
+        key = EntryNameCache.createKey(entry, nameToAssign, showFormulaForCompounds);
+        String cached = nameCache.get(key);
+        if (cached != null) {
+          return cached;
+        }
+      }
+      
       List<KeggInfos> list = new LinkedList<KeggInfos>();
       for (String ko_id:entry.getName().split(" ")) {
         // Do not consider group nodes
@@ -606,8 +872,10 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
     
     // Concatenate names and check for compound option
     StringBuilder name = new StringBuilder();
+    boolean complete = true;
     for (int i=0; i<infos.length; i++) {
       if (infos[i]==null || !infos[i].queryWasSuccessfull()) {
+        complete = false;
         continue;
       }
       if (name.length()>0 && name.charAt(name.length()-1)!=';') {
@@ -627,7 +895,13 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
       }
     }
     
-    return getNameForEntry(entry, name.toString());
+    String ret = getNameForEntry(entry, name.toString());
+    
+    // Only remember names that are not just a fallback for missing information
+    if ((key != null) && complete && (name.length() > 0)) {
+      nameCache.put(key, ret);
+    }
+    return ret;
   }
   
   
@@ -855,76 +1129,10 @@ public abstract class AbstractKEGGtranslator<OutputFormat> implements KEGGtransl
    * 
    * @param name
    * @return SId
+   * @see UniqueIdAllocator#toSId(String)
    */
   protected String NameToSId(String name) {
-    /*
-     * letter = a-z,A-Z; digit = 0-9; idChar = (letter | digit | _ );
-     * SId = ( letter | _ ) idChar*
-     */
-    String ret;
-    if (name == null || name.trim().length() == 0) {
-      ret = incrementSIdSuffix("SId");
-      SIds.add(ret);
-    } else {
-      name = name.trim();
-      StringBuilder ret2 = new StringBuilder(name.length()+4);
-      char c = name.charAt(0);
-      
-      // Must start with letter or '_'.
-      if (!(isLetter(c) || (c == '_'))) {
-        ret2.append("SId_");
-      } else {
-        ret2.append(c);
-      }
-      
-      // May contain letters, digits or '_'
-      for (int i = 1; i < name.length(); i++) {
-        c = name.charAt(i);
-        if (c==' ') {
-          c='_'; // Replace spaces with "_"
-        }
-        
-        if (isLetter(c) || Character.isDigit(c) || (c == '_')) {
-          ret2.append(c);
-        } // else: skip invalid characters
-      }
-      
-      // Make unique
-      ret = ret2.toString();
-      if (SIds.contains(ret)) {
-        ret = incrementSIdSuffix(ret);
-      }
-      SIds.add(ret);
-    }
-    
-    return ret;
-  }
-  
-  /**
-   * Returns true if c is out of A-Z or a-z.
-   * @param c
-   * @return
-   */
-  private static boolean isLetter(char c) {
-    // Unfortunately Character.isLetter also accepts symbols that SBML doesn't.
-    // a-z or A-Z
-    return (c>=97 && c<=122) || (c>=65 && c<=90);
-  }
-  
-  /**
-   * Appends "_<Number>" to a given String. <Number> is being set to the next
-   * free number, so that this sID is unique in this sbml document. Should
-   * only be called from "NameToSId".
-   * 
-   * @return
-   */
-  private String incrementSIdSuffix(String prefix) {
-    int i = 1;
-    String aktString = prefix + "_" + i;
-    while (SIds.contains(aktString)) {
-      aktString = prefix + "_" + (++i);
-    }
-    return aktString;
+    return idAllocator.toSId(name);
   }
   
   
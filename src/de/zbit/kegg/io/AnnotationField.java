@@ -0,0 +1,84 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.util.Set;
+
+/**
+ * Groups of fields of KEGG entries, as parsed by
+ * {@link de.zbit.kegg.api.KeggInfos}. Translators declare the fields
+ * they consume via {@link AbstractKEGGtranslator#getAnnotationFields()}
+ * and only the KEGG entries that are required to provide those fields
+ * are fetched. Additional entries are fetched lazily, when a translator
+ * that requires more fields is used later on.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public enum AnnotationField {
+  /**
+   * Identifier and synonyms of all entries.
+   */
+  NAMES,
+  /**
+   * Free-text definition or description of all entries.
+   */
+  DEFINITION,
+  /**
+   * KEGG orthology of all entries, also used to derive EC numbers.
+   */
+  ORTHOLOGY,
+  /**
+   * Links of all entries to other databases (Entrez, UniProt, ChEBI,
+   * CAS, GO, ...).
+   */
+  CROSS_REFERENCES,
+  /**
+   * Formula, mass and molecular weight of compounds.
+   */
+  CHEMISTRY,
+  /**
+   * Taxonomy and description of the organism of the pathway.
+   * Requires the organism entry.
+   */
+  ORGANISM,
+  /**
+   * Name and description of the pathway itself.
+   * Requires the pathway entry.
+   */
+  PATHWAY,
+  /**
+   * Equations and enzymes of reactions. Requires all reaction
+   * entries and all compounds and enzymes occurring in them.
+   */
+  REACTIONS;
+
+  /**
+   * @param fields
+   * @return true if any of the given fields requires more than the
+   * KEGG entries of the pathway's entries.
+   */
+  public static boolean requiresMoreThanEntries(Set<AnnotationField> fields) {
+    return fields.contains(ORGANISM) || fields.contains(PATHWAY) || fields.contains(REACTIONS);
+  }
+
+}
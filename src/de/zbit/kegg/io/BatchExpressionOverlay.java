@@ -0,0 +1,482 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import y.base.Node;
+import y.view.Graph2D;
+import de.zbit.graph.ColorScale;
+import de.zbit.graph.GraphImageRenderer;
+import de.zbit.io.FileTools;
+import de.zbit.io.filefilter.SBFileFilter;
+import de.zbit.kegg.Translator;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.gui.TranslatorPanelTools;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Pathway;
+import de.zbit.util.TranslatorTools;
+
+/**
+ * Colors the genes of many pathways by values of many samples (e.g., fold
+ * changes) and writes one image or graph file per pathway and sample,
+ * without any user interface.
+ *
+ * <p>Every pathway is translated only once and the same {@link Graph2D} is
+ * recolored for all samples (see
+ * {@link TranslatorTools#setNodeColorsByNode(Map, Color, boolean)}).
+ * Pathways are translated one after another on the calling thread, because
+ * translators and the {@link KeggInfoManagement} are not thread-safe. Only
+ * the recoloring and rendering of the translated graphs runs in parallel.
+ * A node
+ * with several genes gets the color of the value with the largest absolute
+ * value among its genes.</p>
+ *
+ * <p>Usage: {@code BatchExpressionOverlay <kgmlDir> <table> <outDir> [format...]},
+ * where table is a tab-separated file with a header line of sample names
+ * and one line per gene, starting with the Entrez gene identifier.</p>
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class BatchExpressionOverlay {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(BatchExpressionOverlay.class.getName());
+
+  /**
+   * Settings and caches of all translations.
+   */
+  private final TranslationContext context;
+
+  /**
+   * Number of pathways that are recolored and rendered at the same time.
+   */
+  private final int threads;
+
+  /**
+   * Writes the images and graph files.
+   */
+  private final GraphImageRenderer renderer;
+
+  /**
+   * Translates all pathways. Only used by the thread that calls
+   * {@link #run(Collection, String)}.
+   */
+  private KEGG2yGraph translator = null;
+
+  /**
+   * Values of every sample, by Entrez gene identifier.
+   */
+  private final Map<String, Map<Integer, Double>> samples = new LinkedHashMap<String, Map<Integer, Double>>();
+
+  /**
+   * Maps values to colors. If {@code null}, a fold change scale with the
+   * strongest absolute value of all samples is used.
+   */
+  private ColorScale scale = null;
+
+  /**
+   * Color of all nodes without a value.
+   */
+  private Color colorForOthers = Color.LIGHT_GRAY;
+
+  /**
+   * File extensions of all files to write for each pathway and sample.
+   */
+  private List<String> formats = Arrays.asList("jpg");
+
+  /**
+   * Uses the {@link KeggInfoManagement} of the {@link Translator} and
+   * one thread for every processor.
+   */
+  public BatchExpressionOverlay() {
+    this(TranslationContext.fromPreferences(Translator.getManager()), Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param context settings for all translations.
+   * @param threads number of pathways to recolor and render at the same time.
+   */
+  public BatchExpressionOverlay(TranslationContext context, int threads) {
+    super();
+    this.context = context;
+    this.threads = Math.max(1, threads);
+    renderer = new GraphImageRenderer(this.threads);
+    TranslatorPanelTools.setupBackgroundImage(renderer);
+  }
+
+  /**
+   * @param args kgmlDir, table, outDir and optionally the formats to write.
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args == null || args.length < 3) {
+      System.err.println("Usage: BatchExpressionOverlay <kgmlDir> <table> <outDir> [format...]");
+      return;
+    }
+    // Images are rendered without any window
+    System.setProperty("java.awt.headless", "true");
+    BatchExpressionOverlay overlay = new BatchExpressionOverlay();
+    overlay.readSamples(new File(args[1]));
+    if (args.length > 3) {
+      overlay.setFormats(Arrays.asList(args).subList(3, args.length));
+    }
+    overlay.run(new File(args[0]), args[2]);
+    Translator.saveCache();
+  }
+
+  /*===========================
+   * Getters and Setters
+   * ===========================*/
+
+  /**
+   * @return the scale to map values to colors or {@code null} if it
+   * is derived from the values.
+   */
+  public ColorScale getColorScale() {
+    return scale;
+  }
+
+  /**
+   * @param scale the scale to map values to colors. If {@code null}, a
+   * fold change scale with the strongest absolute value of all samples
+   * is used (see {@link ColorScale#createFoldChangeScale(double)}).
+   */
+  public void setColorScale(ColorScale scale) {
+    this.scale = scale;
+  }
+
+  /**
+   * @return the color of all nodes without a value.
+   */
+  public Color getColorForOthers() {
+    return colorForOthers;
+  }
+
+  /**
+   * @param colorForOthers the color of all nodes without a value (except
+   * pathway references) or {@code null} to keep their color.
+   */
+  public void setColorForOthers(Color colorForOthers) {
+    this.colorForOthers = colorForOthers;
+  }
+
+  /**
+   * @return the file extensions of all files to write for each pathway
+   * and sample.
+   */
+  public List<String> getFormats() {
+    return formats;
+  }
+
+  /**
+   * @param formats file extensions of all files to write for each pathway
+   * and sample, e.g., "jpg", "svg" or "graphml".
+   */
+  public void setFormats(List<String> formats) {
+    this.formats = new ArrayList<String>(formats);
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Adds a sample. Genes without a value or with {@link Double#NaN} are
+   * colored with {@link #getColorForOthers()}.
+   * @param name name of the sample, which is used as name of the output
+   * folder of this sample.
+   * @param values values by Entrez gene identifier.
+   */
+  public void addSample(String name, Map<Integer, ? extends Number> values) {
+    Map<Integer, Double> copy = new HashMap<Integer, Double>();
+    for (Entry<Integer, ? extends Number> e : values.entrySet()) {
+      if ((e.getKey() != null) && (e.getValue() != null)) {
+        copy.put(e.getKey(), e.getValue().doubleValue());
+      }
+    }
+    samples.put(name, copy);
+  }
+
+  /**
+   * Adds all samples of a tab-separated table. The first line contains the
+   * names of the samples (the first column is ignored), every other line
+   * an Entrez gene identifier followed by one value per sample. Values
+   * that are not numbers are skipped.
+   * @param table
+   * @throws IOException
+   */
+  public void readSamples(File table) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(table));
+    try {
+      String line = in.readLine();
+      if (line == null) {
+        return;
+      }
+      String[] names = line.split("\t");
+      List<Map<Integer, Double>> values = new ArrayList<Map<Integer, Double>>();
+      for (int i = 1; i < names.length; i++) {
+        values.add(new HashMap<Integer, Double>());
+      }
+      while ((line = in.readLine()) != null) {
+        String[] cells = line.split("\t");
+        Integer id;
+        try {
+          id = Integer.valueOf(cells[0].trim());
+        } catch (NumberFormatException e) {
+          log.fine("Skipping line without gene identifier: " + line);
+          continue;
+        }
+        for (int i = 1; i < Math.min(cells.length, names.length); i++) {
+          try {
+            values.get(i - 1).put(id, Double.valueOf(cells[i].trim()));
+          } catch (NumberFormatException e) {
+            // No value for this sample
+          }
+        }
+      }
+      for (int i = 1; i < names.length; i++) {
+        addSample(names[i].trim(), values.get(i - 1));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Processes all KGML files in {@code kgmlDir} (not recursive).
+   * @param kgmlDir a folder with KGML files or a single KGML file.
+   * @param outDir
+   * @return the number of files written.
+   */
+  public int run(File kgmlDir, String outDir) {
+    List<File> files = new ArrayList<File>();
+    File[] children = kgmlDir.isDirectory() ? kgmlDir.listFiles() : new File[] {kgmlDir};
+    if (children != null) {
+      for (File f : children) {
+        if (f.isFile() && SBFileFilter.isKGML(f)) {
+          files.add(f);
+        }
+      }
+    }
+    return run(files, outDir);
+  }
+
+  /**
+   * Translates and colors every pathway of the given KGML files for every
+   * sample. The files are written to "outDir/sample/file.format", where
+   * "file" is the name of the KGML file without extension.
+   * @param kgmlFiles
+   * @param outDir
+   * @return the number of files written.
+   */
+  public int run(Collection<File> kgmlFiles, final String outDir) {
+    final ColorScale scale = getScale();
+    if (translator == null) {
+      translator = KEGG2yGraph.createKEGG2GraphML(context.getManager());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    LinkedList<Future<Integer>> jobs = new LinkedList<Future<Integer>>();
+    LinkedList<String> names = new LinkedList<String>();
+    int written = 0;
+    try {
+      for (File f : kgmlFiles) {
+        List<Pathway> pathways;
+        try {
+          pathways = KeggParser.parse(f.getPath());
+        } catch (Exception e) {
+          log.log(Level.WARNING, "Could not parse " + f, e);
+          continue;
+        }
+        String base = FileTools.removeFileExtension(f.getName());
+        for (int i = 0; i < pathways.size(); i++) {
+          final Pathway pathway = pathways.get(i);
+          final String name = (pathways.size() > 1) ? base + "-" + (i + 1) : base;
+          // Translation uses the (unsynchronized) manager, hence on this thread
+          final Graph2D graph;
+          try {
+            graph = translator.translate(pathway, context);
+          } catch (Exception e) {
+            log.log(Level.WARNING, "Could not translate " + name, e);
+            continue;
+          }
+          if (graph == null) {
+            log.warning("Could not translate " + name);
+            continue;
+          }
+          // Do not keep more graphs in memory than can be processed
+          if (jobs.size() >= threads) {
+            written += waitFor(jobs.removeFirst(), names.removeFirst());
+          }
+          jobs.add(executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              return process(graph, pathway, name, outDir, scale);
+            }
+          }));
+          names.add(name);
+        }
+      }
+
+      while (!jobs.isEmpty()) {
+        written += waitFor(jobs.removeFirst(), names.removeFirst());
+      }
+      return written;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @param job
+   * @param name name of the pathway of {@code job}
+   * @return the result of {@code job} or 0 if it failed.
+   */
+  private int waitFor(Future<Integer> job, String name) {
+    try {
+      return job.get();
+    } catch (ExecutionException e) {
+      log.log(Level.WARNING, "Could not process " + name, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return 0;
+  }
+
+  /**
+   * @return {@link #scale} or a fold change scale with the strongest
+   * absolute value of all samples.
+   */
+  private ColorScale getScale() {
+    if (scale != null) {
+      return scale;
+    }
+    double maxAbs = 0;
+    for (Map<Integer, Double> values : samples.values()) {
+      for (Double value : values.values()) {
+        if (!value.isNaN() && !value.isInfinite()) {
+          maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+      }
+    }
+    return ColorScale.createFoldChangeScale((maxAbs > 0) ? maxAbs : 1);
+  }
+
+  /**
+   * Colors the translated {@code pathway} for every sample and writes all
+   * files. Does not use the {@link KeggInfoManagement} and may thus run on
+   * any thread.
+   * @param graph the translated {@code pathway}
+   * @param pathway
+   * @param name name of the output files (without extension)
+   * @param outDir
+   * @param scale maps values to colors
+   * @return the number of files written.
+   * @throws Exception
+   */
+  private int process(Graph2D graph, Pathway pathway, String name, String outDir, ColorScale scale) throws Exception {
+    TranslatorTools tools = new TranslatorTools(graph);
+    Map<Integer, List<Node>> id2node = tools.getGeneID2NodeMap();
+    // Genes of every node
+    Map<Node, List<Integer>> nodeGenes = new LinkedHashMap<Node, List<Integer>>();
+    if (id2node != null) {
+      for (Entry<Integer, List<Node>> e : id2node.entrySet()) {
+        for (Node node : e.getValue()) {
+          List<Integer> genes = nodeGenes.get(node);
+          if (genes == null) {
+            genes = new ArrayList<Integer>(1);
+            nodeGenes.put(node, genes);
+          }
+          genes.add(e.getKey());
+        }
+      }
+    }
+
+    // Nodes without any value keep their original color
+    Map<Node, Color> originalColors = new HashMap<Node, Color>();
+    if (colorForOthers == null) {
+      for (Node node : nodeGenes.keySet()) {
+        originalColors.put(node, graph.getRealizer(node).getFillColor());
+      }
+    }
+
+    int written = 0;
+    for (Entry<String, Map<Integer, Double>> sample : samples.entrySet()) {
+      Map<Node, Color> colors = new HashMap<Node, Color>(originalColors);
+      for (Entry<Node, List<Integer>> e : nodeGenes.entrySet()) {
+        // The strongest value of all genes of the node
+        double value = Double.NaN;
+        for (Integer gene : e.getValue()) {
+          Double v = sample.getValue().get(gene);
+          if ((v != null) && !v.isNaN() && (Double.isNaN(value) || (Math.abs(v) > Math.abs(value)))) {
+            value = v;
+          }
+        }
+        Color c = scale.getColor(value);
+        if (c != null) {
+          colors.put(e.getKey(), c);
+        }
+      }
+      tools.setNodeColorsByNode(colors, colorForOthers, false);
+
+      File dir = new File(outDir, sample.getKey());
+      dir.mkdirs();
+      for (String format : formats) {
+        String outFile = new File(dir, name + "." + format).getPath();
+        try {
+          if (renderer.render(graph, pathway.getImage(), outFile)) {
+            written++;
+            continue;
+          }
+        } catch (Exception e) {
+          log.log(Level.FINE, e.getLocalizedMessage(), e);
+        }
+        log.warning("Could not write " + outFile);
+      }
+    }
+    return written;
+  }
+
+}
@@ -21,10 +21,17 @@
 package de.zbit.kegg.io;
 
 import java.io.File;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import de.zbit.graph.GraphImageRenderer;
 import de.zbit.graph.io.Graph2Dwriteable.WriteableFileExtensions;
 import de.zbit.graph.io.Graph2Dwriter;
 import de.zbit.graph.io.SBGN2GraphML;
@@ -34,6 +41,7 @@ import de.zbit.io.FileTools;
 import de.zbit.io.SerializableTools;
 import de.zbit.io.filefilter.SBFileFilter;
 import de.zbit.kegg.KEGGtranslatorCommandLineOnlyOptions;
+import de.zbit.kegg.KEGGtranslatorOptions;
 import de.zbit.kegg.Translator;
 import de.zbit.kegg.api.cache.KeggInfoManagement;
 import de.zbit.kegg.gui.TranslatorPanelTools;
@@ -76,6 +84,20 @@ public class BatchKEGGtranslator {
    */
   private KEGGtranslator<?> translator;
   
+  /**
+   * Renders images on multiple threads if
+   * {@link KEGGtranslatorCommandLineOnlyOptions#CREATE_JPG} is set
+   * or the output format is {@link Format#JPG} or {@link Format#GIF}.
+   * Created when the first image is written.
+   */
+  private GraphImageRenderer renderer = null;
+  
+  /**
+   * Output file and result of every image submitted to the
+   * {@link #renderer}. Checked when all files have been translated.
+   */
+  private Map<String, Future<Boolean>> images = new LinkedHashMap<String, Future<Boolean>>();
+  
   /**
    * Load preferences only once when {@link BatchKEGGtranslator} is started.
    */
@@ -102,6 +124,8 @@ public class BatchKEGGtranslator {
    * @param args
    */
   public static void main(String args[]) {
+    // Images are rendered without any window
+    System.setProperty("java.awt.headless", "true");
     BatchKEGGtranslator batch = new BatchKEGGtranslator();
     if (args != null && args.length > 0) {
       batch.setOrgOutdir(args[0]);
@@ -154,7 +178,47 @@ public class BatchKEGGtranslator {
    * the {@link #orgOutdir} as input directory.
    */
   public void parseDirAndSubDir() {
-    parseDirAndSubDir(orgOutdir);
+    try {
+      parseDirAndSubDir(orgOutdir);
+    } finally {
+      // Wait until all images have been written
+      if (renderer != null) {
+        renderer.shutdown();
+        try {
+          renderer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        renderer = null;
+      }
+      checkImages();
+    }
+  }
+  
+  /**
+   * Logs all images that could not be written and forgets all
+   * submitted images.
+   */
+  private void checkImages() {
+    int failed = 0;
+    for (Map.Entry<String, Future<Boolean>> image : images.entrySet()) {
+      try {
+        if (!image.getValue().get().booleanValue()) {
+          logger.warning("Could not write " + image.getKey());
+          failed++;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        logger.log(Level.WARNING, "Could not write " + image.getKey(), e.getCause());
+        failed++;
+      }
+    }
+    if (failed > 0) {
+      logger.warning(String.format("%s of %s images could not be written.", failed, images.size()));
+    }
+    images.clear();
   }
   
   /**
@@ -244,6 +308,13 @@ public class BatchKEGGtranslator {
                 Object translateDoc = translator.translate(pw.get(i));
                 writeAsJPG(translateDoc, pw.get(i), outFile, outFormat);
                 
+              } else if (isImageFormat(outFormat) && (translator instanceof KEGG2yGraph)) {
+                // Paint images on the renderer threads, not in writeToFile
+                y.view.Graph2D graph = ((KEGG2yGraph) translator).translate(pw.get(i));
+                if (graph != null) {
+                  images.put(outFile, getRenderer().submit(graph, pw.get(i).getImage(), outFile));
+                }
+                
               } else {
                 // Translate to output file
                 translator.translate(pw.get(i), outFile);
@@ -268,12 +339,37 @@ public class BatchKEGGtranslator {
     Translator.saveCache();
   }
   
+  /**
+   * @param format
+   * @return {@code true} if {@code format} is an image format that
+   * can be written by the {@link GraphImageRenderer}.
+   */
+  private static boolean isImageFormat(Format format) {
+    return (format == Format.JPG) || (format == Format.GIF);
+  }
+  
+  /**
+   * @return the {@link #renderer}, created on the first call.
+   */
+  private GraphImageRenderer getRenderer() {
+    if (renderer == null) {
+      renderer = new GraphImageRenderer();
+      TranslatorPanelTools.setupBackgroundImage(renderer);
+      renderer.setTileLargeImages(KEGGtranslatorOptions.TILE_LARGE_IMAGES.getValue(
+        SBPreferences.getPreferencesFor(KEGGtranslatorOptions.class)));
+    }
+    return renderer;
+  }
+  
   /**
    * @param translatedDoc translated pathway
    * @param originalPW original and untranslated pathway
    * @param outFile file to write
    * @param outFormat user selected output format
-   * @return {@code true} if a JPG has been successfully written.
+   * @return {@code true} if a JPG has been successfully submitted
+   * to the {@link #renderer}. Images are written asynchronously, failures
+   * are reported by {@link #parseDirAndSubDir()} after all files have
+   * been translated.
    * @throws Exception if something went wrong or a required library is not available.
    */
   private boolean writeAsJPG(Object translatedDoc, Pathway originalPW, String outFile, Format outFormat) throws Exception {
@@ -282,8 +378,7 @@ public class BatchKEGGtranslator {
     }
     
     outFile = FileTools.removeFileExtension(outFile) + ".jpg";
-    Graph2Dwriter writer = new Graph2Dwriter(WriteableFileExtensions.jpg);
-    TranslatorPanelTools.setupBackgroundImage(writer);
+    GraphImageRenderer renderer = getRenderer();
     Object myGraph = null; // actually a Graph2D object
     
     // NOTE: we should at all costs avoid imports from yFiles, JSBML or other
@@ -323,16 +418,18 @@ public class BatchKEGGtranslator {
         
         // Write qual_graph immediately
         Object myGraph2 = new SBML2GraphML(true).createGraph((org.sbml.jsbml.SBMLDocument) translatedDoc);
-        writer.writeToFile((y.view.Graph2D)myGraph2, FileTools.removeFileExtension(outFile) + "SBML_QUAL.jpg");
+        String qualFile = FileTools.removeFileExtension(outFile) + "SBML_QUAL.jpg";
+        images.put(qualFile, renderer.submit((y.view.Graph2D)myGraph2, originalPW.getImage(), qualFile));
         break;
         
       default:
         // Simply translate PW to graph and ignore all formats
-        myGraph = new KEGG2yGraph(writer.getOutputHandler()).translate(originalPW);
+        myGraph = new KEGG2yGraph(new Graph2Dwriter(WriteableFileExtensions.jpg).getOutputHandler()).translate(originalPW);
         break;
     }
     
-    return writer.writeToFile((y.view.Graph2D)myGraph, outFile);
+    images.put(outFile, renderer.submit((y.view.Graph2D)myGraph, originalPW.getImage(), outFile));
+    return true;
   }
   
   /**
@@ -416,7 +513,7 @@ public class BatchKEGGtranslator {
     if (translator instanceof KEGG2yGraph) {
       fileExtension = ((KEGG2yGraph)translator).getWriter().getOutputHandler().getFileNameExtension();
     } else if (translator instanceof KEGG2jSBML) {
-      fileExtension = ".sbml.xml";
+      fileExtension = ((KEGG2jSBML)translator).isGzipOutput() ? ".sbml.xml.gz" : ".sbml.xml";
     }
     if (!fileExtension.startsWith(".")) {
       fileExtension = "." + fileExtension;
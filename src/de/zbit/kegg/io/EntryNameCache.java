@@ -0,0 +1,256 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.zbit.kegg.KEGGtranslatorOptions;
+import de.zbit.kegg.parser.pathway.Entry;
+
+/**
+ * Remembers the display names that
+ * {@link AbstractKEGGtranslator#getNameForEntry(Entry)} has computed
+ * for KEGG entries. The same gene or compound occurs in many pathways
+ * of an organism, so in batch translations most names are resolved
+ * by a single lookup in here, instead of querying all {@link de.zbit.kegg.api.KeggInfos}
+ * of the entry and shortening their names again.
+ *
+ * <p>The key consists of the KEGG identifiers of the entry, its type
+ * and all options that influence the name (see
+ * {@link #createKey(Entry, KEGGtranslatorOptions.NODE_NAMING, boolean)}).
+ * The cache can be written to and read from the filesystem, just like
+ * the {@link de.zbit.kegg.api.cache.KeggInfoManagement} cache.
+ *
+ * <p>All methods are thread-safe.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class EntryNameCache {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(EntryNameCache.class.getName());
+
+  /**
+   * Version of the file format. Increment on every change to the file
+   * format or to the computation of names, so that old files are dropped.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Maps keys to names. In access order, to allow removing the least
+   * recently used names.
+   */
+  private final LinkedHashMap<String, String> cache;
+
+  /**
+   * Maximum number of names to keep.
+   */
+  private int maxSize;
+
+  /**
+   * True if the content changed since creation or the last time
+   * it has been loaded/saved.
+   */
+  private boolean changed = false;
+
+  /**
+   * @param maxSize maximum number of names to keep in this cache.
+   */
+  public EntryNameCache(int maxSize) {
+    super();
+    this.maxSize = maxSize;
+    cache = new LinkedHashMap<String, String>(Math.min(maxSize, 1024), 0.75f, true);
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param entry
+   * @param naming the {@link KEGGtranslatorOptions#GENE_NAMES} option.
+   * @param showFormulaForCompounds the
+   * {@link KEGGtranslatorOptions#SHOW_FORMULA_FOR_COMPOUNDS} option.
+   * @return the key for the name of {@code entry}.
+   */
+  public static String createKey(Entry entry, KEGGtranslatorOptions.NODE_NAMING naming,
+    boolean showFormulaForCompounds) {
+    String name = entry.getName();
+    StringBuilder key = new StringBuilder(name.length() + 32);
+    key.append(naming.ordinal()).append(showFormulaForCompounds ? '+' : '-');
+    key.append(entry.getType()).append('|').append(name);
+    return key.toString();
+  }
+
+  /**
+   * @param key see {@link #createKey(Entry, KEGGtranslatorOptions.NODE_NAMING, boolean)}.
+   * @return the cached name or {@code null}.
+   */
+  public String get(String key) {
+    synchronized (cache) {
+      return cache.get(key);
+    }
+  }
+
+  /**
+   * @param key see {@link #createKey(Entry, KEGGtranslatorOptions.NODE_NAMING, boolean)}.
+   * @param name
+   */
+  public void put(String key, String name) {
+    if (key == null || name == null) {
+      return;
+    }
+    synchronized (cache) {
+      if (!name.equals(cache.put(key, name))) {
+        changed = true;
+      }
+      removeEldest();
+    }
+  }
+
+  /**
+   * Removes the least recently used names from the cache until
+   * its size is not larger than {@link #maxSize}.
+   * Must be called while holding the lock on {@link #cache}.
+   */
+  private void removeEldest() {
+    Iterator<String> it = cache.keySet().iterator();
+    while (cache.size() > maxSize && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * @return number of names in this cache.
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Removes all names from this cache.
+   */
+  public void clear() {
+    synchronized (cache) {
+      changed |= cache.size() > 0;
+      cache.clear();
+    }
+  }
+
+  /**
+   * @param maxSize maximum number of names to keep in this cache.
+   */
+  public void setCacheSize(int maxSize) {
+    synchronized (cache) {
+      this.maxSize = maxSize;
+      removeEldest();
+    }
+  }
+
+  /**
+   * @return true if the content has changed since the last
+   * time it has been loaded or saved.
+   */
+  public boolean hasChanged() {
+    return changed;
+  }
+
+  /**
+   * Saves the given cache to the filesystem.
+   * @param fileName
+   * @param c
+   * @return true if the file has been written.
+   */
+  public static boolean saveToFilesystem(String fileName, EntryNameCache c) {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+      synchronized (c.cache) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(c.maxSize);
+        out.writeInt(c.cache.size());
+        for (Map.Entry<String, String> e : c.cache.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeUTF(e.getValue());
+        }
+        c.changed = false;
+      }
+      return true;
+    } catch (IOException e) {
+      log.log(Level.WARNING, MessageFormat.format("Could not save name cache to {0}.", fileName), e);
+      return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads a cache from the filesystem.
+   * @param fileName
+   * @return the cache
+   * @throws IOException if the file is not readable or has been
+   * written by an incompatible version.
+   */
+  public static EntryNameCache loadFromFilesystem(String fileName) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+    try {
+      if (in.readInt() != FORMAT_VERSION) {
+        throw new IOException(MessageFormat.format("Incompatible name cache file {0}.", fileName));
+      }
+      EntryNameCache c = new EntryNameCache(in.readInt());
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String key = in.readUTF();
+        c.cache.put(key, in.readUTF());
+      }
+      return c;
+    } finally {
+      in.close();
+    }
+  }
+
+}
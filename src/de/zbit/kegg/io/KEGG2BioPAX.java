@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -204,6 +205,15 @@ public abstract class KEGG2BioPAX extends AbstractKEGGtranslator<Model> {
     return true;
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#getAnnotationFields()
+   */
+  @Override
+  protected Set<AnnotationField> getAnnotationFields() {
+    // Unification xrefs, comments, etc. require everything.
+    return EnumSet.allOf(AnnotationField.class);
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.AbstractKEGGtranslator#writeToFile(java.lang.Object, java.lang.String)
    */
@@ -921,8 +931,8 @@ public abstract class KEGG2BioPAX extends AbstractKEGGtranslator<Model> {
       Collection<String> subtypes = r.getSubtypesNames();
       
       // Avoid duplicates
-      Entry eOne = p.getEntryForId(r.getEntry1());
-      Entry eTwo = p.getEntryForId(r.getEntry2());
+      Entry eOne = getPathwayIndex(p).getEntryForId(r.getEntry1());
+      Entry eTwo = getPathwayIndex(p).getEntryForId(r.getEntry2());
       String uniqueString = eOne.getName() + "|" + eTwo.getName() + "|" + ArrayUtils.implode(subtypes, "|", true);
       if (!avoidDuplicates.add(uniqueString)) {
         continue; // Duplicate realtion
@@ -983,7 +993,7 @@ public abstract class KEGG2BioPAX extends AbstractKEGGtranslator<Model> {
       if (entry.getName().contains(":") && !addedEntries.add(entry.getName())) {
         // Look for already added species from other entry
         // and link to this entry by adding the same species as "custom".
-        Collection<Entry> col = p.getEntriesForName(entry.getName()); // should return at least 2 entries
+        Collection<Entry> col = getPathwayIndex(p).getEntriesForName(entry.getName()); // should return at least 2 entries
         if ((col != null) && (col.size() > 0)) {
           Iterator<Entry> it = col.iterator();
           while (it.hasNext() && (spec = (BioPAXElement)it.next().getCustom())==null) {
@@ -1228,16 +1238,16 @@ public abstract class KEGG2BioPAX extends AbstractKEGGtranslator<Model> {
    * @return
    */
   protected String ensureUniqueRDFId(String id) {
-    String originalID = id;
-    if (model.containsID(id)) {
-      int i = 2;
-      id = originalID.concat(Integer.toString(i));
-      while (model.containsID(id)) {
-        i++;
-        id = originalID.concat(Integer.toString(i));
-      }
+    if (!model.containsID(id)) {
+      return id;
     }
-    return id;
+    // Continue counting where we stopped for the same id last time
+    idAllocator.reserve(id);
+    String uniqueId;
+    do {
+      uniqueId = idAllocator.makeUnique(id, "", 2);
+    } while (model.containsID(uniqueId));
+    return uniqueId;
   }
   
   /**
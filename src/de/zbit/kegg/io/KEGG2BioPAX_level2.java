@@ -324,7 +324,7 @@ public class KEGG2BioPAX_level2 extends KEGG2BioPAX {
     if (entry.hasComponents() && (element instanceof complex)) {
       // TODO: Create complexAssembly, add it to pathway?!?!? AND add components to left and complex to right.
       for (int c:entry.getComponents()) {
-        Entry ce = p.getEntryForId(c);
+        Entry ce = getPathwayIndex(p).getEntryForId(c);
         if (ce!=null && ce!=entry) {
           // Get current component (or create if not yet there)
           BioPAXElement ceb = (BioPAXElement) ce.getCustom();
@@ -380,7 +380,7 @@ public class KEGG2BioPAX_level2 extends KEGG2BioPAX {
   public BioPAXElement addKGMLReaction(Reaction r, Pathway p) {
     
     // Check if we have a reaction, that is catalyzed by enzymes
-    Collection<Entry> enzymes = p.getReactionModifiers(r.getName());
+    Collection<Entry> enzymes = getPathwayIndex(p).getReactionModifiers(r.getName());
     boolean hasEnzymes = enzymes!=null&&enzymes.size()>0;
     
     Class<? extends BioPAXElement> instantiate = biochemicalReaction.class;
@@ -464,7 +464,7 @@ public class KEGG2BioPAX_level2 extends KEGG2BioPAX {
     }
     
     // Get BioPAX element for component
-    Entry ce = p.getEntryForReactionComponent(rc);
+    Entry ce = getPathwayIndex(p).getEntryForReactionComponent(rc);
     if (ce==null || ce.getCustom()==null) {
       return null;
     }
@@ -492,8 +492,8 @@ public class KEGG2BioPAX_level2 extends KEGG2BioPAX {
     Collection<String> subtype = r.getSubtypesNames();
     
     // Get Participants
-    Entry eOne = p.getEntryForId(r.getEntry1());
-    Entry eTwo = p.getEntryForId(r.getEntry2());
+    Entry eOne = getPathwayIndex(p).getEntryForId(r.getEntry1());
+    Entry eTwo = getPathwayIndex(p).getEntryForId(r.getEntry2());
     BioPAXElement qOne = eOne==null?null:(BioPAXElement) eOne.getCustom();
     BioPAXElement qTwo = eTwo==null?null:(BioPAXElement) eTwo.getCustom();
     if (qOne==null || qTwo==null) {
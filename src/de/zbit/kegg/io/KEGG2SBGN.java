@@ -25,7 +25,6 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -47,7 +46,6 @@ import org.xml.sax.SAXException;
 import de.zbit.graph.io.def.SBGNProperties;
 import de.zbit.graph.io.def.SBGNProperties.ArcType;
 import de.zbit.graph.io.def.SBGNProperties.GlyphType;
-import de.zbit.kegg.api.KeggInfos;
 import de.zbit.kegg.api.cache.KeggInfoManagement;
 import de.zbit.kegg.parser.pathway.Entry;
 import de.zbit.kegg.parser.pathway.Graphics;
@@ -80,7 +78,11 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
   private Sbgn sbgn = objectFactory.createSbgn();
   private org.sbgn.bindings.Map map = objectFactory.createMap();
   private HashMap<Glyph, String> glyphNamesForGlyphStates = new HashMap<Glyph, String>();
-  private int id = 0;
+  /**
+   * Glyph ids. Not reset between translations, since {@link #map} is
+   * not reset either.
+   */
+  private UniqueIdAllocator glyphIds = new UniqueIdAllocator();
   
   /**
    * Constructor
@@ -151,18 +153,8 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
       Bbox bb = objectFactory.createBbox();
       Label l = objectFactory.createLabel();
       
-      List<KeggInfos> keggInfos = new LinkedList<KeggInfos>();
-      
-      // call KeggInfos for the correct name and additional informations
-      for (String ko_id : e.getName().split(" ")) {
-        if (ko_id.trim().equalsIgnoreCase("undefined") || e.hasComponents()) {
-          continue;
-        }
-        KeggInfos infos = KeggInfos.get(ko_id, manager);
-        keggInfos.add(infos);
-      }
-      
-      String name = getNameForEntry(e, keggInfos.toArray(new KeggInfos[0]));
+      // get the correct name from KeggInfos (or the name cache)
+      String name = getNameForEntry(e);
       
       // define the bounding box
       Graphics gr = null;
@@ -205,8 +197,8 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
     for (Relation relation : p.getRelations()) {
       
       // get the relation partners
-      Entry one = p.getEntryForId(relation.getEntry1());
-      Entry two = p.getEntryForId(relation.getEntry2());
+      Entry one = getPathwayIndex(p).getEntryForId(relation.getEntry1());
+      Entry two = getPathwayIndex(p).getEntryForId(relation.getEntry2());
       
       // make sure all went right
       if (one == null || two == null) {
@@ -332,7 +324,7 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
       // Substrates
       for (ReactionComponent rc : reaction.getSubstrates()) {
         // get the entry for the reactioncomponent
-        Entry substrate = p.getEntryForReactionComponent(rc);
+        Entry substrate = getPathwayIndex(p).getEntryForReactionComponent(rc);
         
         // get the glyph for the entry
         Glyph substrateGlyph = (Glyph) substrate.getCustom();
@@ -347,7 +339,7 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
       // Products
       for (ReactionComponent rc : reaction.getProducts()) {
         // get the entry for the reactioncomponent
-        Entry product = p.getEntryForReactionComponent(rc);
+        Entry product = getPathwayIndex(p).getEntryForReactionComponent(rc);
         
         // get the glyph for the entry
         Glyph productGlyph = (Glyph) product.getCustom();
@@ -360,7 +352,7 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
       }
       
       // Enzymes
-      Collection<Entry> enzymes = p.getReactionModifiers(reaction.getName());
+      Collection<Entry> enzymes = getPathwayIndex(p).getReactionModifiers(reaction.getName());
       if (enzymes!=null) {
         for (Entry ec : enzymes) {
           
@@ -389,7 +381,7 @@ public class KEGG2SBGN extends AbstractKEGGtranslator<Sbgn> {
     // create a new glyph
     Glyph glyph = objectFactory.createGlyph();
     // name the glyph and add the id globally
-    glyph.setId("glyph" + id++);
+    glyph.setId(glyphIds.nextId("glyph", 0));
     // put the glyph in the hashmap with the number of the next subglyph
     glyphNamesForGlyphStates.put(glyph, "a");
     return glyph;
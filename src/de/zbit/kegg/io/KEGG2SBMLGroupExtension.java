@@ -21,8 +21,9 @@
 package de.zbit.kegg.io;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,28 +72,43 @@ public class KEGG2SBMLGroupExtension {
    * @return
    */
   public static Group createGroup(Pathway p, Model model, Entry entry, String groupId) {
-    GroupsModelPlugin groupModel = getGroupsModelPlugin(model);
-    
-    // Get all group-members
-    List<String> componentSpeciesIDs = new ArrayList<String>();
+    List<Entry> children = new ArrayList<Entry>();
     if (entry.hasComponents()) {
       for (int c : entry.getComponents()) {
         Entry ce = p.getEntryForId(c);
-        if ((ce != null) && (ce.getCustom() != null) && (ce.getCustom() instanceof NamedSBase)) {
-          String speciesID = ((NamedSBase)ce.getCustom()).getId();
-          componentSpeciesIDs.add(speciesID);
+        if (ce != null) {
+          children.add(ce);
         }
       }
     }
+    return createGroup(children, model, groupId);
+  }
+  
+  /**
+   * Create a group with a member for each of the given {@code children}
+   * that has already been translated.
+   * 
+   * @param children component entries of the group (see
+   * {@link PathwayIndex#getChildren(Entry)}).
+   * @param model
+   * @param groupId
+   * @return
+   */
+  public static Group createGroup(List<Entry> children, Model model, String groupId) {
+    GroupsModelPlugin groupModel = getGroupsModelPlugin(model);
     
     // Create group and add all members
     Group g = groupModel.createGroup(groupId);
-    for (String id: componentSpeciesIDs) {
-      try {
-        Member member = g.createMember(g.getId() + "_member_" + id);
-        member.setIdRef(id);
-      } catch (Throwable e) {
-        log.log(Level.WARNING, "Duplicated component species ID: " + id);
+    Set<String> componentSpeciesIDs = new HashSet<String>();
+    for (Entry ce : children) {
+      if (ce.getCustom() instanceof NamedSBase) {
+        String id = ((NamedSBase) ce.getCustom()).getId();
+        if (componentSpeciesIDs.add(id)) {
+          Member member = g.createMember(g.getId() + "_member_" + id);
+          member.setIdRef(id);
+        } else {
+          log.log(Level.WARNING, "Duplicated component species ID: " + id);
+        }
       }
     }
     
@@ -104,7 +120,8 @@ public class KEGG2SBMLGroupExtension {
   
   
   /**
-   * Clones the given group {@code g}
+   * Clones the given group {@code g}. The copied members are modified
+   * in place instead of being replaced by new ones.
    * @param id the id of the new group
    * @param g
    * @param prefixForMembers this will be prepended to all member symbols
@@ -118,20 +135,22 @@ public class KEGG2SBMLGroupExtension {
     
     GroupsModelPlugin groupModel = getGroupsModelPlugin(g);
     
-    // Create group and add all members
+    // Copy group with all members
     Group gNew = new Group(g);
     gNew.setId(id);
     gNew.setMetaId("meta_" + id);
-    gNew.unsetListOfMembers();
-    
     
-    // Add all members with new prefix
-    for (Member m: g.getListOfMembers()) {
+    // Give all members new identifiers and prefix their symbols
+    for (Member m: gNew.getListOfMembers()) {
       String symbol = m.getIdRef();
       if (prefixForMembers != null) {
         symbol = prefixForMembers + symbol;
       }
-      gNew.createMember(symbol);
+      if (m.isSetMetaId()) {
+        m.unsetMetaId();
+      }
+      m.setId(id + "_member_" + symbol);
+      m.setIdRef(symbol);
     }
     
     groupModel.addGroup(gNew);
@@ -145,21 +164,23 @@ public class KEGG2SBMLGroupExtension {
    * @param prefixForMembers
    */
   public static void cloneGroupComponents(Group g, String prefixForMembers) {
-    if (g == null) {
+    if ((g == null) || (prefixForMembers == null)) {
       return;
     }
     
-    // Create group and add all members
-    List<String> symobls = new LinkedList<String>();
-    for (Member m: g.getListOfMembers()) {
-      symobls.add(m.getIdRef());
+    // Symbols that are already members (calling this method again adds nothing)
+    int count = g.getMemberCount();
+    Set<String> symbols = new HashSet<String>(count * 2);
+    for (int i = 0; i < count; i++) {
+      symbols.add(g.getMember(i).getIdRef());
     }
     
     // Add all members with new prefix
-    for (String symbol: symobls) {
-      if (prefixForMembers!=null) {
-        if (!symbol.startsWith(prefixForMembers)) {
-          symbol = prefixForMembers + symbol;
+    for (int i = 0; i < count; i++) {
+      String symbol = g.getMember(i).getIdRef();
+      if ((symbol != null) && !symbol.startsWith(prefixForMembers)) {
+        symbol = prefixForMembers + symbol;
+        if (symbols.add(symbol)) {
           Member member = g.createMember(g.getId() + "_member_" + symbol);
           member.setIdRef(symbol);
         }
@@ -174,7 +195,7 @@ public class KEGG2SBMLGroupExtension {
    * @param g any {@link AbstractSBase}.
    * @return
    */
-  private static GroupsModelPlugin getGroupsModelPlugin(AbstractSBase g) {
+  static GroupsModelPlugin getGroupsModelPlugin(AbstractSBase g) {
     Model model = g.getModel();
     SBMLDocument doc = model.getSBMLDocument();
     
@@ -193,4 +214,4 @@ public class KEGG2SBMLGroupExtension {
     return groupModel;
   }
   
-}
\ No newline at end of file
+}
\ No newline at end of file
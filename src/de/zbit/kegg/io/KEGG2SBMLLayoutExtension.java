@@ -20,10 +20,14 @@
  */
 package de.zbit.kegg.io;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.sbml.jsbml.AbstractNamedSBase;
@@ -49,11 +53,17 @@ import de.zbit.kegg.parser.pathway.Graphics;
 import de.zbit.kegg.parser.pathway.GraphicsType;
 import de.zbit.kegg.parser.pathway.Pathway;
 import de.zbit.kegg.parser.pathway.ReactionComponent;
-import de.zbit.util.ArrayUtils;
-import de.zbit.util.Utils;
 
 /**
  * Add support for the layout extension to SBML translations.
+ * 
+ * <p>Every layout is created by an instance of this class in a single
+ * pass over all entries. Reactions of enzymes, glyphs of reactions and
+ * glyph identifiers are looked up in hash tables. The instance is kept
+ * as user object of the {@link SBMLDocument}, such that the layout can
+ * later be updated, instead of being created again (see
+ * {@link #updateLayoutExtension(Pathway, SBMLDocument, boolean)}).
+ * 
  * @author Clemens Wrzodek
  * @version $Rev: 410 $
  */
@@ -70,6 +80,101 @@ public class KEGG2SBMLLayoutExtension {
    */
   public static final String LAYOUT_NS_NAME = LayoutConstants.shortLabel;
   
+  /**
+   * Key for the user object of the {@link SBMLDocument} that contains all
+   * glyph identifiers.
+   */
+  private static final String GLYPH_IDS_KEY = "KEGGtranslator_glyphIds";
+  
+  /**
+   * Key for the user object of the {@link SBMLDocument} that contains
+   * the builder of the last layout.
+   */
+  private static final String LAST_LAYOUT_KEY = "KEGGtranslator_layout";
+  
+  /**
+   * The translated pathway.
+   */
+  private final Pathway p;
+  
+  /**
+   * Index for {@link #p}.
+   */
+  private final PathwayIndex index;
+  
+  /**
+   * The document that contains the layout.
+   */
+  private final SBMLDocument doc;
+  
+  /**
+   * The model that contains the layout.
+   */
+  private final Model model;
+  
+  /**
+   * If true, positions of enzymes are set on {@link ReactionGlyph}s.
+   */
+  private final boolean metabolic;
+  
+  /**
+   * Identifiers of all glyphs in {@link #doc}.
+   */
+  private final UniqueIdAllocator idCounts;
+  
+  /**
+   * The created layout.
+   */
+  private Layout layout;
+  
+  /**
+   * Reactions for every enzyme (only in {@link #metabolic} layouts).
+   */
+  private Map<String, Collection<Reaction>> enzyme2rct = null;
+  
+  /**
+   * First {@link ReactionGlyph} for every SBML reaction id.
+   */
+  private final Map<String, ReactionGlyph> reactionId2glyph = new HashMap<String, ReactionGlyph>();
+  
+  /**
+   * {@link ReactionGlyph} for every KGML reaction name.
+   */
+  private final Map<String, ReactionGlyph> keggReactionName2glyph = new HashMap<String, ReactionGlyph>();
+  
+  /**
+   * {@link SpeciesGlyph} of every entry.
+   */
+  private final Map<Entry, SpeciesGlyph> speciesGlyphs = new IdentityHashMap<Entry, SpeciesGlyph>();
+  
+  /**
+   * {@link TextGlyph} of every entry.
+   */
+  private final Map<Entry, TextGlyph> textGlyphs = new IdentityHashMap<Entry, TextGlyph>();
+  
+  /**
+   * @param p
+   * @param index index for {@code p}, may be {@code null}.
+   * @param doc
+   * @param model
+   * @param metabolic
+   */
+  private KEGG2SBMLLayoutExtension(Pathway p, PathwayIndex index, SBMLDocument doc, Model model, boolean metabolic) {
+    super();
+    this.p = p;
+    this.index = ((index != null) && (index.getPathway() == p)) ? index : new PathwayIndex(p);
+    this.doc = doc;
+    this.model = model;
+    this.metabolic = metabolic;
+    
+    UniqueIdAllocator ids = (UniqueIdAllocator) doc.getUserObject(GLYPH_IDS_KEY);
+    if (ids == null) {
+      ids = new UniqueIdAllocator();
+      doc.putUserObject(GLYPH_IDS_KEY, ids);
+    }
+    idCounts = ids;
+  }
+  
   
   /**
    * Add (translate) layout extension to the given model. Translates
@@ -101,6 +206,100 @@ public class KEGG2SBMLLayoutExtension {
    * the new one.
    */
   public static void addLayoutExtension(Pathway p, SBMLDocument doc, Model model, boolean metabolic, boolean removeAllPreviousLayouts) {
+    addLayoutExtension(p, null, doc, model, metabolic, removeAllPreviousLayouts);
+  }
+  
+  /**
+   * Same as {@link #addLayoutExtension(Pathway, SBMLDocument, Model, boolean, boolean)},
+   * but uses an existing index for the pathway.
+   * @param p
+   * @param index index for {@code p} (see {@link AbstractKEGGtranslator#getPathwayIndex()}).
+   * May be {@code null}.
+   * @param doc
+   * @param model
+   * @param metabolic
+   * @param removeAllPreviousLayouts
+   */
+  public static void addLayoutExtension(Pathway p, PathwayIndex index, SBMLDocument doc, Model model,
+    boolean metabolic, boolean removeAllPreviousLayouts) {
+    KEGG2SBMLLayoutExtension builder = new KEGG2SBMLLayoutExtension(p, index, doc, model, metabolic);
+    builder.createLayout(removeAllPreviousLayouts);
+    doc.putUserObject(LAST_LAYOUT_KEY, builder);
+  }
+  
+  /**
+   * Updates the last layout that has been created for {@code doc}, such
+   * that all glyphs refer to the current {@link Entry#getCustom()} objects,
+   * e.g., after species have been replaced by qualitative species. This
+   * is only possible if the layout has been created for the same pathway
+   * and contains no {@link ReactionGlyph}s, because these are not
+   * translated to other elements.
+   * @param p
+   * @param doc
+   * @param metabolic the type of layout, see
+   * {@link #addLayoutExtension(Pathway, SBMLDocument, Model, boolean)}.
+   * @return true if the layout has been updated. False if it must be
+   * created again.
+   */
+  public static boolean updateLayoutExtension(Pathway p, SBMLDocument doc, boolean metabolic) {
+    Object o = doc.getUserObject(LAST_LAYOUT_KEY);
+    if (!(o instanceof KEGG2SBMLLayoutExtension)) {
+      return false;
+    }
+    KEGG2SBMLLayoutExtension builder = (KEGG2SBMLLayoutExtension) o;
+    if ((builder.p != p) || !builder.reactionId2glyph.isEmpty() || !builder.isLayoutInModel()) {
+      return false;
+    }
+    
+    // Exactly the entries with a glyph must still have an element
+    for (Entry e : p.getEntries()) {
+      boolean hasElement = (e.getCustom() instanceof AbstractNamedSBase) && e.hasGraphics();
+      if (hasElement != builder.speciesGlyphs.containsKey(e)) {
+        return false;
+      }
+    }
+    
+    builder.layout.setName(getLayoutName(metabolic));
+    for (Map.Entry<Entry, SpeciesGlyph> e : builder.speciesGlyphs.entrySet()) {
+      String speciesId = ((AbstractNamedSBase) e.getKey().getCustom()).getId();
+      SpeciesGlyph sGlyph = e.getValue();
+      if (!speciesId.equals(sGlyph.getSpecies())) {
+        sGlyph.setSpecies(speciesId);
+        builder.textGlyphs.get(e.getKey()).setOriginOfText(speciesId);
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * @return true if {@link #layout} is still contained in {@link #model}.
+   */
+  private boolean isLayoutInModel() {
+    LayoutModelPlugin layoutModel = (LayoutModelPlugin) model.getExtension(LAYOUT_NS);
+    if ((layoutModel == null) || (layout == null) || !layoutModel.isSetListOfLayouts()) {
+      return false;
+    }
+    for (Layout l : layoutModel.getListOfLayouts()) {
+      if (l == layout) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * @param metabolic
+   * @return the name of a translated layout.
+   */
+  static String getLayoutName(boolean metabolic) {
+    return String.format("Translated %s layout.", metabolic?"metabolic":"qualitative");
+  }
+  
+  /**
+   * Creates the layout.
+   * @param removeAllPreviousLayouts
+   */
+  private void createLayout(boolean removeAllPreviousLayouts) {
     
     // Make sure extension is available
     // NOTE: this should be called every time! No need to check if it is already contained.
@@ -120,29 +319,20 @@ public class KEGG2SBMLLayoutExtension {
     }
     
     // Map enzymes to reactions in metabolic models
-    Map<String, Collection<Reaction>> enzyme2rct = null;
     if (metabolic) {
       enzyme2rct = getEnzyme2ReactionMap(doc);
     }
     
     
     // Create Species and Reaction Glyps.
-    Layout layout = layoutModel.createLayout();
-    layout.setName(String.format("Translated %s layout.", metabolic?"metabolic":"qualitative"));
-    layout.setId(createUniqueLayoutId(layout, layoutModel));
+    layout = layoutModel.createLayout();
+    layout.setName(getLayoutName(metabolic));
+    layout.setId(createUniqueLayoutId(layoutModel));
     
     // It's stupid, but the whole "layout" requires a dimension.
     // => track min and max values.
     MinAndMaxTracker tracker = new MinAndMaxTracker();
     
-    String keyWord = "KEGGtranslator_idCounts";
-    Map<String, Integer> idCounts = (Map<String, Integer>) doc.getUserObject(keyWord);
-    if (idCounts == null) {
-      idCounts = new HashMap<String, Integer>();
-      doc.putUserObject(keyWord, idCounts);
-    }
-    Map<String, ReactionGlyph> keggReactionName2glyph = new HashMap<String, ReactionGlyph>();
-    
     // First, create a glyph for each reaction
     if (metabolic) {
       Map<String, Reaction> sbmlReactionName2reaction = new HashMap<String, Reaction>();
@@ -152,24 +342,20 @@ public class KEGG2SBMLLayoutExtension {
         sbmlReactionName2reaction.put(r.getName(), r);
       }
       for (de.zbit.kegg.parser.pathway.Reaction r: p.getReactions()) {
-        if (sbmlReactionName2reaction.containsKey(r.getName())) {
-          Reaction sbmlR = sbmlReactionName2reaction.get(r.getName());
-          // Reactions may also be duplicated in KGMLs => don't create duplicate reactionGlyphs
-          // for the same, single reaction!
-          if (!layout.containsGlyph(sbmlR)) {
-            ReactionGlyph glyph = layout.createReactionGlyph(createGlyphID(idCounts, sbmlR.getId()), sbmlR.getId());
-            keggReactionName2glyph.put(r.getName(), glyph);
-          }
+        Reaction sbmlR = sbmlReactionName2reaction.get(r.getName());
+        // Reactions may also be duplicated in KGMLs => don't create duplicate reactionGlyphs
+        // for the same, single reaction!
+        if ((sbmlR != null) && !reactionId2glyph.containsKey(sbmlR.getId())) {
+          createReactionGlyph(sbmlR);
         }
       }
-      sbmlReactionName2reaction=null;
     }
     
     // Add compartments
     for (Compartment c : model.getListOfCompartments()) {
       if (!c.getId().equals("default")) {
         String compId = c.getId();
-        layout.createCompartmentGlyph(createGlyphID(idCounts, compId), compId);
+        layout.createCompartmentGlyph(createGlyphID(compId), compId);
       }
     }
     
@@ -178,221 +364,231 @@ public class KEGG2SBMLLayoutExtension {
       Object s = e.getCustom();
       if ((s != null) && e.hasGraphics()) {
         Graphics g = e.getGraphics();
-        boolean isLineGraphic = g.getType().equals(GraphicsType.line);
-        if (isLineGraphic) {
-          // Line-graphics are nonsense.
-          //continue;
-          // ... but sometimes better than nothing.
-        }
         tracker.track(g.getX(), g.getY(), g.getWidth(), g.getHeight());
         // TODO: Are lines (also in mutliple graphics tags) possible?
         
         if (s instanceof AbstractNamedSBase) {
-          String speciesId = ((AbstractNamedSBase) s).getId();
-          
-          // Multiple species glyphs are permitted for one species!
-          SpeciesGlyph sGlyph;
-          //        if (listOfSpecGlyphs.isEmpty()) {
-          sGlyph = layout.createSpeciesGlyph(createGlyphID(idCounts, speciesId), speciesId);
-          TextGlyph tGlyph = layout.createTextGlyph(createGlyphID(idCounts, speciesId));
-          tGlyph.setGraphicalObject(sGlyph);
-          tGlyph.setOriginOfText(speciesId);
-          BoundingBox speciesBox = sGlyph.getBoundingBox();
-          if (speciesBox == null) {
-            speciesBox = sGlyph.createBoundingBox();
-          }
-          speciesBox.createDimensions(g.getWidth(), g.getHeight(), 0d);
-          
-          /*
-           * Create reaction glyph with x/y and species glyph with width/height.
-           */
-          if (metabolic && enzyme2rct.containsKey(speciesId)) {
-            
-            // Try to match reactions (if we have multiple instances of the same enzyme)
-            Reaction rct = null;
-            Collection<Reaction> rcts = enzyme2rct.get(speciesId);
-            String[] entryReactions = e.getReactions();
-            if (entryReactions!=null && rcts.size()>0) {
-              // Match reactions
-              for (Reaction r: rcts) {
-                int pos = ArrayUtils.indexOf(entryReactions, r.toString());
-                if (pos >= 0) {
-                  rct = r;
-                  break;
-                }
-              }
-            }
-            if (rct == null) {
-              // No match => take first without positions
-              for (Reaction r : rcts) {
-                ReactionGlyph rg = layout.getReactionGlyph(r.getId());
-                if (rg==null || rg.getBoundingBox()==null || !rg.getBoundingBox().isSetPosition()) {
-                  rct = r;
-                  break;
-                }
-              }
-              log.fine("Could not match unique ReactionGlyph to " + e);
-            }
-            // Sometimes, reactions occur twice in documents or have two enzymes.
-            // then, rct is NULL here!
-            
-            // Removing the reation is a bad idea, because sometimes there
-            // are multiple instances of the same entry pointin to the same
-            // reaction. We then prefer the reactangle (NOT the line GraphicsType).
-            // Thus, we should not remove set reactions.
-            //Utils.removeFromMapOfSets(enzyme2rct, rct, speciesId);
-            
-            // Set X and Y on the reactionGlyph
-            boolean positionAttributesUsed = false;
-            if (!g.isDefaultPosition() && (rct != null) && !isLineGraphic) {
-              // LINE coordinate are much worse than rectangles. So prefer rectangles!
-              List<ReactionGlyph> listOfGlyphs = layout.findReactionGlyphs(rct.getId());
-              ReactionGlyph glyph;
-              if ((listOfGlyphs == null) || listOfGlyphs.isEmpty()) {
-                glyph = layout.createReactionGlyph(createGlyphID(idCounts, rct.getId()), rct.getId());
-                keggReactionName2glyph.put(rct.getName(), glyph); // NOTE: The SBML reaction name must therefore be equal to the KGMLs reaction name.
-              } else {
-                glyph = listOfGlyphs.get(0);
-              }
-              glyph.unsetBoundingBox();
-              BoundingBox rbox = glyph.createBoundingBox();
-              rbox.createPosition(g.getX(), g.getY(), 0d);
-              positionAttributesUsed = true;
-            }
-            // Set width and height on the species glyph
-            // Multiple species glyphs are permitted for one species!
-            //            List<SpeciesGlyph> listOfSpecGlyphs = layout.findSpeciesGlyphs(speciesId);
-            //            if (listOfSpecGlyphs.isEmpty()) {
-            
-            //              } else {
-            //                sGlyph = listOfSpecGlyphs.get(0);
-            //              }
-            
-            if (!positionAttributesUsed && !g.isDefaultPosition()) {
-              // X and Y are unused
-              if (!speciesBox.isSetPosition() || !isLineGraphic) {
-                // Line values are only better than nothing.
-                speciesBox.createPosition(g.getX(), g.getY(), 0);
-              }
+          addEntryGlyphs(e, ((AbstractNamedSBase) s).getId());
+        }
+      }
+    }
+    // TODO: other things to add?
+    
+    
+    // Add the total dimension
+    layout.createDimensions(tracker.getWidth(), tracker.getHeight(), 1);
+  }
+  
+  /**
+   * Creates a {@link ReactionGlyph} for the given reaction and remembers
+   * it in {@link #reactionId2glyph} and {@link #keggReactionName2glyph}.
+   * @param r
+   * @return the new glyph.
+   */
+  private ReactionGlyph createReactionGlyph(Reaction r) {
+    ReactionGlyph glyph = layout.createReactionGlyph(createGlyphID(r.getId()), r.getId());
+    reactionId2glyph.put(r.getId(), glyph);
+    keggReactionName2glyph.put(r.getName(), glyph); // NOTE: The SBML reaction name must therefore be equal to the KGMLs reaction name.
+    return glyph;
+  }
+  
+  /**
+   * @param r
+   * @return true if a {@link ReactionGlyph} with a position exists for {@code r}.
+   */
+  private boolean hasPosition(Reaction r) {
+    ReactionGlyph rg = reactionId2glyph.get(r.getId());
+    return (rg != null) && (rg.getBoundingBox() != null) && rg.getBoundingBox().isSetPosition();
+  }
+  
+  /**
+   * Creates the species and text glyph for an entry and, in metabolic
+   * layouts, the position of its reaction and all species reference glyphs.
+   * @param e
+   * @param speciesId identifier of the {@link Entry#getCustom()} object of {@code e}.
+   */
+  private void addEntryGlyphs(Entry e, String speciesId) {
+    Graphics g = e.getGraphics();
+    boolean isLineGraphic = g.getType().equals(GraphicsType.line);
+    if (isLineGraphic) {
+      // Line-graphics are nonsense.
+      //continue;
+      // ... but sometimes better than nothing.
+    }
+    
+    // Multiple species glyphs are permitted for one species!
+    SpeciesGlyph sGlyph = layout.createSpeciesGlyph(createGlyphID(speciesId), speciesId);
+    TextGlyph tGlyph = layout.createTextGlyph(createGlyphID(speciesId));
+    tGlyph.setGraphicalObject(sGlyph);
+    tGlyph.setOriginOfText(speciesId);
+    speciesGlyphs.put(e, sGlyph);
+    textGlyphs.put(e, tGlyph);
+    BoundingBox speciesBox = sGlyph.getBoundingBox();
+    if (speciesBox == null) {
+      speciesBox = sGlyph.createBoundingBox();
+    }
+    speciesBox.createDimensions(g.getWidth(), g.getHeight(), 0d);
+    
+    /*
+     * Create reaction glyph with x/y and species glyph with width/height.
+     */
+    Collection<Reaction> rcts = metabolic ? enzyme2rct.get(speciesId) : null;
+    if (rcts != null) {
+      
+      // Try to match reactions (if we have multiple instances of the same enzyme).
+      // Prefer reactions of this entry without position.
+      Reaction rct = null;
+      Reaction firstMatch = null;
+      if (e.isSetReaction() && (rcts.size() > 0)) {
+        Set<String> entryReactions = new HashSet<String>(Arrays.asList(e.getReactions()));
+        for (Reaction r: rcts) {
+          if (entryReactions.contains(r.getName())) {
+            if (firstMatch == null) {
+              firstMatch = r;
             }
-            
-            //            }
-            
-          } else {
-            
-            /*
-             * Signaling map (or metabolic and species is no enzyme)
-             * => Just create SpeciesGlyph.
-             */
-            
-            // Create a Glyph with x/y/width/height for the species
-            //            List<SpeciesGlyph> listOfSpeciesGlyphs = layout.findSpeciesGlyphs(speciesId);
-            
-            if (!g.isDefaultPosition()) {
-              if (!speciesBox.isSetPosition() || !isLineGraphic) {
-                // Line values are only better than nothing.
-                speciesBox.createPosition(g.getX(), g.getY(), 0);
-              }
+            if (!hasPosition(r)) {
+              rct = r;
+              break;
             }
           }
-          
-          
-          /*
-           * At this position, the speciesGlyph is created and the coordinates may be
-           * transfered to a novel reactionGlyph. But since duplicate glyphs for a
-           * species are allowed, create rectionGlyphs and add species Glyph as reference.
-           */
-          if (metabolic) {
-            // Add to catalyzing reactions
-            if (e.isSetReaction()) {
-              for (String reaction : e.getReactions()) {
-                ReactionGlyph rg = keggReactionName2glyph.get(reaction);
-                if (rg!=null) {
-                  SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(idCounts, speciesId), sGlyph.getId());
-                  srg.setRole(SpeciesReferenceRole.MODIFIER);
-                }
+        }
+      }
+      if (rct == null) {
+        rct = firstMatch;
+      }
+      if (rct == null) {
+        // No match => take first without positions
+        for (Reaction r : rcts) {
+          if (!hasPosition(r)) {
+            rct = r;
+            break;
+          }
+        }
+        log.fine("Could not match unique ReactionGlyph to " + e);
+      }
+      // Sometimes, reactions occur twice in documents or have two enzymes.
+      // then, rct is NULL here!
+      
+      // Removing the reation is a bad idea, because sometimes there
+      // are multiple instances of the same entry pointin to the same
+      // reaction. We then prefer the reactangle (NOT the line GraphicsType).
+      // Thus, we should not remove set reactions.
+      
+      // Set X and Y on the reactionGlyph
+      boolean positionAttributesUsed = false;
+      if (!g.isDefaultPosition() && (rct != null) && !isLineGraphic) {
+        // LINE coordinate are much worse than rectangles. So prefer rectangles!
+        ReactionGlyph glyph = reactionId2glyph.get(rct.getId());
+        if (glyph == null) {
+          glyph = createReactionGlyph(rct);
+        }
+        glyph.unsetBoundingBox();
+        BoundingBox rbox = glyph.createBoundingBox();
+        rbox.createPosition(g.getX(), g.getY(), 0d);
+        positionAttributesUsed = true;
+      }
+      
+      // Set width and height on the species glyph
+      if (!positionAttributesUsed && !g.isDefaultPosition()) {
+        // X and Y are unused
+        if (!speciesBox.isSetPosition() || !isLineGraphic) {
+          // Line values are only better than nothing.
+          speciesBox.createPosition(g.getX(), g.getY(), 0);
+        }
+      }
+      
+    } else {
+      
+      /*
+       * Signaling map (or metabolic and species is no enzyme)
+       * => Just create SpeciesGlyph.
+       */
+      
+      // Create a Glyph with x/y/width/height for the species
+      if (!g.isDefaultPosition()) {
+        if (!speciesBox.isSetPosition() || !isLineGraphic) {
+          // Line values are only better than nothing.
+          speciesBox.createPosition(g.getX(), g.getY(), 0);
+        }
+      }
+    }
+    
+    
+    /*
+     * At this position, the speciesGlyph is created and the coordinates may be
+     * transfered to a novel reactionGlyph. But since duplicate glyphs for a
+     * species are allowed, create rectionGlyphs and add species Glyph as reference.
+     */
+    if (metabolic) {
+      // Add to catalyzing reactions
+      if (e.isSetReaction()) {
+        for (String reaction : e.getReactions()) {
+          ReactionGlyph rg = keggReactionName2glyph.get(reaction);
+          if (rg!=null) {
+            SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(speciesId), sGlyph.getId());
+            srg.setRole(SpeciesReferenceRole.MODIFIER);
+          }
+        }
+      }
+      
+      // If unique assignment (by id) available, add as substrate/product
+      if (e.isSetID()) {
+        for (de.zbit.kegg.parser.pathway.Reaction r : index.getReactionsForEntry(e)) {
+          ReactionGlyph rg = keggReactionName2glyph.get(r.getName());
+          if (rg!=null) {
+            // do NOT assign by name. this does not solve the problem with clones.
+            for (ReactionComponent rc : r.getSubstrates()) {
+              if (rc.isSetID() && rc.getId().intValue() == e.getId()) {
+                SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(speciesId), sGlyph.getId());
+                srg.setRole(SpeciesReferenceRole.SUBSTRATE);
               }
             }
-            
-            // If unique assignment (by id) available, add as substrate/product
-            if (e.isSetID()) {
-              for (de.zbit.kegg.parser.pathway.Reaction r : p.getReactionsForEntry(e)) {
-                ReactionGlyph rg = keggReactionName2glyph.get(r.getName());
-                if (rg!=null) {
-                  // do NOT assign by name. this does not solve the problem with clones.
-                  for (ReactionComponent rc : r.getSubstrates()) {
-                    if (rc.isSetID() && rc.getId().intValue() == e.getId()) {
-                      SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(idCounts, speciesId), sGlyph.getId());
-                      srg.setRole(SpeciesReferenceRole.SUBSTRATE);
-                    }
-                  }
-                  for (ReactionComponent rc : r.getProducts()) {
-                    if (rc.isSetID() && rc.getId().intValue() == e.getId()) {
-                      SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(idCounts, speciesId), sGlyph.getId());
-                      srg.setRole(SpeciesReferenceRole.PRODUCT);
-                    }
-                  }
-                }
+            for (ReactionComponent rc : r.getProducts()) {
+              if (rc.isSetID() && rc.getId().intValue() == e.getId()) {
+                SpeciesReferenceGlyph srg = rg.createSpeciesReferenceGlyph(createGlyphID(speciesId), sGlyph.getId());
+                srg.setRole(SpeciesReferenceRole.PRODUCT);
               }
             }
           }
-          // --- End of adding SpeciesReferenceGlyphs
-          
-          
         }
       }
     }
-    // TODO: other things to add?
-    
-    
-    // Add the total dimension
-    layout.createDimensions(tracker.getWidth(), tracker.getHeight(), 1);
+    // --- End of adding SpeciesReferenceGlyphs
   }
   
   
   /**
    * Returnes the next available (unsed) id of a layout, beginning with
    * "layout", "layout2", "layout3",...
-   * @param layout
    * @param layoutModel
    * @return unused layout identifier
    */
-  private static String createUniqueLayoutId(Layout layout, LayoutModelPlugin layoutModel) {
+  private static String createUniqueLayoutId(LayoutModelPlugin layoutModel) {
     String idPrefix = "layout";
-    String id = idPrefix;
     
     ListOf<Layout> lol = layoutModel.getListOfLayouts();
     if (lol == null) {
-      return id;
+      return idPrefix;
     }
     
-    int s = 2;
+    // Layout ids are compared case-insensitive
+    UniqueIdAllocator layoutIds = new UniqueIdAllocator(lol.size());
     for (int i=0; i<lol.size(); i++) {
-      if (lol.get(i).getId().equalsIgnoreCase(id)) {
-        id = idPrefix + s;
-        s++;
-        i=-1;
+      String id = lol.get(i).getId();
+      if (id != null) {
+        layoutIds.reserve(id.toLowerCase());
       }
     }
     
-    return id;
+    return layoutIds.makeUnique(idPrefix, "", 2);
   }
   /**
    * 
-   * @param idCounts
    * @param id
-   * @return
+   * @return "glyph_&lt;id>_&lt;number>", with ascending numbers per id.
    */
-  private static String createGlyphID(Map<String, Integer> idCounts,
-    String id) {
-    String gID = "glyph_" + id;
-    if (idCounts.containsKey(id)) {
-      idCounts.put(id, Integer.valueOf(idCounts.get(id).intValue() + 1));
-    } else {
-      idCounts.put(id, Integer.valueOf(1));
-    }
-    gID = gID + '_' + idCounts.get(id);
-    return gID;
+  private String createGlyphID(String id) {
+    return idCounts.nextId("glyph_" + id + '_', 1);
   }
   
   /**
@@ -400,7 +596,7 @@ public class KEGG2SBMLLayoutExtension {
    * in which they occur as enzymes.
    * @param document
    * @return a map that links from every enzyme (species intance) to a list of reactions,
-   * in which this enzyme occurs as modifier.
+   * in which this enzyme occurs as modifier. Reactions are in the order of the model.
    */
   public static Map<String, Collection<Reaction>> getEnzyme2ReactionMap(SBMLDocument document) {
     Map<String, Collection<Reaction>> enzymeSpeciesIDs = new HashMap<String, Collection<Reaction>>();
@@ -408,7 +604,13 @@ public class KEGG2SBMLLayoutExtension {
       if (r.isSetListOfModifiers()) {
         for (ModifierSpeciesReference msr : r.getListOfModifiers()) {
           if (msr.isSetSpecies() && msr.getSpecies().length()>0) {
-            Utils.addToMapOfSets(enzymeSpeciesIDs, msr.getSpecies(), r);
+            // The layout depends on the order, so don't use hash sets here.
+            Collection<Reaction> reactions = enzymeSpeciesIDs.get(msr.getSpecies());
+            if (reactions == null) {
+              reactions = new LinkedHashSet<Reaction>();
+              enzymeSpeciesIDs.put(msr.getSpecies(), reactions);
+            }
+            reactions.add(r);
           }
         }
       }
@@ -0,0 +1,528 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.sbml.jsbml.CVTerm;
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.ModifierSpeciesReference;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBase;
+import org.sbml.jsbml.SimpleSpeciesReference;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.TidySBMLWriter;
+import org.sbml.jsbml.UnitDefinition;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.fbc.FBCModelPlugin;
+import org.sbml.jsbml.ext.groups.Group;
+import org.sbml.jsbml.ext.groups.GroupsModelPlugin;
+import org.sbml.jsbml.ext.groups.Member;
+
+import de.zbit.cache.InfoManagement;
+import de.zbit.kegg.Translator;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.Pathway;
+import de.zbit.util.DatabaseIdentifierTools;
+import de.zbit.util.DatabaseIdentifiers.IdentifierDatabases;
+import de.zbit.util.Utils;
+
+/**
+ * Merges many pathways (usually all pathways of one organism) into one
+ * SBML model. Every pathway is translated with a {@link KEGG2jSBML}
+ * and then merged into the target model, such that only one pathway
+ * has to be kept in memory at a time.
+ *
+ * <p>Species with the same KEGG identifiers (in the same compartment)
+ * and reactions with the same KEGG identifiers are only created once.
+ * Modifiers of a reaction are united. All other elements (e.g., entries
+ * that are no KEGG entries) are kept separately for each pathway. The
+ * elements of each pathway are listed as members of a {@link Group}
+ * (SBML Level 3 only). Layouts of the single pathways are not merged.
+ *
+ * <p>All identifiers are assigned by a {@link UniqueIdAllocator} and
+ * all elements are found by their key in hash tables, so the cost of
+ * adding a pathway does not depend on the size of the merged model.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class KEGG2SBMLMerger {
+  private static final transient Logger log = Logger.getLogger(KEGG2SBMLMerger.class.getName());
+
+  /**
+   * Translates the single pathways.
+   */
+  private final KEGG2jSBML translator;
+
+  /**
+   * The merged document.
+   */
+  private SBMLDocument doc = null;
+
+  /**
+   * Identifier of the merged model.
+   */
+  private final String modelId;
+
+  /**
+   * All identifiers in the merged model.
+   */
+  private final UniqueIdAllocator ids = new UniqueIdAllocator();
+
+  /**
+   * Merged compartments, species and reactions by key.
+   */
+  private final Map<String, Compartment> compartments = new HashMap<String, Compartment>();
+  private final Map<String, Species> species = new HashMap<String, Species>();
+  private final Map<String, Reaction> reactions = new HashMap<String, Reaction>();
+
+  /**
+   * Species identifiers of all modifiers of every merged reaction.
+   */
+  private final Map<Reaction, Set<String>> modifiers = new IdentityHashMap<Reaction, Set<String>>();
+
+  /**
+   * Number of merged pathways.
+   */
+  private int pathwayCount = 0;
+
+  /**
+   * @param translator translates the single pathways. Must not stream
+   * its output.
+   * @param modelId identifier of the merged model, e.g., the organism.
+   */
+  public KEGG2SBMLMerger(KEGG2jSBML translator, String modelId) {
+    super();
+    this.translator = translator;
+    this.modelId = modelId;
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Translates the given pathway and merges it into the model.
+   * @param p
+   * @return false if the pathway could not be translated.
+   */
+  public boolean add(Pathway p) {
+    SBMLDocument translated = translator.translate(p);
+    if ((translated == null) || !translated.isSetModel()) {
+      return false;
+    }
+    add(translated, translator.getLastTranslatedPathway());
+    return true;
+  }
+
+  /**
+   * Merges a translated pathway into the model. The translated document
+   * may be changed and should not be used afterwards.
+   * @param translated the {@link SBMLDocument}, created by {@link KEGG2jSBML}.
+   * @param p the pathway that has been translated, i.e.,
+   * {@link KEGG2jSBML#getLastTranslatedPathway()}, in which all entries
+   * refer to their elements in {@code translated}.
+   */
+  public void add(SBMLDocument translated, Pathway p) {
+    Model source = translated.getModel();
+    Model target = getModel(translated);
+    pathwayCount++;
+
+    // KEGG identifiers of all elements
+    Map<SBase, Entry> entries = new IdentityHashMap<SBase, Entry>();
+    for (Entry e : p.getEntries()) {
+      if (e.getCustom() instanceof SBase) {
+        entries.put((SBase) e.getCustom(), e);
+      }
+    }
+
+    // Merged identifier for every identifier of the source model
+    Map<String, String> idMap = new HashMap<String, String>();
+    Set<String> members = new LinkedHashSet<String>();
+
+    for (Compartment c : source.getListOfCompartments()) {
+      idMap.put(c.getId(), addCompartment(target, c).getId());
+    }
+
+    for (Species s : source.getListOfSpecies()) {
+      String key = null;
+      Entry e = entries.get(s);
+      if ((e != null) && e.getName().contains(":")) {
+        key = idMap.get(s.getCompartment()) + ' ' + normalize(e.getName());
+      }
+      Species merged = (key == null) ? null : species.get(key);
+      if (merged == null) {
+        merged = s.clone();
+        setId(merged, s.getId());
+        merged.setCompartment(idMap.get(s.getCompartment()));
+        target.addSpecies(merged);
+        if (key != null) {
+          species.put(key, merged);
+        }
+      }
+      idMap.put(s.getId(), merged.getId());
+      members.add(merged.getId());
+    }
+
+    for (Reaction r : source.getListOfReactions()) {
+      String key = r.isSetName() ? normalize(r.getName()) : null;
+      Reaction merged = (key == null) ? null : reactions.get(key);
+      if (merged == null) {
+        merged = r.clone();
+        setId(merged, r.getId());
+        if (r.isSetCompartment()) {
+          merged.setCompartment(idMap.get(r.getCompartment()));
+        }
+        for (SimpleSpeciesReference sr : merged.getListOfReactants()) {
+          mapReference(sr, idMap);
+        }
+        for (SimpleSpeciesReference sr : merged.getListOfProducts()) {
+          mapReference(sr, idMap);
+        }
+        Set<String> mods = new LinkedHashSet<String>();
+        for (SimpleSpeciesReference sr : merged.getListOfModifiers()) {
+          mapReference(sr, idMap);
+          mods.add(sr.getSpecies());
+        }
+        target.addReaction(merged);
+        modifiers.put(merged, mods);
+        if (key != null) {
+          reactions.put(key, merged);
+        }
+      } else {
+        // Unite modifiers (enzymes of other organisms or pathways).
+        Set<String> mods = modifiers.get(merged);
+        for (ModifierSpeciesReference mod : r.getListOfModifiers()) {
+          if (mods.add(idMap.get(mod.getSpecies()))) {
+            ModifierSpeciesReference clone = mod.clone();
+            mapReference(clone, idMap);
+            merged.addModifier(clone);
+          }
+        }
+      }
+      idMap.put(r.getId(), merged.getId());
+      members.add(merged.getId());
+    }
+
+    if (target.getLevel() > 2) {
+      // Groups of the pathway (e.g., complexes)
+      GroupsModelPlugin sourceGroups = (GroupsModelPlugin) source.getExtension(KEGG2SBMLGroupExtension.GROUP_NS);
+      if ((sourceGroups != null) && sourceGroups.isSetListOfGroups()) {
+        // Register all groups first, since groups may contain other groups.
+        List<Group> copies = new ArrayList<Group>(sourceGroups.getGroupCount());
+        for (Group g : sourceGroups.getListOfGroups()) {
+          Group merged = addGroup(target, g);
+          idMap.put(g.getId(), merged.getId());
+          members.add(merged.getId());
+          copies.add(merged);
+        }
+        for (int i = 0; i < copies.size(); i++) {
+          addMembers(copies.get(i), sourceGroups.getGroup(i), idMap);
+        }
+      }
+      addPathwayGroup(target, source, members);
+    }
+  }
+
+  /**
+   * @param ids space separated identifiers
+   * @return the sorted identifiers.
+   */
+  private static String normalize(String ids) {
+    String[] split = ids.trim().split("\\s+");
+    if (split.length < 2) {
+      return split[0];
+    }
+    Arrays.sort(split);
+    StringBuilder sb = new StringBuilder(ids.length());
+    for (String id : split) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(id);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Assigns a unique identifier and meta identifier to a copied element.
+   * @param sbase
+   * @param id the identifier in the source model.
+   */
+  private void setId(SBase sbase, String id) {
+    String newId = ids.makeUnique(id, "_", 1);
+    if (sbase instanceof Species) {
+      ((Species) sbase).setId(newId);
+    } else if (sbase instanceof Reaction) {
+      ((Reaction) sbase).setId(newId);
+    } else if (sbase instanceof SimpleSpeciesReference) {
+      ((SimpleSpeciesReference) sbase).setId(newId);
+    } else if (sbase instanceof Group) {
+      ((Group) sbase).setId(newId);
+    }
+    if (sbase.isSetMetaId()) {
+      sbase.setMetaId("meta_" + newId);
+    }
+  }
+
+  /**
+   * Assigns a unique identifier and the merged species to a copied
+   * species reference.
+   * @param sr
+   * @param idMap
+   */
+  private void mapReference(SimpleSpeciesReference sr, Map<String, String> idMap) {
+    if (sr.isSetId()) {
+      setId(sr, sr.getId());
+    } else if (sr.isSetMetaId()) {
+      sr.setMetaId(ids.makeUnique("meta_" + sr.getSpecies(), "_", 1));
+    }
+    String speciesId = idMap.get(sr.getSpecies());
+    if (speciesId != null) {
+      sr.setSpecies(speciesId);
+    }
+  }
+
+  /**
+   * @param c a compartment of a translated pathway.
+   * @return the key for all equal compartments.
+   */
+  private static String getKey(Compartment c) {
+    // The default compartment is named like the pathway.
+    if (c.getId().equals("default") || !c.isSetName()) {
+      return c.getId();
+    }
+    return c.getName();
+  }
+
+  /**
+   * @param target
+   * @param c a compartment of a translated pathway.
+   * @return the compartment of the merged model.
+   */
+  private Compartment addCompartment(Model target, Compartment c) {
+    String key = getKey(c);
+    Compartment merged = compartments.get(key);
+    if (merged == null) {
+      merged = c.clone();
+      merged.setId(ids.makeUnique(c.getId(), "_", 1));
+      if (merged.isSetMetaId()) {
+        merged.setMetaId("meta_" + merged.getId());
+      }
+      if (key.equals("default")) {
+        merged.unsetName();
+      }
+      target.addCompartment(merged);
+      compartments.put(key, merged);
+    }
+    return merged;
+  }
+
+  /**
+   * Copies a group of a translated pathway without its members (see
+   * {@link #addMembers(Group, Group, Map)}).
+   * @param target
+   * @param g
+   * @return the new group.
+   */
+  private Group addGroup(Model target, Group g) {
+    Group merged = g.clone();
+    setId(merged, g.getId());
+    merged.unsetListOfMembers();
+    KEGG2SBMLGroupExtension.getGroupsModelPlugin(target).addGroup(merged);
+    return merged;
+  }
+
+  /**
+   * Adds the members of a group of a translated pathway to its copy.
+   * @param merged the copy of {@code g}.
+   * @param g
+   * @param idMap identifiers of all copied elements, including groups.
+   */
+  private void addMembers(Group merged, Group g, Map<String, String> idMap) {
+    for (Member m : g.getListOfMembers()) {
+      String idRef = idMap.get(m.getIdRef());
+      if (idRef != null) {
+        Member member = merged.createMember(ids.makeUnique(merged.getId() + "_member_" + idRef, "_", 1));
+        member.setIdRef(idRef);
+      }
+    }
+  }
+
+  /**
+   * Creates a group for all elements of one pathway.
+   * @param target
+   * @param source the model of the translated pathway.
+   * @param members identifiers of all elements of the pathway.
+   */
+  private void addPathwayGroup(Model target, Model source, Set<String> members) {
+    Group g = KEGG2SBMLGroupExtension.getGroupsModelPlugin(target).createGroup(ids.makeUnique(source.getId(), "_", 1));
+    g.setMetaId("meta_" + g.getId());
+    g.setName(source.getName());
+    g.setKind(Group.Kind.classification);
+    g.setSBOTerm(375); // process
+    for (CVTerm term : source.getCVTerms()) {
+      if (term.isBiologicalQualifier()) {
+        g.addCVTerm(term.clone());
+      } else if (term.getModelQualifierType() == CVTerm.Qualifier.BQM_IS_DERIVED_FROM) {
+        // The pathway is not derived from, but is this entry.
+        CVTerm is = term.clone();
+        is.setQualifierType(CVTerm.Type.BIOLOGICAL_QUALIFIER);
+        is.setBiologicalQualifierType(CVTerm.Qualifier.BQB_IS);
+        g.addCVTerm(is);
+      }
+    }
+    for (String id : members) {
+      Member member = g.createMember(ids.makeUnique(g.getId() + "_member_" + id, "_", 1));
+      member.setIdRef(id);
+    }
+  }
+
+  /**
+   * Creates the merged model with the level, version and units of the
+   * first translated document.
+   * @param first
+   * @return the merged model.
+   */
+  private Model getModel(SBMLDocument first) {
+    if (doc != null) {
+      return doc.getModel();
+    }
+    doc = new SBMLDocument(first.getLevel(), first.getVersion());
+    Model source = first.getModel();
+    Model model = doc.createModel(ids.toSId(modelId));
+    model.setMetaId("meta_" + model.getId());
+    model.setName(modelId);
+    for (UnitDefinition ud : source.getListOfUnitDefinitions()) {
+      ids.reserve(ud.getId());
+      model.addUnitDefinition(ud.clone());
+    }
+    if (source.isSetTimeUnits()) {
+      model.setTimeUnits(source.getTimeUnits());
+    }
+    if (source.isSetVolumeUnits()) {
+      model.setVolumeUnits(source.getVolumeUnits());
+    }
+    if (source.isSetSubstanceUnits()) {
+      model.setSubstanceUnits(source.getSubstanceUnits());
+    }
+    if (source.isSetHistory()) {
+      model.setHistory(source.getHistory().clone());
+    }
+
+    // Add KEGGtranslator reference
+    CVTerm term = DatabaseIdentifierTools.getCVTerm(IdentifierDatabases.PubMed, null, "21700675");
+    term.setQualifierType(CVTerm.Type.MODEL_QUALIFIER);
+    term.setModelQualifierType(CVTerm.Qualifier.BQM_IS_DESCRIBED_BY);
+    model.addCVTerm(term);
+
+    return model;
+  }
+
+  /**
+   * @return the merged document or {@code null}, if no pathway has
+   * been added.
+   */
+  public SBMLDocument getDocument() {
+    if ((doc != null) && (doc.getLevel() > 2) && (doc.getModel().getSpeciesCount() > 0)) {
+      // Same as in KEGG2jSBML
+      ((FBCModelPlugin) doc.getModel().getPlugin(FBCConstants.getNamespaceURI(doc.getLevel(), doc.getVersion(), 2))).setStrict(false);
+    }
+    return doc;
+  }
+
+  /**
+   * @return number of merged pathways.
+   */
+  public int getPathwayCount() {
+    return pathwayCount;
+  }
+
+  /**
+   * Merges all KGML files in a directory into one SBML Level 3 model.
+   * @param args input directory, output file and (optional) the model id.
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if ((args == null) || (args.length < 2)) {
+      System.out.println("Usage: KEGG2SBMLMerger <KGML directory> <output file> [model id]");
+      return;
+    }
+    KeggInfoManagement manager;
+    if (new File(Translator.cacheFileName).exists()
+        && new File(Translator.cacheFileName).length() > 1) {
+      manager = (KeggInfoManagement) InfoManagement.loadFromFilesystem(Translator.cacheFileName);
+    } else {
+      manager = new KeggInfoManagement();
+    }
+    KEGG2jSBML k2s = new KEGG2jSBML(manager, 3, 1);
+    k2s.setAddLayoutExtension(false);
+
+    File dir = new File(args[0]);
+    KEGG2SBMLMerger merger = new KEGG2SBMLMerger(k2s, args.length > 2 ? args[2] : dir.getName());
+    long start = System.currentTimeMillis();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File f : files) {
+        if (f.isFile() && f.getName().toLowerCase().endsWith(".xml")) {
+          for (Pathway p : KeggParser.parse(f.getPath())) {
+            if (!merger.add(p)) {
+              log.warning("Could not translate " + f.getName());
+            }
+          }
+        }
+      }
+    }
+
+    SBMLDocument doc = merger.getDocument();
+    if (doc == null) {
+      log.warning("No pathways found in " + args[0]);
+      return;
+    }
+    TidySBMLWriter.write(doc, args[1], ' ', (short) 2);
+    log.info(String.format("Merged %s pathways into %s species and %s reactions in %s.",
+      merger.getPathwayCount(), doc.getModel().getSpeciesCount(), doc.getModel().getReactionCount(),
+      Utils.getTimeString(System.currentTimeMillis() - start)));
+
+    // Remember already queried objects (save cache)
+    if (AbstractKEGGtranslator.getKeggInfoManager().hasChanged()) {
+      KeggInfoManagement.saveToFilesystem(Translator.cacheFileName, AbstractKEGGtranslator.getKeggInfoManager());
+    }
+  }
+
+}
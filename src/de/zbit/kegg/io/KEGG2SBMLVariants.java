@@ -0,0 +1,557 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.ModifierSpeciesReference;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SimpleSpeciesReference;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.SpeciesReference;
+import org.sbml.jsbml.UnitDefinition;
+import org.sbml.jsbml.ext.SBasePlugin;
+import org.sbml.jsbml.ext.fbc.FBCConstants;
+import org.sbml.jsbml.ext.groups.Group;
+import org.sbml.jsbml.ext.groups.GroupsModelPlugin;
+import org.sbml.jsbml.ext.groups.Member;
+import org.sbml.jsbml.ext.layout.Layout;
+import org.sbml.jsbml.ext.layout.LayoutModelPlugin;
+import org.sbml.jsbml.ext.qual.QualModelPlugin;
+import org.sbml.jsbml.ext.qual.QualitativeSpecies;
+
+import de.zbit.kegg.KEGGtranslatorOptions;
+import de.zbit.kegg.io.KEGGtranslatorIOOptions.Format;
+import de.zbit.kegg.parser.pathway.Pathway;
+
+/**
+ * Translates a pathway once and derives all requested SBML formats
+ * (levels, versions and core or qual models) from the translated
+ * document by converting it in memory. Every additional format thus
+ * costs a conversion and serialization, but no translation. Documents
+ * are converted in place after they have been written, from the
+ * richest to the poorest format, so they never have to be copied.
+ *
+ * <p>Formats that need a different preprocessing of the pathway still
+ * need a translation of their own. These are:
+ * <ul>
+ * <li>All core formats ({@link Format#SBML}, {@link Format#SBML_L2V4},
+ * {@link Format#SBML_L2V5} and {@link Format#SBML_L3V1}) are derived
+ * from one SBML Level 3 translation with {@link KEGG2jSBML}.</li>
+ * <li>{@link Format#SBML_CORE_AND_QUAL} is translated with
+ * {@link KEGG2SBMLqual}, because the combined model also contains
+ * entries that are only used in relations.</li>
+ * <li>{@link Format#SBML_QUAL} is derived from the combined model if
+ * neither orphans are removed nor reactions are autocompleted (see
+ * {@link #isQualDerivable()}). Otherwise, both would contain different
+ * entries.</li>
+ * </ul>
+ *
+ * <p>The only difference to direct translations are the identifiers of
+ * glyphs in a derived qual layout.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class KEGG2SBMLVariants {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(KEGG2SBMLVariants.class.getName());
+
+  /**
+   * All formats that can be created by this class.
+   */
+  public static final Set<Format> SUPPORTED_FORMATS = Collections.unmodifiableSet(EnumSet.of(
+    Format.SBML, Format.SBML_L2V4, Format.SBML_L2V5, Format.SBML_L3V1,
+    Format.SBML_QUAL, Format.SBML_CORE_AND_QUAL));
+
+  /**
+   * Prefix of group identifiers (see {@link KEGG2jSBML}).
+   */
+  private static final String GROUP_PREFIX = "group_";
+
+  /**
+   * Options, cache and progress bar for all translations.
+   */
+  private final TranslationContext context;
+
+  /**
+   * @param context options, cache and progress bar for all translations.
+   */
+  public KEGG2SBMLVariants(TranslationContext context) {
+    super();
+    this.context = context;
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param formats comma-separated list of format names (case is
+   * ignored), e.g., "SBML_L2V4,SBML_QUAL".
+   * @return all parsed formats. Unknown and unsupported formats are
+   * skipped with a warning.
+   */
+  public static Set<Format> parseFormats(String formats) {
+    Set<Format> ret = EnumSet.noneOf(Format.class);
+    if (formats == null) {
+      return ret;
+    }
+    for (String name : formats.split(",")) {
+      name = name.trim();
+      if (name.length() < 1) {
+        continue;
+      }
+      Format f = null;
+      for (Format candidate : Format.values()) {
+        if (candidate.name().equalsIgnoreCase(name)) {
+          f = candidate;
+          break;
+        }
+      }
+      if ((f == null) || !SUPPORTED_FORMATS.contains(f)) {
+        log.warning(String.format("Skipping unsupported SBML format '%s'.", name));
+      } else {
+        ret.add(f);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param outFile file name of the main output.
+   * @param format
+   * @return the file name for {@code format}, next to {@code outFile}.
+   * The extension (".xml", ".sbml.xml" and ".gz") is kept, e.g.,
+   * "hsa00010_SBML_QUAL.sbml.xml" for "hsa00010.sbml.xml".
+   */
+  public static String getFileName(String outFile, Format format) {
+    int sep = Math.max(outFile.lastIndexOf('/'), outFile.lastIndexOf('\\'));
+    int ext = outFile.indexOf('.', sep + 1);
+    if (ext < 0) {
+      return outFile + '_' + format.name();
+    }
+    return outFile.substring(0, ext) + '_' + format.name() + outFile.substring(ext);
+  }
+
+  /**
+   * @return true if {@link Format#SBML_QUAL} is derived from the
+   * combined model.
+   */
+  public boolean isQualDerivable() {
+    return !context.getOption(KEGGtranslatorOptions.REMOVE_ORPHANS)
+        && !context.getOption(KEGGtranslatorOptions.AUTOCOMPLETE_REACTIONS);
+  }
+
+  /**
+   * @return the format that {@link Format#SBML} resolves to with the
+   * current options (see {@link KEGG2jSBML#getLevelAndVersion()}).
+   */
+  private Format getAutomaticFormat() {
+    if (context.getOption(KEGGtranslatorOptions.ADD_LAYOUT_EXTENSION)
+        || context.getOption(KEGGtranslatorOptions.USE_GROUPS_EXTENSION)) {
+      return Format.SBML_L3V1;
+    }
+    return Format.SBML_L2V4;
+  }
+
+  /**
+   * Translates {@code p} as often as required and writes all requested
+   * formats. Each translated document is written and then converted in
+   * place to the next format, so no document is ever copied.
+   * @param p the pathway. It is preprocessed by the first translation.
+   * @param outFiles the output file for any of {@link #SUPPORTED_FORMATS}.
+   * @param writer writes all documents (see
+   * {@link KEGG2jSBML#writeToFile(SBMLDocument, String)}). All other
+   * translators take over its settings that are not part of the context.
+   * @return true if all files have been written.
+   */
+  public boolean translate(Pathway p, Map<Format, String> outFiles, KEGG2jSBML writer) {
+    Set<Format> formats = outFiles.keySet();
+    boolean core = false;
+    boolean combined = formats.contains(Format.SBML_CORE_AND_QUAL);
+    boolean qual = false;
+    for (Format f : formats) {
+      if (!SUPPORTED_FORMATS.contains(f)) {
+        throw new IllegalArgumentException(String.format("Unsupported format %s.", f));
+      } else if (f == Format.SBML_QUAL) {
+        if (isQualDerivable()) {
+          combined = true;
+        } else {
+          qual = true;
+        }
+      } else if (f != Format.SBML_CORE_AND_QUAL) {
+        core = true;
+      }
+    }
+
+    // Every translation preprocesses (and thus modifies) its pathway.
+    List<Pathway> pathways = copies(p, (core ? 1 : 0) + (combined ? 1 : 0) + (qual ? 1 : 0));
+    boolean success = true;
+    if (core) {
+      KEGG2jSBML translator = new KEGG2jSBML(context.getManager(), 3, 1);
+      translator.setTranslationContext(context);
+      writer.copySettingsTo(translator);
+      SBMLDocument doc = translator.translate(pathways.remove(0));
+      if (doc == null) {
+        log.warning(String.format("Could not translate %s to SBML.", p.getName()));
+        success = false;
+      } else {
+        Format auto = getAutomaticFormat();
+        // From the richest to the poorest format
+        for (Format target : new Format[] {Format.SBML_L3V1, Format.SBML_L2V4, Format.SBML_L2V5}) {
+          List<String> files = new ArrayList<String>(2);
+          if (outFiles.containsKey(target)) {
+            files.add(outFiles.get(target));
+          }
+          if ((target == auto) && outFiles.containsKey(Format.SBML)) {
+            files.add(outFiles.get(Format.SBML));
+          }
+          if (files.isEmpty()) {
+            continue;
+          }
+          if (target == Format.SBML_L2V4) {
+            toLevel2(doc, 4);
+          } else if (target == Format.SBML_L2V5) {
+            if (doc.getLevel() > 2) {
+              toLevel2(doc, 5);
+            } else {
+              doc.setLevelAndVersion(2, 5, false);
+            }
+          }
+          for (String file : files) {
+            success &= writer.writeToFile(doc, file);
+          }
+        }
+      }
+    }
+    if (combined) {
+      KEGG2SBMLqual translator = new KEGG2SBMLqual(context.getManager());
+      translator.setTranslationContext(context);
+      writer.copySettingsTo(translator);
+      translator.setConsiderReactions(true);
+      SBMLDocument doc = translator.translate(pathways.remove(0));
+      if (doc == null) {
+        log.warning(String.format("Could not translate %s to SBML core and qual.", p.getName()));
+        success = false;
+      } else if (formats.contains(Format.SBML_CORE_AND_QUAL)) {
+        success &= writer.writeToFile(doc, outFiles.get(Format.SBML_CORE_AND_QUAL));
+      }
+      if ((doc != null) && formats.contains(Format.SBML_QUAL) && !qual) {
+        toQual(doc);
+        success &= writer.writeToFile(doc, outFiles.get(Format.SBML_QUAL));
+      }
+    }
+    if (qual) {
+      KEGG2SBMLqual translator = new KEGG2SBMLqual(context.getManager());
+      translator.setTranslationContext(context);
+      writer.copySettingsTo(translator);
+      SBMLDocument doc = translator.translate(pathways.remove(0));
+      if (doc == null) {
+        log.warning(String.format("Could not translate %s to SBML qual.", p.getName()));
+        success = false;
+      } else {
+        success &= writer.writeToFile(doc, outFiles.get(Format.SBML_QUAL));
+      }
+    }
+    return success;
+  }
+
+  /**
+   * @param p
+   * @param count
+   * @return {@code count} pathways: {@code p} itself and
+   * {@code count - 1} copies of it.
+   */
+  private static List<Pathway> copies(Pathway p, int count) {
+    List<Pathway> ret = new ArrayList<Pathway>(count);
+    ret.add(p);
+    if (count > 1) {
+      try {
+        byte[] data = PreprocessedPathwayCache.encode(p, true);
+        for (int i = 1; i < count; i++) {
+          ret.add(PreprocessedPathwayCache.decode(data));
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(String.format("Could not copy pathway %s.", p.getName()), e);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Removes the declaration of an extension package from {@code doc}.
+   * @param doc
+   * @param namespace
+   * @param shortLabel
+   */
+  private static void removePackage(SBMLDocument doc, String namespace, String shortLabel) {
+    doc.getModel().unsetPlugin(namespace);
+    doc.getSBMLDocumentAttributes().remove(shortLabel + ":required");
+    doc.disablePackage(namespace);
+  }
+
+  /**
+   * @param model
+   * @param metabolic
+   * @return the metabolic or qualitative layout of {@code model} (see
+   * {@link KEGG2SBMLLayoutExtension#getLayoutName(boolean)}) or {@code null}.
+   */
+  private static Layout getLayout(Model model, boolean metabolic) {
+    SBasePlugin plugin = model.getExtension(KEGG2SBMLLayoutExtension.LAYOUT_NS);
+    if (plugin instanceof LayoutModelPlugin) {
+      String name = KEGG2SBMLLayoutExtension.getLayoutName(metabolic);
+      for (Layout layout : ((LayoutModelPlugin) plugin).getListOfLayouts()) {
+        if (name.equals(layout.getName())) {
+          return layout;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes all group members whose reference is (not) contained in
+   * {@code ids}.
+   * @param model
+   * @param ids
+   * @param keep if true, only members in {@code ids} are kept. Else,
+   * all members in {@code ids} are removed.
+   */
+  private static void filterGroupMembers(Model model, Set<String> ids, boolean keep) {
+    SBasePlugin plugin = model.getExtension(KEGG2SBMLGroupExtension.GROUP_NS);
+    if (!(plugin instanceof GroupsModelPlugin)) {
+      return;
+    }
+    for (Group g : ((GroupsModelPlugin) plugin).getListOfGroups()) {
+      Iterator<Member> it = g.getListOfMembers().iterator();
+      while (it.hasNext()) {
+        if (ids.contains(it.next().getIdRef()) != keep) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param model
+   * @return identifiers of all qualitative species in {@code model}.
+   */
+  private static Set<String> getQualSpeciesIds(Model model) {
+    Set<String> ret = new HashSet<String>();
+    SBasePlugin plugin = model.getExtension(KEGG2SBMLqual.QUAL_NS);
+    if (plugin instanceof QualModelPlugin) {
+      for (QualitativeSpecies qs : ((QualModelPlugin) plugin).getListOfQualitativeSpecies()) {
+        ret.add(qs.getId());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Converts a core and qual model (see
+   * {@link KEGG2SBMLqual#setConsiderReactions(boolean)}) to a pure
+   * qual model, as translated by {@link KEGG2SBMLqual}.
+   * @param doc the combined model, which is modified.
+   */
+  public static void toQual(SBMLDocument doc) {
+    Model model = doc.getModel();
+    filterGroupMembers(model, getQualSpeciesIds(model), true);
+    model.unsetListOfReactions();
+    model.unsetListOfSpecies();
+    String fbc = FBCConstants.getNamespaceURI(3, 1, 2);
+    SBasePlugin plugin = model.getExtension(KEGG2SBMLqual.QUAL_NS);
+    if (plugin instanceof QualModelPlugin) {
+      // Qual species are created from core species, including their formula.
+      for (QualitativeSpecies qs : ((QualModelPlugin) plugin).getListOfQualitativeSpecies()) {
+        qs.unsetPlugin(fbc);
+      }
+    }
+    removePackage(doc, fbc, FBCConstants.shortLabel);
+
+    Layout metabolic = getLayout(model, true);
+    if (metabolic != null) {
+      LayoutModelPlugin layoutModel = (LayoutModelPlugin) model.getExtension(KEGG2SBMLLayoutExtension.LAYOUT_NS);
+      layoutModel.getListOfLayouts().remove(metabolic);
+      Layout qual = getLayout(model, false);
+      if (qual != null) {
+        qual.setId(metabolic.getId());
+      }
+    }
+    doc.getSBMLDocumentAttributes().put(KEGG2SBMLqual.QUAL_NS_NAME + ":required", "true");
+  }
+
+  /**
+   * Converts a core model to SBML Level 2. All Level 3 attributes are
+   * removed, groups are converted to species and the layout is dropped,
+   * just as {@link KEGG2jSBML} does for Level 2 translations.
+   * @param doc an SBML Level 3 core model, which is modified.
+   * @param version the target version of Level 2.
+   */
+  public static void toLevel2(SBMLDocument doc, int version) {
+    Model model = doc.getModel();
+    Compartment compartment = model.getCompartment(0);
+
+    // Groups are species in Level 2 (with the id that has been reserved for them)
+    List<Species> groups = new ArrayList<Species>();
+    Map<String, String> groupIds = new HashMap<String, String>();
+    SBasePlugin plugin = model.getExtension(KEGG2SBMLGroupExtension.GROUP_NS);
+    if (plugin instanceof GroupsModelPlugin) {
+      for (Group g : ((GroupsModelPlugin) plugin).getListOfGroups()) {
+        String id = g.getId().startsWith(GROUP_PREFIX) ? g.getId().substring(GROUP_PREFIX.length()) : g.getId();
+        Species s = new Species(id, doc.getLevel(), doc.getVersion());
+        s.setMetaId("meta_" + id);
+        if (g.isSetSBOTerm()) {
+          s.setSBOTerm(g.getSBOTerm());
+        }
+        if (g.isSetNotes()) {
+          s.setNotes(g.getNotes().clone());
+        }
+        if (g.isSetAnnotation()) {
+          s.setAnnotation(g.getAnnotation().clone());
+        }
+        s.setCompartment(compartment);
+        s.setInitialAmount(1d);
+        s.setName(g.getName());
+        groups.add(s);
+        groupIds.put(g.getId(), id);
+      }
+    }
+    removePackage(doc, KEGG2SBMLGroupExtension.GROUP_NS, KEGG2SBMLGroupExtension.GROUP_NS_NAME);
+    removePackage(doc, KEGG2SBMLLayoutExtension.LAYOUT_NS, KEGG2SBMLLayoutExtension.LAYOUT_NS_NAME);
+    removePackage(doc, FBCConstants.getNamespaceURI(3, 1, 2), FBCConstants.shortLabel);
+
+    // Level 3 units (see KEGG2jSBML#createModel())
+    model.unsetTimeUnits();
+    model.unsetVolumeUnits();
+    model.unsetSubstanceUnits();
+    for (String unit : new String[] {UnitDefinition.TIME, UnitDefinition.VOLUME, UnitDefinition.SUBSTANCE}) {
+      model.removeUnitDefinition(unit);
+    }
+    if (model.getUnitDefinitionCount() < 1) {
+      model.unsetListOfUnitDefinitions();
+    }
+
+    for (Compartment c : model.getListOfCompartments()) {
+      c.unsetConstant();
+    }
+    for (Reaction r : model.getListOfReactions()) {
+      r.unsetFast();
+      r.unsetCompartment();
+      for (SpeciesReference sr : r.getListOfReactants()) {
+        convertReference(sr, groupIds);
+      }
+      for (SpeciesReference sr : r.getListOfProducts()) {
+        convertReference(sr, groupIds);
+      }
+      for (ModifierSpeciesReference msr : r.getListOfModifiers()) {
+        convertReference(msr, groupIds);
+      }
+    }
+
+    // Species attributes of Level 3 can't be unset. Thus, create new species.
+    List<Species> species = new ArrayList<Species>(model.getSpeciesCount() + groups.size());
+    for (Species s : model.getListOfSpecies()) {
+      species.add(copySpecies(s));
+    }
+    species.addAll(groups);
+    model.unsetListOfSpecies();
+    for (Species s : species) {
+      model.addSpecies(s);
+    }
+
+    if (!doc.setLevelAndVersion(2, version, false)) {
+      log.log(Level.WARNING, String.format("Could not convert model %s to SBML Level 2 Version %s.", model.getId(), version));
+    }
+  }
+
+  /**
+   * Removes Level 3 attributes from {@code sr} and replaces references
+   * to groups by the species that represent them.
+   * @param sr
+   * @param groupIds species identifiers of all groups.
+   */
+  private static void convertReference(SimpleSpeciesReference sr, Map<String, String> groupIds) {
+    if (sr instanceof SpeciesReference) {
+      ((SpeciesReference) sr).unsetConstant();
+    }
+    String id = groupIds.get(sr.getSpecies());
+    if (id != null) {
+      sr.setSpecies(id);
+    }
+  }
+
+  /**
+   * @param s
+   * @return a new species with all properties of {@code s} that are
+   * set by {@link KEGG2jSBML}, except for those of Level 3.
+   */
+  private static Species copySpecies(Species s) {
+    Species copy = new Species(s.getId(), s.getLevel(), s.getVersion());
+    if (s.isSetMetaId()) {
+      copy.setMetaId(s.getMetaId());
+    }
+    if (s.isSetSBOTerm()) {
+      copy.setSBOTerm(s.getSBOTerm());
+    }
+    if (s.isSetNotes()) {
+      copy.setNotes(s.getNotes().clone());
+    }
+    if (s.isSetAnnotation()) {
+      copy.setAnnotation(s.getAnnotation().clone());
+    }
+    if (s.isSetCompartment()) {
+      copy.setCompartment(s.getCompartment());
+    }
+    if (s.isSetInitialAmount()) {
+      copy.setInitialAmount(s.getInitialAmount());
+    } else if (s.isSetInitialConcentration()) {
+      copy.setInitialConcentration(s.getInitialConcentration());
+    }
+    if (s.isSetSubstanceUnits()) {
+      copy.setSubstanceUnits(s.getSubstanceUnits());
+    }
+    if (s.isSetName()) {
+      copy.setName(s.getName());
+    }
+    return copy;
+  }
+
+}
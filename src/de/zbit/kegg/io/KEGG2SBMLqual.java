@@ -23,7 +23,9 @@ package de.zbit.kegg.io;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -32,6 +34,7 @@ import javax.xml.stream.XMLStreamException;
 
 import org.sbml.jsbml.AbstractSBase;
 import org.sbml.jsbml.CVTerm;
+import org.sbml.jsbml.Compartment;
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.NamedSBase;
 import org.sbml.jsbml.SBMLDocument;
@@ -52,7 +55,6 @@ import org.sbml.jsbml.ext.qual.Transition;
 import org.sbml.jsbml.util.ValuePair;
 
 import de.zbit.cache.InfoManagement;
-import de.zbit.kegg.KEGGtranslatorOptions;
 import de.zbit.kegg.Translator;
 import de.zbit.kegg.api.KeggInfos;
 import de.zbit.kegg.api.cache.KeggInfoManagement;
@@ -108,6 +110,21 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
    */
   private Set<String> containedTransitions = new HashSet<String>();
   
+  /**
+   * Groups that already contain the qual species of their members.
+   * Entries with the same name share one group, which must be extended
+   * only once.
+   */
+  private Set<Group> qualGroups = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+  
+  /**
+   * If true, {@link #createSpecies(Model, String, Compartment)} creates
+   * {@link QualitativeSpecies} instead of core species. This is the case
+   * for pure qual models (see {@link #considerReactions}), in which the
+   * core species would be removed anyway.
+   */
+  private boolean createQualSpeciesDirectly = false;
+  
   
   /**
    * @param document
@@ -168,6 +185,15 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
     return new ValuePair<Integer, Integer>(Integer.valueOf(3), Integer.valueOf(1));
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.KEGG2jSBML#isStreamingSupported()
+   */
+  @Override
+  protected boolean isStreamingSupported() {
+    // The qual model is built from the complete core model.
+    return false;
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.KEGG2jSBML#translateWithoutPreprocessing(de.zbit.kegg.parser.pathway.Pathway)
    */
@@ -176,21 +202,31 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
     
     // Don't forget to clear all previous caches
     containedTransitions.clear();
+    qualGroups.clear();
+    
+    // Determine if this is a combined model (core + qual) or a pure qual model.
+    boolean isCombindedModel = considerReactions();
+    
+    // Pure qual models don't need core species. CellDesigner annotations
+    // and the handling of models without relations require them.
+    createQualSpeciesDirectly = !isCombindedModel && !isAddCellDesignerAnnots()
+        && !(p.getRelations().size()<1 && isRemoveOrphans());
     
     // Translate to normal SBML
-    SBMLDocument doc = super.translateWithoutPreprocessing(p);
+    SBMLDocument doc;
+    try {
+      doc = super.translateWithoutPreprocessing(p);
+    } finally {
+      createQualSpeciesDirectly = false;
+    }
     
     // Create qualitative model
     Model model = doc.getModel();
-    QualModelPlugin qualModel = new QualModelPlugin(model);
-    
-    // Determine if this is a combined model (core + qual) or a pure qual model.
-    boolean isCombindedModel = considerReactions();
     
     // Add extension and namespace to model
     doc.addNamespace(KEGG2SBMLqual.QUAL_NS_NAME, "xmlns", KEGG2SBMLqual.QUAL_NS);
     doc.getSBMLDocumentAttributes().put(QUAL_NS_NAME + ":required", (isCombindedModel? "false" : "true"));
-    model.addExtension(KEGG2SBMLqual.QUAL_NS, qualModel);
+    QualModelPlugin qualModel = getQualModelPlugin(model);
     
     /* Until (INCLUDING) Version 2.2, if there were no relations, no qual species
      * have been created. The comment was as follows:
@@ -201,7 +237,7 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
      */
     
     // Create qual species for every species
-    if (p.getRelations().size()<1 && KEGGtranslatorOptions.REMOVE_ORPHANS.getValue(prefs)) {
+    if (p.getRelations().size()<1 && isRemoveOrphans()) {
       // We have no relations and REMOVE_ORPHANS is true => do nothing.
     } else {
       // Create the species (independent of the relations.
@@ -223,12 +259,44 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
     
     // Update (UNSET OLD METABOLIC and create new, qual-species related) layout extension
     if (addLayoutExtension) {
-      KEGG2SBMLLayoutExtension.addLayoutExtension(p, doc, model, false, !isCombindedModel);
+      // Without reactions, the metabolic layout only needs to refer to the qual species.
+      if (isCombindedModel || !KEGG2SBMLLayoutExtension.updateLayoutExtension(p, doc, false)) {
+        KEGG2SBMLLayoutExtension.addLayoutExtension(p, getPathwayIndex(p), doc, model, false, !isCombindedModel);
+      }
     }
     
     return doc;
   }
   
+  /**
+   * @param model
+   * @return the {@link QualModelPlugin} of the model (created, if necessary).
+   */
+  private static QualModelPlugin getQualModelPlugin(Model model) {
+    SBasePlugin qm = model.getExtension(KEGG2SBMLqual.QUAL_NS);
+    if (qm instanceof QualModelPlugin) {
+      return (QualModelPlugin) qm;
+    }
+    QualModelPlugin qualModel = new QualModelPlugin(model);
+    model.addExtension(KEGG2SBMLqual.QUAL_NS, qualModel);
+    return qualModel;
+  }
+  
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.KEGG2jSBML#createSpecies(org.sbml.jsbml.Model, java.lang.String, org.sbml.jsbml.Compartment)
+   */
+  @Override
+  protected NamedSBase createSpecies(Model model, String id, Compartment compartment) {
+    if (!createQualSpeciesDirectly) {
+      return super.createSpecies(model, id, compartment);
+    }
+    // Same as createQualitativeSpeciesFromSpecies(), without the core species.
+    QualitativeSpecies qs = getQualModelPlugin(model).createQualitativeSpecies(QUAL_SPECIES_PREFIX + id);
+    qs.setCompartment(compartment);
+    qs.setConstant(false);
+    return qs;
+  }
+  
   /**
    * Creates a qual species for every entry in the pathway
    * (as a side effect, also for every species in the model).
@@ -264,8 +332,8 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
   public Transition addKGMLRelation(Relation r, Pathway p, QualModelPlugin qualModel) throws XMLStreamException {
     // create transition and add it to the model
     
-    Entry eOne = p.getEntryForId(r.getEntry1());
-    Entry eTwo = p.getEntryForId(r.getEntry2());
+    Entry eOne = getPathwayIndex(p).getEntryForId(r.getEntry1());
+    Entry eTwo = getPathwayIndex(p).getEntryForId(r.getEntry2());
     
     NamedSBase qOne = eOne==null?null:(NamedSBase) eOne.getCustom();
     NamedSBase qTwo = eTwo==null?null:(NamedSBase) eTwo.getCustom();
@@ -448,7 +516,9 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
     // to the exisint group!
     //return KEGG2SBMLGroupExtension.cloneGroup(id, group, QUAL_SPECIES_PREFIX);
     
-    KEGG2SBMLGroupExtension.cloneGroupComponents(group, QUAL_SPECIES_PREFIX);
+    if (qualGroups.add(group)) {
+      KEGG2SBMLGroupExtension.cloneGroupComponents(group, QUAL_SPECIES_PREFIX);
+    }
     return group;
   }
   
@@ -567,6 +637,14 @@ public class KEGG2SBMLqual extends KEGG2jSBML {
     considerReactions = b;
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.KEGG2jSBML#getFormat()
+   */
+  @Override
+  public Format getFormat() {
+    return considerReactions() ? Format.SBML_CORE_AND_QUAL : Format.SBML_QUAL;
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.KEGG2jSBML#considerRelations()
    */
@@ -20,19 +20,33 @@
  */
 package de.zbit.kegg.io;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -50,6 +64,7 @@ import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBase;
 import org.sbml.jsbml.Species;
 import org.sbml.jsbml.SpeciesReference;
+import org.sbml.jsbml.SBMLWriter;
 import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.UnitDefinition;
 import org.sbml.jsbml.ext.fbc.FBCConstants;
@@ -64,6 +79,7 @@ import de.zbit.kegg.KEGGtranslatorOptions;
 import de.zbit.kegg.Translator;
 import de.zbit.kegg.api.KeggInfos;
 import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.io.KEGGtranslatorIOOptions.Format;
 import de.zbit.kegg.parser.KeggParser;
 import de.zbit.kegg.parser.pathway.Entry;
 import de.zbit.kegg.parser.pathway.EntryType;
@@ -113,6 +129,51 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
    */
   protected boolean useGroupsExtension = true;
   
+  /**
+   * Write SBML files while translating (see {@link #translateStreaming(Pathway, OutputStream)})?
+   */
+  protected boolean streamOutput = false;
+  
+  /**
+   * Create notes and MIRIAM annotations of species and reactions on
+   * multiple processors (see {@link #createAnnotations(Pathway, List, Model)})?
+   */
+  protected boolean parallelAnnotation = false;
+  
+  /**
+   * Write SBML files without indentation?
+   */
+  protected boolean compactOutput = false;
+  
+  /**
+   * Write gzip-compressed SBML files? Files ending with ".gz" are always
+   * compressed.
+   */
+  protected boolean gzipOutput = false;
+  
+  /**
+   * Compression level (1-9) for gzip-compressed SBML files.
+   */
+  protected int gzipLevel = 6;
+  
+  /**
+   * Additional SBML formats that are derived from the translated
+   * document and written next to each SBML file (see {@link KEGG2SBMLVariants}).
+   */
+  protected Set<Format> sbmlVariants = EnumSet.noneOf(Format.class);
+  
+  /**
+   * Annotations that have been created in advance for the entries and
+   * reactions of the pathway that is currently being translated.
+   */
+  private Map<Object, SBaseAnnotation> annotations = new IdentityHashMap<Object, SBaseAnnotation>();
+  
+  /**
+   * Threads that create annotations for all translators (see
+   * {@link #getAnnotationExecutor()}).
+   */
+  private static ExecutorService annotationExecutor = null;
+  
   /**
    * Default compartment size.
    */
@@ -255,12 +316,53 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
    * FUNCTIONS
    * ===========================*/
   
-  /** Load the default preferences from the SBPreferences object. */
+  /** Load the options from the current {@link TranslationContext}. */
   private void loadPreferences() {
     // CellDeisnger annotations are not supported anymore!
-    //addCellDesignerAnnots = KEGGtranslatorOptions.CELLDESIGNER_ANNOTATIONS.getValue(prefs);
-    addLayoutExtension = KEGGtranslatorOptions.ADD_LAYOUT_EXTENSION.getValue(prefs);
-    useGroupsExtension = KEGGtranslatorOptions.USE_GROUPS_EXTENSION.getValue(prefs);
+    //addCellDesignerAnnots = context.getOption(KEGGtranslatorOptions.CELLDESIGNER_ANNOTATIONS);
+    addLayoutExtension = context.getOption(KEGGtranslatorOptions.ADD_LAYOUT_EXTENSION);
+    useGroupsExtension = context.getOption(KEGGtranslatorOptions.USE_GROUPS_EXTENSION);
+    streamOutput = context.getOption(KEGGtranslatorOptions.STREAM_SBML);
+    parallelAnnotation = context.getOption(KEGGtranslatorOptions.PARALLEL_SBML);
+    compactOutput = context.getOption(KEGGtranslatorOptions.COMPACT_SBML);
+    gzipOutput = context.getOption(KEGGtranslatorOptions.GZIP_SBML);
+    gzipLevel = context.getOption(KEGGtranslatorOptions.GZIP_LEVEL);
+    sbmlVariants = KEGG2SBMLVariants.parseFormats(context.getOption(KEGGtranslatorOptions.SBML_VARIANTS));
+  }
+  
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#setTranslationContext(de.zbit.kegg.io.TranslationContext)
+   */
+  @Override
+  public void setTranslationContext(TranslationContext context) {
+    super.setTranslationContext(context);
+    loadPreferences();
+  }
+  
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#createTranslationContext()
+   */
+  @Override
+  public TranslationContext createTranslationContext() {
+    return super.createTranslationContext()
+        .withOption(KEGGtranslatorOptions.ADD_LAYOUT_EXTENSION, addLayoutExtension)
+        .withOption(KEGGtranslatorOptions.USE_GROUPS_EXTENSION, useGroupsExtension)
+        .withOption(KEGGtranslatorOptions.STREAM_SBML, streamOutput)
+        .withOption(KEGGtranslatorOptions.PARALLEL_SBML, parallelAnnotation)
+        .withOption(KEGGtranslatorOptions.COMPACT_SBML, compactOutput)
+        .withOption(KEGGtranslatorOptions.GZIP_SBML, gzipOutput)
+        .withOption(KEGGtranslatorOptions.GZIP_LEVEL, gzipLevel);
+  }
+  
+  /**
+   * Copies all settings of this translator that are not contained in
+   * a {@link TranslationContext} to {@code other}.
+   * @param other
+   */
+  void copySettingsTo(KEGG2jSBML other) {
+    other.addCellDesignerAnnots = addCellDesignerAnnots;
+    other.defaultCompartmentSize = defaultCompartmentSize;
+    other.speciesDefaultInitialAmount = speciesDefaultInitialAmount;
   }
   
   /**
@@ -300,7 +402,7 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     sr.setStoichiometry(stoich == null ? 1d : stoich);
     
     // Get Species for ReactionComponent and assign to SpeciesReference.
-    Entry rcEntry = p.getEntryForReactionComponent(rc);
+    Entry rcEntry = getPathwayIndex(p).getEntryForReactionComponent(rc);
     if ((rcEntry != null) && (rcEntry.getCustom() != null)) {
       if (rcEntry.getCustom() instanceof Species) {
         sr.setSpecies((Species) rcEntry.getCustom());
@@ -316,6 +418,304 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     //    }
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#translate(de.zbit.kegg.parser.pathway.Pathway, java.lang.String)
+   */
+  @Override
+  public boolean translate(Pathway p, String outFile) {
+    if (!sbmlVariants.isEmpty()) {
+      return translateVariants(p, outFile);
+    }
+    if (!streamOutput || !isStreamingSupported()) {
+      return super.translate(p, outFile);
+    }
+    
+    if (new File(outFile).exists()) {
+      // Remember that file was already there.
+      lastFileWasOverwritten = true;
+    }
+    OutputStream out = null;
+    try {
+      out = openOutputStream(outFile);
+      translateStreaming(p, out);
+      out.close();
+      out = null;
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "Could not write SBML document.", e);
+      return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.getMessage(), e);
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Writes the format of this translator to {@code outFile} and all
+   * {@link #sbmlVariants} next to it (see
+   * {@link KEGG2SBMLVariants#getFileName(String, Format)}). All formats
+   * are translated with the current settings of this translator (see
+   * {@link #createTranslationContext()}).
+   * @param p
+   * @param outFile
+   * @return true if all files have been written.
+   */
+  private boolean translateVariants(Pathway p, String outFile) {
+    if (new File(outFile).exists()) {
+      // Remember that file was already there.
+      lastFileWasOverwritten = true;
+    }
+    Map<Format, String> outFiles = new EnumMap<Format, String>(Format.class);
+    for (Format f : sbmlVariants) {
+      outFiles.put(f, KEGG2SBMLVariants.getFileName(outFile, f));
+    }
+    outFiles.put(getFormat(), outFile);
+    return new KEGG2SBMLVariants(createTranslationContext()).translate(p, outFiles, this);
+  }
+  
+  /**
+   * @return the output format of this translator.
+   */
+  public Format getFormat() {
+    if (level == null) {
+      return Format.SBML;
+    } else if (level.intValue() < 3) {
+      return ((version != null) && (version.intValue() == 5)) ? Format.SBML_L2V5 : Format.SBML_L2V4;
+    }
+    return Format.SBML_L3V1;
+  }
+  
+  /**
+   * @param sbmlVariants additional SBML formats that are written next
+   * to each SBML file by {@link #translate(Pathway, String)} (any of
+   * {@link KEGG2SBMLVariants#SUPPORTED_FORMATS}). The pathway is
+   * translated only once for all of them.
+   */
+  public void setSBMLVariants(Set<Format> sbmlVariants) {
+    this.sbmlVariants = EnumSet.noneOf(Format.class);
+    if (sbmlVariants != null) {
+      this.sbmlVariants.addAll(sbmlVariants);
+    }
+  }
+  
+  /**
+   * @return true if this translator supports
+   * {@link #translateStreaming(Pathway, OutputStream)}. This is not the
+   * case if the layout or groups extension is enabled, because their
+   * elements are not written by {@link SBMLStreamWriter}.
+   */
+  protected boolean isStreamingSupported() {
+    return !addLayoutExtension && !useGroupsExtension;
+  }
+  
+  /**
+   * @param streamOutput if true, {@link #translate(Pathway, String)}
+   * writes the SBML file while translating, without building the whole
+   * document in memory. Ignored if {@link #isStreamingSupported()} is
+   * false.
+   */
+  public void setStreamOutput(boolean streamOutput) {
+    this.streamOutput = streamOutput;
+  }
+  
+  /**
+   * @param parallelAnnotation if true, notes and MIRIAM annotations of
+   * species and reactions are created on all available processors.
+   */
+  public void setParallelAnnotation(boolean parallelAnnotation) {
+    this.parallelAnnotation = parallelAnnotation;
+  }
+  
+  /**
+   * @param compactOutput if true, SBML files are written without
+   * indentation.
+   */
+  public void setCompactOutput(boolean compactOutput) {
+    this.compactOutput = compactOutput;
+  }
+  
+  /**
+   * @param gzipOutput if true, SBML files are gzip-compressed. Files
+   * ending with ".gz" are always compressed.
+   */
+  public void setGzipOutput(boolean gzipOutput) {
+    this.gzipOutput = gzipOutput;
+  }
+  
+  /**
+   * @return true if SBML files are gzip-compressed (see
+   * {@link #setGzipOutput(boolean)}).
+   */
+  public boolean isGzipOutput() {
+    return gzipOutput;
+  }
+  
+  /**
+   * @param gzipLevel compression level from 1 (fastest) to 9 (smallest
+   * files).
+   */
+  public void setGzipLevel(int gzipLevel) {
+    this.gzipLevel = gzipLevel;
+  }
+  
+  /**
+   * Opens a buffered stream to {@code outFile} that is gzip-compressed
+   * if {@link #gzipOutput} is set or the file name ends with ".gz".
+   * @param outFile
+   * @return a stream that must be closed by the caller.
+   * @throws IOException
+   */
+  protected OutputStream openOutputStream(String outFile) throws IOException {
+    OutputStream out = new FileOutputStream(outFile);
+    if (gzipOutput || outFile.toLowerCase().endsWith(".gz")) {
+      final int level = gzipLevel;
+      try {
+        out = new GZIPOutputStream(out, 1 << 16) {
+          {
+            def.setLevel(level);
+          }
+        };
+      } catch (IOException e) {
+        out.close();
+        throw e;
+      }
+    }
+    return new BufferedOutputStream(out, 1 << 16);
+  }
+  
+  /**
+   * Translates the given pathway and writes the SBML document to
+   * {@code out} while translating. Every species and reaction is
+   * written as soon as it is complete and then removed from the model,
+   * such that memory consumption does not grow with the size of the
+   * pathway. The output is identical to {@link #translate(Pathway)}.
+   * The layout and groups extensions are not supported and must be
+   * disabled (see {@link #isStreamingSupported()}).
+   * @param p the KEGG pathway.
+   * @param out target stream, not closed by this method.
+   * @throws XMLStreamException
+   * @throws UnsupportedOperationException if {@link #isStreamingSupported()}
+   * is false.
+   */
+  public void translateStreaming(Pathway p, OutputStream out) throws XMLStreamException {
+    if (!isStreamingSupported()) {
+      throw new UnsupportedOperationException("Streaming is not supported with the layout or groups extension.");
+    }
+    p = prepareTranslation(p);
+    
+    try {
+      ValuePair<Integer,Integer> lv = getLevelAndVersion();
+      SBMLDocument doc = new SBMLDocument(lv.getL().intValue(), lv.getV().intValue());
+      
+      // Initialize a progress bar.
+      initProgressBar(p, false, false);
+      
+      // All list elements of the model must be complete before species are written.
+      Model model = createModel(doc, p);
+      Compartment compartment = model.getCompartment(0);
+      createCompartments(p, model, compartment);
+      if (model.getLevel() > 2) {
+        ((FBCModelPlugin) model.getPlugin(FBCConstants.getNamespaceURI(model.getLevel(), model.getVersion(), 2))).setStrict(false);
+      }
+      
+      SBMLStreamWriter writer = new SBMLStreamWriter(out, doc);
+      writer.setIndent(!compactOutput);
+      writer.writeStartModel(model);
+      for (UnitDefinition ud : model.getListOfUnitDefinitions()) {
+        writer.writeListElement(model.getListOfUnitDefinitions().getElementName(), ud);
+      }
+      for (Compartment c : model.getListOfCompartments()) {
+        writer.writeListElement(model.getListOfCompartments().getElementName(), c);
+      }
+      
+      // Create species
+      List<Entry> entries = getEntriesWithGroupsAsLast(p);
+      createAnnotations(p, entries, model);
+      List<Info<String, ModifierSpeciesReference>> reactionModifiers = new SortedArrayList<Info<String, ModifierSpeciesReference>>();
+      Set<String> addedEntries = new HashSet<String>();
+      for (Entry entry : entries) {
+        progress.DisplayBar();
+        SBase spec = addEntry(entry, p, model, compartment, addedEntries, reactionModifiers);
+        
+        // Duplicate entries refer to species that have already been written.
+        if ((spec instanceof Species) && (spec.getParent() != null)) {
+          writer.writeListElement(model.getListOfSpecies().getElementName(), spec);
+          model.removeSpecies((Species) spec);
+          // Only the identifier is required by reactions.
+          spec.unsetNotes();
+          spec.unsetAnnotation();
+        }
+      }
+      
+      if (considerReactions()) {
+        Set<String> processedReactions = new HashSet<String>();
+        for (Reaction r : p.getReactions()) {
+          if (processedReactions.add(r.getName())) {
+            org.sbml.jsbml.Reaction sbReaction = addKGMLReaction(r, p, model, compartment, reactionModifiers);
+            if (sbReaction != null) {
+              writer.writeListElement(model.getListOfReactions().getElementName(), sbReaction);
+              model.removeReaction(sbReaction);
+            }
+          }
+        }
+      }
+      
+      writer.writeEndModel();
+      writer.close();
+    } finally {
+      annotations.clear();
+    }
+  }
+  
+  /**
+   * Creates all compartments of the given pathway and names the default
+   * {@code compartment} after the title node of the pathway, just as
+   * {@link #addKGMLEntry(Entry, Pathway, Model, Compartment)} would do.
+   * @param p
+   * @param model
+   * @param compartment the default compartment.
+   */
+  private void createCompartments(Pathway p, Model model, Compartment compartment) {
+    for (Entry entry : p.getEntries()) {
+      if (isTitleNode(entry)) {
+        compartment.setName(entry.getGraphics().getName().substring(6).trim());
+      } else if ((entry instanceof EntryExtended) && ((EntryExtended) entry).isSetCompartment()) {
+        if (getCompartment(model, ((EntryExtended) entry).getCompartment()) == null) {
+          createCompartment(model, ((EntryExtended) entry).getCompartment());
+        }
+      }
+    }
+  }
+  
+  /**
+   * @param model
+   * @param name
+   * @return the compartment with the given name or {@code null}.
+   */
+  private static Compartment getCompartment(Model model, String name) {
+    for (Compartment c : model.getListOfCompartments()) {
+      if (c.getName().equals(name)) {
+        return c;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * @param entry
+   * @return true if the given entry is just a label for the current pathway.
+   */
+  private static boolean isTitleNode(Entry entry) {
+    String name = entry.getName().trim();
+    boolean isPathwayReference = name.toLowerCase().startsWith("path:") || entry.getType().equals(EntryType.map);
+    return isPathwayReference && (entry.hasGraphics() && entry.getGraphics().getName().toLowerCase().startsWith("title:"));
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.AbstractKEGGtranslator#writeToFile(java.lang.Object, java.lang.String)
    */
@@ -324,12 +724,29 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     if (new File(outFile).exists()) {
       lastFileWasOverwritten=true;
     }
+    OutputStream out = null;
     try {
-      TidySBMLWriter.write(doc, outFile, System.getProperty("app.name"), System
-        .getProperty("app.version"));
+      out = openOutputStream(outFile);
+      if (compactOutput) {
+        SBMLWriter.write(doc, out, System.getProperty("app.name"), System
+          .getProperty("app.version"), ' ', (short) 0);
+      } else {
+        TidySBMLWriter.write(doc, out, System.getProperty("app.name"), System
+          .getProperty("app.version"));
+      }
+      out.close();
+      out = null;
     } catch (Exception e) {
       log.log(Level.SEVERE, "Could not write SBML document.", e);
       return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.getMessage(), e);
+        }
+      }
     }
     return true;
   }
@@ -359,25 +776,369 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     initProgressBar(p, false, false);
     
     // new Model with Kegg id as id.
+    Model model = createModel(doc, p);
+    Compartment compartment = model.getCompartment(0);
+    
+    // CellDesigner Annotations
+    if (addCellDesignerAnnots) {
+      cdu.initCellDesignerAnnotations(model, doc);
+    }
+    
+    // Save all reaction modifiers in a list. String = reaction id.
+    List<Info<String, ModifierSpeciesReference>> reactionModifiers = new SortedArrayList<Info<String, ModifierSpeciesReference>>();
+    
+    
+    
+    // Create species
+    List<Entry> entries = getEntriesWithGroupsAsLast(p);
+    createAnnotations(p, entries, model);
+    Set<String> addedEntries = new HashSet<String>(); // contains just entrys with KEGG ids (no "undefined" entries)
+    for (Entry entry : entries) {
+      progress.DisplayBar();
+      addEntry(entry, p, model, compartment, addedEntries, reactionModifiers);
+    }
+    
+    // Add CellDesigner information to species / entries.
+    if (addCellDesignerAnnots) {
+      cdu.addCellDesignerAnnotationToAllSpecies(p);
+    }
+    
+    // ------------------------------------------------------------------
+    if(considerReactions()){
+      // I noticed, that some reations occur multiple times in one KGML document,
+      // (maybe its intended? e.g. R00014 in hsa00010.xml)
+      Set<String> processedReactions = new HashSet<String>();
+      
+      
+      // All species added. Parse reactions and relations.
+      for (Reaction r : p.getReactions()) {
+        if (processedReactions.add(r.getName())) {
+          org.sbml.jsbml.Reaction sbReaction = addKGMLReaction(r,p,model,compartment,reactionModifiers);
+          
+          if (addCellDesignerAnnots && sbReaction!=null) {
+            cdu.addCellDesignerAnnotationToReaction(sbReaction, r);
+          }
+        }
+      }
+      
+      // Give a warning if we have no reactions.
+      if (p.getReactions().size()<1 && !considerRelations()) {
+        log.info(String.format("Pathway '%s' does not contain any reactions.", p.getName()!=null?p.getName():"Unknown"));
+      }
+    }
+    // ------------------------------------------------------------------
+    annotations.clear();
+    
+    
+    // Removing nodes here (removeOrphans) does not work, because
+    // all CellDesigner annotations are static and don't get removed!
+    
+    
+    // Finalize annotations.
+    if (addCellDesignerAnnots) {
+      cdu.addCellDesignerAnnotationToModel(p, model, compartment);
+    }
+    
+    // Eventually add layout extension
+    if (addLayoutExtension) {
+      KEGG2SBMLLayoutExtension.addLayoutExtension(p, getPathwayIndex(p), doc, model, true, true);
+    }
+    
+    // Important: we don's satisfy all requirements for COBRA models, so we want to make sure the file is valid.
+    if ((model.getSpeciesCount() > 0) && (model.getLevel() > 2)) {
+      ((FBCModelPlugin) model.getPlugin(FBCConstants.getNamespaceURI(model.getLevel(), model.getVersion(), 2))).setStrict(false);
+    }
+    
+    return doc;
+  }
+  
+  /**
+   * Translates the given entry to a species (or links it to the species
+   * of a previous entry with the same KEGG identifiers) and remembers
+   * it as reaction modifier.
+   * @param entry
+   * @param p
+   * @param model
+   * @param compartment
+   * @param addedEntries names of all entries that have already been added.
+   * @param reactionModifiers list of all reactionModifiers.
+   * @return the species for the entry or {@code null}.
+   * @throws XMLStreamException
+   */
+  private SBase addEntry(Entry entry, Pathway p, Model model, Compartment compartment,
+    Set<String> addedEntries, List<Info<String, ModifierSpeciesReference>> reactionModifiers) throws XMLStreamException {
+    SBase spec = null;
+    
+    /*
+     *  KEGG has pathways with duplicate entries (mostly signalling).
+     *  Take a look, e.g. at the "MAPK signalling pathway" and "DUSP14"
+     *  --
+     *  BUT, if entry is no concrete KEGG entry (i.e. contains no ":"),
+     *  then we should not group this to one. See e.g. the "ABC transporter
+     *  pathway" with several groups called "undefined", but different content.
+     *  Do NOT create just one species of all nodes called undefined.
+     */
+    if (entry.getName().contains(":") && !addedEntries.add(entry.getName())) {
+      // Look for already added species from other entry
+      // and link to this entry by adding the same species as "custom".
+      Collection<Entry> col = getPathwayIndex(p).getEntriesForName(entry.getName()); // should return at least 2 entries
+      if ((col != null) && (col.size() > 0)) {
+        // Prefer entries with exactly the same identifiers (col also contains entries that share just one of them).
+        for (Entry other : col) {
+          if ((other.getCustom() != null) && entry.getName().equals(other.getName())) {
+            spec = (SBase) other.getCustom();
+            break;
+          }
+        }
+        Iterator<Entry> it = col.iterator();
+        while ((spec == null) && it.hasNext() && (spec = (SBase)it.next().getCustom())==null) {
+          ;
+        }
+        entry.setCustom(spec);
+      }
+    }
+    
+    if (spec == null) {
+      // Usual case if this entry is no duplicate.
+      spec = addKGMLEntry(entry, p, model, compartment);
+    }
+    
+    // Track reaction modifiers
+    if (considerReactions()) {
+      addToReactionModifierList(entry, spec, reactionModifiers);
+    }
+    return spec;
+  }
+  
+  /**
+   * Name, notes and MIRIAM annotation of a species or reaction, created
+   * independently of the model by {@link #createEntryAnnotation(Entry, Pathway, int, int)}
+   * and {@link #createReactionAnnotation(Reaction, int, int)}. Only used
+   * if {@link #parallelAnnotation} is set, else, annotations are added
+   * directly to the species and reactions.
+   * 
+   * @author agent
+   * @version $Rev$
+   */
+  private static class SBaseAnnotation {
+    /**
+     * Detached element that holds notes and {@link CVTerm}s.
+     */
+    private final SBase holder;
+    /**
+     * Name for the element (only for species).
+     */
+    private String name = null;
+    /**
+     * Chemical formula for the species or {@code null}.
+     */
+    private String formula = null;
+    /**
+     * Reason why the notes could not be set or {@code null}.
+     */
+    private Throwable notesError = null;
+    
+    /**
+     * @param holder
+     */
+    public SBaseAnnotation(SBase holder) {
+      super();
+      this.holder = holder;
+    }
+    
+    /**
+     * Moves the notes and all {@link CVTerm}s of this annotation
+     * (in their original order) to {@code sbase}.
+     * @param sbase
+     */
+    public void moveTo(SBase sbase) {
+      if (holder.isSetNotes()) {
+        sbase.setNotes(holder.getNotes());
+      }
+      for (CVTerm term : holder.getCVTerms()) {
+        sbase.addCVTerm(term.clone());
+      }
+    }
+  }
+  
+  /**
+   * If {@link #parallelAnnotation} is true, creates the annotations of all
+   * species and reactions that will be created for the given pathway on
+   * all available processors. The annotations are remembered in
+   * {@link #annotations} and then taken from there in the usual order
+   * of translation. Thus, the document is identical to a sequential
+   * translation.
+   * @param p
+   * @param entries all entries, in the order they will be translated.
+   * @param model
+   */
+  private void createAnnotations(final Pathway p, List<Entry> entries, Model model) {
+    annotations.clear();
+    if (!parallelAnnotation) {
+      return;
+    }
+    final int level = model.getLevel();
+    final int version = model.getVersion();
+    
+    // Same selection as in addEntry(), addKGMLEntry() and addKGMLReaction().
+    List<Object> items = new ArrayList<Object>(entries.size() + p.getReactions().size());
+    Set<String> addedEntries = new HashSet<String>();
+    for (Entry entry : entries) {
+      if (isTitleNode(entry) || (entry.getType().equals(EntryType.reaction) && !considerRelations())) {
+        continue;
+      } else if (entry.getName().contains(":") && !addedEntries.add(entry.getName())) {
+        continue;
+      }
+      items.add(entry);
+    }
+    if (considerReactions()) {
+      Set<String> processedReactions = new HashSet<String>();
+      for (Reaction r : p.getReactions()) {
+        if (processedReactions.add(r.getName()) && reactionHasAtLeastOneSubstrateAndProduct(r, p)) {
+          items.add(r);
+        }
+      }
+    }
+    if ((Runtime.getRuntime().availableProcessors() < 2) || (items.size() < 2)) {
+      return;
+    }
+    
+    // The KeggInfoManagement and the index are not thread-safe while they are filled.
+    getPathwayIndex(p);
+    fetchAnnotationInformation(p, items);
+    
+    ExecutorService executor = getAnnotationExecutor();
+    List<Future<SBaseAnnotation>> results = new ArrayList<Future<SBaseAnnotation>>(items.size());
+    try {
+      for (final Object item : items) {
+        results.add(executor.submit(new Callable<SBaseAnnotation>() {
+          @Override
+          public SBaseAnnotation call() throws Exception {
+            if (item instanceof Entry) {
+              return createEntryAnnotation((Entry) item, p, level, version);
+            }
+            return createReactionAnnotation((Reaction) item, level, version);
+          }
+        }));
+      }
+      for (int i = 0; i < items.size(); i++) {
+        annotations.put(items.get(i), results.get(i).get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      annotations.clear();
+    } catch (ExecutionException e) {
+      // Annotations are created again (and errors reported) while translating.
+      logger.log(Level.FINE, "Could not create annotations in parallel.", e.getCause());
+      annotations.clear();
+    } finally {
+      // Only required if something went wrong
+      for (Future<SBaseAnnotation> result : results) {
+        result.cancel(true);
+      }
+    }
+  }
+  
+  /**
+   * @return a pool with one daemon thread per processor, which is
+   * created on the first call and shared by all translators.
+   */
+  private static synchronized ExecutorService getAnnotationExecutor() {
+    if (annotationExecutor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      annotationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, KEGG2jSBML.class.getSimpleName() + "-annotation" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return annotationExecutor;
+  }
+  
+  /**
+   * Queries all KEGG information that is required to annotate the given
+   * entries and reactions. Missing information is added to the
+   * {@link KeggInfoManagement}, which is not thread-safe.
+   * @param p
+   * @param items {@link Entry}s and {@link Reaction}s.
+   */
+  private void fetchAnnotationInformation(Pathway p, List<Object> items) {
+    for (Object item : items) {
+      if (item instanceof Entry) {
+        Entry entry = (Entry) item;
+        fetchInformation(entry.getName());
+        for (String ko_id : entry.getName().split(" ")) {
+          fetchInformation(ko_id);
+        }
+        for (Entry ce : getPathwayIndex(p).getChildren(entry)) {
+          for (String ko_id : ce.getName().split(" ")) {
+            fetchInformation(ko_id);
+          }
+        }
+      } else {
+        Reaction r = (Reaction) item;
+        for (String ko_id : r.getName().split(" ")) {
+          fetchInformation(ko_id);
+        }
+        if (autocompleteReactions && checkAtomBalance) {
+          for (ReactionComponent rc : r.getSubstrates()) {
+            fetchInformation(KeggInfos.appendPrefix(rc.getName()));
+          }
+          for (ReactionComponent rc : r.getProducts()) {
+            fetchInformation(KeggInfos.appendPrefix(rc.getName()));
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Queries the {@link KeggInfos} for {@code keggID}, including synonyms
+   * for the chemical formula and ChEBI identifiers.
+   * @param keggID
+   */
+  private void fetchInformation(String keggID) {
+    if ((keggID == null) || (keggID.trim().length() == 0)) {
+      return;
+    }
+    KeggInfos infos = KeggInfos.get(keggID, manager);
+    if ((infos != null) && infos.queryWasSuccessfull()) {
+      infos.getFormulaDirectOrFromSynonym(manager);
+      infos.getChebi();
+    }
+  }
+  
+  /**
+   * Creates the model for the given pathway with a default compartment,
+   * history, MIRIAM annotations and notes.
+   * @param doc
+   * @param p
+   * @return the new model.
+   * @throws XMLStreamException
+   */
+  private Model createModel(SBMLDocument doc, Pathway p) throws XMLStreamException {
     Model model = doc.createModel(NameToSId(p.getName().replace(":", "_")));
     model.setMetaId("meta_" + model.getId());
     model.setName(p.getTitle()); // NOTE: Name is sometimes changed later (see below)
-    if (lv.getL().intValue()>2) {
+    if (doc.getLevel()>2) {
       // Make consistent units for level 3 (same as in l2v4).
       UnitDefinition ud = UnitDefinition.getPredefinedUnit(UnitDefinition.TIME, 2, 4);
-      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, lv.getL().intValue(), lv.getV().intValue());
+      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, doc.getLevel(), doc.getVersion());
       model.setTimeUnits(ud);
       
       ud = UnitDefinition.getPredefinedUnit(UnitDefinition.VOLUME, 2, 4);
-      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, lv.getL().intValue(), lv.getV().intValue());
+      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, doc.getLevel(), doc.getVersion());
       model.setVolumeUnits(ud);
       
       ud = UnitDefinition.getPredefinedUnit(UnitDefinition.SUBSTANCE, 2, 4);
-      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, lv.getL().intValue(), lv.getV().intValue());
+      org.sbml.jsbml.util.SBMLtools.setLevelAndVersion(ud, doc.getLevel(), doc.getVersion());
       model.setSubstanceUnits(ud);
     }
     
-    Compartment compartment = createCompartment(model);
+    createCompartment(model);
     
     // Create Model History
     History hist = new History();
@@ -392,11 +1153,6 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     model.setHistory(hist);
     StringBuffer notes = new StringBuffer(notesStartString);
     
-    // CellDesigner Annotations
-    if (addCellDesignerAnnots) {
-      cdu.initCellDesignerAnnotations(model, doc);
-    }
-    
     // Parse Kegg Pathway information
     boolean isKEGGPathway = DatabaseIdentifiers.checkID(DatabaseIdentifiers.IdentifierDatabases.KEGG_Pathway, p.getNameForMIRIAM());
     if (isKEGGPathway) {
@@ -538,87 +1294,6 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     //    notes.append(String.format("<div align=\"right\"><i><small>This file has been generated by %s version %s</small></i></div><br/>\n",
     //    	System.getProperty("app.name"), System.getProperty("app.version")));
     
-    // Save all reaction modifiers in a list. String = reaction id.
-    List<Info<String, ModifierSpeciesReference>> reactionModifiers = new SortedArrayList<Info<String, ModifierSpeciesReference>>();
-    
-    
-    
-    // Create species
-    List<Entry> entries = getEntriesWithGroupsAsLast(p);
-    Set<String> addedEntries = new HashSet<String>(); // contains just entrys with KEGG ids (no "undefined" entries)
-    for (Entry entry : entries) {
-      progress.DisplayBar();
-      SBase spec = null;
-      
-      
-      /*
-       *  KEGG has pathways with duplicate entries (mostly signalling).
-       *  Take a look, e.g. at the "MAPK signalling pathway" and "DUSP14"
-       *  --
-       *  BUT, if entry is no concrete KEGG entry (i.e. contains no ":"),
-       *  then we should not group this to one. See e.g. the "ABC transporter
-       *  pathway" with several groups called "undefined", but different content.
-       *  Do NOT create just one species of all nodes called undefined.
-       */
-      if (entry.getName().contains(":") && !addedEntries.add(entry.getName())) {
-        // Look for already added species from other entry
-        // and link to this entry by adding the same species as "custom".
-        Collection<Entry> col = p.getEntriesForName(entry.getName()); // should return at least 2 entries
-        if ((col != null) && (col.size() > 0)) {
-          Iterator<Entry> it = col.iterator();
-          while (it.hasNext() && (spec = (SBase)it.next().getCustom())==null) {
-            ;
-          }
-          entry.setCustom(spec);
-        }
-      }
-      
-      if (spec == null) {
-        // Usual case if this entry is no duplicate.
-        spec = addKGMLEntry(entry, p, model, compartment);
-      }
-      
-      // Track reaction modifiers
-      addToReactionModifierList(entry, spec, reactionModifiers);
-    }
-    
-    // Add CellDesigner information to species / entries.
-    if (addCellDesignerAnnots) {
-      cdu.addCellDesignerAnnotationToAllSpecies(p);
-    }
-    
-    // ------------------------------------------------------------------
-    if(considerReactions()){
-      // I noticed, that some reations occur multiple times in one KGML document,
-      // (maybe its intended? e.g. R00014 in hsa00010.xml)
-      Set<String> processedReactions = new HashSet<String>();
-      
-      
-      // All species added. Parse reactions and relations.
-      for (Reaction r : p.getReactions()) {
-        if (processedReactions.add(r.getName())) {
-          org.sbml.jsbml.Reaction sbReaction = addKGMLReaction(r,p,model,compartment,reactionModifiers);
-          
-          if (addCellDesignerAnnots && sbReaction!=null) {
-            cdu.addCellDesignerAnnotationToReaction(sbReaction, r);
-          }
-        }
-      }
-      
-      // Give a warning if we have no reactions.
-      if (p.getReactions().size()<1 && !considerRelations()) {
-        log.info(String.format("Pathway '%s' does not contain any reactions.", p.getName()!=null?p.getName():"Unknown"));
-      }
-    }
-    // ------------------------------------------------------------------
-    
-    
-    
-    // Removing nodes here (removeOrphans) does not work, because
-    // all CellDesigner annotations are static and don't get removed!
-    
-    
-    // Finalize notes and annotations.
     notes.append(notesEndString);
     try {
       model.setNotes(notes.toString());
@@ -627,21 +1302,8 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
         "Cannot write notes for model ''{0}'' because of {1}: {2}.",
         model.getId(), t.getClass().getName(), Utils.getMessage(t)));
     }
-    if (addCellDesignerAnnots) {
-      cdu.addCellDesignerAnnotationToModel(p, model, compartment);
-    }
-    
-    // Eventually add layout extension
-    if (addLayoutExtension) {
-      KEGG2SBMLLayoutExtension.addLayoutExtension(p, doc, model, true);
-    }
-    
-    // Important: we don's satisfy all requirements for COBRA models, so we want to make sure the file is valid.
-    if ((model.getSpeciesCount() > 0) && (model.getLevel() > 2)) {
-      ((FBCModelPlugin) model.getPlugin(FBCConstants.getNamespaceURI(model.getLevel(), model.getVersion(), 2))).setStrict(false);
-    }
     
-    return doc;
+    return model;
   }
   
   /**
@@ -793,8 +1455,6 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     //rAnnot.setAbout(""); // IMPORTANT: Emtpy is wrong. it is being corrected in further on.
     //sbReaction.setAnnotation(rAnnot); // manchmal ist jSBML schon bescheuert... (Annotation darf nicht null sein, ist aber default null).
     
-    StringBuffer notes = new StringBuffer(notesStartString);
-    
     // Add substrates/ products
     sbReaction.setReversible(r.getType().equals(ReactionType.reversible));
     for (ReactionComponent rc : r.getSubstrates()) {
@@ -814,6 +1474,59 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
       sbReaction.addModifier(mod);
     }
     
+    // Notes and MIRIAM identifiers (maybe created in advance, see createAnnotations())
+    SBaseAnnotation annotation = annotations.remove(r);
+    Throwable notesError;
+    if (annotation != null) {
+      annotation.moveTo(sbReaction);
+      notesError = annotation.notesError;
+    } else {
+      notesError = addReactionAnnotation(r, sbReaction);
+    }
+    
+    // Finally, add the fully configured reaction.
+    sbReaction.setName(r.getName());
+    sbReaction.setId(NameToSId(r.getName()));
+    if (notesError != null) {
+      logger.warning(MessageFormat.format(
+        "Cannot write notes for reaction ''{0}'' because of {1}: {2}.",
+        sbReaction.getId(), notesError.getClass().getName(), Utils.getMessage(notesError)));
+    }
+    sbReaction.setMetaId("meta_" + sbReaction.getId());
+    sbReaction.setSBOTerm(176); // biochemical reaction. Most generic SBO Term possible, for a reaction.
+    //rAnnot.setAbout("#" + sbReaction.getMetaId());
+    
+    sbReaction.addCVTerm(new CVTerm(Qualifier.BQB_IS_DESCRIBED_BY, AnnotationUtils.convertURN2URI(KeggInfos.miriam_urn_eco + "ECO%3A0000313")));
+    
+    return sbReaction;
+  }
+  
+  /**
+   * Creates the notes and MIRIAM annotation (except for the ECO code)
+   * of the given reaction on a detached element. Does not modify any
+   * model, thus, it is possible to call this method in parallel for
+   * different reactions.
+   * @param r
+   * @param level
+   * @param version
+   * @return the annotation for {@code r}.
+   */
+  private SBaseAnnotation createReactionAnnotation(Reaction r, int level, int version) {
+    SBaseAnnotation annotation = new SBaseAnnotation(new org.sbml.jsbml.Reaction(level, version));
+    annotation.notesError = addReactionAnnotation(r, annotation.holder);
+    return annotation;
+  }
+  
+  /**
+   * Adds the notes and MIRIAM annotation (except for the ECO code)
+   * of the given reaction to {@code sbReaction}.
+   * @param r
+   * @param sbReaction
+   * @return the reason why the notes could not be set or {@code null}.
+   */
+  private Throwable addReactionAnnotation(Reaction r, SBase sbReaction) {
+    StringBuffer notes = new StringBuffer(notesStartString);
+    
     // Maybe add additional Miriam identifier (from other sources than kegg)
     if (r.isSetDatabaseIdentifiers()) {
       List<CVTerm> cvTerms = DatabaseIdentifierTools.getCVTerms(r.getDatabaseIdentifiers(), null);
@@ -846,7 +1559,6 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
         if (infos.getDefinition() != null) {
           notes.append(String.format("<b>Definition of %s%s%s:</b> %s<br/>\n",
             quotStart, ko_id.toUpperCase(), quotEnd, formatTextForHTMLnotes(infos.getDefinition()) ));
-          logger.fine(sbReaction.getNotesString());
           // notes="<body xmlns=\"http://www.w3.org/1999/xhtml\"><p><b>&#8220;TEST&#8221;</b> A &lt;&#061;&gt;&#62;&#x3e;\u003E B<br/></p></body>";
         } else {
           notes.append(String.format("<b>%s</b><br/>\n", ko_id.toUpperCase()));
@@ -908,25 +1620,14 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
       }
     }
     
-    
-    // Finally, add the fully configured reaction.
-    sbReaction.setName(r.getName());
-    sbReaction.setId(NameToSId(r.getName()));
     notes.append(notesEndString);
     try {
       sbReaction.setNotes(notes.toString());
     } catch (Throwable t) {
-      logger.warning(MessageFormat.format(
-        "Cannot write notes for reaction ''{0}'' because of {1}: {2}.",
-        sbReaction.getId(), t.getClass().getName(), Utils.getMessage(t)));
+      return t;
     }
-    sbReaction.setMetaId("meta_" + sbReaction.getId());
-    sbReaction.setSBOTerm(176); // biochemical reaction. Most generic SBO Term possible, for a reaction.
-    //rAnnot.setAbout("#" + sbReaction.getMetaId());
-    
-    sbReaction.addCVTerm(new CVTerm(Qualifier.BQB_IS_DESCRIBED_BY, AnnotationUtils.convertURN2URI(KeggInfos.miriam_urn_eco + "ECO%3A0000313")));
     
-    return sbReaction;
+    return null;
   }
   
   /**
@@ -993,8 +1694,39 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
    * @throws XMLStreamException
    */
   public static void addMiriamURNs(Entry entry, SBase spec) throws XMLStreamException {
-    // Get a map of existing identifiers or create a new one
-    Map<DatabaseIdentifiers.IdentifierDatabases, Collection<String>> ids = new HashMap<DatabaseIdentifiers.IdentifierDatabases, Collection<String>>();
+    addMiriamURNs(entry, spec, getKeggInfoManager(), Translator.path2models, Translator.getAnnotationCache());
+  }
+  
+  /**
+   * Adds all available MIRIAM URNs and ids to the given species.
+   * AND adds a description and more information from the KEGG api to the
+   * species's description.
+   * @param entry
+   * @param spec
+   * @param manager the cache to retrieve KEGG information from.
+   * @param path2models adjust the notes for the path2models project.
+   * @throws XMLStreamException
+   */
+  public static void addMiriamURNs(Entry entry, SBase spec, KeggInfoManagement manager, boolean path2models) throws XMLStreamException {
+    addMiriamURNs(entry, spec, manager, path2models, null);
+  }
+  
+  /**
+   * Adds all available MIRIAM URNs and ids to the given species.
+   * AND adds a description and more information from the KEGG api to the
+   * species's description.
+   * @param entry
+   * @param spec
+   * @param manager the cache to retrieve KEGG information from.
+   * @param path2models adjust the notes for the path2models project.
+   * @param cache annotations of single identifiers are taken from and
+   * stored in this cache. May be {@code null}.
+   * @throws XMLStreamException
+   */
+  public static void addMiriamURNs(Entry entry, SBase spec, KeggInfoManagement manager, boolean path2models,
+    MiriamAnnotationCache cache) throws XMLStreamException {
+    // Get a map of existing identifiers or create a new one (in a fixed order of databases)
+    Map<DatabaseIdentifiers.IdentifierDatabases, Collection<String>> ids = new EnumMap<DatabaseIdentifiers.IdentifierDatabases, Collection<String>>(DatabaseIdentifiers.IdentifierDatabases.class);
     if (entry instanceof EntryExtended) {
       ids = ((EntryExtended)entry).getDatabaseIdentifiers();
     }
@@ -1006,57 +1738,18 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
         continue; // "undefined" = group node, which contains "Components"
       }
       
-      
-      // Retrieve further information via Kegg API -- Be careful: very slow! Precache all queries at top of this function!
-      KeggInfos infos = KeggInfos.get(ko_id, manager);
-      // Some infos can also be extracted if query was NOT succesfull
-      
+      MiriamAnnotationCache.Fragment fragment = getAnnotationFragment(ko_id, entry, manager, path2models, cache);
       
       // Add reactions as miriam annotation
-      String reactionID = concatReactionIDs(entry.getParentPathway().getReactionsForEntry(entry), ArrayUtils.merge(entry.getReactions(), infos.getReaction_id()));
+      String reactionID = concatReactionIDs(entry.getParentPathway().getReactionsForEntry(entry), ArrayUtils.merge(entry.getReactions(), fragment.getReactionIDs()));
       if (reactionID != null && reactionID.length()>0) {
         Utils.addToMapOfSets(ids, IdentifierDatabases.KEGG_Reaction, reactionID.split("\\s"));
       }
       // Add all available identifiers (enzrez gene, ensembl, etc)
-      infos.addAllIdentifiers(ids);
+      fragment.addIdentifiersTo(ids);
       
-      if (infos.queryWasSuccessfull()) {
-        
-        // HTML Information
-        StringBuffer notes = new StringBuffer(notesStartString);
-        if ((infos.getDefinition() != null) && (infos.getName() != null)) {
-          notes.append(String.format("<p><b>Description for %s%s%s:</b> %s</p>\n",
-            quotStart, EscapeChars.forHTML(infos.getName()), quotEnd, formatTextForHTMLnotes(infos.getDefinition()) ));
-        } else if (infos.getName() != null) {
-          notes.append(String.format("<p><b>%s</b></p>\n", EscapeChars.forHTML(infos.getName())));
-        }
-        if (infos.containsMultipleNames()) {
-          notes.append(String.format("<p><b>All given names:</b><br/>%s</p>\n",EscapeChars.forHTML(infos.getNames().replace(";", "")) ));
-        }
-        if (infos.getCas() != null) {
-          notes.append(String.format("<p><b>CAS number:</b> %s</p>\n", infos.getCas()));
-        }
-        if (infos.getFormulaDirectOrFromSynonym(manager) != null) {
-          notes.append(String.format("<p><b>Formula:</b> %s</p>\n", EscapeChars.forHTML(infos.getFormulaDirectOrFromSynonym(manager))));
-          String ko_id_uc_t = ko_id.toUpperCase().trim();
-          if (ko_id_uc_t.startsWith("CPD:")) {
-            // KEGG and ChEBI provide picture for compounds (e.g., "C00118").
-            notes.append(Pathway.getCompoundPreviewPicture(ko_id_uc_t, infos, Translator.path2models));
-          }
-        }
-        if (entry.getType().equals(EntryType.map)) {
-          // KEGG provides picture for referenced pathways (e.g., "path:hsa00620" => "map00620.gif").
-          notes.append(Pathway.getPathwayPreviewPicture(ko_id));
-        }
-        if (infos.getMass() != null) {
-          notes.append(String.format("<p><b>Mass:</b> %s</p>\n", infos.getMass()));
-        }
-        if (infos.getMolecularWeight() != null) {
-          notes.append(String.format("<p><b>Molecular weight:</b> %s</p>\n", infos.getMolecularWeight()));
-        }
-        notes.append(notesEndString);
-        spec.appendNotes(notes.toString());
-      }
+      // HTML Information
+      fragment.appendNotesTo(spec);
     }
     
     // Add all non-empty ressources.
@@ -1068,7 +1761,7 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     {
       pointOfView = "protein"; // complex are multple proteins.
     }
-    List<CVTerm> cvTerms = DatabaseIdentifierTools.getCVTerms(ids, pointOfView);
+    List<CVTerm> cvTerms = (cache != null) ? cache.getCVTerms(ids, pointOfView) : DatabaseIdentifierTools.getCVTerms(ids, pointOfView);
     if ((cvTerms != null) && (cvTerms.size() > 0)) {
       for (CVTerm cvTerm : cvTerms) {
         spec.addCVTerm(cvTerm);
@@ -1081,6 +1774,83 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
   }
   
   
+  /**
+   * Returns the identifiers, reactions and HTML notes for a single KEGG
+   * identifier. They are only created once for every identifier, if a
+   * {@code cache} is given and the query for {@code ko_id} was successful.
+   * @param ko_id a single KEGG identifier of {@code entry}.
+   * @param entry
+   * @param manager the cache to retrieve KEGG information from.
+   * @param path2models adjust the notes for the path2models project.
+   * @param cache may be {@code null}.
+   * @return the annotation for {@code ko_id}.
+   * @throws XMLStreamException
+   */
+  private static MiriamAnnotationCache.Fragment getAnnotationFragment(String ko_id, Entry entry,
+    KeggInfoManagement manager, boolean path2models, MiriamAnnotationCache cache) throws XMLStreamException {
+    boolean isMap = entry.getType().equals(EntryType.map);
+    String key = null;
+    if (cache != null) {
+      key = MiriamAnnotationCache.createKey(ko_id, isMap, path2models);
+      MiriamAnnotationCache.Fragment fragment = cache.get(key);
+      if (fragment != null) {
+        return fragment;
+      }
+    }
+    
+    // Retrieve further information via Kegg API -- Be careful: very slow! Precache all queries at top of this function!
+    KeggInfos infos = KeggInfos.get(ko_id, manager);
+    // Some infos can also be extracted if query was NOT succesfull
+    Map<IdentifierDatabases, Collection<String>> ids = new EnumMap<IdentifierDatabases, Collection<String>>(IdentifierDatabases.class);
+    infos.addAllIdentifiers(ids);
+    
+    String notes = null;
+    if (infos.queryWasSuccessfull()) {
+      
+      // HTML Information
+      StringBuilder sb = new StringBuilder(notesStartString);
+      if ((infos.getDefinition() != null) && (infos.getName() != null)) {
+        sb.append(String.format("<p><b>Description for %s%s%s:</b> %s</p>\n",
+          quotStart, EscapeChars.forHTML(infos.getName()), quotEnd, formatTextForHTMLnotes(infos.getDefinition()) ));
+      } else if (infos.getName() != null) {
+        sb.append(String.format("<p><b>%s</b></p>\n", EscapeChars.forHTML(infos.getName())));
+      }
+      if (infos.containsMultipleNames()) {
+        sb.append(String.format("<p><b>All given names:</b><br/>%s</p>\n",EscapeChars.forHTML(infos.getNames().replace(";", "")) ));
+      }
+      if (infos.getCas() != null) {
+        sb.append(String.format("<p><b>CAS number:</b> %s</p>\n", infos.getCas()));
+      }
+      if (infos.getFormulaDirectOrFromSynonym(manager) != null) {
+        sb.append(String.format("<p><b>Formula:</b> %s</p>\n", EscapeChars.forHTML(infos.getFormulaDirectOrFromSynonym(manager))));
+        String ko_id_uc_t = ko_id.toUpperCase().trim();
+        if (ko_id_uc_t.startsWith("CPD:")) {
+          // KEGG and ChEBI provide picture for compounds (e.g., "C00118").
+          sb.append(Pathway.getCompoundPreviewPicture(ko_id_uc_t, infos, path2models));
+        }
+      }
+      if (isMap) {
+        // KEGG provides picture for referenced pathways (e.g., "path:hsa00620" => "map00620.gif").
+        sb.append(Pathway.getPathwayPreviewPicture(ko_id));
+      }
+      if (infos.getMass() != null) {
+        sb.append(String.format("<p><b>Mass:</b> %s</p>\n", infos.getMass()));
+      }
+      if (infos.getMolecularWeight() != null) {
+        sb.append(String.format("<p><b>Molecular weight:</b> %s</p>\n", infos.getMolecularWeight()));
+      }
+      sb.append(notesEndString);
+      notes = sb.toString();
+    }
+    
+    MiriamAnnotationCache.Fragment fragment = new MiriamAnnotationCache.Fragment(notes, ids, infos.getReaction_id());
+    // Unsuccessful queries might succeed later on.
+    if ((cache != null) && infos.queryWasSuccessfull()) {
+      cache.put(key, fragment);
+    }
+    return fragment;
+  }
+  
   /**
    * Creates a list of reactions identifiers. Trims the "rn:" prefix,
    * only contains unique and non null/empty strings.
@@ -1169,13 +1939,9 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
      * </entry>
      */
     
-    boolean isPathwayReference = false;
     String name = entry.getName().trim();
-    if ((name != null) && (name.toLowerCase().startsWith("path:") || entry.getType().equals(EntryType.map))) {
-      isPathwayReference = true;
-    }
     // Eventually skip this node. It's just a label for the current pathway.
-    if (isPathwayReference && (entry.hasGraphics() && entry.getGraphics().getName().toLowerCase().startsWith("title:"))) {
+    if (isTitleNode(entry)) {
       compartment.setName(entry.getGraphics().getName().substring(6).trim());
       return null;//continue;
     }
@@ -1224,33 +1990,32 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
       name = entry.getGraphics().getName(); // + " (" + name + ")"; // Append ko Id(s) possible!
     }
     // Set name to real and human-readable name (from Inet data - Kegg API).
-    name = getNameForEntry(entry);
+    // Annotations might have been created in advance (see createAnnotations()).
+    SBaseAnnotation annotation = annotations.remove(entry);
+    name = (annotation != null) ? annotation.name : getNameForEntry(entry);
     // ---
     
     // Initialize species object
     NamedSBase spec;
     String id = NameToSId(name.replace(' ', '_')); // defined in org.sbml.jsbml.NamedSBase
     if (useGroupsExtension && (entry.hasComponents() || entry.getType().equals(EntryType.group))) {
-      spec = KEGG2SBMLGroupExtension.createGroup(p, model, entry, "group_" + id);
+      spec = KEGG2SBMLGroupExtension.createGroup(getPathwayIndex(p).getChildren(entry), model, "group_" + id);
     } else {
       
       // Eventually assign a different compartment
       Compartment c = compartment;
       if (entry instanceof EntryExtended) {
         if (((EntryExtended) entry).isSetCompartment()) {
-          for (Compartment c1: model.getListOfCompartments()) {
-            if (c1.getName().equals(((EntryExtended) entry).getCompartment())) {
-              c = c1;
-              break;
-            }
-          }
-          // If it has some compartment assigned, which is not yet initialized, create a new instance.
-          if (c.equals(compartment)) {
+          Compartment c1 = getCompartment(model, ((EntryExtended) entry).getCompartment());
+          if (c1 != null) {
+            c = c1;
+          } else {
+            // If it has some compartment assigned, which is not yet initialized, create a new instance.
             c = createCompartment(model, ((EntryExtended) entry).getCompartment());
           }
         }
       }
-      spec = model.createSpecies(id, c);
+      spec = createSpecies(model, id, c);
     }
     
     if (spec instanceof Species) {
@@ -1263,21 +2028,13 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
         ((Species) spec).setBoundaryCondition(false);
         ((Species) spec).setConstant(false); // defined in org.sbml.jsbml.Variable
         
-        
-        KeggInfos infos = KeggInfos.get(entry.getName(), manager);
-        
-        if ((infos != null) && infos.queryWasSuccessfull()) {
-          
-          // Component.getName() might be a glycan and the chemical formula is only given for compounds
-          // => Look if we have synonym identifers for KEGG compound and refetch
-          String formula = infos.getFormulaDirectOrFromSynonym(manager);
-          if (formula != null) {
-            FBCSpeciesPlugin specPlug = (FBCSpeciesPlugin) spec.getPlugin(FBCConstants.getNamespaceURI(spec.getLevel(), spec.getVersion(), 2));
-            try {
-              specPlug.setChemicalFormula(formula);
-            } catch (IllegalArgumentException exc) {
-              logger.warning(exc.getClass().getSimpleName() + ": " + Utils.getMessage(exc));
-            }
+        String formula = (annotation != null) ? annotation.formula : getChemicalFormula(entry);
+        if (formula != null) {
+          FBCSpeciesPlugin specPlug = (FBCSpeciesPlugin) spec.getPlugin(FBCConstants.getNamespaceURI(spec.getLevel(), spec.getVersion(), 2));
+          try {
+            specPlug.setChemicalFormula(formula);
+          } catch (IllegalArgumentException exc) {
+            logger.warning(exc.getClass().getSimpleName() + ": " + Utils.getMessage(exc));
           }
         }
         
@@ -1292,6 +2049,96 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
       spec.setMetaId("meta_" + spec.getId()); // defined in org.sbml.jsbml.SBase
     }
     
+    Throwable notesError;
+    if (annotation != null) {
+      annotation.moveTo(spec);
+      notesError = annotation.notesError;
+    } else {
+      notesError = addEntryAnnotation(entry, p, spec);
+    }
+    if (notesError != null) {
+      logger.warning(MessageFormat.format(
+        "Cannot write notes for species ''{0}'' because of {1}: {2}.",
+        spec.getId(), notesError.getClass().getName(), Utils.getMessage(notesError)));
+    }
+    
+    // Set SBO Term
+    spec.setSBOTerm(SBOMapping.getSBOTerm(entry));
+    
+    // Finally, add the fully configured species.
+    spec.setName(name);
+    //specAnnot.setAbout("#" + spec.getMetaId());
+    entry.setCustom(spec); // Remember node in KEGG Structure for further references.
+    // NOT here, because it may depend on other entries, that are not yet processed.
+    //if (addCellDesignerAnnots) addCellDesignerAnnotationToSpecies(spec, entry);
+    // Not neccessary to add species to model, due to call in "model.createSpecies()".
+    
+    return spec;
+  }
+  
+  /**
+   * Creates the element for an entry that is no group and adds it to
+   * the model. Name, notes, annotation and SBO term are set afterwards.
+   * @param model
+   * @param id
+   * @param compartment
+   * @return a new {@link Species}.
+   */
+  protected NamedSBase createSpecies(Model model, String id, Compartment compartment) {
+    return model.createSpecies(id, compartment);
+  }
+  
+  /**
+   * Creates the name, chemical formula, notes and MIRIAM annotation of
+   * the species for the given entry on a detached element. Does not
+   * modify any model, thus, it is possible to call this method in
+   * parallel for different entries.
+   * @param entry
+   * @param p pathway of the specified entry.
+   * @param level
+   * @param version
+   * @return the annotation for {@code entry}.
+   * @throws XMLStreamException
+   */
+  private SBaseAnnotation createEntryAnnotation(Entry entry, Pathway p, int level, int version) throws XMLStreamException {
+    SBaseAnnotation annotation = new SBaseAnnotation(new Species(level, version));
+    annotation.name = getNameForEntry(entry);
+    
+    boolean isGroup = useGroupsExtension && (entry.hasComponents() || entry.getType().equals(EntryType.group));
+    // Chemical formulas are only set on core species (see addKGMLEntry()).
+    if ((level > 2) && !isGroup && considerReactions()) {
+      annotation.formula = getChemicalFormula(entry);
+    }
+    annotation.notesError = addEntryAnnotation(entry, p, annotation.holder);
+    return annotation;
+  }
+  
+  /**
+   * @param entry
+   * @return the chemical formula of the compound for {@code entry}
+   * or {@code null}.
+   */
+  private String getChemicalFormula(Entry entry) {
+    KeggInfos infos = KeggInfos.get(entry.getName(), manager);
+    if ((infos != null) && infos.queryWasSuccessfull()) {
+      // Component.getName() might be a glycan and the chemical formula is only given for compounds
+      // => Look if we have synonym identifers for KEGG compound and refetch
+      return infos.getFormulaDirectOrFromSynonym(manager);
+    }
+    return null;
+  }
+  
+  /**
+   * Adds the notes and MIRIAM annotation of the given entry to {@code spec}.
+   * @param entry
+   * @param p pathway of the specified entry.
+   * @param spec
+   * @return the reason why the notes could not be set or {@code null}.
+   * @throws XMLStreamException
+   */
+  private Throwable addEntryAnnotation(Entry entry, Pathway p, SBase spec) throws XMLStreamException {
+    Throwable notesError = null;
+    
     //Annotation specAnnot = new Annotation("");
     //specAnnot.setAbout("");
     //spec.setAnnotation(specAnnot); // manchmal ist jSBML schon bescheurt...
@@ -1311,7 +2158,7 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
         String.format("<p>This species is a group, consisting of %s components:<br/><ul>", entry.getComponents().size()));
       CVTerm cvt = new CVTerm(Type.BIOLOGICAL_QUALIFIER,Qualifier.BQB_IS_ENCODED_BY);
       for (int c:entry.getComponents()) {
-        Entry ce = p.getEntryForId(c);
+        Entry ce = getPathwayIndex(p).getEntryForId(c);
         if (ce == null) {
           notesAppend.append("<li>Unknown</li>");
         } else {
@@ -1341,26 +2188,13 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     try {
       spec.setNotes(notes.toString());
     } catch (Throwable t) {
-      logger.warning(MessageFormat.format(
-        "Cannot write notes for species ''{0}'' because of {1}: {2}.",
-        spec.getId(), t.getClass().getName(), Utils.getMessage(t)));
+      notesError = t;
     }
     
-    // Set SBO Term
-    spec.setSBOTerm(SBOMapping.getSBOTerm(entry));
-    
     // Add Miriam URNs and Description
-    addMiriamURNs(entry, spec);
-    
-    // Finally, add the fully configured species.
-    spec.setName(name);
-    //specAnnot.setAbout("#" + spec.getMetaId());
-    entry.setCustom(spec); // Remember node in KEGG Structure for further references.
-    // NOT here, because it may depend on other entries, that are not yet processed.
-    //if (addCellDesignerAnnots) addCellDesignerAnnotationToSpecies(spec, entry);
-    // Not neccessary to add species to model, due to call in "model.createSpecies()".
+    addMiriamURNs(entry, spec, manager, isPath2Models(), context.getAnnotationCache());
     
-    return spec;
+    return notesError;
   }
   
   /**
@@ -1466,10 +2300,10 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
       ret.add(rc);
       
       // If there are groupNodes, add also the children to the list.
-      Entry s = p.getEntryForReactionComponent(rc);
+      Entry s = getPathwayIndex(p).getEntryForReactionComponent(rc);
       if (isGroupNode(s) && s.hasComponents()) {
         for (Integer c: s.getComponents()) {
-          Entry child = p.getEntryForId(c);
+          Entry child = getPathwayIndex(p).getEntryForId(c);
           if (child!=null) {
             ret.add(new ReactionComponent(child));
           }
@@ -1584,6 +2418,15 @@ public class KEGG2jSBML extends AbstractKEGGtranslator<SBMLDocument>  {
     return true;
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#getAnnotationFields()
+   */
+  @Override
+  protected Set<AnnotationField> getAnnotationFields() {
+    // MIRIAM annotations, notes, etc. require everything.
+    return EnumSet.allOf(AnnotationField.class);
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.KEGGtranslator#isGraphicalOutput()
    */
@@ -30,15 +30,20 @@ import java.awt.Font;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import y.base.DataMap;
@@ -71,8 +76,10 @@ import y.view.ShapeNodeRealizer;
 import y.view.YLabel;
 import y.view.hierarchy.GroupNodeRealizer;
 import y.view.hierarchy.HierarchyManager;
+import de.zbit.graph.GraphImageRenderer;
 import de.zbit.graph.GraphTools;
 import de.zbit.graph.LineNodeRealizer;
+import de.zbit.graph.NodeGridIndex;
 import de.zbit.graph.StackingNodeLayout;
 import de.zbit.graph.io.Graph2DExporter;
 import de.zbit.graph.io.Graph2Dwriter;
@@ -135,6 +142,12 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    * to one node if this is set to true.
    */
   private boolean groupNodesWithSameEdges=false;
+  /**
+   * If true, {@link #mergeNodesWithSameEdges(Graph2D, HierarchyManager, NodeMap, Set)}
+   * compares every node with all following nodes instead of using edge
+   * signatures. Only used to test that both give the same result.
+   */
+  boolean compareAllNodes=false;
   /**
    * Create labels for edges (activation, compound, phosphorylation, etc.)
    * or not.
@@ -156,6 +169,18 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    */
   private Graph2Dwriter outputHandler = null;
   
+  /**
+   * Writes JPG and GIF images of large graphs (e.g., overview maps)
+   * as tiles. Created when the first large image is written.
+   */
+  private GraphImageRenderer tileRenderer = null;
+  
+  /**
+   * If true, JPG and GIF images of large graphs are written as tiles
+   * (see {@link #setTileLargeImages(boolean)}).
+   */
+  private boolean tileLargeImages = false;
+  
   
   
   /*===========================
@@ -281,18 +306,28 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    * FUNCTIONS
    * ===========================*/
   
-  /** Load the default preferences from the SBPreferences object. */
+  /** Load the options from the current {@link TranslationContext}. */
   private void loadPreferences() {
-    groupNodesWithSameEdges = KEGGtranslatorOptions.MERGE_NODES_WITH_SAME_EDGES.getValue(prefs);
-    createEdgeLabels = KEGGtranslatorOptions.CREATE_EDGE_LABELS.getValue(prefs);
-    drawArrowsForReactions = KEGGtranslatorOptions.INCLUDE_NODES_FOR_METABOLIC_REACTIONS.getValue(prefs);
-    hideLabelsForCompounds = KEGGtranslatorOptions.HIDE_LABELS_FOR_COMPOUNDS.getValue(prefs);
+    groupNodesWithSameEdges = context.getOption(KEGGtranslatorOptions.MERGE_NODES_WITH_SAME_EDGES);
+    createEdgeLabels = context.getOption(KEGGtranslatorOptions.CREATE_EDGE_LABELS);
+    drawArrowsForReactions = context.getOption(KEGGtranslatorOptions.INCLUDE_NODES_FOR_METABOLIC_REACTIONS);
+    hideLabelsForCompounds = context.getOption(KEGGtranslatorOptions.HIDE_LABELS_FOR_COMPOUNDS);
+    tileLargeImages = context.getOption(KEGGtranslatorOptions.TILE_LARGE_IMAGES);
     
     // Wee need to set autocompleteReactions to false, because it does not make
     // sense in out context and considerReactions() is sometimes true.
     autocompleteReactions = false;
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#setTranslationContext(de.zbit.kegg.io.TranslationContext)
+   */
+  @Override
+  public void setTranslationContext(TranslationContext context) {
+    super.setTranslationContext(context);
+    loadPreferences();
+  }
+  
   
   /**
    * Converts an HTML color to an awt color.
@@ -411,7 +446,213 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
   }
   
   /**
-   * Calculates the distance between all nodes in the given list.
+   * Groups nodes that are in the same (optical) row or column and have
+   * exactly the same edges (see {@link #nodesHaveSameEdges(Node, Node, Graph2D)}).
+   * Instead of comparing all pairs of nodes, only nodes with the same
+   * edge signature (see {@link #getEdgeSignature(Node, Graph2D)}) are compared.
+   * @param graph
+   * @param hm
+   * @param entityType
+   * @param toLayout nodes without layout information
+   */
+  private void mergeNodesWithSameEdges(Graph2D graph, HierarchyManager hm, NodeMap entityType, Set<Node> toLayout) {
+    Node[] myNodes = graph.getNodeArray();
+    final Map<Node, Integer> position = new HashMap<Node, Integer>();
+    Map<Node, Set<List<Object>>> signatures = new HashMap<Node, Set<List<Object>>>();
+    Map<Set<List<Object>>, Set<Node>> buckets = new HashMap<Set<List<Object>>, Set<Node>>();
+    for (int i=0; i<myNodes.length; i++) {
+      position.put(myNodes[i], i);
+      updateEdgeSignature(myNodes[i], graph, signatures, buckets);
+    }
+    
+    for (int i=0; i<myNodes.length-1; i++) {
+      NodeList nl = new NodeList();
+      nl.add(myNodes[i]);
+      
+      // Nur "Sinnvolle" zusammenfassungen vornehmen.
+      Object type = entityType.get(myNodes[i]);
+      if (hm.isGroupNode(myNodes[i]) || hm.getParentNode(myNodes[i])!=null || !hm.isNormalNode(myNodes[i]) ||
+          myNodes[i].edges().size()<1 || (type!=null && type.equals("reaction")) ) {
+        continue;
+      }
+      
+      // Only nodes with the same signature can have the same edges
+      Set<List<Object>> signature = signatures.get(myNodes[i]);
+      List<Node> candidates;
+      if (signature==null || compareAllNodes) {
+        candidates = Arrays.asList(myNodes).subList(i+1, myNodes.length);
+      } else {
+        candidates = new ArrayList<Node>();
+        for (Node n2: buckets.get(signature)) {
+          if (position.get(n2)>i) {
+            candidates.add(n2);
+          }
+        }
+        Collections.sort(candidates, new Comparator<Node>() {
+          @Override
+          public int compare(Node n1, Node n2) {
+            return position.get(n1).compareTo(position.get(n2));
+          }
+        });
+      }
+      
+      for (Node n2: candidates) {
+        if (hm.isGroupNode(n2) || hm.getParentNode(n2)!=null || !hm.isNormalNode(n2)) {
+          continue;
+        }
+        
+        // Wenn in selber (optischer) "Reihe" und selbe kanten, dann groupen.
+        if (graph.getRealizer(myNodes[i]).getCenterX()==graph.getRealizer(n2).getCenterX() || graph.getRealizer(myNodes[i]).getCenterY()==graph.getRealizer(n2).getCenterY() ||
+            (graph.getRealizer(myNodes[i]).getX()==graph.getRealizer(n2).getX() || graph.getRealizer(myNodes[i]).getY()==graph.getRealizer(n2).getY())) {
+          if (nodesHaveSameEdges(myNodes[i], n2, graph)) {
+            nl.add(n2);
+          }
+        }
+      }
+      
+      // Remove Outlier (More than 50px away from closest node)
+      nl = removeOutlier(nl,graph, 50);
+      
+      if (nl.size()>1) {
+        // Pick any child node
+        Node source = ((Node)nl.get(0));
+        
+        // Remember all nodes whose edges are changed
+        Set<Node> neighbours = new HashSet<Node>();
+        for (int j=0; j<nl.size(); j++) {
+          Node child = (Node) nl.get(j);
+          for (EdgeCursor ec = child.edges(); ec.ok(); ec.next()) {
+            neighbours.add(ec.edge().opposite(child));
+          }
+        }
+        
+        // Create new Group node and setup hirarchies
+        GroupNodeRealizer gnr = (GroupNodeRealizer) setupGroupNode(new NodeLabel(), "");
+        Graphics g = Graphics.createGraphicsForGroupOrComplex(null);
+        g.setX((int)graph.getRealizer(source).getCenterX());
+        g.setY((int)graph.getRealizer(source).getCenterY());
+        setupGraphics(gnr, gnr.getLabel(), g);
+        //gnr.setAutoBoundsInsets(new YInsets(1, 1, 1, 1));
+        
+        //gnr.setBorderInsets(new YInsets(1, 1, 1, 1));
+        
+        // Create grouped node for all same edges
+        Node n = graph.createNode(gnr);
+        hm.convertToGroupNode(n);
+        hm.setParentNode(nl, n);
+        toLayout.add(n);
+        
+        //gnr.setAutoBoundsInsets(new YInsets(1, 1, 1, 1));
+        //gnr.setMinimalInsets(new YInsets(1, 1, 1, 1));
+        //gnr.setBorderInsets(new YInsets(1, 1, 1, 1));
+        
+        // Copy edges to group node (remember: all childs have the same edges)
+        Edge e = source.firstInEdge();
+        while (e!=null) {
+          graph.createEdge(e.source(), n, graph.getRealizer(e));
+          e=e.nextInEdge();
+        }
+        e = source.firstOutEdge();
+        while (e!=null) {
+          graph.createEdge(n, e.target(), graph.getRealizer(e));
+          e=e.nextOutEdge();
+        }
+        // Remove edges from all internal nodes
+        for (int j=0; j<nl.size(); j++) {
+          source = ((Node)nl.get(j));
+          EdgeCursor ec = source.edges();
+          while (ec.ok()) {
+            graph.removeEdge(ec.edge());
+            ec.next();
+          }
+        }
+        gnr.setEdgesDirty();
+        
+        // Edges of all neighbours now point to the group node
+        for (Node neighbour: neighbours) {
+          if (position.containsKey(neighbour)) {
+            updateEdgeSignature(neighbour, graph, signatures, buckets);
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Creates a signature of all edges of {@code n}, consisting of the
+   * source (for in-edges) or target (for out-edges), label text, line
+   * width and arrows of every edge. If two nodes have the same edges
+   * (see {@link #nodesHaveSameEdges(Node, Node, Graph2D)}), they also
+   * have the same signature.
+   * @param n
+   * @param graph
+   * @return the signature or {@code null} if {@code n} has multiple
+   * edges from or to the same node (such nodes must be compared with
+   * all other nodes).
+   */
+  private static Set<List<Object>> getEdgeSignature(Node n, Graph2D graph) {
+    Set<List<Object>> signature = new HashSet<List<Object>>();
+    Set<Node> sources = new HashSet<Node>();
+    for (Edge e = n.firstInEdge(); e!=null; e = e.nextInEdge()) {
+      if (!sources.add(e.source())) {
+        return null;
+      }
+      signature.add(getEdgeSignature(Boolean.FALSE, e.source(), graph.getRealizer(e)));
+    }
+    Set<Node> targets = new HashSet<Node>();
+    for (Edge e = n.firstOutEdge(); e!=null; e = e.nextOutEdge()) {
+      if (!targets.add(e.target())) {
+        return null;
+      }
+      signature.add(getEdgeSignature(Boolean.TRUE, e.target(), graph.getRealizer(e)));
+    }
+    return signature;
+  }
+  
+  /**
+   * @param out {@code true} for out-edges, {@code false} for in-edges.
+   * @param other source or target of the edge (that is not the node itself).
+   * @param er
+   * @return the signature of a single edge.
+   */
+  private static List<Object> getEdgeSignature(Boolean out, Node other, EdgeRealizer er) {
+    return Arrays.asList(new Object[] {out, other, er.getLabelText(), er.getLineType().getLineWidth(),
+        er.getSourceArrow().getType(), er.getTargetArrow().getType()});
+  }
+  
+  /**
+   * Moves {@code n} to the bucket of its current edge signature. Only
+   * nodes with edges and a signature are kept in {@code buckets}.
+   * @param n
+   * @param graph
+   * @param signatures current signature of every node
+   * @param buckets all nodes with the same signature
+   */
+  private static void updateEdgeSignature(Node n, Graph2D graph, Map<Node, Set<List<Object>>> signatures,
+    Map<Set<List<Object>>, Set<Node>> buckets) {
+    Set<List<Object>> signature = signatures.remove(n);
+    if (signature!=null && buckets.containsKey(signature)) {
+      Set<Node> bucket = buckets.get(signature);
+      bucket.remove(n);
+      if (bucket.isEmpty()) {
+        buckets.remove(signature);
+      }
+    }
+    
+    signature = getEdgeSignature(n, graph);
+    signatures.put(n, signature);
+    if (signature!=null && !signature.isEmpty()) {
+      Set<Node> bucket = buckets.get(signature);
+      if (bucket==null) {
+        bucket = new HashSet<Node>();
+        buckets.put(signature, bucket);
+      }
+      bucket.add(n);
+    }
+  }
+  
+  /**
+   * Looks up the closest other node of every node in the given list.
    * Nodes that have a minimum distance above a given threshold
    * are considered being outliers and get removed.
    * @param nl - List of nodes
@@ -420,50 +661,29 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    * @return filtered nodelist
    */
   private static NodeList removeOutlier(NodeList nl, Graph2D graph, int threshold) {
-    // Calculate minimal distances
-    double[] minDists = new double[nl.size()];
-    for (int j = 0; j < nl.size(); j++) {
-      NodeRealizer n1 = graph.getRealizer((Node) nl.get(j));
-      double minDist=Double.MAX_VALUE;
-      for (int k = 0; k<nl.size(); k++) {
-        if (j == k) {
-          continue;
-        }
-        NodeRealizer n2 = graph.getRealizer((Node) nl.get(k));
-        double dist = Math.max(Math.abs(n1.getCenterX()-n2.getCenterX()), Math.abs(n1.getCenterY()-n2.getCenterY()));
-        minDist = Math.min(minDist, dist);
-      }
-      logger.fine(minDist + " \t" + n1.getLabelText() );
-      minDists[j] = minDist;
-    }
-    
-    List<Integer> toRemove = new ArrayList<Integer>();
     if (nl.size() < 2)
     {
       return nl; // one node
     }
     
-    for (int j = 0; j < minDists.length; j++) {
-      if (minDists[j] > threshold) {
-        toRemove.add(j);
+    // With cells of the threshold size, only neighboring cells are searched
+    NodeGridIndex index = new NodeGridIndex(graph, Math.max(threshold, 1), nl);
+    NodeList nl2 = new NodeList();
+    for (Object o : nl) {
+      Node n = (Node) o;
+      if (index.getNearestNode(n, threshold)!=null) {
+        nl2.add(n);
+      } else {
+        logger.fine("Outlier: " + graph.getRealizer(n).getLabelText());
       }
     }
     
     // Nothing to do?
-    if (toRemove.size() < 1) {
+    if (nl2.size()==nl.size()) {
       return nl;
     }
     
-    NodeList nl2 = new NodeList();
-    for (int j = 0; j < nl.size(); j++) {
-      if (toRemove.contains(j)) {
-        continue;
-      }
-      nl2.add(nl.get(j));
-    }
-    nl = nl2;
-    
-    return nl;
+    return nl2;
   }
   
   /**
@@ -528,7 +748,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
   protected Graph2D translateWithoutPreprocessing(Pathway p) {
     Graph2D graph = new Graph2D();
     ArrayList<String> PWReferenceNodeTexts = new ArrayList<String>();
-    boolean showProgressForRelations = KeggInfoManagement.offlineMode;
+    boolean showProgressForRelations = !isRetrieveKeggAnnots();
     
     //Create graph annotation maps
     NodeMap nodeDescription = graph.createNodeMap();
@@ -756,7 +976,6 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
         node2entry.put(n, e);
         
         // Init variables
-        List<KeggInfos> keggInfos = new LinkedList<KeggInfos>();
         String name2="",definition="",entrezIds2="",uniprotIds2="",eType="",ensemblIds2="";
         
         // Get a map of existing identifiers or create a new one
@@ -787,7 +1006,6 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
           
           // TODO: KEGG brite identifiers (e.g., "br:br08003") are not correctly fetched and parsed by the API.
           KeggInfos infos = KeggInfos.get(ko_id, manager);
-          keggInfos.add(infos);
           
           // Add all available identifiers (enzrez gene, ensembl, etc)
           infos.addAllIdentifiers(ids);
@@ -859,7 +1077,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
         }
         
         // Assign new name based on API and user selection
-        name = getNameForEntry(e, keggInfos.toArray(new KeggInfos[0]));
+        name = getNameForEntry(e);
         
         if (name!=null && name.startsWith("undefined") &&
             !graph.getRealizer(n).getLabelText().startsWith("undefined")) {
@@ -922,7 +1140,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
       NodeList nl = new NodeList();
       double x=Double.MAX_VALUE,y=Double.MAX_VALUE,width=0,height=0;
       for (int n2: groupNodeChildren.get(i)) {
-        Entry two = p.getEntryForId(n2);
+        Entry two = getPathwayIndex(p).getEntryForId(n2);
         if (two==null) {
           System.out.println("WARNING: Missing node for id " + n2);
           continue;
@@ -943,7 +1161,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
          * self loop for the given reaction.
          */
         // Components of complexes and complex istself should not directly be involved in a single reactions
-        boolean cloneThisNode = directRelation(node2entry.get(parentGroupNodes.get(i)), two);
+        boolean cloneThisNode = directRelation(node2entry.get(parentGroupNodes.get(i)), two, getPathwayIndex(p));
         // Already contained in another complex
         if (!cloneThisNode) {
           cloneThisNode |= !usedNodes.add(n2);
@@ -1000,8 +1218,8 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
         progress.DisplayBar("Relation " + (i+1) + "/" + p.getRelations().size());
       }
       Relation r = p.getRelations().get(i);
-      Entry one = p.getEntryForId(r.getEntry1());
-      Entry two = p.getEntryForId(r.getEntry2());
+      Entry one = getPathwayIndex(p).getEntryForId(r.getEntry1());
+      Entry two = getPathwayIndex(p).getEntryForId(r.getEntry2());
       
       if (one==null || two==null) {
         // This happens, e.g. when removing pathways nodes
@@ -1028,7 +1246,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
           }
           
           if (st.getName().trim().equalsIgnoreCase("compound") && st.getValue()!=null && Utils.isNumber(st.getValue(),true)) {
-            Entry compNode = p.getEntryForId(Integer.parseInt(st.getValue()));
+            Entry compNode = getPathwayIndex(p).getEntryForId(Integer.parseInt(st.getValue()));
             if (compNode==null || compNode.getCustom()==null) {System.err.println("Could not find Compound Node."); graph.createEdge(nOne, nTwo, er); continue;}
             
             Node compoundNode = (Node) compNode.getCustom();
@@ -1127,83 +1345,7 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
     
     // Kanten von Knoten, welche exakt selben In- und Output haben zusammenfassen. (=> Groupnode)
     if (groupNodesWithSameEdges) {
-      Node[] myNodes = graph.getNodeArray();
-      for (int i=0; i<myNodes.length-1; i++) {
-        NodeList nl = new NodeList();
-        nl.add(myNodes[i]);
-        
-        // Nur "Sinnvolle" zusammenfassungen vornehmen.
-        Object type = entityType.get(myNodes[i]);
-        if (hm.isGroupNode(myNodes[i]) || hm.getParentNode(myNodes[i])!=null || !hm.isNormalNode(myNodes[i]) ||
-            myNodes[i].edges().size()<1 || (type!=null && type.equals("reaction")) ) {
-          continue;
-        }
-        
-        for (int j=i+1; j<myNodes.length; j++) {
-          if (hm.isGroupNode(myNodes[j]) || hm.getParentNode(myNodes[j])!=null || !hm.isNormalNode(myNodes[j])) {
-            continue;
-          }
-          
-          // Wenn in selber (optischer) "Reihe" und selbe kanten, dann groupen.
-          if (graph.getRealizer(myNodes[i]).getCenterX()==graph.getRealizer(myNodes[j]).getCenterX() || graph.getRealizer(myNodes[i]).getCenterY()==graph.getRealizer(myNodes[j]).getCenterY() ||
-              (graph.getRealizer(myNodes[i]).getX()==graph.getRealizer(myNodes[j]).getX() || graph.getRealizer(myNodes[i]).getY()==graph.getRealizer(myNodes[j]).getY())) {
-            if (nodesHaveSameEdges(myNodes[i], myNodes[j], graph)) {
-              nl.add(myNodes[j]);
-            }
-          }
-        }
-        
-        // Remove Outlier (More than 50px away from closest node)
-        nl = removeOutlier(nl,graph, 50);
-        
-        if (nl.size()>1) {
-          // Pick any child node
-          Node source = ((Node)nl.get(0));
-          
-          // Create new Group node and setup hirarchies
-          GroupNodeRealizer gnr = (GroupNodeRealizer) setupGroupNode(new NodeLabel(), "");
-          Graphics g = Graphics.createGraphicsForGroupOrComplex(null);
-          g.setX((int)graph.getRealizer(source).getCenterX());
-          g.setY((int)graph.getRealizer(source).getCenterY());
-          setupGraphics(gnr, gnr.getLabel(), g);
-          //gnr.setAutoBoundsInsets(new YInsets(1, 1, 1, 1));
-          
-          //gnr.setBorderInsets(new YInsets(1, 1, 1, 1));
-          
-          // Create grouped node for all same edges
-          Node n = graph.createNode(gnr);
-          hm.convertToGroupNode(n);
-          hm.setParentNode(nl, n);
-          toLayout.add(n);
-          
-          //gnr.setAutoBoundsInsets(new YInsets(1, 1, 1, 1));
-          //gnr.setMinimalInsets(new YInsets(1, 1, 1, 1));
-          //gnr.setBorderInsets(new YInsets(1, 1, 1, 1));
-          
-          // Copy edges to group node (remember: all childs have the same edges)
-          Edge e = source.firstInEdge();
-          while (e!=null) {
-            graph.createEdge(e.source(), n, graph.getRealizer(e));
-            e=e.nextInEdge();
-          }
-          e = source.firstOutEdge();
-          while (e!=null) {
-            graph.createEdge(n, e.target(), graph.getRealizer(e));
-            e=e.nextOutEdge();
-          }
-          // Remove edges from all internal nodes
-          for (int j=0; j<nl.size(); j++) {
-            source = ((Node)nl.get(j));
-            EdgeCursor ec = source.edges();
-            while (ec.ok()) {
-              graph.removeEdge(ec.edge());
-              ec.next();
-            }
-          }
-          gnr.setEdgesDirty();
-          
-        }
-      }
+      mergeNodesWithSameEdges(graph, hm, entityType, toLayout);
     }
     
     /*
@@ -1312,9 +1454,10 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
     Pathway p = one.getParentPathway();
     Collection<Reaction> rOne = p.getReactionsForEntry(one);
     Collection<Reaction> rTwo = p.getReactionsForEntry(two);
-    rOne.retainAll(rTwo);
-    if (rOne.size()>0) {
-      return true;
+    for (Reaction r : rOne) {
+      if (rTwo.contains(r)) {
+        return true;
+      }
     }
     
     // Check if a relation exists that involves both entries
@@ -1333,6 +1476,42 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
     return false;
   }
   
+  /**
+   * Like {@link #directRelation(Entry, Entry)}, but with the lookup
+   * tables of a translation, i.e., without scanning all reactions
+   * and relations of the pathway.
+   * @param one
+   * @param two
+   * @param index lookup tables for the parent pathway of both entries.
+   * @return
+   */
+  private static boolean directRelation(Entry one, Entry two, PathwayIndex index) {
+    if (one==null || two==null) {
+      return false;
+    }
+    
+    // Check if a reaction exists that involves both entries
+    Collection<Reaction> rOne = index.getReactionsForEntry(one);
+    Collection<Reaction> rTwo = index.getReactionsForEntry(two);
+    if ((rOne != null) && (rTwo != null)) {
+      for (Reaction r : rOne) {
+        if (rTwo.contains(r)) {
+          return true;
+        }
+      }
+    }
+    
+    // Check if a relation exists that involves both entries
+    if (one.isSetID() && two.isSetID()) {
+      if (one.getId()==two.getId()) {
+        return true;
+      }
+      return index.hasRelation(one.getId(), two.getId());
+    }
+    
+    return false;
+  }
+  
   /**
    * Links all information in all {@code nodeMaps} that are
    * assigned to {@code oldNode} also to the {@code newNode}.
@@ -1359,45 +1538,79 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    * @param graph
    * @param toLayout nodes without layout information
    */
-  @SuppressWarnings("unchecked")
   private void stackGroupNodeContents(Graph2D graph, Set<Node> toLayout) {
     HierarchyManager hm = graph.getHierarchyManager();
+    
+    // Get topmost ancestors (only one walk per group tree) and count the
+    // group nodes of every tree.
+    Map<Node, Node> topmost = new HashMap<Node, Node>();
+    Map<Node, Integer> roots = new LinkedHashMap<Node, Integer>();
     for (Node n : graph.getNodeArray()) {
       if (hm.isGroupNode(n)) {
-        /* Optionally, one could apply the stacking layout
-         * only if 'hm.getChildren(n).size()<=10' and else
-         * apply e.g., a smart organic layout.
-         */
-        
-        // Get topmost ancestor
-        Node parent = n; // Don't use parent as it always get's null here ;-)
-        while ((parent = hm.getParentNode(n))!=null) {
-          n = parent;
+        List<Node> path = new ArrayList<Node>();
+        Node root = n;
+        while (!topmost.containsKey(root) && (hm.getParentNode(root)!=null)) {
+          path.add(root);
+          root = hm.getParentNode(root);
         }
-        
-        // Need to layout?
-        boolean success = layoutIfallChildsAreInSet(graph, n, toLayout);
-        
-        // Try to get first child group that only contains unlayouted nodes
-        // (This just refers to groups, contained in groups, that are in groups,...)
-        if (!success) {
-          NodeCursor nc = hm.getChildren(n);
-          ListIterator<Node> childs = (nc==null|| nc.size()<1) ? null : (new NodeList(nc).listIterator());
-          while (childs!=null && childs.hasNext()) {
-            Node current = childs.next();
-            if (hm.isGroupNode(current)) {
-              success = layoutIfallChildsAreInSet(graph, current, toLayout);
-              childs.remove();
-              nc = hm.getChildren(current);
-              if (nc!=null) {
-                for (Object n2: new NodeList(nc)) {
-                  childs.add((Node)n2);
-                }
-              }
+        if (topmost.containsKey(root)) {
+          root = topmost.get(root);
+        }
+        for (Node p : path) {
+          topmost.put(p, root);
+        }
+        Integer count = roots.get(root);
+        roots.put(root, Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+      }
+    }
+    
+    // Every tree is layouted once per contained group node. Each layout of
+    // a tree with nested groups moves it down by a group node header, and
+    // the placement of complexes depends on this. Repetitions are cheap,
+    // because StackingNodeLayout caches layouts by group structure.
+    for (Map.Entry<Node, Integer> root : roots.entrySet()) {
+      for (int i = 0; i < root.getValue().intValue(); i++) {
+        stackGroupTree(graph, root.getKey(), toLayout);
+      }
+    }
+  }
+  
+  /**
+   * Applies {@link StackingNodeLayout} to the topmost group node {@code n}
+   * or, if not all of its content is without layout, to all contained
+   * group nodes whose content has no layout.
+   * @param graph
+   * @param n the topmost group node of a group tree
+   * @param toLayout nodes without layout information
+   */
+  @SuppressWarnings("unchecked")
+  private void stackGroupTree(Graph2D graph, Node n, Set<Node> toLayout) {
+    HierarchyManager hm = graph.getHierarchyManager();
+    /* Optionally, one could apply the stacking layout
+     * only if 'hm.getChildren(n).size()<=10' and else
+     * apply e.g., a smart organic layout.
+     */
+    
+    // Need to layout?
+    boolean success = layoutIfallChildsAreInSet(graph, n, toLayout);
+    
+    // Try to get first child group that only contains unlayouted nodes
+    // (This just refers to groups, contained in groups, that are in groups,...)
+    if (!success) {
+      NodeCursor nc = hm.getChildren(n);
+      ListIterator<Node> childs = (nc==null|| nc.size()<1) ? null : (new NodeList(nc).listIterator());
+      while (childs!=null && childs.hasNext()) {
+        Node current = childs.next();
+        if (hm.isGroupNode(current)) {
+          success = layoutIfallChildsAreInSet(graph, current, toLayout);
+          childs.remove();
+          nc = hm.getChildren(current);
+          if (nc!=null) {
+            for (Object n2: new NodeList(nc)) {
+              childs.add((Node)n2);
             }
           }
         }
-        
       }
     }
   }
@@ -1564,14 +1777,14 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
     List<Node> validSubstrates = new LinkedList<Node>();
     List<Node> validProducts = new LinkedList<Node>();
     for (ReactionComponent rc : r.getSubstrates()) {
-      Entry spec = p.getEntryForReactionComponent(rc);
+      Entry spec = getPathwayIndex(p).getEntryForReactionComponent(rc);
       if (spec == null || spec.getCustom() == null || !(spec.getCustom() instanceof Node)){
         continue;
       }
       validSubstrates.add((Node) spec.getCustom());
     }
     for (ReactionComponent rc : r.getProducts()) {
-      Entry spec = p.getEntryForReactionComponent(rc);
+      Entry spec = getPathwayIndex(p).getEntryForReactionComponent(rc);
       if (spec == null || spec.getCustom() == null || !(spec.getCustom() instanceof Node)){
         continue;
       }
@@ -1789,6 +2002,10 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    * @return {@code true} if everything went fine.
    */
   public boolean writeToFile(Graph2D graph, String outFile, String format) throws Exception {
+    String f = format.toLowerCase().trim();
+    if (tileLargeImages && (f.equals("jpg") || f.equals("jpeg") || f.equals("gif")) && getTileRenderer().isTiled(graph)) {
+      return writeTiles(graph, outFile, f);
+    }
     return outputHandler.writeToFile(graph, outFile, format);
   }
   
@@ -1797,9 +2014,58 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
    */
   @Override
   public boolean writeToFile(Graph2D doc, String outFile) {
+    IOHandler handler = outputHandler.getOutputHandler();
+    if (tileLargeImages && ((handler instanceof JPGIOHandler) || (handler instanceof GIFIOHandler)) && getTileRenderer().isTiled(doc)) {
+      try {
+        return writeTiles(doc, outFile, (handler instanceof GIFIOHandler) ? "gif" : "jpg");
+      } catch (Exception e) {
+        logger.log(Level.WARNING, "Could not write tiles of " + outFile, e);
+        return false;
+      }
+    }
     return outputHandler.writeToFile(doc, outFile);
   }
   
+  /**
+   * @return the renderer for tiles of large images, with the
+   * background image as set in the preferences.
+   */
+  private GraphImageRenderer getTileRenderer() {
+    if (tileRenderer == null) {
+      tileRenderer = new GraphImageRenderer();
+      tileRenderer.setTileLargeImages(true);
+      TranslatorPanelTools.setupBackgroundImage(tileRenderer);
+    }
+    return tileRenderer;
+  }
+  
+  /**
+   * Writes a graph, whose image would be too large to keep it in memory,
+   * as a tile pyramid (see {@link GraphImageRenderer#renderTiles(Graph2D, String, String, String)}).
+   * @param graph
+   * @param outFile e.g., "name.jpg". Writes "name.dzi" and "name_files/".
+   * @param format format of the tiles ("jpg" or "gif").
+   * @return {@code true} if all tiles have been written.
+   * @throws Exception
+   */
+  private boolean writeTiles(Graph2D graph, String outFile, String format) throws Exception {
+    Pathway p = getLastTranslatedPathway();
+    logger.info("Image is too large for '" + outFile + "' and is written as tiles.");
+    return getTileRenderer().renderTiles(graph, (p != null) ? p.getImage() : null, outFile, format);
+  }
+  
+  /**
+   * @param tileLargeImages if true, JPG and GIF images of graphs that
+   * are too large to keep them in memory (see
+   * {@link GraphImageRenderer#isTiled(Graph2D)}) are not written to the
+   * given file, but as a tile pyramid in the Deep Zoom format: the
+   * descriptor "name.dzi" and the tiles "name_files/level/column_row.jpg".
+   * Default: {@link KEGGtranslatorOptions#TILE_LARGE_IMAGES}.
+   */
+  public void setTileLargeImages(boolean tileLargeImages) {
+    this.tileLargeImages = tileLargeImages;
+  }
+  
   @Override
   protected boolean considerRelations() {
     return true;
@@ -1812,6 +2078,19 @@ public class KEGG2yGraph extends AbstractKEGGtranslator<Graph2D> {
     return drawArrowsForReactions;
   }
   
+  /* (non-Javadoc)
+   * @see de.zbit.kegg.io.AbstractKEGGtranslator#getAnnotationFields()
+   */
+  @Override
+  protected Set<AnnotationField> getAnnotationFields() {
+    // Node annotations: names, formula, definition and entrez, uniprot
+    // and ensembl identifiers.
+    Set<AnnotationField> fields = super.getAnnotationFields();
+    fields.add(AnnotationField.CHEMISTRY);
+    fields.add(AnnotationField.CROSS_REFERENCES);
+    return fields;
+  }
+  
   /* (non-Javadoc)
    * @see de.zbit.kegg.io.KEGGtranslator#isGraphicalOutput()
    */
@@ -0,0 +1,281 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.CVTerm;
+import org.sbml.jsbml.SBase;
+import org.sbml.jsbml.util.StringTools;
+import org.sbml.jsbml.xml.XMLNode;
+
+import de.zbit.util.DatabaseIdentifierTools;
+import de.zbit.util.DatabaseIdentifiers.IdentifierDatabases;
+import de.zbit.util.Utils;
+
+/**
+ * Remembers the MIRIAM annotation that
+ * {@link KEGG2jSBML#addMiriamURNs(de.zbit.kegg.parser.pathway.Entry, SBase)}
+ * creates for single KEGG identifiers (identifiers, reactions and
+ * parsed HTML notes), as well as the {@link CVTerm}s for complete
+ * sets of identifiers. The same gene or compound occurs in many
+ * pathways of an organism, so in batch translations the notes are
+ * formatted and parsed only once and species just receive copies.
+ *
+ * <p>All cached objects are immutable or only handed out as copies.
+ * All methods are thread-safe.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class MiriamAnnotationCache {
+
+  /**
+   * The annotation for a single KEGG identifier.
+   *
+   * @author agent
+   * @version $Rev$
+   */
+  public static final class Fragment {
+
+    /**
+     * Parsed notes or {@code null}.
+     */
+    private final XMLNode notes;
+
+    /**
+     * Identifiers in other databases.
+     */
+    private final Map<IdentifierDatabases, Collection<String>> identifiers;
+
+    /**
+     * Reactions from the KEGG entry.
+     */
+    private final String reactionIDs;
+
+    /**
+     * @param notes HTML notes, including the {@code <notes><body>} tags.
+     * May be {@code null}.
+     * @param identifiers the map is not copied and must not be changed afterwards.
+     * @param reactionIDs may be {@code null}.
+     * @throws XMLStreamException if the notes are not valid XML.
+     */
+    public Fragment(String notes, Map<IdentifierDatabases, Collection<String>> identifiers,
+      String reactionIDs) throws XMLStreamException {
+      super();
+      this.notes = (notes == null) ? null : XMLNode.convertStringToXMLNode(StringTools.toXMLNotesString(notes));
+      this.identifiers = Collections.unmodifiableMap(identifiers);
+      this.reactionIDs = reactionIDs;
+    }
+
+    /**
+     * @return space-separated reaction identifiers or {@code null}.
+     */
+    public String getReactionIDs() {
+      return reactionIDs;
+    }
+
+    /**
+     * Adds all identifiers of this fragment to {@code ids}.
+     * @param ids
+     */
+    public void addIdentifiersTo(Map<IdentifierDatabases, Collection<String>> ids) {
+      for (Map.Entry<IdentifierDatabases, Collection<String>> e : identifiers.entrySet()) {
+        Utils.addToMapOfSets(ids, e.getKey(), e.getValue().toArray(new String[e.getValue().size()]));
+      }
+    }
+
+    /**
+     * @return true if this fragment has notes.
+     */
+    public boolean isSetNotes() {
+      return notes != null;
+    }
+
+    /**
+     * Appends a copy of the notes of this fragment to the notes of
+     * {@code sbase}, just as {@link SBase#appendNotes(String)} does.
+     * @param sbase
+     */
+    public void appendNotesTo(SBase sbase) {
+      if (notes == null) {
+        return;
+      }
+      if (sbase.isSetNotes()) {
+        sbase.appendNotes(notes.clone());
+      } else {
+        sbase.setNotes(notes.clone());
+      }
+    }
+  }
+
+  /**
+   * Fragments for single identifiers. In access order, to allow removing
+   * the least recently used fragments.
+   */
+  private final LinkedHashMap<String, Fragment> fragments;
+
+  /**
+   * {@link CVTerm}s for sets of identifiers. Never handed out, only copies.
+   */
+  private final LinkedHashMap<String, List<CVTerm>> cvTerms;
+
+  /**
+   * Maximum number of fragments (and, separately, lists of {@link CVTerm}s) to keep.
+   */
+  private final int maxSize;
+
+  /**
+   * @param maxSize maximum number of fragments to keep.
+   */
+  public MiriamAnnotationCache(int maxSize) {
+    super();
+    this.maxSize = maxSize;
+    fragments = new LinkedHashMap<String, Fragment>(Math.min(maxSize, 1024), 0.75f, true);
+    cvTerms = new LinkedHashMap<String, List<CVTerm>>(Math.min(maxSize, 1024), 0.75f, true);
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param keggID a single KEGG identifier, e.g., "hsa:226".
+   * @param isMap true if the entry is a reference to another pathway.
+   * @param path2models the path2models flag.
+   * @return the key for the fragment of {@code keggID}.
+   */
+  public static String createKey(String keggID, boolean isMap, boolean path2models) {
+    StringBuilder key = new StringBuilder(keggID.length() + 3);
+    key.append(isMap ? 'M' : '-').append(path2models ? 'P' : '-').append(keggID);
+    return key.toString();
+  }
+
+  /**
+   * @param key see {@link #createKey(String, boolean, boolean)}.
+   * @return the cached fragment or {@code null}.
+   */
+  public Fragment get(String key) {
+    synchronized (fragments) {
+      return fragments.get(key);
+    }
+  }
+
+  /**
+   * @param key see {@link #createKey(String, boolean, boolean)}.
+   * @param fragment
+   */
+  public void put(String key, Fragment fragment) {
+    if ((key == null) || (fragment == null)) {
+      return;
+    }
+    synchronized (fragments) {
+      fragments.put(key, fragment);
+      removeEldest(fragments);
+    }
+  }
+
+  /**
+   * Same as {@link DatabaseIdentifierTools#getCVTerms(Map, String)}, but
+   * only creates the terms once for equal input.
+   * @param ids
+   * @param pointOfView
+   * @return new {@link CVTerm}s, that can be added to any {@link SBase}.
+   */
+  public List<CVTerm> getCVTerms(Map<IdentifierDatabases, Collection<String>> ids, String pointOfView) {
+    // The iteration order of ids determines the order of the resources.
+    StringBuilder sb = new StringBuilder(pointOfView);
+    for (Map.Entry<IdentifierDatabases, Collection<String>> e : ids.entrySet()) {
+      sb.append('|').append(e.getKey().ordinal());
+      for (String id : e.getValue()) {
+        sb.append(' ').append(id);
+      }
+    }
+    String key = sb.toString();
+
+    List<CVTerm> terms;
+    synchronized (cvTerms) {
+      terms = cvTerms.get(key);
+    }
+    if (terms == null) {
+      terms = DatabaseIdentifierTools.getCVTerms(ids, pointOfView);
+      if (terms == null) {
+        terms = Collections.emptyList();
+      }
+      synchronized (cvTerms) {
+        cvTerms.put(key, terms);
+        removeEldest(cvTerms);
+      }
+    }
+
+    List<CVTerm> ret = new ArrayList<CVTerm>(terms.size());
+    for (CVTerm term : terms) {
+      ret.add(term.clone());
+    }
+    return ret;
+  }
+
+  /**
+   * Removes the least recently used items from {@code map} until
+   * its size is not larger than {@link #maxSize}.
+   * Must be called while holding the lock on {@code map}.
+   * @param map
+   */
+  private void removeEldest(Map<String, ?> map) {
+    Iterator<String> it = map.keySet().iterator();
+    while ((map.size() > maxSize) && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * @return number of cached fragments.
+   */
+  public int size() {
+    synchronized (fragments) {
+      return fragments.size();
+    }
+  }
+
+  /**
+   * Removes all fragments and {@link CVTerm}s from this cache.
+   */
+  public void clear() {
+    synchronized (fragments) {
+      fragments.clear();
+    }
+    synchronized (cvTerms) {
+      cvTerms.clear();
+    }
+  }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.Pathway;
+import de.zbit.kegg.parser.pathway.Reaction;
+import de.zbit.kegg.parser.pathway.ReactionComponent;
+import de.zbit.kegg.parser.pathway.Relation;
+
+/**
+ * Read-only lookup tables for a {@link Pathway}, built once per
+ * translation (see {@link AbstractKEGGtranslator#getPathwayIndex()}).
+ * Resolving entries of reaction components, the reactions of an entry
+ * or the children of a group in {@link Pathway} creates new collections
+ * or even parses names on every call. The translators call these methods
+ * in loops over all entries, relations and reactions, so for large maps
+ * all results are computed once in here.
+ *
+ * <p>The index reflects the pathway at the time of creation. Lookups
+ * for entries or components that have been added later on are passed
+ * to the pathway. All returned collections are unmodifiable. Entries
+ * for a name are in the order of the pathway (and not in the random
+ * order of {@link Pathway#getEntriesForName(String)}).
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class PathwayIndex {
+
+  /**
+   * The indexed pathway.
+   */
+  private final Pathway pathway;
+
+  /**
+   * Entry for every id.
+   */
+  private final Map<Integer, Entry> idMap;
+
+  /**
+   * Entries for every entry name.
+   */
+  private final Map<String, Collection<Entry>> nameMap;
+
+  /**
+   * Modifiers for every reaction name.
+   */
+  private final Map<String, Collection<Entry>> reactionModifiers;
+
+  /**
+   * Reactions in which an entry takes part.
+   */
+  private final Map<Entry, Collection<Reaction>> entryReactions;
+
+  /**
+   * Entry for every {@link ReactionComponent} (might be {@code null}).
+   */
+  private final Map<ReactionComponent, Entry> componentEntries;
+
+  /**
+   * Existing component entries of all groups.
+   */
+  private final Map<Entry, List<Entry>> groupChildren;
+
+  /**
+   * Undirected pairs of entry ids, connected by a relation.
+   */
+  private final Set<Long> relations;
+
+  /**
+   * Indexes the current state of the given pathway.
+   * @param p
+   */
+  public PathwayIndex(Pathway p) {
+    super();
+    this.pathway = p;
+    List<Entry> entries = p.getEntries();
+    final Map<Entry, Integer> position = new IdentityHashMap<Entry, Integer>(entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      position.put(entries.get(i), Integer.valueOf(i));
+    }
+    Comparator<Entry> pathwayOrder = new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        Integer p1 = position.get(e1);
+        Integer p2 = position.get(e2);
+        if (p1 == null) {
+          return (p2 == null) ? 0 : 1;
+        } else if (p2 == null) {
+          return -1;
+        }
+        return p1.compareTo(p2);
+      }
+    };
+
+    idMap = new HashMap<Integer, Entry>(entries.size() * 4 / 3 + 1);
+    nameMap = new HashMap<String, Collection<Entry>>(entries.size() * 4 / 3 + 1);
+    entryReactions = new IdentityHashMap<Entry, Collection<Reaction>>(entries.size());
+    groupChildren = new IdentityHashMap<Entry, List<Entry>>();
+    for (Entry e : entries) {
+      idMap.put(Integer.valueOf(e.getId()), e);
+      if ((e.getName() != null) && !nameMap.containsKey(e.getName())) {
+        nameMap.put(e.getName(), sorted(p.getEntriesForName(e.getName()), pathwayOrder));
+      }
+      entryReactions.put(e, unmodifiable(p.getReactionsForEntry(e)));
+    }
+    // Resolve groups after all ids are known
+    for (Entry e : entries) {
+      if (e.hasComponents()) {
+        List<Entry> children = new ArrayList<Entry>(e.getComponents().size());
+        for (Integer c : e.getComponents()) {
+          Entry child = idMap.get(c);
+          if (child != null) {
+            children.add(child);
+          }
+        }
+        groupChildren.put(e, Collections.unmodifiableList(children));
+      }
+    }
+
+    reactionModifiers = new HashMap<String, Collection<Entry>>();
+    componentEntries = new IdentityHashMap<ReactionComponent, Entry>();
+    for (Reaction r : p.getReactions()) {
+      if ((r.getName() != null) && !reactionModifiers.containsKey(r.getName())) {
+        reactionModifiers.put(r.getName(), unmodifiable(p.getReactionModifiers(r.getName())));
+      }
+      for (ReactionComponent rc : r.getSubstrates()) {
+        componentEntries.put(rc, p.getEntryForReactionComponent(rc));
+      }
+      for (ReactionComponent rc : r.getProducts()) {
+        componentEntries.put(rc, p.getEntryForReactionComponent(rc));
+      }
+    }
+
+    relations = new HashSet<Long>(p.getRelations().size() * 4 / 3 + 1);
+    for (Relation r : p.getRelations()) {
+      relations.add(Long.valueOf(pair(r.getEntry1(), r.getEntry2())));
+    }
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param c
+   * @return {@code c} as unmodifiable collection or {@code null}.
+   */
+  private static <T> Collection<T> unmodifiable(Collection<T> c) {
+    return (c == null) ? null : Collections.unmodifiableCollection(c);
+  }
+
+  /**
+   * @param c
+   * @param order
+   * @return an unmodifiable, sorted copy of {@code c} or {@code null}.
+   */
+  private static <T> Collection<T> sorted(Collection<T> c, Comparator<? super T> order) {
+    if (c == null) {
+      return null;
+    }
+    List<T> ret = new ArrayList<T>(c);
+    Collections.sort(ret, order);
+    return Collections.unmodifiableList(ret);
+  }
+
+  /**
+   * @param id1
+   * @param id2
+   * @return a key for the undirected pair of both ids.
+   */
+  private static long pair(int id1, int id2) {
+    int min = Math.min(id1, id2);
+    int max = Math.max(id1, id2);
+    return (((long) min) << 32) | (max & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return the indexed pathway.
+   */
+  public Pathway getPathway() {
+    return pathway;
+  }
+
+  /**
+   * @param id
+   * @return see {@link Pathway#getEntryForId(int)}.
+   */
+  public Entry getEntryForId(int id) {
+    Entry e = idMap.get(Integer.valueOf(id));
+    return (e != null) ? e : pathway.getEntryForId(id);
+  }
+
+  /**
+   * @param name
+   * @return see {@link Pathway#getEntriesForName(String)}.
+   */
+  public Collection<Entry> getEntriesForName(String name) {
+    if (nameMap.containsKey(name)) {
+      return nameMap.get(name);
+    }
+    return pathway.getEntriesForName(name);
+  }
+
+  /**
+   * @param reactionName
+   * @return see {@link Pathway#getReactionModifiers(String)}.
+   */
+  public Collection<Entry> getReactionModifiers(String reactionName) {
+    if (reactionModifiers.containsKey(reactionName)) {
+      return reactionModifiers.get(reactionName);
+    }
+    return pathway.getReactionModifiers(reactionName);
+  }
+
+  /**
+   * @param entry
+   * @return see {@link Pathway#getReactionsForEntry(Entry)}.
+   */
+  public Collection<Reaction> getReactionsForEntry(Entry entry) {
+    Collection<Reaction> ret = entryReactions.get(entry);
+    return (ret != null) ? ret : pathway.getReactionsForEntry(entry);
+  }
+
+  /**
+   * @param rc
+   * @return see {@link Pathway#getEntryForReactionComponent(ReactionComponent)}.
+   */
+  public Entry getEntryForReactionComponent(ReactionComponent rc) {
+    if (componentEntries.containsKey(rc)) {
+      return componentEntries.get(rc);
+    }
+    return pathway.getEntryForReactionComponent(rc);
+  }
+
+  /**
+   * @param group
+   * @return all components of {@code group} that exist in the pathway
+   * (an empty list if {@code group} has no components).
+   */
+  public List<Entry> getChildren(Entry group) {
+    List<Entry> ret = groupChildren.get(group);
+    if (ret != null) {
+      return ret;
+    } else if ((group == null) || !group.hasComponents()) {
+      return Collections.emptyList();
+    }
+    ret = new ArrayList<Entry>(group.getComponents().size());
+    for (Integer c : group.getComponents()) {
+      Entry child = getEntryForId(c.intValue());
+      if (child != null) {
+        ret.add(child);
+      }
+    }
+    return Collections.unmodifiableList(ret);
+  }
+
+  /**
+   * @param id1
+   * @param id2
+   * @return true if a relation between the entries with both ids
+   * exists (in any direction).
+   */
+  public boolean hasRelation(int id1, int id2) {
+    return relations.contains(Long.valueOf(pair(id1, id2)));
+  }
+
+}
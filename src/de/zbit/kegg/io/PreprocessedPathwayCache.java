@@ -0,0 +1,778 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.EntryType;
+import de.zbit.kegg.parser.pathway.Graphics;
+import de.zbit.kegg.parser.pathway.GraphicsType;
+import de.zbit.kegg.parser.pathway.Pathway;
+import de.zbit.kegg.parser.pathway.Reaction;
+import de.zbit.kegg.parser.pathway.ReactionComponent;
+import de.zbit.kegg.parser.pathway.ReactionType;
+import de.zbit.kegg.parser.pathway.Relation;
+import de.zbit.kegg.parser.pathway.RelationType;
+import de.zbit.kegg.parser.pathway.SubType;
+import de.zbit.kegg.parser.pathway.ext.EntryExtended;
+import de.zbit.kegg.parser.pathway.ext.EntryTypeExtended;
+import de.zbit.util.DatabaseIdentifiers.IdentifierDatabases;
+
+/**
+ * Cache for {@link Pathway}s after preprocessing (i.e., after fetching
+ * KEGG annotations, auto-completing reactions, removing white nodes,
+ * orphans and pathway references).
+ *
+ * <p>Entries are content-addressed: the key is a hash of the pathway
+ * as parsed from KGML, combined with a fingerprint of all options that
+ * influence the preprocessing. Hence, translating the same KGML
+ * into another output format or with changed format-only options
+ * skips the whole preprocessing.
+ *
+ * <p>{@link Pathway} is not {@link java.io.Serializable}, so pathways
+ * are stored in a compact, gzipped binary form and every {@link #get(String)}
+ * decodes a fresh copy that may be modified by the caller. The cache
+ * can be written to and read from the filesystem, just like the
+ * {@link de.zbit.kegg.api.cache.KeggInfoManagement} cache.
+ *
+ * <p>All methods are thread-safe.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class PreprocessedPathwayCache {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(PreprocessedPathwayCache.class.getName());
+
+  /**
+   * Version of the binary format. Increment on every change to
+   * {@link #encode(Pathway, boolean)}, so that old cache files are dropped.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Maps keys to gzipped, encoded pathways. In access order, to allow
+   * removing the least recently used pathways.
+   */
+  private final LinkedHashMap<String, byte[]> cache;
+
+  /**
+   * Maximum number of pathways to keep.
+   */
+  private int maxSize;
+
+  /**
+   * True if the content changed since creation or the last time
+   * it has been loaded/saved.
+   */
+  private volatile boolean changed = false;
+
+  /**
+   * @param maxSize maximum number of pathways to keep in this cache.
+   */
+  public PreprocessedPathwayCache(int maxSize) {
+    super();
+    this.maxSize = maxSize;
+    cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Creates the cache key for the given, not yet preprocessed, pathway.
+   * @param p the pathway, as parsed from a KGML file.
+   * @param fingerprint a string that contains the values of all
+   * options that influence the preprocessing.
+   * @return a key for {@link #get(String)} and
+   * {@link #put(String, Pathway)} or {@code null} if the pathway
+   * could not be encoded.
+   */
+  public static String createKey(Pathway p, String fingerprint) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      md.update(encode(p, false));
+      md.update(fingerprint.getBytes("UTF-8"));
+      byte[] digest = md.digest();
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        key.append(Character.forDigit((b >> 4) & 0xF, 16));
+        key.append(Character.forDigit(b & 0xF, 16));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      log.log(Level.FINE, e.getMessage(), e);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.getMessage(), e);
+    }
+    return null;
+  }
+
+  /**
+   * @param key see {@link #createKey(Pathway, String)}.
+   * @return a new copy of the cached, preprocessed pathway or
+   * {@code null} if there is none for the given key.
+   */
+  public Pathway get(String key) {
+    if (key == null) {
+      return null;
+    }
+    byte[] data;
+    synchronized (cache) {
+      data = cache.get(key);
+    }
+    if (data == null) {
+      return null;
+    }
+    try {
+      return decode(data);
+    } catch (IOException e) {
+      log.log(Level.WARNING, MessageFormat.format("Dropping invalid cached pathway {0}.", key), e);
+      synchronized (cache) {
+        cache.remove(key);
+        changed = true;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Stores the given, preprocessed, pathway. The pathway is encoded
+   * immediately, so later changes to {@code p} are not reflected
+   * by this cache.
+   * @param key see {@link #createKey(Pathway, String)}.
+   * @param p the preprocessed pathway.
+   */
+  public void put(String key, Pathway p) {
+    if (key == null || p == null) {
+      return;
+    }
+    byte[] data;
+    try {
+      data = encode(p, true);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.getMessage(), e);
+      return;
+    }
+    synchronized (cache) {
+      cache.put(key, data);
+      changed = true;
+      removeEldest();
+    }
+  }
+
+  /**
+   * Removes the least recently used pathways from the cache until
+   * its size is not larger than {@link #maxSize}.
+   * Must be called while holding the lock on {@link #cache}.
+   */
+  private void removeEldest() {
+    Iterator<String> it = cache.keySet().iterator();
+    while (cache.size() > maxSize && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * @return number of pathways in this cache.
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Removes all pathways from this cache.
+   */
+  public void clear() {
+    synchronized (cache) {
+      changed |= cache.size() > 0;
+      cache.clear();
+    }
+  }
+
+  /**
+   * @param maxSize maximum number of pathways to keep in this cache.
+   */
+  public void setCacheSize(int maxSize) {
+    synchronized (cache) {
+      this.maxSize = maxSize;
+      removeEldest();
+    }
+  }
+
+  /**
+   * @return true if the content has changed since the last
+   * time it has been loaded or saved.
+   */
+  public boolean hasChanged() {
+    return changed;
+  }
+
+  /**
+   * Saves the given cache to the filesystem.
+   * @param fileName
+   * @param c
+   * @return true if the file has been written.
+   */
+  public static boolean saveToFilesystem(String fileName, PreprocessedPathwayCache c) {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+      synchronized (c.cache) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(c.maxSize);
+        out.writeInt(c.cache.size());
+        for (Map.Entry<String, byte[]> e : c.cache.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeInt(e.getValue().length);
+          out.write(e.getValue());
+        }
+        c.changed = false;
+      }
+      return true;
+    } catch (IOException e) {
+      log.log(Level.WARNING, MessageFormat.format("Could not save pathway cache to {0}.", fileName), e);
+      return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads a cache from the filesystem.
+   * @param fileName
+   * @return the cache
+   * @throws IOException if the file is not readable or has been
+   * written by an incompatible version.
+   */
+  public static PreprocessedPathwayCache loadFromFilesystem(String fileName) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+    try {
+      if (in.readInt() != FORMAT_VERSION) {
+        throw new IOException(MessageFormat.format("Incompatible pathway cache file {0}.", fileName));
+      }
+      PreprocessedPathwayCache c = new PreprocessedPathwayCache(in.readInt());
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String key = in.readUTF();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        c.cache.put(key, data);
+      }
+      return c;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param file
+   * @return true if the given file exists and is not empty.
+   */
+  public static boolean isValidFile(File file) {
+    return file.exists() && file.isFile() && file.length() > 1;
+  }
+
+
+  /*===========================
+   * ENCODING
+   * ===========================*/
+
+  /**
+   * Encodes everything the translators read from a {@link Pathway}.
+   * Custom objects ({@link Entry#getCustom()}) are not encoded, because
+   * they are only set during translation.
+   * @param p
+   * @param compress if true, the result is gzipped.
+   * @return the encoded pathway.
+   * @throws IOException
+   */
+  static byte[] encode(Pathway p, boolean compress) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+    DataOutputStream out = new DataOutputStream(compress ? new GZIPOutputStream(bytes) : bytes);
+
+    writeString(out, p.getName());
+    writeString(out, p.getOrg());
+    out.writeInt(p.getNumber());
+    writeString(out, p.getTitle());
+    writeString(out, p.getImage());
+    writeString(out, p.getLink());
+    writeString(out, p.getComment());
+    writeString(out, p.getOriginFormatName());
+    out.writeDouble(p.getVersion());
+    writeString(out, p.getAdditionalText());
+    writeIdentifiers(out, p.isSetDatabaseIdentifiers() ? p.getDatabaseIdentifiers() : null);
+
+    List<Entry> entries = p.getEntries();
+    out.writeInt(entries.size());
+    for (Entry e : entries) {
+      writeEntry(out, e);
+    }
+
+    List<Reaction> reactions = p.getReactions();
+    out.writeInt(reactions.size());
+    for (Reaction r : reactions) {
+      Integer id = getReactionId(r);
+      out.writeInt(id != null ? id.intValue() : Integer.MIN_VALUE);
+      writeString(out, r.getName());
+      writeEnum(out, r.getType());
+      writeComponents(out, r.getSubstrates());
+      writeComponents(out, r.getProducts());
+      writeIdentifiers(out, r.isSetDatabaseIdentifiers() ? r.getDatabaseIdentifiers() : null);
+    }
+
+    List<Relation> relations = p.getRelations();
+    out.writeInt(relations.size());
+    for (Relation r : relations) {
+      out.writeInt(r.getEntry1());
+      out.writeInt(r.getEntry2());
+      writeEnum(out, r.getType());
+      writeString(out, r.getSource());
+      List<SubType> subtypes = r.isSetSubTypes() ? r.getSubtypes() : null;
+      out.writeInt(subtypes == null ? 0 : subtypes.size());
+      if (subtypes != null) {
+        for (SubType st : subtypes) {
+          writeString(out, st.getName());
+          writeString(out, st.getValue());
+          writeString(out, st.getEdgeColor());
+        }
+      }
+      writeIdentifiers(out, r.isSetDatabaseIdentifiers() ? r.getDatabaseIdentifiers() : null);
+    }
+
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param out
+   * @param e
+   * @throws IOException
+   */
+  private static void writeEntry(DataOutputStream out, Entry e) throws IOException {
+    boolean extended = e instanceof EntryExtended;
+    out.writeBoolean(extended);
+    out.writeInt(e.getId());
+    writeString(out, e.getName());
+    writeEnum(out, e.getType());
+    writeString(out, e.getLink());
+    writeString(out, e.isSetReaction() ? e.getReactionString() : null);
+    out.writeInt(e.getParentNode() == null ? -1 : e.getParentNode().getId());
+
+    List<Integer> components = e.hasComponents() ? e.getComponents() : null;
+    out.writeInt(components == null ? 0 : components.size());
+    if (components != null) {
+      for (Integer c : components) {
+        out.writeInt(c.intValue());
+      }
+    }
+
+    List<Graphics> graphics = new ArrayList<Graphics>();
+    if (e.hasGraphics()) {
+      graphics.add(e.getGraphics());
+      if (e.hasMultipleGraphics()) {
+        graphics.addAll(e.getMoreGraphics());
+      }
+    }
+    out.writeInt(graphics.size());
+    for (Graphics g : graphics) {
+      writeString(out, g.getName());
+      out.writeInt(g.getX());
+      out.writeInt(g.getY());
+      writeEnum(out, g.getType());
+      out.writeInt(g.getWidth());
+      out.writeInt(g.getHeight());
+      writeString(out, g.getFgcolor());
+      writeString(out, g.getBgcolor());
+      Integer[] coords = g.isSetCoords() ? g.getCoords() : null;
+      out.writeInt(coords == null ? 0 : coords.length);
+      if (coords != null) {
+        for (Integer c : coords) {
+          out.writeInt(c.intValue());
+        }
+      }
+    }
+
+    if (extended) {
+      EntryExtended ex = (EntryExtended) e;
+      writeEnum(out, ex.isSetGeneType() ? ex.getGeneType() : null);
+      writeString(out, ex.getCompartment());
+      writeIdentifiers(out, ex.isSetDatabaseIdentifiers() ? ex.getDatabaseIdentifiers() : null);
+    }
+  }
+
+  /**
+   * Writes substrates or products of a reaction (including alternatives).
+   * @param out
+   * @param components
+   * @throws IOException
+   */
+  private static void writeComponents(DataOutputStream out, List<ReactionComponent> components) throws IOException {
+    out.writeInt(components == null ? 0 : components.size());
+    if (components != null) {
+      for (ReactionComponent rc : components) {
+        writeComponent(out, rc);
+      }
+    }
+  }
+
+  /**
+   * @param r
+   * @return the id of {@code r} or {@code null} for reactions without
+   * an id (e.g., from KGML files before version 0.7.1).
+   */
+  private static Integer getReactionId(Reaction r) {
+    // Reaction#getId() fails for reactions without an id, but the KGML
+    // attributes only contain ids that are set.
+    String id = r.getKGMLAttributes().get("id");
+    return (id != null) ? Integer.valueOf(id) : null;
+  }
+
+  /**
+   * @param out
+   * @param rc
+   * @throws IOException
+   */
+  private static void writeComponent(DataOutputStream out, ReactionComponent rc) throws IOException {
+    out.writeInt(rc.isSetID() ? rc.getId().intValue() : Integer.MIN_VALUE);
+    writeString(out, rc.getName());
+    out.writeInt(rc.isSetStoichiometry() ? rc.getStoichiometry().intValue() : Integer.MIN_VALUE);
+    out.writeBoolean(rc.isSetAlt());
+    if (rc.isSetAlt()) {
+      writeComponent(out, rc.getAlt());
+    }
+  }
+
+  /**
+   * @param out
+   * @param ids may be {@code null}.
+   * @throws IOException
+   */
+  private static void writeIdentifiers(DataOutputStream out, Map<IdentifierDatabases, Collection<String>> ids) throws IOException {
+    out.writeInt(ids == null ? 0 : ids.size());
+    if (ids != null) {
+      for (Map.Entry<IdentifierDatabases, Collection<String>> e : ids.entrySet()) {
+        writeEnum(out, e.getKey());
+        out.writeInt(e.getValue().size());
+        for (String id : e.getValue()) {
+          writeString(out, id);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param out
+   * @param e may be {@code null}.
+   * @throws IOException
+   */
+  private static void writeEnum(DataOutputStream out, Enum<?> e) throws IOException {
+    writeString(out, e == null ? null : e.name());
+  }
+
+  /**
+   * Other than {@link DataOutputStream#writeUTF(String)}, this
+   * supports {@code null} and strings of any length.
+   * @param out
+   * @param s may be {@code null}.
+   * @throws IOException
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] b = s.getBytes("UTF-8");
+      out.writeInt(b.length);
+      out.write(b);
+    }
+  }
+
+
+  /*===========================
+   * DECODING
+   * ===========================*/
+
+  /**
+   * Inverse of {@link #encode(Pathway, boolean)} for compressed data.
+   * @param data
+   * @return a new {@link Pathway}.
+   * @throws IOException
+   */
+  static Pathway decode(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+    try {
+      Pathway p = new Pathway(readString(in), readString(in), in.readInt(),
+        readString(in), readString(in), readString(in));
+      p.setComment(readString(in));
+      p.setOriginFormatName(readString(in));
+      p.setVersion(in.readDouble());
+      p.setAdditionalText(readString(in));
+      Map<IdentifierDatabases, Collection<String>> ids = readIdentifiers(in);
+      if (ids != null) {
+        p.addDatabaseIdentifiers(ids);
+      }
+
+      int size = in.readInt();
+      int[] parents = new int[size];
+      for (int i = 0; i < size; i++) {
+        parents[i] = readEntry(in, p);
+      }
+      // Parents can only be resolved after all entries are known
+      List<Entry> entries = p.getEntries();
+      for (int i = 0; i < size; i++) {
+        if (parents[i] >= 0) {
+          entries.get(i).setParentNode(p.getEntryForId(parents[i]));
+        }
+      }
+
+      size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        int id = in.readInt();
+        String name = readString(in);
+        ReactionType type = readEnum(in, ReactionType.class);
+        Reaction r = (id == Integer.MIN_VALUE) ? new Reaction(p, name, type) : new Reaction(p, Integer.valueOf(id), name, type);
+        p.addReaction(r);
+        int n = in.readInt();
+        for (int j = 0; j < n; j++) {
+          r.addSubstrate(readComponent(in));
+        }
+        n = in.readInt();
+        for (int j = 0; j < n; j++) {
+          r.addProduct(readComponent(in));
+        }
+        ids = readIdentifiers(in);
+        if (ids != null) {
+          r.addDatabaseIdentifiers(ids);
+        }
+      }
+
+      size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        Relation r = new Relation(in.readInt(), in.readInt(), readEnum(in, RelationType.class));
+        r.setSource(readString(in));
+        int n = in.readInt();
+        for (int j = 0; j < n; j++) {
+          SubType st = new SubType(readString(in), readString(in));
+          String edgeColor = readString(in);
+          if (edgeColor != null) {
+            st.setEdgeColor(edgeColor);
+          }
+          r.addSubtype(st);
+        }
+        ids = readIdentifiers(in);
+        if (ids != null) {
+          r.addDatabaseIdentifiers(ids);
+        }
+        p.addRelation(r);
+      }
+
+      return p;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads an entry and adds it to the pathway.
+   * @param in
+   * @param p
+   * @return the id of the parent node or -1.
+   * @throws IOException
+   */
+  private static int readEntry(DataInputStream in, Pathway p) throws IOException {
+    boolean extended = in.readBoolean();
+    int id = in.readInt();
+    String name = readString(in);
+    EntryType type = readEnum(in, EntryType.class);
+    Entry e = extended ? new EntryExtended(p, id, name, type) : new Entry(p, id, name, type);
+    p.addEntry(e);
+
+    String link = readString(in);
+    if (link != null) {
+      e.setLink(link);
+    }
+    String reaction = readString(in);
+    if (reaction != null) {
+      e.setReaction(reaction);
+    }
+    int parent = in.readInt();
+
+    int n = in.readInt();
+    if (n > 0) {
+      List<Integer> components = new ArrayList<Integer>(n);
+      for (int i = 0; i < n; i++) {
+        components.add(Integer.valueOf(in.readInt()));
+      }
+      e.setComponents(components);
+    }
+
+    n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      Graphics g = new Graphics(readString(in), in.readInt(), in.readInt(),
+        readEnum(in, GraphicsType.class), in.readInt(), in.readInt(),
+        readString(in), readString(in), false);
+      int coords = in.readInt();
+      if (coords > 0) {
+        StringBuilder s = new StringBuilder();
+        for (int j = 0; j < coords; j++) {
+          if (j > 0) {
+            s.append(',');
+          }
+          s.append(in.readInt());
+        }
+        g.setCoordsString(s.toString());
+      }
+      e.addGraphics(g);
+    }
+
+    if (extended) {
+      EntryExtended ex = (EntryExtended) e;
+      EntryTypeExtended geneType = readEnum(in, EntryTypeExtended.class);
+      if (geneType != null) {
+        ex.setGeneType(geneType);
+      }
+      String compartment = readString(in);
+      if (compartment != null) {
+        ex.setCompartment(compartment);
+      }
+      Map<IdentifierDatabases, Collection<String>> ids = readIdentifiers(in);
+      if (ids != null) {
+        ex.addDatabaseIdentifiers(ids);
+      }
+    }
+
+    return parent;
+  }
+
+  /**
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  private static ReactionComponent readComponent(DataInputStream in) throws IOException {
+    int id = in.readInt();
+    String name = readString(in);
+    ReactionComponent rc = (id == Integer.MIN_VALUE) ? new ReactionComponent(name) : new ReactionComponent(Integer.valueOf(id), name);
+    int stoichiometry = in.readInt();
+    if (stoichiometry != Integer.MIN_VALUE) {
+      rc.setStoichiometry(Integer.valueOf(stoichiometry));
+    }
+    if (in.readBoolean()) {
+      rc.setAlt(readComponent(in));
+    }
+    return rc;
+  }
+
+  /**
+   * @param in
+   * @return the identifiers or {@code null} if there are none.
+   * @throws IOException
+   */
+  private static Map<IdentifierDatabases, Collection<String>> readIdentifiers(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n == 0) {
+      return null;
+    }
+    Map<IdentifierDatabases, Collection<String>> ids = new LinkedHashMap<IdentifierDatabases, Collection<String>>();
+    for (int i = 0; i < n; i++) {
+      IdentifierDatabases db = readEnum(in, IdentifierDatabases.class);
+      int m = in.readInt();
+      Collection<String> values = new ArrayList<String>(m);
+      for (int j = 0; j < m; j++) {
+        values.add(readString(in));
+      }
+      ids.put(db, values);
+    }
+    return ids;
+  }
+
+  /**
+   * @param in
+   * @param enumType
+   * @return the constant or {@code null}.
+   * @throws IOException
+   */
+  private static <T extends Enum<T>> T readEnum(DataInputStream in, Class<T> enumType) throws IOException {
+    String name = readString(in);
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(enumType, name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(MessageFormat.format("Unknown constant {0} for {1}.", name, enumType.getSimpleName()));
+    }
+  }
+
+  /**
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] b = new byte[length];
+    in.readFully(b);
+    return new String(b, "UTF-8");
+  }
+
+}
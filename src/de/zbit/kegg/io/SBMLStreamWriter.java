@@ -0,0 +1,599 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.tree.TreeNode;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.sbml.jsbml.CVTerm;
+import org.sbml.jsbml.Creator;
+import org.sbml.jsbml.History;
+import org.sbml.jsbml.JSBML;
+import org.sbml.jsbml.ListOf;
+import org.sbml.jsbml.MathContainer;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBase;
+import org.sbml.jsbml.xml.XMLNode;
+
+/**
+ * Writes SBML elements one after another to an {@link XMLStreamWriter},
+ * instead of serializing a complete {@link SBMLDocument} at once. This
+ * allows to write each species and reaction as soon as it has been
+ * created and to drop it from memory afterwards.
+ *
+ * <p>Usage: {@link #writeStartModel(Model)}, then
+ * {@link #writeListElement(String, SBase)} for all elements (grouped by
+ * list, in the order required by SBML), then {@link #writeEndModel()}
+ * and {@link #close()}.
+ *
+ * <p>Supported are the SBML core elements including math, attributes of
+ * packages (as provided by {@link SBase#writeXMLAttributes()}), notes,
+ * annotations (MIRIAM, model history and any other annotation XML).
+ * Child elements of packages (e.g., layout or groups) are not written.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class SBMLStreamWriter {
+
+  private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+  private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+  private static final String DCTERMS_NS = "http://purl.org/dc/terms/";
+  private static final String VCARD_NS = "http://www.w3.org/2001/vcard-rdf/3.0#";
+  private static final String BQBIOL_NS = "http://biomodels.net/biology-qualifiers/";
+  private static final String BQMODEL_NS = "http://biomodels.net/model-qualifiers/";
+
+  /**
+   * Target writer.
+   */
+  private final XMLStreamWriter writer;
+
+  /**
+   * Document whose level, version and namespaces are used.
+   */
+  private final SBMLDocument doc;
+
+  /**
+   * Namespace of the SBML core.
+   */
+  private final String sbmlNS;
+
+  /**
+   * Maps prefixes of package namespaces to their URI.
+   */
+  private final Map<String, String> prefixes = new HashMap<String, String>();
+
+  /**
+   * Name of the currently open list or {@code null}.
+   */
+  private String openList = null;
+
+  /**
+   * Current depth for indentation.
+   */
+  private int depth = 0;
+
+  /**
+   * Indent elements according to their depth?
+   */
+  private boolean indent = true;
+
+  /**
+   * @param out target stream. Not closed by this class.
+   * @param doc document that defines level, version and package
+   * namespaces. Its content is not written.
+   * @throws XMLStreamException
+   */
+  public SBMLStreamWriter(OutputStream out, SBMLDocument doc) throws XMLStreamException {
+    super();
+    this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+    this.doc = doc;
+    this.sbmlNS = JSBML.getNamespaceFrom(doc.getLevel(), doc.getVersion());
+    for (Map.Entry<String, String> ns : doc.getDeclaredNamespaces().entrySet()) {
+      if (ns.getKey().startsWith("xmlns:")) {
+        prefixes.put(ns.getKey().substring(6), ns.getValue());
+      }
+    }
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * @param indent if false, elements are only separated by line breaks,
+   * without indentation (default: true).
+   */
+  public void setIndent(boolean indent) {
+    this.indent = indent;
+  }
+
+  /**
+   * Writes the XML declaration, the {@code sbml} element and the start
+   * of the model, including its notes and annotation.
+   * @param model
+   * @throws XMLStreamException
+   */
+  public void writeStartModel(Model model) throws XMLStreamException {
+    writer.writeStartDocument("UTF-8", "1.0");
+    String appName = System.getProperty("app.name");
+    if (appName != null) {
+      String version = System.getProperty("app.version");
+      writer.writeCharacters("\n");
+      writer.writeComment(String.format(" Created by %s%s on %s ", appName,
+        version != null ? " version " + version : "",
+        new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date())));
+    }
+
+    newLine();
+    writer.setDefaultNamespace(sbmlNS);
+    writer.writeStartElement("", doc.getElementName(), sbmlNS);
+    writer.writeDefaultNamespace(sbmlNS);
+    writeAttributes(doc.writeXMLAttributes());
+    depth++;
+
+    newLine();
+    writer.writeStartElement(sbmlNS, model.getElementName());
+    writeAttributes(model.writeXMLAttributes());
+    depth++;
+    writeNotesAndAnnotation(model);
+  }
+
+  /**
+   * Writes {@code element}, including all its children, to the list
+   * with the given name. Opens a new list (and closes the previous one)
+   * if required. Only elements of the same list must be written in a row.
+   * @param listName e.g., "listOfSpecies".
+   * @param element
+   * @throws XMLStreamException
+   */
+  public void writeListElement(String listName, SBase element) throws XMLStreamException {
+    if ((openList == null) || !openList.equals(listName)) {
+      closeList();
+      newLine();
+      writer.writeStartElement(sbmlNS, listName);
+      depth++;
+      openList = listName;
+    }
+    writeElement(element);
+  }
+
+  /**
+   * Closes the currently open list, if any.
+   * @throws XMLStreamException
+   */
+  public void closeList() throws XMLStreamException {
+    if (openList != null) {
+      depth--;
+      newLine();
+      writer.writeEndElement();
+      openList = null;
+    }
+  }
+
+  /**
+   * Closes the model and the {@code sbml} element.
+   * @throws XMLStreamException
+   */
+  public void writeEndModel() throws XMLStreamException {
+    closeList();
+    depth--;
+    newLine();
+    writer.writeEndElement(); // model
+    depth--;
+    newLine();
+    writer.writeEndElement(); // sbml
+    newLine();
+    writer.writeEndDocument();
+    writer.flush();
+  }
+
+  /**
+   * Frees all resources of the underlying {@link XMLStreamWriter}.
+   * @throws XMLStreamException
+   */
+  public void close() throws XMLStreamException {
+    writer.close();
+  }
+
+  /**
+   * Writes the given element with all attributes, notes, annotation
+   * and child elements.
+   * @param element
+   * @throws XMLStreamException
+   */
+  private void writeElement(SBase element) throws XMLStreamException {
+    newLine();
+    writer.writeStartElement(sbmlNS, element.getElementName());
+    writeAttributes(element.writeXMLAttributes());
+    depth++;
+    boolean hasContent = writeNotesAndAnnotation(element);
+    if ((element instanceof MathContainer) && ((MathContainer) element).isSetMath()) {
+      newLine();
+      writeXMLNode(XMLNode.convertStringToXMLNode(((MathContainer) element).getMathMLString()));
+      hasContent = true;
+    }
+
+    // Child elements (e.g., listOfReactants of reactions)
+    for (int i = 0; i < element.getChildCount(); i++) {
+      TreeNode child = element.getChildAt(i);
+      if (child instanceof ListOf<?>) {
+        ListOf<?> list = (ListOf<?>) child;
+        if (list.size() == 0) {
+          continue;
+        }
+        newLine();
+        writer.writeStartElement(sbmlNS, list.getElementName());
+        depth++;
+        for (SBase item : list) {
+          writeElement(item);
+        }
+        depth--;
+        newLine();
+        writer.writeEndElement();
+        hasContent = true;
+      } else if ((child instanceof SBase) && (((SBase) child).getParent() == element)) {
+        writeElement((SBase) child);
+        hasContent = true;
+      }
+    }
+
+    depth--;
+    if (hasContent) {
+      newLine();
+    }
+    writer.writeEndElement();
+  }
+
+  /**
+   * @param attributes as returned by {@link SBase#writeXMLAttributes()}.
+   * @throws XMLStreamException
+   */
+  private void writeAttributes(Map<String, String> attributes) throws XMLStreamException {
+    for (Map.Entry<String, String> attr : attributes.entrySet()) {
+      String name = attr.getKey();
+      int pos = name.indexOf(':');
+      if (pos < 0) {
+        writer.writeAttribute(name, attr.getValue());
+      } else if (name.startsWith("xmlns:")) {
+        writer.writeNamespace(name.substring(pos + 1), attr.getValue());
+      } else {
+        String prefix = name.substring(0, pos);
+        String uri = prefixes.get(prefix);
+        if (uri == null) {
+          // Prefix has not been declared on the document.
+          continue;
+        }
+        writer.writeAttribute(prefix, uri, name.substring(pos + 1), attr.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param sbase
+   * @return true if anything has been written.
+   * @throws XMLStreamException
+   */
+  private boolean writeNotesAndAnnotation(SBase sbase) throws XMLStreamException {
+    boolean written = false;
+    if (sbase.isSetNotes()) {
+      newLine();
+      writeXMLNode(sbase.getNotes());
+      written = true;
+    }
+    boolean hasHistory = sbase.isSetHistory() && !sbase.getHistory().isEmpty();
+    boolean hasRDF = sbase.isSetMetaId() && (hasHistory || (sbase.getCVTermCount() > 0));
+    XMLNode other = null;
+    if (sbase.isSetAnnotation() && sbase.getAnnotation().isSetNonRDFannotation()) {
+      other = sbase.getAnnotation().getNonRDFannotation();
+    }
+    if (hasRDF || (other != null)) {
+      newLine();
+      writer.writeStartElement(sbmlNS, "annotation");
+      depth++;
+      if (other != null) {
+        writeNonRDFAnnotation(other);
+      }
+      if (hasRDF) {
+        writeRDFAnnotation(sbase, hasHistory);
+      }
+      depth--;
+      newLine();
+      writer.writeEndElement();
+      written = true;
+    }
+    return written;
+  }
+
+  /**
+   * Writes the given XML tree (e.g., notes) without changing any
+   * whitespace.
+   * @param node
+   * @throws XMLStreamException
+   */
+  private void writeXMLNode(XMLNode node) throws XMLStreamException {
+    if (node.isText()) {
+      writer.writeCharacters(node.getCharacters());
+      return;
+    }
+    if (!node.isElement()) {
+      return;
+    }
+
+    String prefix = node.getPrefix() == null ? "" : node.getPrefix();
+    String uri = node.getURI();
+    if ((uri == null) || (uri.length() == 0)) {
+      uri = sbmlNS; // e.g., the "notes" element itself.
+    }
+    if (node.getChildCount() == 0) {
+      writer.writeEmptyElement(prefix, node.getName(), uri);
+    } else {
+      writer.writeStartElement(prefix, node.getName(), uri);
+    }
+    for (int i = 0; i < node.getNamespacesLength(); i++) {
+      String nsPrefix = node.getNamespacePrefix(i);
+      if ((nsPrefix == null) || (nsPrefix.length() == 0)) {
+        writer.writeDefaultNamespace(node.getNamespaceURI(i));
+      } else {
+        writer.writeNamespace(nsPrefix, node.getNamespaceURI(i));
+      }
+    }
+    for (int i = 0; i < node.getAttributesLength(); i++) {
+      String attrPrefix = node.getAttrPrefix(i);
+      if ((attrPrefix == null) || (attrPrefix.length() == 0)) {
+        writer.writeAttribute(node.getAttrName(i), node.getAttrValue(i));
+      } else {
+        writer.writeAttribute(attrPrefix, node.getAttrURI(i), node.getAttrName(i), node.getAttrValue(i));
+      }
+    }
+    if (node.getChildCount() > 0) {
+      for (int i = 0; i < node.getChildCount(); i++) {
+        writeXMLNode(node.getChildAt(i));
+      }
+      writer.writeEndElement();
+    }
+  }
+
+  /**
+   * Writes all annotation XML except for the RDF annotation.
+   * @param node the non-RDF annotation, either the {@code annotation}
+   * element itself or its content.
+   * @throws XMLStreamException
+   */
+  private void writeNonRDFAnnotation(XMLNode node) throws XMLStreamException {
+    if (!node.isElement() || !node.getName().equals("annotation")) {
+      writeXMLNode(node);
+      return;
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      XMLNode child = node.getChildAt(i);
+      if (child.isElement()) {
+        newLine();
+        writeXMLNode(child);
+      }
+    }
+  }
+
+  /**
+   * Writes the model history and all {@link CVTerm}s as RDF annotation
+   * (the content of the {@code annotation} element).
+   * @param sbase
+   * @param hasHistory
+   * @throws XMLStreamException
+   */
+  private void writeRDFAnnotation(SBase sbase, boolean hasHistory) throws XMLStreamException {
+    boolean bqbiol = false, bqmodel = false;
+    for (CVTerm term : sbase.getCVTerms()) {
+      bqbiol |= term.isBiologicalQualifier();
+      bqmodel |= term.isModelQualifier();
+    }
+    History history = hasHistory ? sbase.getHistory() : null;
+
+    newLine();
+    writer.writeStartElement("rdf", "RDF", RDF_NS);
+    writer.writeNamespace("rdf", RDF_NS);
+    if (history != null) {
+      writer.writeNamespace("dc", DC_NS);
+      writer.writeNamespace("dcterms", DCTERMS_NS);
+      writer.writeNamespace("vCard", VCARD_NS);
+    }
+    if (bqbiol) {
+      writer.writeNamespace("bqbiol", BQBIOL_NS);
+    }
+    if (bqmodel) {
+      writer.writeNamespace("bqmodel", BQMODEL_NS);
+    }
+    depth++;
+    newLine();
+    writer.writeStartElement("rdf", "Description", RDF_NS);
+    writer.writeAttribute("rdf", RDF_NS, "about", "#" + sbase.getMetaId());
+    depth++;
+
+    if (history != null) {
+      writeHistory(history);
+    }
+
+    for (CVTerm term : sbase.getCVTerms()) {
+      if ((term.getResourceCount() == 0) || !term.isSetQualifier()) {
+        continue;
+      }
+      newLine();
+      if (term.isBiologicalQualifier()) {
+        writer.writeStartElement("bqbiol", term.getQualifier().getElementNameEquivalent(), BQBIOL_NS);
+      } else {
+        writer.writeStartElement("bqmodel", term.getQualifier().getElementNameEquivalent(), BQMODEL_NS);
+      }
+      depth++;
+      writeBag(term.getResources());
+      depth--;
+      newLine();
+      writer.writeEndElement();
+    }
+
+    depth--;
+    newLine();
+    writer.writeEndElement(); // Description
+    depth--;
+    newLine();
+    writer.writeEndElement(); // RDF
+  }
+
+  /**
+   * @param resources
+   * @throws XMLStreamException
+   */
+  private void writeBag(List<String> resources) throws XMLStreamException {
+    newLine();
+    writer.writeStartElement("rdf", "Bag", RDF_NS);
+    depth++;
+    for (String resource : resources) {
+      newLine();
+      writer.writeEmptyElement("rdf", "li", RDF_NS);
+      writer.writeAttribute("rdf", RDF_NS, "resource", resource);
+    }
+    depth--;
+    newLine();
+    writer.writeEndElement();
+  }
+
+  /**
+   * @param history
+   * @throws XMLStreamException
+   */
+  private void writeHistory(History history) throws XMLStreamException {
+    if (history.getCreatorCount() > 0) {
+      newLine();
+      writer.writeStartElement("dc", "creator", DC_NS);
+      depth++;
+      newLine();
+      writer.writeStartElement("rdf", "Bag", RDF_NS);
+      depth++;
+      for (Creator creator : history.getListOfCreators()) {
+        newLine();
+        writer.writeStartElement("rdf", "li", RDF_NS);
+        writer.writeAttribute("rdf", RDF_NS, "parseType", "Resource");
+        depth++;
+        if (creator.isSetFamilyName() || creator.isSetGivenName()) {
+          newLine();
+          writer.writeStartElement("vCard", "N", VCARD_NS);
+          writer.writeAttribute("rdf", RDF_NS, "parseType", "Resource");
+          depth++;
+          writeTextElement("vCard", "Family", VCARD_NS, creator.getFamilyName());
+          writeTextElement("vCard", "Given", VCARD_NS, creator.getGivenName());
+          depth--;
+          newLine();
+          writer.writeEndElement();
+        }
+        writeTextElement("vCard", "EMAIL", VCARD_NS, creator.getEmail());
+        if (creator.isSetOrganisation()) {
+          newLine();
+          writer.writeStartElement("vCard", "ORG", VCARD_NS);
+          writer.writeAttribute("rdf", RDF_NS, "parseType", "Resource");
+          depth++;
+          writeTextElement("vCard", "Orgname", VCARD_NS, creator.getOrganisation());
+          depth--;
+          newLine();
+          writer.writeEndElement();
+        }
+        depth--;
+        newLine();
+        writer.writeEndElement(); // li
+      }
+      depth--;
+      newLine();
+      writer.writeEndElement(); // Bag
+      depth--;
+      newLine();
+      writer.writeEndElement(); // creator
+    }
+
+    if (history.isSetCreatedDate()) {
+      writeDate("created", history.getCreatedDate());
+    }
+    for (Date modified : history.getListOfModifiedDates()) {
+      writeDate("modified", modified);
+    }
+  }
+
+  /**
+   * Writes a W3CDTF date.
+   * @param element "created" or "modified".
+   * @param date
+   * @throws XMLStreamException
+   */
+  private void writeDate(String element, Date date) throws XMLStreamException {
+    String w3c = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(date);
+    // Java 6 has no ISO 8601 time zones => insert colon (+0100 => +01:00)
+    w3c = w3c.substring(0, w3c.length() - 2) + ':' + w3c.substring(w3c.length() - 2);
+    newLine();
+    writer.writeStartElement("dcterms", element, DCTERMS_NS);
+    writer.writeAttribute("rdf", RDF_NS, "parseType", "Resource");
+    depth++;
+    writeTextElement("dcterms", "W3CDTF", DCTERMS_NS, w3c);
+    depth--;
+    newLine();
+    writer.writeEndElement();
+  }
+
+  /**
+   * Writes an element with text content, if {@code text} is not {@code null}.
+   * @throws XMLStreamException
+   */
+  private void writeTextElement(String prefix, String name, String uri, String text) throws XMLStreamException {
+    if ((text == null) || (text.length() == 0)) {
+      return;
+    }
+    newLine();
+    writer.writeStartElement(prefix, name, uri);
+    writer.writeCharacters(text);
+    writer.writeEndElement();
+  }
+
+  /**
+   * Writes a line break and indentation according to {@link #depth}.
+   * @throws XMLStreamException
+   */
+  private void newLine() throws XMLStreamException {
+    if (!indent) {
+      writer.writeCharacters("\n");
+      return;
+    }
+    StringBuilder sb = new StringBuilder(depth * 2 + 1);
+    sb.append('\n');
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+    writer.writeCharacters(sb.toString());
+  }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import de.zbit.kegg.KEGGtranslatorOptions;
+import de.zbit.kegg.Translator;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.util.prefs.Option;
+import de.zbit.util.prefs.SBPreferences;
+import de.zbit.util.prefs.SBProperties;
+import de.zbit.util.progressbar.AbstractProgressBar;
+
+/**
+ * Immutable set of everything a single translation depends on: the
+ * {@link KeggInfoManagement} cache to use, a snapshot of all
+ * {@link KEGGtranslatorOptions}, the offline and path2models flags,
+ * the progress bar to report to, the {@link PreprocessedPathwayCache},
+ * the {@link EntryNameCache} and the {@link MiriamAnnotationCache}.
+ *
+ * <p>Instances are handed to
+ * {@link AbstractKEGGtranslator#translate(de.zbit.kegg.parser.pathway.Pathway, TranslationContext)}.
+ * Since nothing in here can change after construction, two translators
+ * in the same JVM may run with different settings. The objects a context
+ * refers to are shared, though. The pathway, name and annotation caches
+ * are thread-safe, but the {@link KeggInfoManagement} is not. Thus, a
+ * context may only be used by translations on different threads at the
+ * same time if each of them uses its own manager (see
+ * {@link #withManager(KeggInfoManagement)}) and its own translator.
+ * The {@code with*} methods return modified copies.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public final class TranslationContext {
+
+  /**
+   * The cache to retrieve KEGG information from.
+   */
+  private final KeggInfoManagement manager;
+
+  /**
+   * Private copy of all {@link KEGGtranslatorOptions} values.
+   */
+  private final SBProperties options;
+
+  /**
+   * If true, no additional information will be retrieved from KEGG.
+   */
+  private final boolean offlineMode;
+
+  /**
+   * Generate output for the path2models project.
+   */
+  private final boolean path2models;
+
+  /**
+   * Progress sink for this translation. May be {@code null}.
+   */
+  private final AbstractProgressBar progress;
+
+  /**
+   * Cache for preprocessed pathways. May be {@code null}.
+   */
+  private final PreprocessedPathwayCache pathwayCache;
+
+  /**
+   * Cache for names of entries. May be {@code null}.
+   */
+  private final EntryNameCache nameCache;
+
+  /**
+   * Cache for MIRIAM annotations. May be {@code null}.
+   */
+  private final MiriamAnnotationCache annotationCache;
+
+  /**
+   * @param manager the cache to retrieve KEGG information from.
+   * @param options values for all {@link KEGGtranslatorOptions}. The
+   * properties are copied, later changes to {@code options} are not
+   * reflected by this context.
+   * @param offlineMode if true, no information is queried from KEGG.
+   * @param path2models adjust the output for the path2models project.
+   * @param progress may be {@code null}.
+   */
+  public TranslationContext(KeggInfoManagement manager, SBProperties options,
+    boolean offlineMode, boolean path2models, AbstractProgressBar progress) {
+    this(manager, options, offlineMode, path2models, progress, null);
+  }
+
+  /**
+   * @param manager the cache to retrieve KEGG information from.
+   * @param options values for all {@link KEGGtranslatorOptions}.
+   * @param offlineMode if true, no information is queried from KEGG.
+   * @param path2models adjust the output for the path2models project.
+   * @param progress may be {@code null}.
+   * @param pathwayCache cache for preprocessed pathways. May be
+   * {@code null} to always preprocess pathways.
+   */
+  public TranslationContext(KeggInfoManagement manager, SBProperties options,
+    boolean offlineMode, boolean path2models, AbstractProgressBar progress,
+    PreprocessedPathwayCache pathwayCache) {
+    this(manager, options, offlineMode, path2models, progress, pathwayCache, null);
+  }
+
+  /**
+   * @param manager the cache to retrieve KEGG information from.
+   * @param options values for all {@link KEGGtranslatorOptions}.
+   * @param offlineMode if true, no information is queried from KEGG.
+   * @param path2models adjust the output for the path2models project.
+   * @param progress may be {@code null}.
+   * @param pathwayCache cache for preprocessed pathways. May be
+   * {@code null} to always preprocess pathways.
+   * @param nameCache cache for names of entries. May be {@code null}
+   * to always compute names.
+   */
+  public TranslationContext(KeggInfoManagement manager, SBProperties options,
+    boolean offlineMode, boolean path2models, AbstractProgressBar progress,
+    PreprocessedPathwayCache pathwayCache, EntryNameCache nameCache) {
+    this(manager, options, offlineMode, path2models, progress, pathwayCache, nameCache, null);
+  }
+
+  /**
+   * @param manager the cache to retrieve KEGG information from.
+   * @param options values for all {@link KEGGtranslatorOptions}.
+   * @param offlineMode if true, no information is queried from KEGG.
+   * @param path2models adjust the output for the path2models project.
+   * @param progress may be {@code null}.
+   * @param pathwayCache cache for preprocessed pathways. May be
+   * {@code null} to always preprocess pathways.
+   * @param nameCache cache for names of entries. May be {@code null}
+   * to always compute names.
+   * @param annotationCache cache for MIRIAM annotations. May be
+   * {@code null} to always create annotations.
+   */
+  public TranslationContext(KeggInfoManagement manager, SBProperties options,
+    boolean offlineMode, boolean path2models, AbstractProgressBar progress,
+    PreprocessedPathwayCache pathwayCache, EntryNameCache nameCache,
+    MiriamAnnotationCache annotationCache) {
+    super();
+    this.manager = manager;
+    this.options = (options == null) ? new SBProperties() : options.clone();
+    this.offlineMode = offlineMode;
+    this.path2models = path2models;
+    this.progress = progress;
+    this.pathwayCache = pathwayCache;
+    this.nameCache = nameCache;
+    this.annotationCache = annotationCache;
+  }
+
+  /**
+   * Creates a context from the current user preferences, i.e., takes
+   * a snapshot of {@link KEGGtranslatorOptions} as they are right now.
+   *
+   * @param manager the cache to use. If {@code null}, the application
+   * wide {@link Translator#getManager()} is used.
+   * @return a new context without progress bar.
+   */
+  public static TranslationContext fromPreferences(KeggInfoManagement manager) {
+    SBProperties options = SBPreferences.getPreferencesFor(KEGGtranslatorOptions.class).toProperties();
+    if (manager == null) {
+      manager = Translator.getManager();
+    }
+    return new TranslationContext(manager, options,
+      KEGGtranslatorOptions.OFFLINE_MODE.getValue(options), Translator.path2models, null,
+      Translator.getPathwayCache(), Translator.getEntryNameCache(),
+      Translator.getAnnotationCache());
+  }
+
+  /**
+   * @return the {@link KeggInfoManagement} to use for this translation.
+   */
+  public KeggInfoManagement getManager() {
+    return manager;
+  }
+
+  /**
+   * @param option any option, e.g., from {@link KEGGtranslatorOptions}.
+   * @return the value of this option in the snapshot (or its default value).
+   */
+  public <T> T getOption(Option<T> option) {
+    T value = option.getValue(options);
+    return (value == null) ? option.getDefaultValue() : value;
+  }
+
+  /**
+   * @return a copy of the option values of this context.
+   */
+  public SBProperties getOptions() {
+    return options.clone();
+  }
+
+  /**
+   * @return true if no information should be retrieved from KEGG.
+   */
+  public boolean isOfflineMode() {
+    return offlineMode;
+  }
+
+  /**
+   * @return true if the output should be adjusted for path2models.
+   * @see Translator#adjustForPath2Models()
+   */
+  public boolean isPath2Models() {
+    return path2models;
+  }
+
+  /**
+   * @return the progress bar for this translation or {@code null}.
+   */
+  public AbstractProgressBar getProgressBar() {
+    return progress;
+  }
+
+  /**
+   * @return the cache for preprocessed pathways or {@code null}.
+   */
+  public PreprocessedPathwayCache getPathwayCache() {
+    return pathwayCache;
+  }
+
+  /**
+   * @return the cache for names of entries or {@code null}.
+   */
+  public EntryNameCache getEntryNameCache() {
+    return nameCache;
+  }
+
+  /**
+   * @return the cache for MIRIAM annotations or {@code null}.
+   */
+  public MiriamAnnotationCache getAnnotationCache() {
+    return annotationCache;
+  }
+
+  /**
+   * @param option
+   * @param value
+   * @return a copy of this context, in which {@code option} is set to
+   * {@code value}.
+   */
+  public <T> TranslationContext withOption(Option<T> option, T value) {
+    SBProperties copy = options.clone();
+    copy.put(option, value);
+    return new TranslationContext(manager, copy, offlineMode, path2models, progress, pathwayCache, nameCache, annotationCache);
+  }
+
+  /**
+   * @param progressBar
+   * @return a copy of this context that reports to {@code progressBar}.
+   */
+  public TranslationContext withProgressBar(AbstractProgressBar progressBar) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progressBar, pathwayCache, nameCache, annotationCache);
+  }
+
+  /**
+   * @param manager
+   * @return a copy of this context that uses the given cache.
+   */
+  public TranslationContext withManager(KeggInfoManagement manager) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progress, pathwayCache, nameCache, annotationCache);
+  }
+
+  /**
+   * @param offlineMode
+   * @return a copy of this context that queries KEGG only if
+   * {@code offlineMode} is false.
+   */
+  public TranslationContext withOfflineMode(boolean offlineMode) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progress, pathwayCache, nameCache, annotationCache);
+  }
+
+  /**
+   * @param cache may be {@code null} to disable caching.
+   * @return a copy of this context that uses the given cache for
+   * preprocessed pathways.
+   */
+  public TranslationContext withPathwayCache(PreprocessedPathwayCache cache) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progress, cache, nameCache, annotationCache);
+  }
+
+  /**
+   * @param cache may be {@code null} to disable caching.
+   * @return a copy of this context that uses the given cache for
+   * names of entries.
+   */
+  public TranslationContext withEntryNameCache(EntryNameCache cache) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progress, pathwayCache, cache, annotationCache);
+  }
+
+  /**
+   * @param cache may be {@code null} to disable caching.
+   * @return a copy of this context that uses the given cache for
+   * MIRIAM annotations.
+   */
+  public TranslationContext withAnnotationCache(MiriamAnnotationCache cache) {
+    return new TranslationContext(manager, options, offlineMode, path2models, progress, pathwayCache, nameCache, cache);
+  }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.kegg.io;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assigns unique identifiers within one namespace (e.g., one SBML
+ * document or one BioPAX model). Used by all translators instead of
+ * probing "_1", "_2", ... against the set of used identifiers.
+ *
+ * <p>For every prefix, the next suffix to try is remembered. Since
+ * identifiers are never released, the result is exactly the same as
+ * with linear probing (the first free suffix), but each identifier is
+ * found in amortized constant time. The output only depends on the
+ * order of calls and is thus deterministic.
+ *
+ * <p>Names are sanitized in a reused buffer and no copy is made for
+ * names that already are valid identifiers.
+ *
+ * <p>Instances are not thread-safe. Use one per translation.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class UniqueIdAllocator {
+
+  /**
+   * Prefix for identifiers that are generated from an empty name or
+   * a name that doesn't start with a letter or underscore.
+   */
+  public static final String DEFAULT_PREFIX = "SId";
+
+  /**
+   * All identifiers that have been assigned (or reserved).
+   */
+  private final Set<String> used;
+
+  /**
+   * Next suffix to try for every prefix. Stored in an array to avoid
+   * boxing when counting up.
+   */
+  private final Map<String, int[]> nextSuffix;
+
+  /**
+   * Reused buffer to sanitize names and build identifiers.
+   */
+  private final StringBuilder buffer = new StringBuilder(64);
+
+  /**
+   * Creates an empty namespace.
+   */
+  public UniqueIdAllocator() {
+    this(64);
+  }
+
+  /**
+   * @param expectedSize expected number of identifiers.
+   */
+  public UniqueIdAllocator(int expectedSize) {
+    super();
+    used = new HashSet<String>(Math.max(16, expectedSize * 4 / 3 + 1));
+    nextSuffix = new HashMap<String, int[]>();
+  }
+
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Generates a valid SId from a given name. If the name already is a valid
+   * SId, the name is returned. If the SId already exists in this namespace,
+   * "_&lt;number>" will be appended and the next free number is being assigned.
+   * => See SBML L2V4 document for the Definition of SId. (Page 12/13)
+   *
+   * <p>letter = a-z,A-Z; digit = 0-9; idChar = (letter | digit | _ );
+   * SId = ( letter | _ ) idChar*
+   *
+   * @param name
+   * @return a new, unique SId.
+   */
+  public String toSId(String name) {
+    if (name == null || name.trim().length() == 0) {
+      return nextId(DEFAULT_PREFIX + '_', 1);
+    }
+    return makeUnique(sanitize(name.trim()), "_", 1);
+  }
+
+  /**
+   * Removes all characters that are not allowed in an SId.
+   * @param name trimmed, non-empty name.
+   * @return {@code name} itself, if it is a valid SId.
+   */
+  private String sanitize(String name) {
+    StringBuilder sb = buffer;
+    sb.setLength(0);
+    boolean changed = false;
+
+    // Must start with letter or '_'.
+    char c = name.charAt(0);
+    if (!(isLetter(c) || (c == '_'))) {
+      sb.append(DEFAULT_PREFIX).append('_');
+      changed = true;
+    } else {
+      sb.append(c);
+    }
+
+    // May contain letters, digits or '_'
+    for (int i = 1; i < name.length(); i++) {
+      c = name.charAt(i);
+      if (c == ' ') {
+        c = '_'; // Replace spaces with "_"
+        changed = true;
+      }
+
+      if (isLetter(c) || Character.isDigit(c) || (c == '_')) {
+        sb.append(c);
+      } else {
+        changed = true; // skip invalid characters
+      }
+    }
+
+    return changed ? sb.toString() : name;
+  }
+
+  /**
+   * Returns true if c is out of A-Z or a-z.
+   * @param c
+   * @return
+   */
+  private static boolean isLetter(char c) {
+    // Unfortunately Character.isLetter also accepts symbols that SBML doesn't.
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Returns {@code id} if it has not been used yet. Else, appends
+   * {@code separator} and the first free number, starting at
+   * {@code firstSuffix}. The returned identifier is marked as used.
+   * @param id
+   * @param separator put between {@code id} and the number.
+   * @param firstSuffix first number to try.
+   * @return a unique identifier.
+   */
+  public String makeUnique(String id, String separator, int firstSuffix) {
+    if (used.add(id)) {
+      return id;
+    }
+    return nextId(separator.length() == 0 ? id : id.concat(separator), firstSuffix);
+  }
+
+  /**
+   * Always appends a number to {@code prefix}, i.e., returns the first
+   * unused identifier out of prefix+firstSuffix, prefix+(firstSuffix+1), ...
+   * The returned identifier is marked as used.
+   * @param prefix
+   * @param firstSuffix
+   * @return a unique identifier.
+   */
+  public String nextId(String prefix, int firstSuffix) {
+    int[] counter = nextSuffix.get(prefix);
+    if (counter == null) {
+      counter = new int[] {firstSuffix};
+      nextSuffix.put(prefix, counter);
+    }
+
+    StringBuilder sb = buffer;
+    String id;
+    do {
+      sb.setLength(0);
+      sb.append(prefix).append(counter[0]++);
+      id = sb.toString();
+    } while (!used.add(id));
+
+    return id;
+  }
+
+  /**
+   * Marks the given identifier as used, e.g., because the target
+   * document already contains it.
+   * @param id
+   * @return true if the identifier has not been used before.
+   */
+  public boolean reserve(String id) {
+    return used.add(id);
+  }
+
+  /**
+   * @param id
+   * @return true if the identifier has already been used or reserved.
+   */
+  public boolean isUsed(String id) {
+    return used.contains(id);
+  }
+
+  /**
+   * @return number of used identifiers.
+   */
+  public int size() {
+    return used.size();
+  }
+
+  /**
+   * Forgets all identifiers and counters, such that this instance
+   * can be used for a new namespace.
+   */
+  public void clear() {
+    used.clear();
+    nextSuffix.clear();
+  }
+
+}
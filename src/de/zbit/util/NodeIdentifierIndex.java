@@ -0,0 +1,544 @@
+/*
+ * $Id$
+ * $URL$
+ * ---------------------------------------------------------------------
+ * This file is part of KEGGtranslator, a program to convert KGML files
+ * from the KEGG database into various other formats, e.g., SBML, GML,
+ * GraphML, and many more. Please visit the project homepage at
+ * <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * Copyright (C) 2010-2015 by the University of Tuebingen, Germany.
+ *
+ * KEGGtranslator is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation. A copy of the license
+ * agreement is provided in the file named "LICENSE.txt" included with
+ * this software distribution and also available online as
+ * <http://www.gnu.org/licenses/lgpl-3.0-standalone.html>.
+ * ---------------------------------------------------------------------
+ */
+package de.zbit.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import y.base.DataMap;
+import y.base.GraphEvent;
+import y.base.GraphListener;
+import y.base.Node;
+import y.view.Graph2D;
+import de.zbit.graph.io.def.GraphMLmaps;
+import de.zbit.kegg.parser.pathway.EntryType;
+
+/**
+ * An index from Entrez gene identifiers, microRNA names and referenced
+ * pathways to the nodes of a graph (see {@link TranslatorTools#getNodesForGeneID(int)}).
+ * There is one index for every graph (see {@link #getIndex(Graph2D)}), which
+ * is shared by all {@link TranslatorTools} of this graph.
+ *
+ * <p>Gene identifiers are kept in a hash table with primitive keys and
+ * arrays of nodes as values. The index listens to the graph: created
+ * nodes are indexed before the next query (because their identifiers are
+ * usually set after the creation) and removed nodes are dropped. Changes of
+ * identifiers must be announced with {@link #update(Node)}, which is done
+ * by {@link TranslatorTools#setInfo(Object, String, Object)}.</p>
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class NodeIdentifierIndex {
+
+  /**
+   * A {@link Logger} for this class.
+   */
+  private static final transient Logger log = Logger.getLogger(NodeIdentifierIndex.class.getName());
+
+  /**
+   * The index of every graph. Indices are only referenced weakly,
+   * because they reference their graph and are kept alive by the
+   * listener they registered at the graph.
+   */
+  private static final Map<Graph2D, WeakReference<NodeIdentifierIndex>> indices = new WeakHashMap<Graph2D, WeakReference<NodeIdentifierIndex>>();
+
+  /**
+   * Indexed identifiers of a single node, to remove them again.
+   */
+  private static class NodeKeys {
+    /**
+     * Entrez gene identifiers
+     */
+    int[] geneIDs;
+    /**
+     * Label of a microRNA node (upper case, trimmed) or {@code null}.
+     */
+    String rna;
+    /**
+     * Referenced pathway (lower case, trimmed) or {@code null}.
+     */
+    String pathway;
+  }
+
+  /**
+   * Keeps this index up to date.
+   */
+  private final GraphListener listener;
+
+  /**
+   * Maps with gene identifiers, node types, labels and KEGG identifiers.
+   */
+  private DataMap entrezMap, typeMap, labelMap, keggMap;
+
+  /**
+   * Keys of the hash table from gene identifiers to nodes.
+   */
+  private int[] keys = new int[16];
+
+  /**
+   * Nodes of every gene identifier in {@link #keys} or {@code null} for
+   * unused slots. Identifiers without nodes keep an empty array.
+   */
+  private Node[][] values = new Node[16][];
+
+  /**
+   * Number of used slots in {@link #keys}.
+   */
+  private int used = 0;
+
+  /**
+   * Nodes of all microRNA labels.
+   */
+  private final Map<String, Node[]> rnas = new HashMap<String, Node[]>();
+
+  /**
+   * Nodes of all referenced pathways.
+   */
+  private final Map<String, Node[]> pathways = new HashMap<String, Node[]>();
+
+  /**
+   * Indexed identifiers of every node.
+   */
+  private final Map<Node, NodeKeys> indexed = new HashMap<Node, NodeKeys>();
+
+  /**
+   * Nodes to (re-)index before the next query.
+   */
+  private final Set<Node> pending = new LinkedHashSet<Node>();
+
+  /**
+   * The indexed graph. Only used during (re-)indexing.
+   */
+  private Graph2D graph;
+
+  /**
+   * Use {@link #getIndex(Graph2D)}.
+   * @param graph
+   */
+  private NodeIdentifierIndex(Graph2D graph) {
+    super();
+    this.graph = graph;
+    listener = new GraphListener() {
+      @Override
+      public void onGraphEvent(GraphEvent e) {
+        graphChanged(e);
+      }
+    };
+    graph.addGraphListener(listener);
+  }
+
+  /**
+   * @param graph
+   * @return the index of {@code graph}, which is created if necessary.
+   * The index is empty until {@link #setMaps(DataMap, DataMap, DataMap, DataMap)}
+   * is called.
+   */
+  public static NodeIdentifierIndex getIndex(Graph2D graph) {
+    synchronized (indices) {
+      NodeIdentifierIndex index = getExistingIndex(graph);
+      if (index == null) {
+        index = new NodeIdentifierIndex(graph);
+        indices.put(graph, new WeakReference<NodeIdentifierIndex>(index));
+      }
+      return index;
+    }
+  }
+
+  /**
+   * @param graph
+   * @return the index of {@code graph} or {@code null} if none has
+   * been created.
+   */
+  public static NodeIdentifierIndex getExistingIndex(Graph2D graph) {
+    synchronized (indices) {
+      WeakReference<NodeIdentifierIndex> ref = indices.get(graph);
+      return (ref == null) ? null : ref.get();
+    }
+  }
+
+  /*===========================
+   * FUNCTIONS
+   * ===========================*/
+
+  /**
+   * Sets the maps to index. Re-indexes all nodes, if any map differs
+   * from the previous call.
+   * @param entrezMap map with Entrez gene identifiers ({@link GraphMLmaps#NODE_GENE_ID})
+   * @param typeMap map with node types ({@link GraphMLmaps#NODE_TYPE})
+   * @param labelMap map with all node labels ({@link GraphMLmaps#NODE_LABEL})
+   * @param keggMap map with KEGG identifiers ({@link GraphMLmaps#NODE_KEGG_ID})
+   */
+  public synchronized void setMaps(DataMap entrezMap, DataMap typeMap, DataMap labelMap, DataMap keggMap) {
+    if ((indexed.isEmpty() && pending.isEmpty()) || (this.entrezMap != entrezMap) ||
+        (this.typeMap != typeMap) || (this.labelMap != labelMap) || (this.keggMap != keggMap)) {
+      this.entrezMap = entrezMap;
+      this.typeMap = typeMap;
+      this.labelMap = labelMap;
+      this.keggMap = keggMap;
+      rebuild();
+    }
+  }
+
+  /**
+   * Re-indexes all nodes of the graph.
+   */
+  public synchronized void rebuild() {
+    keys = new int[16];
+    values = new Node[16][];
+    used = 0;
+    rnas.clear();
+    pathways.clear();
+    indexed.clear();
+    pending.clear();
+    for (Node n : graph.getNodeArray()) {
+      add(n);
+    }
+  }
+
+  /**
+   * Updates the index after the identifiers of {@code n} changed.
+   * @param n
+   */
+  public synchronized void update(Node n) {
+    pending.add(n);
+  }
+
+  /**
+   * Stops listening to the graph and forgets this index of the graph.
+   */
+  public synchronized void dispose() {
+    graph.removeGraphListener(listener);
+    synchronized (indices) {
+      if (getExistingIndex(graph) == this) {
+        indices.remove(graph);
+      }
+    }
+  }
+
+  /**
+   * @param e
+   */
+  private synchronized void graphChanged(GraphEvent e) {
+    Object data = e.getData();
+    switch (e.getType()) {
+      case GraphEvent.NODE_CREATION:
+      case GraphEvent.NODE_REINSERTION:
+      case GraphEvent.SUBGRAPH_INSERTION:
+        if (data instanceof Node) {
+          pending.add((Node) data);
+        } else if (data instanceof Iterable<?>) {
+          for (Object n : (Iterable<?>) data) {
+            if (n instanceof Node) {
+              pending.add((Node) n);
+            }
+          }
+        }
+        break;
+      case GraphEvent.POST_NODE_REMOVAL:
+      case GraphEvent.SUBGRAPH_REMOVAL:
+        if (data instanceof Node) {
+          remove((Node) data);
+        } else if (data instanceof Iterable<?>) {
+          for (Object n : (Iterable<?>) data) {
+            if (n instanceof Node) {
+              remove((Node) n);
+            }
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Indexes all {@link #pending} nodes.
+   */
+  private void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    for (Node n : pending) {
+      remove(n);
+      if (n.getGraph() == graph) {
+        add(n);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Indexes {@code n}.
+   * @param n
+   */
+  private void add(Node n) {
+    NodeKeys k = new NodeKeys();
+    Object ids = (entrezMap != null) ? entrezMap.get(n) : null;
+    k.geneIDs = (ids != null) ? parseGeneIDs(ids.toString()) : new int[0];
+    for (int id : k.geneIDs) {
+      int slot = getSlot(id, true);
+      values[slot] = append(values[slot], n);
+    }
+
+    Object type = (typeMap != null) ? typeMap.get(n) : null;
+    if (type != null) {
+      if (type.equals(TranslatorTools.RNA_TYPE)) {
+        Object label = (labelMap != null) ? labelMap.get(n) : null;
+        if (label != null) {
+          k.rna = label.toString().toUpperCase().trim();
+          rnas.put(k.rna, append(rnas.get(k.rna), n));
+        }
+      }
+      if (type.toString().equals(EntryType.map.toString()) || type.toString().equalsIgnoreCase("pathway")) {
+        Object label = (keggMap != null) ? keggMap.get(n) : null;
+        if (label != null) {
+          k.pathway = label.toString().toLowerCase().trim();
+          pathways.put(k.pathway, append(pathways.get(k.pathway), n));
+        }
+      }
+    }
+    indexed.put(n, k);
+  }
+
+  /**
+   * Removes {@code n} from the index.
+   * @param n
+   */
+  private void remove(Node n) {
+    NodeKeys k = indexed.remove(n);
+    if (k == null) {
+      return;
+    }
+    for (int id : k.geneIDs) {
+      int slot = getSlot(id, false);
+      if (slot >= 0) {
+        values[slot] = without(values[slot], n);
+      }
+    }
+    if (k.rna != null) {
+      Node[] nodes = without(rnas.get(k.rna), n);
+      if (nodes.length > 0) {
+        rnas.put(k.rna, nodes);
+      } else {
+        rnas.remove(k.rna);
+      }
+    }
+    if (k.pathway != null) {
+      Node[] nodes = without(pathways.get(k.pathway), n);
+      if (nodes.length > 0) {
+        pathways.put(k.pathway, nodes);
+      } else {
+        pathways.remove(k.pathway);
+      }
+    }
+  }
+
+  /**
+   * Parses comma or space separated gene identifiers (as stored in
+   * {@link GraphMLmaps#NODE_GENE_ID}).
+   * @param ids
+   * @return all valid identifiers.
+   */
+  private static int[] parseGeneIDs(String ids) {
+    int[] ret = new int[4];
+    int count = 0;
+    int start = 0;
+    for (int i = 0; i <= ids.length(); i++) {
+      if ((i == ids.length()) || (ids.charAt(i) == ',') || isWhitespace(ids.charAt(i))) {
+        if (i > start) {
+          String id = ids.substring(start, i);
+          try {
+            if (count == ret.length) {
+              ret = Arrays.copyOf(ret, count * 2);
+            }
+            ret[count] = Integer.parseInt(id);
+            count++;
+          } catch (NumberFormatException e) {
+            // NOTE: Negative values here are references to HMDB Compound IDs (use Compound mapping and multiply -1).
+            log.log(Level.WARNING, "Could not get geneID for node.", e);
+          }
+        }
+        start = i + 1;
+      }
+    }
+    return Arrays.copyOf(ret, count);
+  }
+
+  /**
+   * @param c
+   * @return {@code true} if {@code c} matches the regular expression "\s".
+   */
+  private static boolean isWhitespace(char c) {
+    return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r');
+  }
+
+  /**
+   * Returns the slot of {@code key} in the hash table (open addressing
+   * with linear probing).
+   * @param key
+   * @param create if {@code true}, a slot with an empty array is created
+   * for missing keys.
+   * @return the slot or -1 if the key is missing and {@code create}
+   * is {@code false}.
+   */
+  private int getSlot(int key, boolean create) {
+    if (create && (used + 1) * 2 > keys.length) {
+      // Keep the load factor below 0.5
+      int[] oldKeys = keys;
+      Node[][] oldValues = values;
+      keys = new int[oldKeys.length * 2];
+      values = new Node[oldKeys.length * 2][];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != null) {
+          int slot = findSlot(oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+    int slot = findSlot(key);
+    if (values[slot] == null) {
+      if (!create) {
+        return -1;
+      }
+      keys[slot] = key;
+      values[slot] = new Node[0];
+      used++;
+    }
+    return slot;
+  }
+
+  /**
+   * @param key
+   * @return the slot of {@code key} or the first free slot.
+   */
+  private int findSlot(int key) {
+    int mask = keys.length - 1;
+    int hash = key * 0x9E3779B9;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while ((values[slot] != null) && (keys[slot] != key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * @param nodes an array or {@code null}
+   * @param n
+   * @return a copy of {@code nodes} with {@code n} at the end.
+   */
+  private static Node[] append(Node[] nodes, Node n) {
+    if (nodes == null) {
+      return new Node[] {n};
+    }
+    Node[] ret = Arrays.copyOf(nodes, nodes.length + 1);
+    ret[nodes.length] = n;
+    return ret;
+  }
+
+  /**
+   * @param nodes
+   * @param n
+   * @return a copy of {@code nodes} without {@code n}.
+   */
+  private static Node[] without(Node[] nodes, Node n) {
+    int count = 0;
+    Node[] ret = new Node[nodes.length];
+    for (Node node : nodes) {
+      if (node != n) {
+        ret[count++] = node;
+      }
+    }
+    return (count == ret.length) ? ret : Arrays.copyOf(ret, count);
+  }
+
+  /**
+   * @param geneID an Entrez gene identifier
+   * @return all nodes with this identifier or {@code null}. The array
+   * must not be changed.
+   */
+  public synchronized Node[] getNodes(int geneID) {
+    flush();
+    int slot = getSlot(geneID, false);
+    return ((slot < 0) || (values[slot].length < 1)) ? null : values[slot];
+  }
+
+  /**
+   * @return all gene identifiers with at least one node.
+   */
+  public synchronized int[] getGeneIDs() {
+    flush();
+    int[] ret = new int[used];
+    int count = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if ((values[i] != null) && (values[i].length > 0)) {
+        ret[count++] = keys[i];
+      }
+    }
+    return Arrays.copyOf(ret, count);
+  }
+
+  /**
+   * @param rna label of a microRNA (case insensitive)
+   * @return all microRNA nodes with this label or {@code null}. The
+   * array must not be changed.
+   */
+  public synchronized Node[] getRNANodes(String rna) {
+    flush();
+    return rnas.get(rna.toUpperCase().trim());
+  }
+
+  /**
+   * @return all labels of microRNA nodes (upper case, trimmed).
+   */
+  public synchronized Set<String> getRNAs() {
+    flush();
+    return new LinkedHashSet<String>(rnas.keySet());
+  }
+
+  /**
+   * @param pathway identifier of a pathway (case insensitive, e.g., "path:mmu00910")
+   * @return all nodes referencing this pathway or {@code null}. The
+   * array must not be changed.
+   */
+  public synchronized Node[] getPathwayReferenceNodes(String pathway) {
+    flush();
+    return pathways.get(pathway.toLowerCase().trim());
+  }
+
+  /**
+   * @return identifiers of all referenced pathways (lower case, trimmed).
+   */
+  public synchronized Set<String> getPathwayReferences() {
+    flush();
+    return new LinkedHashSet<String>(pathways.keySet());
+  }
+
+}
@@ -22,10 +22,12 @@ package de.zbit.util;
 
 import java.awt.Color;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -48,13 +50,13 @@ import y.view.NodeLabel;
 import y.view.NodeRealizer;
 import y.view.hierarchy.HierarchyManager;
 import de.zbit.graph.GraphTools;
+import de.zbit.graph.NodeSearchIndex;
 import de.zbit.graph.StackingNodeLayout;
 import de.zbit.graph.gui.TranslatorPanel;
 import de.zbit.graph.io.Graph2DExporter;
 import de.zbit.graph.io.def.GenericDataMap;
 import de.zbit.graph.io.def.GraphMLmaps;
 import de.zbit.kegg.io.KEGG2yGraph;
-import de.zbit.kegg.parser.pathway.EntryType;
 
 /**
  * This class is intended to provide various translator tools.
@@ -96,24 +98,121 @@ public class TranslatorTools extends GraphTools {
   }
   
   public void highlightGenes(Iterable<Integer> ncbiGeneIDs, Color highlightColor, Color forAllOthers, boolean changeSelection) {
-    if (forAllOthers!=null) {
-      setColorOfAllNodesExceptPathwayReferences(forAllOthers);
+    Map<Integer, Color> geneID2Color = new LinkedHashMap<Integer, Color>();
+    for (Integer integer : ncbiGeneIDs) {
+      geneID2Color.put(integer, highlightColor);
+    }
+    setNodeColors(geneID2Color, forAllOthers, changeSelection);
+  }
+  
+  /**
+   * Colors all nodes of the given GeneIDs at once. Each {@link NodeRealizer}
+   * is changed at most once, i.e., nodes are not first colored with
+   * {@code forAllOthers} and then with their actual color.
+   * @param geneID2Color color for the nodes of every GeneID. If a node
+   * has multiple GeneIDs, the color of the last one in the iteration
+   * order of this map is used.
+   * @param forAllOthers color for all other nodes, except pathway
+   * references (see {@link #setColorOfAllNodesExceptPathwayReferences(Color)}).
+   * If {@code null}, other nodes are not changed.
+   * @param changeSelection if {@code true}, exactly the colored nodes
+   * of the GeneIDs are selected.
+   */
+  public void setNodeColors(Map<Integer, Color> geneID2Color, Color forAllOthers, boolean changeSelection) {
+    // Collect the target color of every node first
+    NodeIdentifierIndex index = getIndex();
+    Map<Node, Color> node2Color = new HashMap<Node, Color>();
+    for (Entry<Integer, Color> e : geneID2Color.entrySet()) {
+      Node[] nodes = (e.getKey()==null) ? null : index.getNodes(e.getKey());
+      if (nodes!=null) {
+        for (Node node : nodes) {
+          node2Color.put(node, e.getValue());
+        }
+      } else {
+        log.info("Could not get a Node for " + e.getKey());
+      }
+    }
+    setNodeColorsByNode(node2Color, forAllOthers, changeSelection);
+  }
+  
+  /**
+   * Colors all given nodes at once, like {@link #setNodeColors(Map, Color, boolean)}.
+   * @param node2Color color for every node
+   * @param forAllOthers color for all other nodes, except pathway
+   * references. If {@code null}, other nodes are not changed.
+   * @param changeSelection if {@code true}, exactly the given nodes
+   * are selected.
+   */
+  public void setNodeColorsByNode(Map<Node, Color> node2Color, Color forAllOthers, boolean changeSelection) {
+    // Change every realizer once
+    if (forAllOthers==null && !changeSelection) {
+      for (Entry<Node, Color> e : node2Color.entrySet()) {
+        graph.getRealizer(e.getKey()).setFillColor(e.getValue());
+      }
+      return;
     }
     if (changeSelection) {
       graph.unselectAll();
     }
-    Map<Integer, List<Node>> id2node = getGeneID2NodeMap();
-    for (Integer integer : ncbiGeneIDs) {
-      List<Node> nList = id2node.get(integer);
-      if (nList!=null) {
-        for (Node node : nList) {
-          graph.getRealizer(node).setFillColor(highlightColor);
-          if (changeSelection) {
-            graph.getRealizer(node).setSelected(true);
-          }
+    for (NodeCursor nc = graph.nodes(); nc.ok(); nc.next()) {
+      Node n = nc.node();
+      NodeRealizer realizer = graph.getRealizer(n);
+      Color color = node2Color.get(n);
+      if (color!=null) {
+        realizer.setFillColor(color);
+      } else if (forAllOthers!=null && realizer.getLineColor()!=null) {
+        // Same rules as in setColorOfAllNodesExceptPathwayReferences()
+        String id = getKeggIDs(n);
+        if (id==null || !id.toLowerCase().trim().startsWith("path:")) {
+          realizer.setFillColor(forAllOthers);
         }
-      } else {
-        log.info("Could not get a Node for " + integer);
+      }
+      if (changeSelection && realizer.isSelected()!=(color!=null)) {
+        graph.setSelected(n, color!=null);
+      }
+    }
+  }
+  
+  /**
+   * @return the {@link NodeIdentifierIndex} of the {@link #graph} for
+   * the current maps.
+   */
+  private NodeIdentifierIndex getIndex() {
+    NodeIdentifierIndex index = NodeIdentifierIndex.getIndex(graph);
+    index.setMaps(descriptor2Map.get(GraphMLmaps.NODE_GENE_ID), getMap(GraphMLmaps.NODE_TYPE),
+      getMap(GraphMLmaps.NODE_LABEL), getMap(GraphMLmaps.NODE_KEGG_ID));
+    return index;
+  }
+  
+  /**
+   * @param ncbiGeneID an Entrez GeneID
+   * @return all nodes with this GeneID or {@code null} if there are none.
+   * Uses the {@link NodeIdentifierIndex} of the graph and is thus, much
+   * faster than {@link #getGeneID2NodeMap()} for single queries.
+   */
+  public Node[] getNodesForGeneID(int ncbiGeneID) {
+    if (descriptor2Map.get(GraphMLmaps.NODE_GENE_ID)==null) {
+      return null;
+    }
+    Node[] nodes = getIndex().getNodes(ncbiGeneID);
+    return (nodes==null) ? null : nodes.clone();
+  }
+  
+  /* (non-Javadoc)
+   * @see de.zbit.graph.GraphTools#setInfo(java.lang.Object, java.lang.String, java.lang.Object)
+   */
+  @Override
+  public void setInfo(Object node_or_edge, String descriptor, Object value) {
+    super.setInfo(node_or_edge, descriptor, value);
+    if (node_or_edge instanceof Node) {
+      // Keep the indices up to date
+      NodeIdentifierIndex index = NodeIdentifierIndex.getExistingIndex(graph);
+      if (index!=null) {
+        index.update((Node) node_or_edge);
+      }
+      NodeSearchIndex searchIndex = NodeSearchIndex.getExistingIndex(graph);
+      if (searchIndex!=null) {
+        searchIndex.update((Node) node_or_edge);
       }
     }
   }
@@ -229,26 +328,9 @@ public class TranslatorTools extends GraphTools {
     }
     
     // build the resulting map
-    for (Node n : graph.getNodeArray()) {
-      Object type = typeMap.get(n);
-      if (type!=null && type.equals(RNA_TYPE)) {
-        Object label = labelMap.get(n);
-        if (label==null) {
-          continue;
-        }
-        String key = label.toString().toUpperCase().trim();
-        
-        // Get list, associated with node label
-        List<Node> list = mi2node.get(key);
-        if (list==null) {
-          list = new LinkedList<Node>();
-          mi2node.put(key, list);
-        }
-        
-        // Add node to list.
-        list.add(n);
-        
-      }
+    NodeIdentifierIndex index = getIndex();
+    for (String key : index.getRNAs()) {
+      mi2node.put(key, new LinkedList<Node>(Arrays.asList(index.getRNANodes(key))));
     }
     
     return mi2node;
@@ -305,30 +387,9 @@ public class TranslatorTools extends GraphTools {
     }
     
     // build the resulting map
-    for (Node n : graph.getNodeArray()) {
-      Object entrezIds = entrez.get(n);
-      if (entrezIds!=null && entrezIds.toString().length()>0) {
-        String[] ids = entrezIds.toString().split(",|\\s"); // comma or space separated.
-        for (String id: ids) {
-          if (id==null || id.trim().length()<1) {
-            continue;
-          }
-          try {
-            // Get Node collection for gene ID
-            Integer intId = Integer.parseInt(id);
-            List<Node> list = id2node.get(intId);
-            if (list==null) {
-              list = new LinkedList<Node>();
-              id2node.put(intId, list);
-            }
-            // Add node to list.
-            list.add(n);
-          } catch (NumberFormatException e) {
-            // NOTE: Negative values here are references to HMDB Compound IDs (use Compound mapping and multiply -1).
-            log.log(Level.WARNING, "Could not get geneID for node.", e);
-          }
-        }
-      }
+    NodeIdentifierIndex index = getIndex();
+    for (int id : index.getGeneIDs()) {
+      id2node.put(id, new LinkedList<Node>(Arrays.asList(index.getNodes(id))));
     }
     
     return id2node;
@@ -707,27 +768,9 @@ public class TranslatorTools extends GraphTools {
     }
     
     // build the resulting map
-    for (Node n : graph.getNodeArray()) {
-      Object type = typeMap.get(n);
-      if (type!=null && (type.toString().equals(EntryType.map.toString()) ||
-          type.toString().equalsIgnoreCase("pathway"))) {
-        Object label = labelMap.get(n);
-        if (label==null) {
-          continue;
-        }
-        String key = label.toString().toLowerCase().trim();
-        
-        // Get list, associated with node label
-        List<Node> list = pw2node.get(key);
-        if (list==null) {
-          list = new LinkedList<Node>();
-          pw2node.put(key, list);
-        }
-        
-        // Add node to list.
-        list.add(n);
-        
-      }
+    NodeIdentifierIndex index = getIndex();
+    for (String key : index.getPathwayReferences()) {
+      pw2node.put(key, new LinkedList<Node>(Arrays.asList(index.getPathwayReferenceNodes(key))));
     }
     
     return pw2node;
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import y.base.Node;
+import y.view.Graph2D;
+import y.view.NodeRealizer;
+
+/**
+ * Compares the results of {@link NodeGridIndex} with a scan over all
+ * nodes on random node sets.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class NodeGridIndexTest {
+
+  /**
+   * Number of random queries per node set.
+   */
+  private static final int QUERIES = 500;
+
+  /**
+   * @param graph
+   * @param n
+   * @param x
+   * @param y
+   * @return the Chebyshev distance between the center of {@code n} and
+   * the given point.
+   */
+  private static double getDistance(Graph2D graph, Node n, double x, double y) {
+    NodeRealizer nr = graph.getRealizer(n);
+    return Math.max(Math.abs(nr.getCenterX() - x), Math.abs(nr.getCenterY() - y));
+  }
+
+  /**
+   * @param random
+   * @param count
+   * @param extent nodes are placed in [-extent, extent]
+   * @return a graph with {@code count} nodes at random positions.
+   * Some nodes share their position.
+   */
+  private static Graph2D createRandomGraph(Random random, int count, double extent) {
+    Graph2D graph = new Graph2D();
+    for (int i = 0; i < count; i++) {
+      Node n = graph.createNode();
+      if ((i > 0) && (random.nextInt(10) == 0)) {
+        NodeRealizer other = graph.getRealizer(graph.getNodeArray()[random.nextInt(i)]);
+        graph.setCenter(n, other.getCenterX(), other.getCenterY());
+      } else {
+        graph.setCenter(n, (random.nextDouble() * 2 - 1) * extent, (random.nextDouble() * 2 - 1) * extent);
+      }
+    }
+    return graph;
+  }
+
+  /**
+   * Compares range and nearest-neighbour queries with a scan over
+   * {@code nodes}.
+   * @param random
+   * @param graph
+   * @param index
+   * @param nodes all nodes in the index
+   * @param extent
+   */
+  private static void assertSameAsScan(Random random, Graph2D graph, NodeGridIndex index,
+    List<Node> nodes, double extent) {
+    assertEquals(nodes.size(), index.size());
+    for (int q = 0; q < QUERIES; q++) {
+      double x = (random.nextDouble() * 2.2 - 1.1) * extent;
+      double y = (random.nextDouble() * 2.2 - 1.1) * extent;
+      double distance = random.nextDouble() * extent / 4;
+      Node exclude = nodes.isEmpty() || random.nextBoolean() ? null : nodes.get(random.nextInt(nodes.size()));
+
+      Set<Node> expected = new HashSet<Node>();
+      Node nearest = null;
+      double best = Double.POSITIVE_INFINITY;
+      for (Node n : nodes) {
+        double d = getDistance(graph, n, x, y);
+        if (d <= distance) {
+          expected.add(n);
+          if ((n != exclude) && (d < best)) {
+            nearest = n;
+            best = d;
+          }
+        }
+      }
+
+      List<Node> inRange = index.getNodesInRange(x, y, distance);
+      assertEquals(expected.size(), inRange.size());
+      assertEquals(expected, new HashSet<Node>(inRange));
+
+      // Several nodes may have the same distance, so only compare distances
+      Node found = index.getNearestNode(x, y, distance, exclude);
+      if (nearest == null) {
+        assertNull(found);
+      } else {
+        assertNotNull(found);
+        assertTrue(found != exclude);
+        assertEquals(best, getDistance(graph, found, x, y), 0d);
+      }
+    }
+  }
+
+  /**
+   * Queries on random node sets with different densities and cell sizes.
+   */
+  @Test
+  public void testQueriesOnRandomNodes() {
+    Random random = new Random(42);
+    int[] counts = {0, 1, 2, 50, 1000};
+    double[] cellSizes = {1, 25, 100, 5000};
+    for (int count : counts) {
+      for (double cellSize : cellSizes) {
+        double extent = 1000;
+        Graph2D graph = createRandomGraph(random, count, extent);
+        NodeGridIndex index = NodeGridIndex.createIndex(graph, cellSize);
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node n : graph.getNodeArray()) {
+          nodes.add(n);
+        }
+        assertSameAsScan(random, graph, index, nodes, extent);
+      }
+    }
+  }
+
+  /**
+   * Moves, removes and adds nodes and compares the index with a scan
+   * after every change.
+   */
+  @Test
+  public void testUpdates() {
+    Random random = new Random(7);
+    double extent = 500;
+    Graph2D graph = createRandomGraph(random, 300, extent);
+    NodeGridIndex index = new NodeGridIndex(graph, 20);
+    List<Node> nodes = new ArrayList<Node>();
+    for (Node n : graph.getNodeArray()) {
+      if (random.nextInt(4) > 0) {
+        index.add(n);
+        nodes.add(n);
+      }
+    }
+    for (Node n : graph.getNodeArray()) {
+      assertEquals(nodes.contains(n), index.contains(n));
+    }
+    assertSameAsScan(random, graph, index, nodes, extent);
+
+    for (int round = 0; round < 5; round++) {
+      // Move some nodes, a part of them only slightly (within the same cell)
+      for (Node n : nodes) {
+        if (random.nextInt(3) == 0) {
+          NodeRealizer nr = graph.getRealizer(n);
+          if (random.nextBoolean()) {
+            graph.setCenter(n, nr.getCenterX() + random.nextDouble(), nr.getCenterY() - random.nextDouble());
+          } else {
+            graph.setCenter(n, (random.nextDouble() * 2 - 1) * extent, (random.nextDouble() * 2 - 1) * extent);
+          }
+          assertTrue(index.update(n));
+        }
+      }
+      // Remove some nodes and add others
+      for (Node n : graph.getNodeArray()) {
+        if (random.nextInt(10) == 0) {
+          if (index.contains(n)) {
+            assertTrue(index.remove(n));
+            assertFalse(index.remove(n));
+            assertFalse(index.update(n));
+            nodes.remove(n);
+          } else {
+            index.add(n);
+            nodes.add(n);
+          }
+        }
+      }
+      assertSameAsScan(random, graph, index, nodes, extent);
+    }
+  }
+
+  /**
+   * The nearest node to a node is never the node itself.
+   */
+  @Test
+  public void testNearestNodeToNode() {
+    Random random = new Random(3);
+    double extent = 200;
+    Graph2D graph = createRandomGraph(random, 200, extent);
+    NodeGridIndex index = NodeGridIndex.createIndex(graph, 10);
+    for (Node n : graph.getNodeArray()) {
+      NodeRealizer nr = graph.getRealizer(n);
+      double best = Double.POSITIVE_INFINITY;
+      for (Node other : graph.getNodeArray()) {
+        if (other != n) {
+          best = Math.min(best, getDistance(graph, other, nr.getCenterX(), nr.getCenterY()));
+        }
+      }
+      Node found = index.getNearestNode(n, Double.MAX_VALUE);
+      assertNotNull(found);
+      assertTrue(found != n);
+      assertEquals(best, getDistance(graph, found, nr.getCenterX(), nr.getCenterY()), 0d);
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import y.base.Node;
+import y.base.NodeCursor;
+import y.base.NodeList;
+import y.view.Graph2D;
+import y.view.NodeRealizer;
+import y.view.hierarchy.HierarchyManager;
+import de.zbit.math.MathUtils;
+
+/**
+ * Compares {@link StackingNodeLayout} with the previous, recursive
+ * implementation of the layout on random nested groups.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class StackingNodeLayoutTest {
+
+  /**
+   * Number of random groups per layout mode.
+   */
+  private static final int GROUPS = 2000;
+
+  /**
+   * Coordinates of layouts that are taken from the cache of
+   * {@link StackingNodeLayout} are shifted, which may change the last bits.
+   */
+  private static final double DELTA = 1E-9;
+
+  /**
+   * The previous implementation of {@link StackingNodeLayout}.
+   */
+  private static class ReferenceLayout {
+    private static final int cols = 2;
+    private static final double inset = 0.0;
+    private static final double groupNodeHeaderHeight = 25;
+    private final Graph2D graph;
+    private double averageNodeWidth = 0;
+    private double firstX = 0;
+    private double firstY = 0;
+    private List<Node> childs = null;
+
+    /**
+     * @param graph
+     * @param group
+     * @param recursive
+     */
+    ReferenceLayout(Graph2D graph, Node group, boolean recursive) {
+      this.graph = graph;
+      prepareVariables(group, recursive);
+      layoutGroupNode(group);
+    }
+
+    private void layoutGroupNode(Node group) {
+      if (childs == null || group == null) {
+        return;
+      }
+      double cur_x = firstX;
+      double cur_y = firstY;
+      double maxHeightInRow = 0;
+      List<Node> parents = new ArrayList<Node>();
+      parents.add(group);
+      for (Node child : childs) {
+        Node parent = graph.getHierarchyManager().getParentNode(child);
+        if (!parent.equals(parents.get(parents.size() - 1))) {
+          if (parents.size() > 1) {
+            parents.remove(parents.size() - 1);
+          }
+          if (cur_x != firstX) {
+            cur_x = firstX;
+            cur_y += maxHeightInRow;
+            maxHeightInRow = 0;
+          }
+          if (!parent.equals(parents.get(parents.size() - 1))) {
+            cur_y += groupNodeHeaderHeight;
+            parents.add(parent);
+          }
+        }
+        NodeRealizer cr = graph.getRealizer(child);
+        cr.setX(cur_x);
+        cr.setY(cur_y);
+        double w = getNodeWidth(cr);
+        int slotsTaken = (int) Math.ceil(w / (averageNodeWidth + inset));
+        cur_x += (slotsTaken * (averageNodeWidth + inset));
+        maxHeightInRow = Math.max(maxHeightInRow, getNodeHeight(cr) + inset);
+        int usedSlotsInCurrentRow = (int) Math.ceil((cur_x - firstX) / (averageNodeWidth + inset));
+        if (usedSlotsInCurrentRow >= cols) {
+          cur_x = firstX;
+          cur_y += maxHeightInRow;
+          maxHeightInRow = 0;
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Node> getChildren(Node group) {
+      NodeCursor nc = graph.getHierarchyManager().getChildren(group);
+      return (nc == null) ? null : new NodeList(nc);
+    }
+
+    private List<Node> getChildrenDeep(Node group) {
+      List<Node> childsInGroups = new ArrayList<Node>();
+      List<Node> childsSimple = new ArrayList<Node>();
+      HierarchyManager hm = graph.getHierarchyManager();
+      NodeCursor nc = hm.getChildren(group);
+      NodeList nl = (nc == null) ? null : new NodeList(nc);
+      if (nl != null) {
+        for (Object c : nl) {
+          Node current = (Node) c;
+          if (hm.isGroupNode(current)) {
+            childsInGroups.addAll(getChildrenDeep(current));
+          } else {
+            childsSimple.add(current);
+          }
+        }
+      }
+      List<Node> ret = new ArrayList<Node>();
+      ret.addAll(childsInGroups);
+      ret.addAll(childsSimple);
+      return ret;
+    }
+
+    private void prepareVariables(Node group, boolean recursive) {
+      childs = recursive ? getChildrenDeep(group) : getChildren(group);
+      List<Double> widths = new ArrayList<Double>();
+      double minX = Double.MAX_VALUE;
+      double minY = Double.MAX_VALUE;
+      for (Node n : childs) {
+        NodeRealizer nr = graph.getRealizer(n);
+        widths.add(getNodeWidth(nr));
+        minX = Math.min(nr.getX(), minX);
+        minY = Math.min(nr.getY(), minY);
+      }
+      averageNodeWidth = MathUtils.median(widths);
+      firstX = minX;
+      firstY = minY;
+    }
+
+    private double getNodeWidth(NodeRealizer nr) {
+      return Math.max(nr.getWidth(), nr.getLabel().getWidth() - inset);
+    }
+
+    private double getNodeHeight(NodeRealizer nr) {
+      return Math.max(nr.getHeight(), nr.getLabel().getHeight() - inset);
+    }
+  }
+
+  /**
+   * Creates a random group. Calls with the same seed create the same group.
+   * Only a few sizes are used, so that equal groups (and thus, cached
+   * layouts) occur.
+   * @param seed
+   * @return a graph with a group node as first node.
+   */
+  private static Graph2D createRandomGroup(long seed) {
+    Random random = new Random(seed);
+    Graph2D graph = new Graph2D();
+    HierarchyManager hm = new HierarchyManager(graph);
+    Node group = hm.createGroupNode(graph);
+    addChildren(random, graph, hm, group, 0);
+    return graph;
+  }
+
+  /**
+   * @param random
+   * @param graph
+   * @param hm
+   * @param parent
+   * @param depth
+   */
+  private static void addChildren(Random random, Graph2D graph, HierarchyManager hm, Node parent, int depth) {
+    // The group to layout always contains at least one normal node
+    int count = (depth == 0) ? 1 + random.nextInt(12) : random.nextInt(6);
+    for (int i = 0; i < count; i++) {
+      if ((depth < 4) && ((depth > 0) || (i > 0)) && (random.nextInt(4) == 0)) {
+        Node group = hm.createGroupNode(graph);
+        hm.setParentNode(group, parent);
+        addChildren(random, graph, hm, group, depth + 1);
+      } else {
+        Node n = graph.createNode();
+        NodeRealizer nr = graph.getRealizer(n);
+        nr.setSize(10 * (1 + random.nextInt(6)), 10 * (1 + random.nextInt(3)));
+        nr.setLocation(random.nextInt(200), random.nextInt(200));
+        if (random.nextInt(3) == 0) {
+          nr.setLabelText(random.nextBoolean() ? "ENO1" : "a much longer label");
+        }
+        hm.setParentNode(n, parent);
+      }
+    }
+  }
+
+  /**
+   * Lays out random groups with both implementations and compares the
+   * positions of all nodes.
+   * @param recursive
+   */
+  private static void assertSameLayout(boolean recursive) {
+    for (long seed = 0; seed < GROUPS; seed++) {
+      Graph2D expected = createRandomGroup(seed);
+      Graph2D actual = createRandomGroup(seed);
+      Node[] expectedNodes = expected.getNodeArray();
+      Node[] actualNodes = actual.getNodeArray();
+      assertEquals(expectedNodes.length, actualNodes.length);
+
+      new ReferenceLayout(expected, expectedNodes[0], recursive);
+      if (recursive) {
+        StackingNodeLayout.doRecursiveLayout(actual, actualNodes[0]);
+      } else {
+        StackingNodeLayout.doLayout(actual, actualNodes[0]);
+      }
+
+      for (int i = 0; i < expectedNodes.length; i++) {
+        NodeRealizer e = expected.getRealizer(expectedNodes[i]);
+        NodeRealizer a = actual.getRealizer(actualNodes[i]);
+        String message = "Group " + seed + ", node " + i;
+        assertEquals(message, e.getX(), a.getX(), DELTA);
+        assertEquals(message, e.getY(), a.getY(), DELTA);
+      }
+    }
+  }
+
+  /**
+   * Layout of the direct children of random groups.
+   */
+  @Test
+  public void testLayout() {
+    assertSameLayout(false);
+  }
+
+  /**
+   * Layout of all children of random nested groups.
+   */
+  @Test
+  public void testRecursiveLayout() {
+    assertSameLayout(true);
+  }
+
+}
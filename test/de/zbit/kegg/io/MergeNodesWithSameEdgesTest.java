@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import y.base.Edge;
+import y.base.Node;
+import y.base.NodeCursor;
+import y.view.Graph2D;
+import y.view.hierarchy.HierarchyManager;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Pathway;
+
+/**
+ * Checks that merging nodes with the same edges
+ * ({@link KEGG2yGraph#setGroupNodesWithSameEdges(boolean)}) gives the
+ * same graph with edge signatures as with the comparison of all pairs
+ * of nodes, on random pathways.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class MergeNodesWithSameEdgesTest {
+
+  /**
+   * Number of random pathways.
+   */
+  private static final int PATHWAYS = 200;
+
+  /**
+   * Translations must not query KEGG.
+   */
+  @BeforeClass
+  public static void setUpClass() {
+    KeggInfoManagement.offlineMode = true;
+  }
+
+  /**
+   * Writes a random KGML file. Genes are placed on a coarse grid, so that
+   * many of them are in the same row or column, and are connected to a few
+   * hub genes. Some genes have several relations with the same hub.
+   * @param random
+   * @return the file
+   * @throws Exception
+   */
+  private static File createRandomKGML(Random random) throws Exception {
+    File file = File.createTempFile("MergeNodesWithSameEdgesTest", ".xml");
+    file.deleteOnExit();
+    Writer out = new FileWriter(file);
+    try {
+      out.write("<?xml version=\"1.0\"?>\n");
+      out.write("<pathway name=\"path:ko99999\" org=\"ko\" number=\"99999\" title=\"Generated pathway\">\n");
+      int hubs = 1 + random.nextInt(4);
+      int genes = hubs + random.nextInt(40);
+      for (int id = 1; id <= genes; id++) {
+        int x, y;
+        if (id <= hubs) {
+          x = 1000 + id * 100;
+          y = 1000;
+        } else {
+          x = 100 + random.nextInt(4) * 60;
+          y = 100 + random.nextInt(12) * 20;
+        }
+        out.write(String.format("  <entry id=\"%1$s\" name=\"ko:K%1$05d\" type=\"ortholog\">\n" +
+            "    <graphics name=\"K%1$05d\" fgcolor=\"#000000\" bgcolor=\"#BFFFBF\" " +
+            "type=\"rectangle\" x=\"%2$s\" y=\"%3$s\" width=\"46\" height=\"17\"/>\n  </entry>\n", id, x, y));
+      }
+      for (int id = hubs + 1; id <= genes; id++) {
+        for (int hub = 1; hub <= hubs; hub++) {
+          int relations = random.nextInt(10) == 0 ? 2 : random.nextInt(2);
+          for (int r = 0; r < relations; r++) {
+            boolean out2hub = random.nextBoolean();
+            boolean activation = random.nextInt(3) > 0;
+            out.write(String.format("  <relation entry1=\"%s\" entry2=\"%s\" type=\"PPrel\">\n" +
+                "    <subtype name=\"%s\" value=\"%s\"/>\n  </relation>\n",
+                out2hub ? id : hub, out2hub ? hub : id,
+                    activation ? "activation" : "inhibition", activation ? "--&gt;" : "--|"));
+          }
+        }
+      }
+      out.write("</pathway>\n");
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * @param graph
+   * @param n
+   * @return the label of {@code n} or the sorted descriptions of all
+   * children, if {@code n} is a group node.
+   */
+  private static String describe(Graph2D graph, Node n) {
+    HierarchyManager hm = graph.getHierarchyManager();
+    if ((hm == null) || !hm.isGroupNode(n)) {
+      return graph.getLabelText(n);
+    }
+    List<String> children = new ArrayList<String>();
+    for (NodeCursor nc = hm.getChildren(n); nc.ok(); nc.next()) {
+      children.add(describe(graph, nc.node()));
+    }
+    Collections.sort(children);
+    return children.toString();
+  }
+
+  /**
+   * @param graph
+   * @return sorted descriptions of all nodes and all edges.
+   */
+  private static List<String> describe(Graph2D graph) {
+    List<String> ret = new ArrayList<String>();
+    for (Node n : graph.getNodeArray()) {
+      ret.add(describe(graph, n));
+    }
+    for (Edge e : graph.getEdgeArray()) {
+      ret.add(describe(graph, e.source()) + " -> " + describe(graph, e.target()));
+    }
+    Collections.sort(ret);
+    return ret;
+  }
+
+  /**
+   * @param compareAllNodes
+   * @return a translator that merges nodes with the same edges.
+   */
+  private static KEGG2yGraph createTranslator(boolean compareAllNodes) {
+    KEGG2yGraph translator = KEGG2yGraph.createKEGG2GraphML(new KeggInfoManagement());
+    translator.setRetrieveKeggAnnots(false);
+    translator.setGroupNodesWithSameEdges(true);
+    translator.compareAllNodes = compareAllNodes;
+    return translator;
+  }
+
+  /**
+   * Translates random pathways with both ways of merging nodes and
+   * compares the graphs.
+   * @throws Exception
+   */
+  @Test
+  public void testSameGraphAsPairwiseComparison() throws Exception {
+    Random random = new Random(41);
+    KEGG2yGraph pairwise = createTranslator(true);
+    KEGG2yGraph signatures = createTranslator(false);
+    int merged = 0;
+    for (int i = 0; i < PATHWAYS; i++) {
+      String file = createRandomKGML(random).getPath();
+      Pathway p1 = KeggParser.parse(file).get(0);
+      Pathway p2 = KeggParser.parse(file).get(0);
+      Graph2D expected = pairwise.translate(p1);
+      Graph2D actual = signatures.translate(p2);
+
+      assertEquals("Pathway " + i, describe(expected), describe(actual));
+      for (Node n : actual.getNodeArray()) {
+        if (actual.getHierarchyManager().isGroupNode(n)) {
+          merged++;
+        }
+      }
+    }
+    // Make sure that the pathways contain nodes to merge at all
+    assertTrue(merged > 0);
+  }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.zbit.kegg.api.KeggInfos;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.Pathway;
+
+/**
+ * Fixtures, argument parsing and measurements shared by all benchmarks
+ * in this package.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class BenchmarkTools {
+
+  /**
+   * A part of a benchmark that is measured by {@link BenchmarkTools#measure(int, Task)}.
+   */
+  public static interface Task {
+    /**
+     * Runs one round of this task.
+     * @throws Exception
+     */
+    public void run() throws Exception;
+  }
+
+  /**
+   * Time and allocated bytes of a {@link Task}.
+   */
+  public static class Measurement {
+    private final long nanos;
+    private final long bytes;
+
+    /**
+     * @param nanos
+     * @param bytes negative, if allocated bytes can not be measured.
+     */
+    public Measurement(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+
+    /**
+     * @return the time in milliseconds.
+     */
+    public double getMillis() {
+      return nanos / 1e6;
+    }
+
+    /**
+     * @return the allocated bytes or a negative value, if this JVM does
+     * not count allocated bytes.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @param count
+     * @return time and allocated megabytes, divided by {@code count}.
+     */
+    public String toString(int count) {
+      String mb = (bytes < 0) ? "n/a" : String.format("%.2f", bytes / 1048576d / count);
+      return String.format("%8.2f ms %10s MB", getMillis() / count, mb);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+      return toString(1);
+    }
+  }
+
+  /**
+   * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+   * or {@code null}, if this JVM does not provide it.
+   */
+  private static final Method getThreadAllocatedBytes = findThreadAllocatedBytes();
+
+  /**
+   * Looks up the method by reflection, because
+   * {@code com.sun.management} is not available on all JVMs.
+   * @return the method or {@code null}.
+   */
+  private static Method findThreadAllocatedBytes() {
+    try {
+      Class<?> bean = Class.forName("com.sun.management.ThreadMXBean");
+      if (bean.isInstance(ManagementFactory.getThreadMXBean())) {
+        return bean.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (Throwable t) {
+      // Not supported
+    }
+    return null;
+  }
+
+  /**
+   * Fills {@code manager} with generated KEGG entries for all
+   * identifiers in {@code p}, so that translations run offline.
+   * @param manager
+   * @param p
+   */
+  public static void fill(KeggInfoManagement manager, Pathway p) {
+    Set<String> added = new HashSet<String>();
+    for (Entry e : p.getEntries()) {
+      for (String id : e.getName().split(" ")) {
+        if (!id.contains(":") || !added.add(id)) {
+          continue;
+        }
+        String flat = String.format("ENTRY       %1$s            CDS       T01001\n" +
+            "NAME        %1$s, ALIAS_%1$s, OTHER_%1$s\n" +
+            "DEFINITION  generated definition of %1$s (e.g., an aldolase)\n" +
+            "ORTHOLOGY   K01623  fructose-bisphosphate aldolase, class I [EC:4.1.2.13]\n" +
+            "DBLINKS     NCBI-GeneID: %2$s\n" +
+            "            UniProt: P%2$05d\n" +
+            "///", id, Math.abs(id.hashCode()) % 100000);
+        manager.addInformation(id, new KeggInfos(id, flat));
+      }
+    }
+  }
+
+  /**
+   * Switches off all KEGG queries and fills a new manager with generated
+   * KEGG entries for all pathways in {@code files} (see
+   * {@link #fill(KeggInfoManagement, Pathway)}).
+   * @param files KGML files
+   * @return the manager
+   * @throws Exception
+   */
+  public static KeggInfoManagement createOfflineManager(List<String> files) throws Exception {
+    KeggInfoManagement.offlineMode = true;
+    KeggInfoManagement manager = new KeggInfoManagement();
+    for (String file : files) {
+      fill(manager, KeggParser.parse(file).get(0));
+    }
+    return manager;
+  }
+
+  /**
+   * @return bytes allocated by the current thread so far or -1, if this
+   * JVM does not count allocated bytes.
+   */
+  public static long allocatedBytes() {
+    if (getThreadAllocatedBytes != null) {
+      try {
+        return ((Long) getThreadAllocatedBytes.invoke(ManagementFactory.getThreadMXBean(),
+          Thread.currentThread().getId())).longValue();
+      } catch (Throwable t) {
+        // Not supported
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Runs {@code task} {@code rounds} times.
+   * @param rounds
+   * @param task
+   * @return the time and bytes allocated by the current thread for all
+   * rounds.
+   * @throws Exception
+   */
+  public static Measurement measure(int rounds, Task task) throws Exception {
+    long bytes = allocatedBytes();
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      task.run();
+    }
+    long time = System.nanoTime() - start;
+    long allocated = allocatedBytes();
+    return new Measurement(time, (bytes < 0) || (allocated < 0) ? -1 : allocated - bytes);
+  }
+
+  /**
+   * @param args
+   * @param index
+   * @param defaultValue
+   * @return the integer argument at {@code index} or
+   * {@code defaultValue}, if there are less arguments.
+   */
+  public static int getIntArgument(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  /**
+   * Parses the usual arguments of a benchmark: KGML files, optionally
+   * followed by the number of rounds.
+   * @param args
+   * @param files receives all files or {@code defaultFiles} if no file
+   * is given.
+   * @param defaultRounds
+   * @param defaultFiles
+   * @return the number of rounds.
+   */
+  public static int parseArguments(String[] args, List<String> files, int defaultRounds, String... defaultFiles) {
+    int rounds = defaultRounds;
+    for (String arg : args) {
+      if (arg.matches("\\d+")) {
+        rounds = Integer.parseInt(arg);
+      } else {
+        files.add(arg);
+      }
+    }
+    if (files.isEmpty()) {
+      for (String file : defaultFiles) {
+        files.add(file);
+      }
+    }
+    return rounds;
+  }
+
+  /**
+   * @param name
+   * @return a new folder with the given name in the temporary folder.
+   */
+  public static File createTempDir(String name) {
+    File dir = new File(System.getProperty("java.io.tmpdir"), name);
+    dir.mkdirs();
+    return dir;
+  }
+
+  /**
+   * Deletes {@code dir} and all files in it.
+   * @param dir
+   */
+  public static void deleteDir(File dir) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.ext.groups.Group;
+
+import de.zbit.kegg.io.AbstractKEGGtranslator;
+import de.zbit.kegg.io.KEGG2SBMLGroupExtension;
+import de.zbit.kegg.io.PathwayIndex;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.Pathway;
+import de.zbit.kegg.parser.pathway.Relation;
+
+/**
+ * Creates the groups of complex-rich pathways as the SBML translators do
+ * (see {@link KEGG2SBMLGroupExtension}), once with a lookup of every
+ * component in the pathway and once with the children of the
+ * {@link PathwayIndex}. Afterwards, appends the qual members to every
+ * group once for each relation that references the group and checks that
+ * every member is only added once. Reports time and allocated bytes.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class GroupExpansionBenchmark {
+
+  /**
+   * @return all entries that reference a group in a relation (the
+   * qual translator extends such groups).
+   */
+  private static List<Entry> getGroupReferences(Pathway p, PathwayIndex index) {
+    List<Entry> ret = new ArrayList<Entry>();
+    for (Relation r : p.getRelations()) {
+      for (int id : new int[] {r.getEntry1(), r.getEntry2()}) {
+        Entry e = index.getEntryForId(id);
+        if ((e != null) && AbstractKEGGtranslator.isGroupNode(e)) {
+          ret.add(e);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return a model with a species for every entry of {@code p} that
+   * is no group (stored as custom object of the entry).
+   */
+  private static Model createModel(Pathway p) {
+    SBMLDocument doc = new SBMLDocument(3, 1);
+    Model model = doc.createModel("m");
+    for (Entry e : p.getEntries()) {
+      e.setCustom(e.hasComponents() ? null : model.createSpecies("s" + e.getId()));
+    }
+    return model;
+  }
+
+  /**
+   * Creates a group for every group entry of {@code p}.
+   * @param index if {@code null}, the children are looked up in the
+   * pathway (see {@link KEGG2SBMLGroupExtension#createGroup(Pathway, Model, Entry, String)}).
+   * @return the number of members of all groups.
+   */
+  private static int createGroups(Pathway p, PathwayIndex index, Model model) {
+    int members = 0;
+    for (Entry e : p.getEntries()) {
+      if (AbstractKEGGtranslator.isGroupNode(e)) {
+        String id = "group" + e.getId();
+        Group g = (index == null) ? KEGG2SBMLGroupExtension.createGroup(p, model, e, id)
+            : KEGG2SBMLGroupExtension.createGroup(index.getChildren(e), model, id);
+        members += g.getMemberCount();
+      }
+    }
+    return members;
+  }
+
+  /**
+   * Creates all groups and appends the qual members for every reference
+   * to a group.
+   * @return the number of members of all groups.
+   */
+  private static int createQualGroups(Pathway p, PathwayIndex index, List<Entry> references) {
+    Model model = createModel(p);
+    int members = 0;
+    for (Entry e : p.getEntries()) {
+      if (AbstractKEGGtranslator.isGroupNode(e)) {
+        Group g = KEGG2SBMLGroupExtension.createGroup(index.getChildren(e), model, "group" + e.getId());
+        e.setCustom(g);
+        members += g.getMemberCount();
+      }
+    }
+    for (Entry e : references) {
+      KEGG2SBMLGroupExtension.cloneGroupComponents((Group) e.getCustom(), "qual_");
+    }
+    int ret = 0;
+    for (Entry e : p.getEntries()) {
+      if (e.getCustom() instanceof Group) {
+        ret += ((Group) e.getCustom()).getMemberCount();
+      }
+      e.setCustom(null);
+    }
+    if (ret != 2 * members) {
+      throw new AssertionError(String.format("Expected %s members, but got %s.", 2 * members, ret));
+    }
+    return ret;
+  }
+
+  /**
+   * @param args optional: KGML files (default: ko02010 and aac02010)
+   * followed by the number of rounds (default: 200).
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> files = new ArrayList<String>();
+    final int rounds = BenchmarkTools.parseArguments(args, files, 200,
+      "files/KGMLsamplefiles/ko02010.xml", "files/KGMLsamplefiles/aac02010.xml");
+
+    for (String file : files) {
+      final Pathway p = KeggParser.parse(file).get(0);
+      final PathwayIndex index = new PathwayIndex(p);
+      final List<Entry> references = getGroupReferences(p, index);
+
+      // Warm-up and check for identical groups
+      int members = createGroups(p, null, createModel(p));
+      if (members != createGroups(p, index, createModel(p))) {
+        throw new AssertionError("Different number of members for " + file);
+      }
+      int qualMembers = createQualGroups(p, index, references);
+
+      BenchmarkTools.Measurement lookup = BenchmarkTools.measure(rounds, new BenchmarkTools.Task() {
+        public void run() {
+          createGroups(p, null, createModel(p));
+        }
+      });
+      BenchmarkTools.Measurement indexed = BenchmarkTools.measure(rounds, new BenchmarkTools.Task() {
+        public void run() {
+          createGroups(p, index, createModel(p));
+        }
+      });
+      BenchmarkTools.Measurement qual = BenchmarkTools.measure(rounds, new BenchmarkTools.Task() {
+        public void run() {
+          createQualGroups(p, index, references);
+        }
+      });
+
+      System.out.println(String.format("%s: %s group members, %s references to groups, %s rounds:",
+        p.getName(), members, references.size(), rounds));
+      System.out.println(String.format("  groups, pathway lookup: %s", lookup));
+      System.out.println(String.format("  groups, indexed:        %s", indexed));
+      System.out.println(String.format("  groups with %s core and qual members: %s per pathway",
+        qualMembers, qual.toString(rounds)));
+    }
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import y.base.Node;
+import y.view.Graph2D;
+import y.view.hierarchy.HierarchyManager;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.io.KEGG2yGraph;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Pathway;
+
+/**
+ * Translates generated pathways of increasing size with and without
+ * {@link KEGG2yGraph#setGroupNodesWithSameEdges(boolean)}. Every pathway
+ * consists of columns of five genes that all activate the same hub gene,
+ * so every column must be merged into exactly one group node. Reports
+ * the additional time for merging nodes, which should grow about
+ * linearly with the number of nodes.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class MergeNodesWithSameEdgesBenchmark {
+
+  /**
+   * Number of genes in every column.
+   */
+  private static final int COLUMN_SIZE = 5;
+
+  /**
+   * Writes a KGML file with {@code columns} columns of {@link #COLUMN_SIZE}
+   * genes and one hub gene for every column.
+   */
+  private static File createKGML(int columns) throws Exception {
+    File file = File.createTempFile("MergeNodesWithSameEdgesBenchmark", ".xml");
+    file.deleteOnExit();
+    Writer out = new FileWriter(file);
+    try {
+      out.write("<?xml version=\"1.0\"?>\n");
+      out.write("<pathway name=\"path:ko99999\" org=\"ko\" number=\"99999\" title=\"Generated pathway\">\n");
+      int id = 0;
+      StringBuilder relations = new StringBuilder();
+      for (int c = 0; c < columns; c++) {
+        int x = 100 + (c % 50) * 150;
+        int y = 100 + (c / 50) * 200;
+        int hub = ++id;
+        writeEntry(out, hub, x + 75, y + 50);
+        for (int i = 0; i < COLUMN_SIZE; i++) {
+          writeEntry(out, ++id, x, y + i * 20);
+          relations.append(String.format("  <relation entry1=\"%s\" entry2=\"%s\" type=\"PPrel\">\n" +
+              "    <subtype name=\"activation\" value=\"--&gt;\"/>\n  </relation>\n", id, hub));
+        }
+      }
+      out.write(relations.toString());
+      out.write("</pathway>\n");
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Writes a gene entry with the given id and position.
+   */
+  private static void writeEntry(Writer out, int id, int x, int y) throws Exception {
+    out.write(String.format("  <entry id=\"%1$s\" name=\"ko:K%1$05d\" type=\"ortholog\">\n" +
+        "    <graphics name=\"K%1$05d\" fgcolor=\"#000000\" bgcolor=\"#BFFFBF\" " +
+        "type=\"rectangle\" x=\"%2$s\" y=\"%3$s\" width=\"46\" height=\"17\"/>\n  </entry>\n", id, x, y));
+  }
+
+  /**
+   * @return the number of group nodes in {@code graph}.
+   */
+  private static int countGroupNodes(Graph2D graph) {
+    HierarchyManager hm = graph.getHierarchyManager();
+    int count = 0;
+    for (Node n : graph.getNodeArray()) {
+      if (hm.isGroupNode(n)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param args optional: the number of columns of the smallest
+   * pathway (default: 100), followed by the number of doublings
+   * (default: 5).
+   */
+  public static void main(String[] args) throws Exception {
+    int columns = BenchmarkTools.getIntArgument(args, 0, 100);
+    int doublings = BenchmarkTools.getIntArgument(args, 1, 5);
+
+    KeggInfoManagement.offlineMode = true;
+    final KEGG2yGraph translator = KEGG2yGraph.createKEGG2GraphML(new KeggInfoManagement());
+    translator.setRetrieveKeggAnnots(false);
+
+    // Warm-up
+    File warmUp = createKGML(columns);
+    translator.setGroupNodesWithSameEdges(true);
+    translator.translate(KeggParser.parse(warmUp.getPath()).get(0));
+
+    double previous = 0;
+    for (int d = 0; d <= doublings; d++, columns *= 2) {
+      String file = createKGML(columns).getPath();
+
+      translator.setGroupNodesWithSameEdges(false);
+      final Pathway p1 = KeggParser.parse(file).get(0);
+      BenchmarkTools.Measurement withoutMerge = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+        public void run() {
+          translator.translate(p1);
+        }
+      });
+
+      translator.setGroupNodesWithSameEdges(true);
+      final Pathway p2 = KeggParser.parse(file).get(0);
+      final Graph2D[] graph = new Graph2D[1];
+      BenchmarkTools.Measurement withMerge = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+        public void run() {
+          graph[0] = translator.translate(p2);
+        }
+      });
+
+      int groups = countGroupNodes(graph[0]);
+      if (groups != columns) {
+        throw new AssertionError(String.format("Expected %s group nodes, but got %s.", columns, groups));
+      }
+      double merge = Math.max(0, withMerge.getMillis() - withoutMerge.getMillis());
+      System.out.println(String.format("%6s nodes: %10.2f ms translation, %10.2f ms merging nodes%s",
+        columns * (COLUMN_SIZE + 1), withoutMerge.getMillis(), merge,
+        previous > 0 ? String.format(" (%.2fx)", merge / previous) : ""));
+      previous = merge;
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sbml.jsbml.Species;
+
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.io.KEGG2jSBML;
+import de.zbit.kegg.io.MiriamAnnotationCache;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.kegg.parser.pathway.Entry;
+import de.zbit.kegg.parser.pathway.Pathway;
+
+/**
+ * Annotates all entries of a pathway many times, as in a batch
+ * translation of many pathways of one organism, once without and
+ * once with a {@link MiriamAnnotationCache}. Reports time and allocated
+ * bytes and checks that both produce the same notes and annotations.
+ *
+ * <p>KEGG information is generated, so this benchmark runs offline.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class MiriamAnnotationCacheBenchmark {
+
+  /**
+   * Annotates all entries of {@code p} {@code rounds} times.
+   * @return the species of the last round.
+   */
+  private static Species[] annotate(Pathway p, KeggInfoManagement manager,
+    MiriamAnnotationCache cache, int rounds) throws Exception {
+    List<Entry> entries = p.getEntries();
+    Species[] ret = new Species[entries.size()];
+    for (int r = 0; r < rounds; r++) {
+      for (int i = 0; i < entries.size(); i++) {
+        Species s = new Species("s" + i, 2, 4);
+        s.setMetaId("meta_s" + i);
+        KEGG2jSBML.addMiriamURNs(entries.get(i), s, manager, false, cache);
+        ret[i] = s;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param args optional: KGML files (default: hsa00010) followed by the
+   * number of rounds (default: 50).
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> files = new ArrayList<String>();
+    final int rounds = BenchmarkTools.parseArguments(args, files, 50, "files/KGMLsamplefiles/hsa00010.xml");
+    final KeggInfoManagement manager = BenchmarkTools.createOfflineManager(files);
+
+    for (String file : files) {
+      final Pathway p = KeggParser.parse(file).get(0);
+
+      // Warm-up and check for identical output
+      Species[] expected = annotate(p, manager, null, 1);
+      Species[] actual = annotate(p, manager, new MiriamAnnotationCache(10000), 2);
+      int withNotes = 0;
+      for (int i = 0; i < expected.length; i++) {
+        if (expected[i].isSetNotes()) {
+          withNotes++;
+        }
+        if (!String.valueOf(expected[i].getNotesString()).equals(String.valueOf(actual[i].getNotesString()))
+            || !expected[i].getCVTerms().toString().equals(actual[i].getCVTerms().toString())) {
+          throw new AssertionError("Mismatch for entry " + p.getEntries().get(i));
+        }
+      }
+
+      BenchmarkTools.Measurement plain = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+        public void run() throws Exception {
+          annotate(p, manager, null, rounds);
+        }
+      });
+      BenchmarkTools.Measurement cached = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+        public void run() throws Exception {
+          annotate(p, manager, new MiriamAnnotationCache(10000), rounds);
+        }
+      });
+
+      System.out.println(String.format("%s: %s entries (%s with notes), %s rounds:", p.getName(), p.getEntries().size(), withNotes, rounds));
+      System.out.println(String.format("  without cache: %s", plain));
+      System.out.println(String.format("  with cache:    %s", cached));
+    }
+  }
+
+}
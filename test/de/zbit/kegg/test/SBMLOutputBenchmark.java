@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+import org.sbml.jsbml.SBMLWriter;
+
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.io.KEGG2SBMLqual;
+import de.zbit.kegg.io.KEGG2jSBML;
+import de.zbit.kegg.parser.KeggParser;
+
+/**
+ * Writes translated SBML documents (core and core+qual) with pretty-printed,
+ * compact and gzip-compressed output of {@link KEGG2jSBML#writeToFile(SBMLDocument, String)}.
+ * Reports the write time and the bytes per model and checks that all
+ * files contain the same document (apart from whitespace).
+ *
+ * <p>KEGG information is generated, so this benchmark runs offline.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class SBMLOutputBenchmark {
+
+  /**
+   * Configures the output of {@code translator}.
+   * @param mode one of "tidy", "compact", "gzip-LEVEL" or "compact-gzip-LEVEL".
+   * @return the file extension for this mode.
+   */
+  private static String configure(KEGG2jSBML translator, String mode) {
+    translator.setCompactOutput(mode.startsWith("compact"));
+    int gzip = mode.indexOf("gzip-");
+    translator.setGzipOutput(gzip >= 0);
+    if (gzip >= 0) {
+      translator.setGzipLevel(Integer.parseInt(mode.substring(gzip + 5)));
+      return ".sbml.xml.gz";
+    }
+    return ".sbml.xml";
+  }
+
+  /**
+   * Reads the given (possibly gzip-compressed) file and writes it to
+   * a string again, to compare documents independent of their formatting.
+   * Tidy output also re-indents the XHTML of notes, so all whitespace
+   * is removed.
+   */
+  private static String normalize(File file) throws Exception {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      if (file.getName().endsWith(".gz")) {
+        in = new GZIPInputStream(in);
+      }
+      SBMLDocument doc = SBMLReader.read(in);
+      return new SBMLWriter().writeSBMLToString(doc).replaceAll("\\s+", "");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param args optional: KGML files (default: hsa00010 and hsa04010)
+   * followed by the number of rounds (default: 20).
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> files = new ArrayList<String>();
+    int rounds = BenchmarkTools.parseArguments(args, files, 20,
+      "files/KGMLsamplefiles/hsa00010.xml", "files/KGMLsamplefiles/hsa04010.xml");
+    String[] modes = new String[] {"tidy", "compact", "gzip-1", "gzip-6", "gzip-9", "compact-gzip-1", "compact-gzip-6"};
+
+    KeggInfoManagement manager = BenchmarkTools.createOfflineManager(files);
+    KEGG2jSBML core = new KEGG2jSBML(manager);
+    KEGG2SBMLqual qual = new KEGG2SBMLqual(manager);
+    qual.setConsiderReactions(true);
+
+    // Translate all pathways (core and core+qual) once
+    final List<SBMLDocument> docs = new ArrayList<SBMLDocument>();
+    final List<KEGG2jSBML> writers = new ArrayList<KEGG2jSBML>();
+    for (String file : files) {
+      docs.add(core.translate(KeggParser.parse(file).get(0)));
+      writers.add(core);
+      docs.add(qual.translate(KeggParser.parse(file).get(0)));
+      writers.add(qual);
+    }
+
+    final File dir = BenchmarkTools.createTempDir("SBMLOutputBenchmark");
+
+    // Warm-up, size of the files and check for identical documents
+    String[] expected = new String[docs.size()];
+    long[] bytes = new long[modes.length];
+    for (int m = 0; m < modes.length; m++) {
+      for (int i = 0; i < docs.size(); i++) {
+        File out = new File(dir, "model" + i + configure(writers.get(i), modes[m]));
+        if (!writers.get(i).writeToFile(docs.get(i), out.getPath())) {
+          throw new AssertionError("Could not write " + out);
+        }
+        bytes[m] += out.length();
+        String actual = normalize(out);
+        if (expected[i] == null) {
+          expected[i] = actual;
+        } else if (!expected[i].equals(actual)) {
+          throw new AssertionError("Different document in mode " + modes[m] + " for model " + i);
+        }
+      }
+    }
+
+    System.out.println(String.format("%s models (%s pathways, core and core+qual), %s rounds:", docs.size(), files.size(), rounds));
+    for (int m = 0; m < modes.length; m++) {
+      final String mode = modes[m];
+      BenchmarkTools.Measurement time = BenchmarkTools.measure(rounds, new BenchmarkTools.Task() {
+        public void run() throws Exception {
+          for (int i = 0; i < docs.size(); i++) {
+            File out = new File(dir, "model" + i + configure(writers.get(i), mode));
+            writers.get(i).writeToFile(docs.get(i), out.getPath());
+          }
+        }
+      });
+      System.out.println(String.format("  %-15s %8.2f ms/model %10d bytes/model", mode,
+        time.getMillis() / rounds / docs.size(), bytes[m] / docs.size()));
+    }
+
+    BenchmarkTools.deleteDir(dir);
+  }
+
+}
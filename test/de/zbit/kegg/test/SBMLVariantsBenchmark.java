@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import de.zbit.kegg.KEGGtranslatorOptions;
+import de.zbit.kegg.api.cache.KeggInfoManagement;
+import de.zbit.kegg.io.KEGG2SBMLVariants;
+import de.zbit.kegg.io.KEGG2SBMLqual;
+import de.zbit.kegg.io.KEGG2jSBML;
+import de.zbit.kegg.io.KEGGtranslatorIOOptions.Format;
+import de.zbit.kegg.io.TranslationContext;
+import de.zbit.kegg.parser.KeggParser;
+import de.zbit.util.prefs.SBProperties;
+
+/**
+ * Writes all SBML formats of {@link KEGG2SBMLVariants#SUPPORTED_FORMATS},
+ * once with a separate translation for every format and once with
+ * {@link KEGG2SBMLVariants}. Reports the time per pathway. That both
+ * produce the same documents is checked by {@link SBMLVariantsTest}.
+ *
+ * <p>KEGG information is generated, so this benchmark runs offline.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class SBMLVariantsBenchmark {
+
+  /**
+   * @param files KGML files
+   * @return an offline context with generated KEGG entries for all
+   * {@code files}, that allows to derive {@link Format#SBML_QUAL} from
+   * {@link Format#SBML_CORE_AND_QUAL}.
+   * @throws Exception
+   */
+  static TranslationContext createContext(List<String> files) throws Exception {
+    KeggInfoManagement manager = BenchmarkTools.createOfflineManager(files);
+    SBProperties props = new SBProperties();
+    props.put(KEGGtranslatorOptions.OFFLINE_MODE, Boolean.TRUE);
+    props.put(KEGGtranslatorOptions.AUTOCOMPLETE_REACTIONS, Boolean.FALSE);
+    return new TranslationContext(manager, props, true, false, null);
+  }
+
+  /**
+   * @param format
+   * @param context
+   * @return a new translator for {@code format}.
+   */
+  static KEGG2jSBML getTranslator(Format format, TranslationContext context) {
+    KEGG2jSBML translator;
+    switch (format) {
+      case SBML_L2V4:
+        translator = new KEGG2jSBML(context.getManager(), 2, 4);
+        break;
+      case SBML_L2V5:
+        translator = new KEGG2jSBML(context.getManager(), 2, 5);
+        break;
+      case SBML_L3V1:
+        translator = new KEGG2jSBML(context.getManager(), 3, 1);
+        break;
+      case SBML_QUAL:
+        translator = new KEGG2SBMLqual(context.getManager());
+        break;
+      case SBML_CORE_AND_QUAL:
+        translator = new KEGG2SBMLqual(context.getManager());
+        ((KEGG2SBMLqual) translator).setConsiderReactions(true);
+        break;
+      default:
+        translator = new KEGG2jSBML(context.getManager());
+    }
+    translator.setTranslationContext(context);
+    return translator;
+  }
+
+  /**
+   * @param args optional: KGML files (default: hsa00010, hsa04010 and
+   * hsa05212) followed by the number of rounds (default: 5).
+   */
+  public static void main(String[] args) throws Exception {
+    final List<String> files = new ArrayList<String>();
+    int rounds = BenchmarkTools.parseArguments(args, files, 5, "files/KGMLsamplefiles/hsa00010.xml",
+      "files/KGMLsamplefiles/hsa04010.xml", "files/KGMLsamplefiles/hsa05212.xml");
+
+    final TranslationContext context = createContext(files);
+    final File dir = BenchmarkTools.createTempDir("SBMLVariantsBenchmark");
+    final KEGG2jSBML writer = new KEGG2jSBML(context.getManager());
+    writer.setTranslationContext(context);
+    final KEGG2SBMLVariants variants = new KEGG2SBMLVariants(context);
+
+    BenchmarkTools.Task separate = new BenchmarkTools.Task() {
+      public void run() throws Exception {
+        for (int i = 0; i < files.size(); i++) {
+          for (Format f : KEGG2SBMLVariants.SUPPORTED_FORMATS) {
+            KEGG2jSBML translator = getTranslator(f, context);
+            translator.writeToFile(translator.translate(KeggParser.parse(files.get(i)).get(0)),
+              new File(dir, "separate" + i + "_" + f + ".sbml.xml").getPath());
+          }
+        }
+      }
+    };
+    BenchmarkTools.Task derived = new BenchmarkTools.Task() {
+      public void run() throws Exception {
+        for (int i = 0; i < files.size(); i++) {
+          Map<Format, String> outFiles = new EnumMap<Format, String>(Format.class);
+          for (Format f : KEGG2SBMLVariants.SUPPORTED_FORMATS) {
+            outFiles.put(f, new File(dir, "derived" + i + "_" + f + ".sbml.xml").getPath());
+          }
+          if (!variants.translate(KeggParser.parse(files.get(i)).get(0), outFiles, writer)) {
+            throw new AssertionError("Could not write all formats of " + files.get(i));
+          }
+        }
+      }
+    };
+
+    // Warm-up
+    separate.run();
+    derived.run();
+    BenchmarkTools.Measurement separateTime = BenchmarkTools.measure(rounds, separate);
+    BenchmarkTools.Measurement derivedTime = BenchmarkTools.measure(rounds, derived);
+
+    int count = files.size() * rounds;
+    System.out.println(String.format("%s pathways, %s formats, %s rounds:", files.size(), KEGG2SBMLVariants.SUPPORTED_FORMATS.size(), rounds));
+    System.out.println(String.format("  separate translations: %s per pathway", separateTime.toString(count)));
+    System.out.println(String.format("  derived formats:       %s per pathway", derivedTime.toString(count)));
+
+    BenchmarkTools.deleteDir(dir);
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+import org.sbml.jsbml.SBMLWriter;
+
+import de.zbit.kegg.io.KEGG2SBMLVariants;
+import de.zbit.kegg.io.KEGG2jSBML;
+import de.zbit.kegg.io.KEGGtranslatorIOOptions.Format;
+import de.zbit.kegg.io.TranslationContext;
+import de.zbit.kegg.parser.KeggParser;
+
+/**
+ * Checks that {@link KEGG2SBMLVariants} writes the same documents as a
+ * separate translation for every format (apart from whitespace and the
+ * identifiers of layout glyphs).
+ *
+ * <p>KEGG information is generated, so this test runs offline.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class SBMLVariantsTest {
+
+  /**
+   * Pathways to translate.
+   */
+  private static final String[] FILES = {"files/KGMLsamplefiles/hsa00010.xml",
+    "files/KGMLsamplefiles/hsa04010.xml", "files/KGMLsamplefiles/hsa05212.xml"};
+
+  private TranslationContext context;
+  private File dir;
+
+  /**
+   * Creates an offline context (see
+   * {@link SBMLVariantsBenchmark#createContext(java.util.List)}).
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    context = SBMLVariantsBenchmark.createContext(Arrays.asList(FILES));
+    dir = BenchmarkTools.createTempDir("SBMLVariantsTest");
+  }
+
+  /**
+   * Deletes all written documents.
+   */
+  @After
+  public void tearDown() {
+    BenchmarkTools.deleteDir(dir);
+  }
+
+  /**
+   * Reads the given file and writes it to a string again, to compare
+   * documents independent of their formatting. Random meta identifiers
+   * (of predefined units) and identifiers of glyphs are removed.
+   * @param file
+   * @return the normalized document
+   * @throws Exception
+   */
+  private static String normalize(String file) throws Exception {
+    SBMLDocument doc = SBMLReader.read(new File(file));
+    return new SBMLWriter().writeSBMLToString(doc).replaceAll("\\s+", "")
+        .replaceAll("\"glyph_[^\"]*\"", "\"\"")
+        .replaceAll("\"#?_?\\p{XDigit}{8}(-\\p{XDigit}{4}){3}-\\p{XDigit}{12}\"", "\"\"");
+  }
+
+  /**
+   * Writes all {@link KEGG2SBMLVariants#SUPPORTED_FORMATS} of every
+   * pathway separately and derived from each other and compares the
+   * documents.
+   * @throws Exception
+   */
+  @Test
+  public void testDerivedSameAsSeparate() throws Exception {
+    assertTrue(new KEGG2SBMLVariants(context).isQualDerivable());
+    KEGG2jSBML writer = new KEGG2jSBML(context.getManager());
+    writer.setTranslationContext(context);
+    KEGG2SBMLVariants variants = new KEGG2SBMLVariants(context);
+    for (int i = 0; i < FILES.length; i++) {
+      Map<Format, String> separate = new EnumMap<Format, String>(Format.class);
+      Map<Format, String> derived = new EnumMap<Format, String>(Format.class);
+      for (Format f : KEGG2SBMLVariants.SUPPORTED_FORMATS) {
+        separate.put(f, new File(dir, "separate" + i + "_" + f + ".sbml.xml").getPath());
+        derived.put(f, new File(dir, "derived" + i + "_" + f + ".sbml.xml").getPath());
+      }
+
+      for (Format f : separate.keySet()) {
+        KEGG2jSBML translator = SBMLVariantsBenchmark.getTranslator(f, context);
+        translator.writeToFile(translator.translate(KeggParser.parse(FILES[i]).get(0)), separate.get(f));
+      }
+      assertTrue(variants.translate(KeggParser.parse(FILES[i]).get(0), derived, writer));
+
+      for (Format f : separate.keySet()) {
+        assertEquals(FILES[i] + " as " + f, normalize(separate.get(f)), normalize(derived.get(f)));
+      }
+    }
+  }
+
+  /**
+   * Settings, which have only been made by setters of the writer, are
+   * applied to all formats written by
+   * {@link KEGG2jSBML#translate(de.zbit.kegg.parser.pathway.Pathway, String)}.
+   * @throws Exception
+   */
+  @Test
+  public void testWriterSettings() throws Exception {
+    KEGG2jSBML writer = new KEGG2jSBML(context.getManager(), 3, 1);
+    writer.setTranslationContext(context);
+    writer.setAddLayoutExtension(false);
+    writer.setDefaultCompartmentSize(5d);
+    writer.setSBMLVariants(EnumSet.of(Format.SBML_CORE_AND_QUAL));
+    String outFile = new File(dir, "settings.sbml.xml").getPath();
+    writer.translate(KeggParser.parse(FILES[0]).get(0), outFile);
+    for (String f : new String[] {outFile, KEGG2SBMLVariants.getFileName(outFile, Format.SBML_CORE_AND_QUAL)}) {
+      assertFalse(f, normalize(f).contains("listOfLayouts"));
+      assertEquals(f, 5d, SBMLReader.read(new File(f)).getModel().getCompartment(0).getSize(), 0d);
+    }
+  }
+
+}
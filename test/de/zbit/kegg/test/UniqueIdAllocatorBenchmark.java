@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011-2015 Center for Bioinformatics of the University of Tuebingen.
+ *
+ * This file is part of KEGGtranslator, a program to convert KGML files from the
+ * KEGG database into various other formats, e.g., SBML, GraphML, and many more.
+ * Please visit <http://www.cogsys.cs.uni-tuebingen.de/software/KEGGtranslator> to
+ * obtain the latest version of KEGGtranslator.
+ *
+ * KEGGtranslator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * KEGGtranslator is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with KEGGtranslator. If not, see
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package de.zbit.kegg.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import de.zbit.kegg.io.UniqueIdAllocator;
+
+/**
+ * Compares the {@link UniqueIdAllocator} against the linear probing,
+ * that has been used by the translators before, with many colliding
+ * names (e.g., a large pathway with hundreds of "ATP" or "H2O").
+ * Also checks that both produce exactly the same identifiers.
+ *
+ * @author agent
+ * @since 2.6
+ * @version $Rev$
+ */
+public class UniqueIdAllocatorBenchmark {
+
+  /**
+   * Linear probing as in former versions of the translators.
+   */
+  private static String[] probe(String[] names) {
+    Set<String> ids = new HashSet<String>();
+    String[] ret = new String[names.length];
+    for (int n=0; n<names.length; n++) {
+      String id = names[n];
+      if (ids.contains(id)) {
+        int i = 1;
+        String akt = id + "_" + i;
+        while (ids.contains(akt)) {
+          akt = id + "_" + (++i);
+        }
+        id = akt;
+      }
+      ids.add(id);
+      ret[n] = id;
+    }
+    return ret;
+  }
+
+  private static String[] allocate(String[] names) {
+    UniqueIdAllocator alloc = new UniqueIdAllocator(names.length);
+    String[] ret = new String[names.length];
+    for (int n=0; n<names.length; n++) {
+      ret[n] = alloc.toSId(names[n]);
+    }
+    return ret;
+  }
+
+  /**
+   * @param args optional: number of names (default: 10000) and number
+   * of distinct names among them (default: 10).
+   */
+  public static void main(String[] args) throws Exception {
+    int count = BenchmarkTools.getIntArgument(args, 0, 10000);
+    int distinct = BenchmarkTools.getIntArgument(args, 1, 10);
+
+    final String[] names = new String[count];
+    for (int i=0; i<count; i++) {
+      names[i] = "C" + (i % distinct);
+    }
+
+    // Warm-up and check for identical output
+    String[] expected = probe(names);
+    String[] actual = allocate(names);
+    for (int i=0; i<count; i++) {
+      if (!expected[i].equals(actual[i])) {
+        throw new AssertionError(String.format("Mismatch at %s: '%s' != '%s'", i, expected[i], actual[i]));
+      }
+    }
+
+    BenchmarkTools.Measurement probing = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+      public void run() {
+        probe(names);
+      }
+    });
+    BenchmarkTools.Measurement allocator = BenchmarkTools.measure(1, new BenchmarkTools.Task() {
+      public void run() {
+        allocate(names);
+      }
+    });
+
+    System.out.println(String.format("%s names, %s distinct:", count, distinct));
+    System.out.println(String.format("  linear probing:    %s", probing));
+    System.out.println(String.format("  UniqueIdAllocator: %s", allocator));
+  }
+
+}